@@ -0,0 +1,67 @@
+package com.passkit.quickstart;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * GrpcConnectionPool.getChannel() from one thread and from many at once. Every caller of the pool picks a channel
+ * per call, so throughput should grow with the threads up to the number of cores: the channel array is read without
+ * locking and the load counters are only read, never written, when choosing.
+ */
+@State(Scope.Benchmark)
+public class ConnectionPoolBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int channels;
+
+    private Server server;
+    private GrpcConnectionPool pool;
+
+    @Setup
+    public void setUp() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName).build().start();
+        List<ManagedChannelBuilder<?>> builders = new ArrayList<>();
+        for (int i = 0; i < channels; i++) {
+            builders.add(InProcessChannelBuilder.forName(serverName));
+        }
+        pool = new GrpcConnectionPool(builders);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public ManagedChannel oneThread() {
+        return pool.getChannel();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ManagedChannel eightThreads() {
+        return pool.getChannel();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public ManagedChannel thirtyTwoThreads() {
+        return pool.getChannel();
+    }
+}
@@ -0,0 +1,39 @@
+package com.passkit.quickstart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/*
+ * Helpers.encodeFileToBase64 on the images the quickstarts upload. cached is the path every quickstart takes after the
+ * first run, an unchanged file served from the shared encoder's cache; uncached reads and encodes the file each time,
+ * with an encoder too small to keep it.
+ */
+@State(Scope.Benchmark)
+public class EncodeFileBenchmark {
+
+    @Param({"src/main/resources/images/shared/icon.png", "src/main/resources/images/loyalty/strip.png"})
+    public String path;
+
+    private ImageEncoder uncachedEncoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        uncachedEncoder = new ImageEncoder(0);
+        Helpers.encodeFileToBase64(path);
+    }
+
+    @Benchmark
+    public String cached() throws IOException {
+        return Helpers.encodeFileToBase64(path);
+    }
+
+    @Benchmark
+    public String uncached() throws IOException {
+        return uncachedEncoder.encodeToBase64(path);
+    }
+}
@@ -0,0 +1,101 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Personal;
+import com.passkit.grpc.EventTickets.EventOuterClass;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+
+import com.google.protobuf.Timestamp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Building the requests the quickstarts send, field for field as QuickstartLoyalty.enrolMember,
+ * QuickstartEventTickets.createTickets and QuickstartCoupons.createCoupon do, with and without serializing them.
+ * The bulk tools build one of these per record, so this is their per-record cost before any call is made.
+ */
+@State(Scope.Thread)
+public class RequestBuilderBenchmark {
+
+    private final String programId = "4vGqAHxz5Z6aQAmOv0UTXY";
+    private final String campaignId = "6xQs3b3SI1GoC3wkz1pWpG";
+    private final String offerId = "base";
+    private final long eventTimeUnix = 1_767_225_600L;
+    private int sequence;
+
+    @Benchmark
+    public MemberOuterClass.Member member() {
+        return MemberOuterClass.Member.newBuilder()
+                .setTierId("base")
+                .setProgramId(programId)
+                .setExternalId(Integer.toString(sequence++))
+                .setPerson(Personal.Person.newBuilder()
+                        .setDisplayName("Loyal Larry")
+                        .setEmailAddress("loyal.larry@dummy.passkit.com")
+                        .build())
+                .setPoints(88)
+                .build();
+    }
+
+    @Benchmark
+    public TicketOuterClass.IssueTicketRequest ticket() {
+        return TicketOuterClass.IssueTicketRequest.newBuilder()
+                .setTicketTypeId("base")
+                .setEvent(EventOuterClass.EventLimitedFieldsRequest.newBuilder()
+                        .setProductionId("production")
+                        .setVenueId("venue")
+                        .setScheduledStartDate(Timestamp.newBuilder().setSeconds(eventTimeUnix).build())
+                        .setDoorsOpen(Timestamp.newBuilder().setSeconds(eventTimeUnix - 7200).build())
+                        .setEndDate(Timestamp.newBuilder().setSeconds(eventTimeUnix + 7200).build())
+                        .setRelevantDate(Timestamp.newBuilder().setSeconds(eventTimeUnix).build()))
+                .setExpiryDate(Timestamp.newBuilder().setSeconds(eventTimeUnix + 10800).build())
+                .setOrderNumber("2940571")
+                .setFaceValue(TicketOuterClass.FaceValue.newBuilder()
+                        .setAmount(3000)
+                        .setCurrency("THB")
+                        .build())
+                .setPerson(Personal.Person.newBuilder()
+                        .setDisplayName("Nangsao Kor")
+                        .build())
+                .setSeatInfo(TicketOuterClass.Seat.newBuilder()
+                        .setGate("9")
+                        .setSection("SC")
+                        .setRow("F")
+                        .setSeat("22")
+                        .build())
+                .setTicketNumber(Integer.toString(sequence++))
+                .build();
+    }
+
+    @Benchmark
+    public CouponOuterClass.Coupon coupon() {
+        return CouponOuterClass.Coupon.newBuilder()
+                .setOfferId(offerId)
+                .setCampaignId(campaignId)
+                .setSku(Integer.toString(sequence++))
+                .setPerson(Personal.Person.newBuilder()
+                        .setDisplayName("Loyal Larry")
+                        .setEmailAddress("loyal.larry@dummy.passkit.com")
+                        .build())
+                .setStatus(CouponOuterClass.CouponStatus.UNREDEEMED)
+                .build();
+    }
+
+    // What a real transport does next with each request
+    @Benchmark
+    public byte[] memberSerialized() {
+        return member().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] ticketSerialized() {
+        return ticket().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] couponSerialized() {
+        return coupon().toByteArray();
+    }
+}
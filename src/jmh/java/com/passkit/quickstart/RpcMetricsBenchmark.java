@@ -0,0 +1,183 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of RpcMetrics on a unary call. The direct benchmarks drive calls on a channel that answers synchronously, so
+ * the difference between directBare and directMetered is the interceptor alone; with the gc profiler the build
+ * configures, gc.alloc.rate.norm shows what it allocates per call, which should be the call and listener wrappers
+ * and nothing else. The inProcess benchmarks put the same difference next to a real round trip through an
+ * in-process server.
+ */
+@State(Scope.Benchmark)
+public class RpcMetricsBenchmark {
+
+    private static final MethodDescriptor<TicketOuterClass.IssueTicketRequest, CommonObjects.Id> ISSUE_TICKET =
+            EventTicketsGrpc.getIssueTicketMethod();
+    private static final TicketOuterClass.IssueTicketRequest REQUEST = TicketOuterClass.IssueTicketRequest.newBuilder()
+            .setTicketTypeId("ticket-type-1")
+            .setTicketNumber("T1")
+            .build();
+    private static final CommonObjects.Id RESPONSE = CommonObjects.Id.newBuilder().setId("ticket-1").build();
+
+    private Channel bare;
+    private Channel metered;
+    private Server server;
+    private ManagedChannel inProcessBare;
+    private ManagedChannel inProcessMetered;
+    private EventTicketsGrpc.EventTicketsBlockingStub bareStub;
+    private EventTicketsGrpc.EventTicketsBlockingStub meteredStub;
+
+    @Setup
+    public void setUp() throws Exception {
+        bare = new ImmediateChannel();
+        metered = ClientInterceptors.intercept(bare, new RpcMetrics());
+
+        String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName)
+                .directExecutor()
+                .addService(new EventTicketsGrpc.EventTicketsImplBase() {
+                    @Override
+                    public void issueTicket(TicketOuterClass.IssueTicketRequest request,
+                            StreamObserver<CommonObjects.Id> response) {
+                        response.onNext(RESPONSE);
+                        response.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        inProcessBare = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+        inProcessMetered = InProcessChannelBuilder.forName(serverName)
+                .directExecutor()
+                .intercept(new RpcMetrics())
+                .build();
+        bareStub = EventTicketsGrpc.newBlockingStub(inProcessBare);
+        meteredStub = EventTicketsGrpc.newBlockingStub(inProcessMetered);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        inProcessBare.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        inProcessMetered.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static void unary(Channel channel, Blackhole blackhole) {
+        ClientCall<TicketOuterClass.IssueTicketRequest, CommonObjects.Id> call =
+                channel.newCall(ISSUE_TICKET, CallOptions.DEFAULT);
+        call.start(new DiscardingListener(blackhole), new Metadata());
+        call.sendMessage(REQUEST);
+        call.halfClose();
+    }
+
+    @Benchmark
+    public void directBare(Blackhole blackhole) {
+        unary(bare, blackhole);
+    }
+
+    @Benchmark
+    public void directMetered(Blackhole blackhole) {
+        unary(metered, blackhole);
+    }
+
+    // Several threads recording into the same method's counters
+    @Benchmark
+    @Threads(8)
+    public void directMeteredContended(Blackhole blackhole) {
+        unary(metered, blackhole);
+    }
+
+    @Benchmark
+    public CommonObjects.Id inProcessBare() {
+        return bareStub.issueTicket(REQUEST);
+    }
+
+    @Benchmark
+    public CommonObjects.Id inProcessMetered() {
+        return meteredStub.issueTicket(REQUEST);
+    }
+
+    private static final class DiscardingListener extends ClientCall.Listener<CommonObjects.Id> {
+        private final Blackhole blackhole;
+
+        private DiscardingListener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onMessage(CommonObjects.Id message) {
+            blackhole.consume(message);
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            blackhole.consume(status);
+        }
+    }
+
+    // Answers every call with RESPONSE as soon as it is half closed, on the calling thread
+    private static final class ImmediateChannel extends Channel {
+        private static final Metadata TRAILERS = new Metadata();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method,
+                CallOptions callOptions) {
+            return new ClientCall<ReqT, RespT>() {
+                private Listener<RespT> listener;
+
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    listener = responseListener;
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(String message, Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                    listener.onMessage((RespT) RESPONSE);
+                    listener.onClose(Status.OK, TRAILERS);
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "localhost";
+        }
+    }
+}
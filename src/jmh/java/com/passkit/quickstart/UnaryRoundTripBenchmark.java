@@ -0,0 +1,124 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Personal;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Unary calls through a GrpcConnectionPool of in-process channels to a server that answers at once, so everything
+ * measured is the client: picking a channel, the pool's and RpcMetrics' interceptors, the stub and the executor
+ * handoffs. The in-process transport hands messages over without serializing them; RequestBuilderBenchmark covers
+ * serialization.
+ */
+@State(Scope.Benchmark)
+public class UnaryRoundTripBenchmark {
+
+    private static final CommonObjects.Id ID = CommonObjects.Id.newBuilder().setId("4vGqAHxz5Z6aQAmOv0UTXY").build();
+    private static final MemberOuterClass.Member MEMBER = MemberOuterClass.Member.newBuilder()
+            .setTierId("base")
+            .setProgramId("program")
+            .setExternalId("12345")
+            .setPerson(Personal.Person.newBuilder().setDisplayName("Loyal Larry"))
+            .setPoints(88)
+            .build();
+    private static final TicketOuterClass.IssueTicketRequest TICKET = TicketOuterClass.IssueTicketRequest.newBuilder()
+            .setTicketTypeId("base")
+            .setTicketNumber("4929910033527")
+            .setPerson(Personal.Person.newBuilder().setDisplayName("Nangsao Kor"))
+            .build();
+    private static final CouponOuterClass.Coupon COUPON = CouponOuterClass.Coupon.newBuilder()
+            .setOfferId("base")
+            .setCampaignId("campaign")
+            .setSku("123456789")
+            .setStatus(CouponOuterClass.CouponStatus.UNREDEEMED)
+            .build();
+
+    private Server server;
+    private GrpcConnectionPool pool;
+
+    @Setup
+    public void setUp() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName)
+                .addService(new MembersGrpc.MembersImplBase() {
+                    @Override
+                    public void enrolMember(MemberOuterClass.Member request,
+                            StreamObserver<CommonObjects.Id> response) {
+                        response.onNext(ID);
+                        response.onCompleted();
+                    }
+                })
+                .addService(new EventTicketsGrpc.EventTicketsImplBase() {
+                    @Override
+                    public void issueTicket(TicketOuterClass.IssueTicketRequest request,
+                            StreamObserver<CommonObjects.Id> response) {
+                        response.onNext(ID);
+                        response.onCompleted();
+                    }
+                })
+                .addService(new SingleUseCouponsGrpc.SingleUseCouponsImplBase() {
+                    @Override
+                    public void createCoupon(CouponOuterClass.Coupon request,
+                            StreamObserver<CommonObjects.Id> response) {
+                        response.onNext(ID);
+                        response.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        List<ManagedChannelBuilder<?>> builders = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            builders.add(InProcessChannelBuilder.forName(serverName));
+        }
+        pool = new GrpcConnectionPool(builders);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public CommonObjects.Id enrolMember() {
+        return MembersGrpc.newBlockingStub(pool.getChannel()).enrolMember(MEMBER);
+    }
+
+    @Benchmark
+    public CommonObjects.Id issueTicket() {
+        return EventTicketsGrpc.newBlockingStub(pool.getChannel()).issueTicket(TICKET);
+    }
+
+    @Benchmark
+    public CommonObjects.Id createCoupon() {
+        return SingleUseCouponsGrpc.newBlockingStub(pool.getChannel()).createCoupon(COUPON);
+    }
+
+    // Many callers sharing the pool, as the bulk tools do
+    @Benchmark
+    @Threads(16)
+    public CommonObjects.Id enrolMemberConcurrently() {
+        return MembersGrpc.newBlockingStub(pool.getChannel()).enrolMember(MEMBER);
+    }
+}
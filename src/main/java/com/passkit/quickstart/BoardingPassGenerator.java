@@ -0,0 +1,331 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Personal;
+import com.passkit.grpc.Flights.BoardingPass;
+import com.passkit.grpc.Flights.FlightOuterClass;
+import com.passkit.grpc.Flights.FlightsGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import io.grpc.Status;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Generates the boarding passes for every passenger on a flight manifest. The carrier, ports, flight and flight
+ * designator must already exist, set up as in QuickstartFlightTickets or by FlightScheduleSync, and the flight is
+ * passed in. Its carrier code, flight number, boarding and deplaning points and departure date fill in each
+ * passenger's record where it doesn't give its own. Records are streamed from the manifest with at most maxInFlight
+ * createBoardingPass calls outstanding, each on a channel picked by the connection pool. Calls failing with a
+ * retryable status are retried with exponential backoff, except for DEADLINE_EXCEEDED: a call that ran out of time
+ * may still have created the boarding pass, so the passenger is counted as failed and logged as possibly created.
+ *
+ * CSV manifests need a header row. The columns id, operatingCarrierPNR, sequenceNumber, forename, surname,
+ * displayName, emailAddress and mobileNumber are mapped to the record, any other column is ignored. JSONL manifests
+ * hold one BoardingPassRecord per line in the protobuf JSON format, for example
+ * {"operatingCarrierPNR": "P8F8R8", "sequenceNumber": 1, "passenger": {"passengerDetails": {"surname": "Smith"}}}.
+ * Files ending in .csv are read as CSV, anything else as JSONL.
+ *
+ * Results are written as each call completes, one line per passenger: sequenceNumber,operatingCarrierPNR,passId,url,
+ * status where status is OK or the gRPC status code of the last attempt.
+ */
+public final class BoardingPassGenerator {
+    private static final Logger logger = Logger.getLogger(BoardingPassGenerator.class.getName());
+
+    private static final long CALL_TIMEOUT_MILLIS = 30_000;
+
+    private final GrpcConnectionPool pool;
+    private final FlightOuterClass.Flight flight;
+    private final int maxInFlight;
+    private final RetryPolicy retryPolicy;
+
+    // Reads the window and retry settings from passkit.properties
+    public BoardingPassGenerator(GrpcConnectionPool pool, FlightOuterClass.Flight flight) throws IOException {
+        this(pool, flight, PassKitProperties.load());
+    }
+
+    private BoardingPassGenerator(GrpcConnectionPool pool, FlightOuterClass.Flight flight, Properties properties) {
+        this(pool, flight,
+                Integer.parseInt(properties.getProperty("boarding.generate.maxInFlight", "64")),
+                Integer.parseInt(properties.getProperty("boarding.generate.maxAttempts", "5")),
+                Long.parseLong(properties.getProperty("boarding.generate.initialBackoffMillis", "200")));
+    }
+
+    // flight is the flight already created with createFlight
+    public BoardingPassGenerator(GrpcConnectionPool pool, FlightOuterClass.Flight flight, int maxInFlight,
+            int maxAttempts, long initialBackoffMillis) {
+        if (maxInFlight < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("maxInFlight and maxAttempts must be at least 1");
+        }
+        this.pool = pool;
+        this.flight = flight;
+        this.maxInFlight = maxInFlight;
+        this.retryPolicy = new RetryPolicy(maxAttempts, initialBackoffMillis);
+    }
+
+    public Summary generate(Path manifest, Path output) throws IOException, InterruptedException {
+        Progress progress = new Progress();
+        try (CallWindow window = new CallWindow("boarding-pass-generator", maxInFlight, retryPolicy);
+             ManifestReader reader = new ManifestReader(manifest, flight);
+             ResultWriter results = new ResultWriter(output, "sequenceNumber,operatingCarrierPNR,passId,url,status",
+                     false, false)) {
+            while (true) {
+                BoardingPass.BoardingPassRecord record;
+                try {
+                    record = reader.next();
+                } catch (IllegalArgumentException e) {
+                    logger.warning("skipping invalid passenger: " + e.getMessage());
+                    progress.read.incrementAndGet();
+                    progress.failed.incrementAndGet();
+                    results.write("line " + reader.lineNumber(), "", "", "", Status.Code.INVALID_ARGUMENT.name());
+                    continue;
+                }
+                if (record == null) {
+                    break;
+                }
+                window.acquire();
+                progress.read.incrementAndGet();
+                send(record, 1, window, results, progress);
+            }
+            window.awaitIdle();
+            results.checkError();
+        }
+        Summary summary = progress.summary();
+        logger.info(summary.toString());
+        return summary;
+    }
+
+    private void send(BoardingPass.BoardingPassRecord record, int attempt, CallWindow window, ResultWriter results,
+            Progress progress) {
+        ListenableFuture<BoardingPass.BoardingPassesResponse> call;
+        try {
+            call = FlightsGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .createBoardingPass(record);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<BoardingPass.BoardingPassesResponse>() {
+            @Override
+            public void onSuccess(BoardingPass.BoardingPassesResponse response) {
+                progress.generated.incrementAndGet();
+                BoardingPass.BoardingPassResponse pass = response.getBoardingPassesCount() > 0
+                        ? response.getBoardingPasses(0) : BoardingPass.BoardingPassResponse.getDefaultInstance();
+                results.write(String.valueOf(record.getSequenceNumber()), record.getOperatingCarrierPNR(),
+                        pass.getId(), pass.getUrl(), "OK");
+                window.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status status = Status.fromThrowable(t);
+                Status.Code code = status.getCode();
+                if (code != Status.Code.DEADLINE_EXCEEDED
+                        && window.retry(attempt, code, () -> send(record, attempt + 1, window, results, progress))) {
+                    progress.retries.incrementAndGet();
+                    return;
+                }
+                logger.log(Level.FINE, "couldn't generate boarding pass " + record.getSequenceNumber() + ": "
+                        + status);
+                if (code == Status.Code.DEADLINE_EXCEEDED) {
+                    logger.warning("boarding pass " + record.getSequenceNumber()
+                            + " may have been created by an attempt whose response was lost");
+                }
+                progress.failed.incrementAndGet();
+                results.write(String.valueOf(record.getSequenceNumber()), record.getOperatingCarrierPNR(), "", "",
+                        code.name());
+                window.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static final class Progress {
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong generated = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+
+        private Summary summary() {
+            return new Summary(read.get(), generated.get(), failed.get(), retries.get(),
+                    System.nanoTime() - startNanos);
+        }
+    }
+
+    public static final class Summary {
+        private final long passengers;
+        private final long generated;
+        private final long failed;
+        private final long retries;
+        private final long elapsedNanos;
+
+        private Summary(long passengers, long generated, long failed, long retries, long elapsedNanos) {
+            this.passengers = passengers;
+            this.generated = generated;
+            this.failed = failed;
+            this.retries = retries;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getPassengers() {
+            return passengers;
+        }
+
+        public long getGenerated() {
+            return generated;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public double getPassesPerSecond() {
+            return elapsedNanos == 0 ? 0 : generated * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d passengers, %d boarding passes, %d failed, %d retries in %dms (%.1f passes/s)",
+                    passengers, generated, failed, retries, getElapsedMillis(), getPassesPerSecond());
+        }
+    }
+
+    private static final class ManifestReader implements Closeable {
+        private final RecordReader reader;
+        private final JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+        private final FlightOuterClass.Flight flight;
+        private List<String> header;
+
+        private ManifestReader(Path manifest, FlightOuterClass.Flight flight) throws IOException {
+            this.reader = new RecordReader(manifest);
+            this.flight = flight;
+        }
+
+        private long lineNumber() {
+            return reader.lineNumber();
+        }
+
+        // Returns the next passenger's record, or null at the end of the manifest
+        private BoardingPass.BoardingPassRecord next() throws IOException {
+            BoardingPass.BoardingPassRecord.Builder record = BoardingPass.BoardingPassRecord.newBuilder();
+            if (reader.isCsv()) {
+                if (header == null) {
+                    header = reader.readCsvRecord();
+                    if (header == null) {
+                        return null;
+                    }
+                }
+                List<String> values = reader.readCsvRecord();
+                if (values == null) {
+                    return null;
+                }
+                if (values.size() != header.size()) {
+                    throw new IllegalArgumentException("line " + lineNumber() + ": expected " + header.size()
+                            + " columns, found " + values.size());
+                }
+                for (int i = 0; i < header.size(); i++) {
+                    setField(record, header.get(i), values.get(i));
+                }
+            } else {
+                String line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                try {
+                    parser.merge(line, record);
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IllegalArgumentException("line " + lineNumber() + ": " + e.getMessage(), e);
+                }
+            }
+            if (record.getPassenger().getPassengerDetails().getSurname().isEmpty()) {
+                throw new IllegalArgumentException("line " + lineNumber() + ": passenger has no surname");
+            }
+            // the flight fills in what the record doesn't give
+            if (record.getCarrierCode().isEmpty()) {
+                record.setCarrierCode(flight.getCarrierCode());
+            }
+            if (record.getFlightNumber().isEmpty()) {
+                record.setFlightNumber(flight.getFlightNumber());
+            }
+            if (record.getBoardingPoint().isEmpty()) {
+                record.setBoardingPoint(flight.getBoardingPoint());
+            }
+            if (record.getDeplaningPoint().isEmpty()) {
+                record.setDeplaningPoint(flight.getDeplaningPoint());
+            }
+            if (!record.hasDepartureDate()) {
+                record.setDepartureDate(flight.getDepartureDate());
+            }
+            return record.build();
+        }
+
+        private static void setField(BoardingPass.BoardingPassRecord.Builder record, String column, String value) {
+            if (value.isEmpty()) {
+                return;
+            }
+            // the passenger is only set when the record has a passenger column
+            switch (column) {
+                case "id":
+                    record.setId(value);
+                    break;
+                case "operatingCarrierPNR":
+                    record.setOperatingCarrierPNR(value);
+                    break;
+                case "sequenceNumber":
+                    try {
+                        record.setSequenceNumber(Integer.parseUnsignedInt(value));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("sequenceNumber is not a number: " + value, e);
+                    }
+                    break;
+                case "forename":
+                    person(record).setForename(value);
+                    break;
+                case "surname":
+                    person(record).setSurname(value);
+                    break;
+                case "displayName":
+                    person(record).setDisplayName(value);
+                    break;
+                case "emailAddress":
+                    person(record).setEmailAddress(value);
+                    break;
+                case "mobileNumber":
+                    person(record).setMobileNumber(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private static Personal.Person.Builder person(BoardingPass.BoardingPassRecord.Builder record) {
+            return record.getPassengerBuilder().getPassengerDetailsBuilder();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import io.grpc.Status;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Enrols members from a CSV or JSONL export. Records are streamed from the input file and at most maxInFlight
+ * enrolMember calls are outstanding at any time, each on a channel picked by the connection pool, so only the records
+ * in the window are held in memory. Calls failing with a retryable status are retried with exponential backoff.
+ *
+ * CSV files need a header row. The columns externalId, programId, tierId, forename, surname, displayName,
+ * emailAddress, mobileNumber, points, secondaryPoints and tierPoints are mapped to the member, any other column is
+ * added to the member's metaData. JSONL files hold one member per line in the protobuf JSON format, for example
+ * {"externalId": "1", "person": {"forename": "Loyal", "surname": "Larry"}}. Files ending in .csv are read as CSV,
+ * anything else as JSONL.
+ *
+ * The result file has a line for each record: externalId,memberId,status where status is OK or the gRPC status code
+ * of the last attempt. enrolMember isn't idempotent, so a retry failing with ALREADY_EXISTS may mean an earlier
+ * attempt went through without its answer arriving; the member is then looked up by external id and its id written.
+ */
+public final class BulkMemberEnrolment {
+    private static final Logger logger = Logger.getLogger(BulkMemberEnrolment.class.getName());
+
+    private static final long CALL_TIMEOUT_MILLIS = 30_000;
+    private static final long PROGRESS_INTERVAL_SECONDS = 10;
+
+    private final GrpcConnectionPool pool;
+    private final String programId;
+    private final String tierId;
+    private final int maxInFlight;
+    private final RetryPolicy retryPolicy;
+
+    // Reads the window and retry settings from passkit.properties
+    public BulkMemberEnrolment(GrpcConnectionPool pool, String programId, String tierId) throws IOException {
+        this(pool, programId, tierId, PassKitProperties.load());
+    }
+
+    private BulkMemberEnrolment(GrpcConnectionPool pool, String programId, String tierId, Properties properties) {
+        this(pool, programId, tierId,
+                Integer.parseInt(properties.getProperty("bulk.enrol.maxInFlight", "200")),
+                Integer.parseInt(properties.getProperty("bulk.enrol.maxAttempts", "5")),
+                Long.parseLong(properties.getProperty("bulk.enrol.initialBackoffMillis", "200")));
+    }
+
+    // programId and tierId are used for records that don't name their own
+    public BulkMemberEnrolment(GrpcConnectionPool pool, String programId, String tierId, int maxInFlight,
+            int maxAttempts, long initialBackoffMillis) {
+        if (maxInFlight < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("maxInFlight and maxAttempts must be at least 1");
+        }
+        this.pool = pool;
+        this.programId = programId;
+        this.tierId = tierId;
+        this.maxInFlight = maxInFlight;
+        this.retryPolicy = new RetryPolicy(maxAttempts, initialBackoffMillis);
+    }
+
+    public Summary enrol(Path input, Path output) throws IOException, InterruptedException {
+        Progress progress = new Progress();
+        try (CallWindow window = new CallWindow("bulk-enrolment", maxInFlight, retryPolicy);
+             MemberReader reader = new MemberReader(input, programId, tierId);
+             ResultWriter results = new ResultWriter(output, "externalId,memberId,status", false, false)) {
+            ScheduledFuture<?> report = window.scheduler().scheduleAtFixedRate(
+                    () -> logger.info(progress.toString()),
+                    PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            while (true) {
+                MemberOuterClass.Member member;
+                try {
+                    member = reader.next();
+                } catch (IllegalArgumentException e) {
+                    logger.warning("skipping invalid record: " + e.getMessage());
+                    progress.read.incrementAndGet();
+                    progress.failed.incrementAndGet();
+                    results.write("line " + reader.lineNumber(), "", Status.Code.INVALID_ARGUMENT.name());
+                    continue;
+                }
+                if (member == null) {
+                    break;
+                }
+                window.acquire();
+                progress.read.incrementAndGet();
+                send(member, 1, window, results, progress);
+            }
+            window.awaitIdle();
+            report.cancel(false);
+            results.checkError();
+        }
+        Summary summary = progress.summary();
+        logger.info(summary.toString());
+        return summary;
+    }
+
+    private void send(MemberOuterClass.Member member, int attempt, CallWindow window, ResultWriter results,
+            Progress progress) {
+        ListenableFuture<CommonObjects.Id> call;
+        try {
+            call = MembersGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .enrolMember(member);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<CommonObjects.Id>() {
+            @Override
+            public void onSuccess(CommonObjects.Id id) {
+                progress.enrolled.incrementAndGet();
+                results.write(member.getExternalId(), id.getId(), "OK");
+                window.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status status = Status.fromThrowable(t);
+                if (window.retry(attempt, status.getCode(),
+                        () -> send(member, attempt + 1, window, results, progress))) {
+                    progress.retries.incrementAndGet();
+                    return;
+                }
+                if (attempt > 1 && status.getCode() == Status.Code.ALREADY_EXISTS
+                        && !member.getExternalId().isEmpty()) {
+                    resolve(member, status, window, results, progress);
+                    return;
+                }
+                fail(member, status, window, results, progress);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    // Looks up a member whose retried enrolment failed with ALREADY_EXISTS, since an earlier attempt may have enrolled
+    // it. The record only fails if the lookup does.
+    private void resolve(MemberOuterClass.Member member, Status status, CallWindow window, ResultWriter results,
+            Progress progress) {
+        ListenableFuture<MemberOuterClass.Member> lookup;
+        try {
+            lookup = MembersGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .getMemberRecordByExternalId(MemberOuterClass.MemberRecordByExternalIdRequest.newBuilder()
+                            .setProgramId(member.getProgramId())
+                            .setExternalId(member.getExternalId())
+                            .build());
+        } catch (RuntimeException e) {
+            lookup = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(lookup, new FutureCallback<MemberOuterClass.Member>() {
+            @Override
+            public void onSuccess(MemberOuterClass.Member existing) {
+                progress.enrolled.incrementAndGet();
+                results.write(member.getExternalId(), existing.getId(), "OK");
+                window.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                logger.log(Level.FINE, "couldn't look up " + member.getExternalId() + ": " + Status.fromThrowable(t));
+                fail(member, status, window, results, progress);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static void fail(MemberOuterClass.Member member, Status status, CallWindow window, ResultWriter results,
+            Progress progress) {
+        logger.log(Level.FINE, "couldn't enrol " + member.getExternalId() + ": " + status);
+        progress.failed.incrementAndGet();
+        results.write(member.getExternalId(), "", status.getCode().name());
+        window.release();
+    }
+
+    private static final class Progress {
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong enrolled = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+
+        private Summary summary() {
+            return new Summary(read.get(), enrolled.get(), failed.get(), retries.get(), System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "enrolment in progress: " + summary();
+        }
+    }
+
+    public static final class Summary {
+        private final long records;
+        private final long enrolled;
+        private final long failed;
+        private final long retries;
+        private final long elapsedNanos;
+
+        private Summary(long records, long enrolled, long failed, long retries, long elapsedNanos) {
+            this.records = records;
+            this.enrolled = enrolled;
+            this.failed = failed;
+            this.retries = retries;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getEnrolled() {
+            return enrolled;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : (enrolled + failed) * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records, %d enrolled, %d failed, %d retries in %dms (%.1f records/s)",
+                    records, enrolled, failed, retries, getElapsedMillis(), getRecordsPerSecond());
+        }
+    }
+
+    private static final class MemberReader implements Closeable {
+        private final RecordReader reader;
+        private final JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+        private final String programId;
+        private final String tierId;
+        private List<String> header;
+
+        private MemberReader(Path input, String programId, String tierId) throws IOException {
+            this.reader = new RecordReader(input);
+            this.programId = programId;
+            this.tierId = tierId;
+        }
+
+        private long lineNumber() {
+            return reader.lineNumber();
+        }
+
+        // Returns the next member, or null at the end of the file
+        private MemberOuterClass.Member next() throws IOException {
+            MemberOuterClass.Member.Builder member = MemberOuterClass.Member.newBuilder();
+            if (reader.isCsv()) {
+                if (header == null) {
+                    header = reader.readCsvRecord();
+                    if (header == null) {
+                        return null;
+                    }
+                }
+                List<String> values = reader.readCsvRecord();
+                if (values == null) {
+                    return null;
+                }
+                if (values.size() != header.size()) {
+                    throw new IllegalArgumentException("line " + lineNumber() + ": expected " + header.size()
+                            + " columns, found " + values.size());
+                }
+                for (int i = 0; i < header.size(); i++) {
+                    setField(member, header.get(i), values.get(i));
+                }
+            } else {
+                String line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                try {
+                    parser.merge(line, member);
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IllegalArgumentException("line " + lineNumber() + ": " + e.getMessage(), e);
+                }
+            }
+            if (member.getProgramId().isEmpty()) {
+                member.setProgramId(programId);
+            }
+            if (member.getTierId().isEmpty()) {
+                member.setTierId(tierId);
+            }
+            return member.build();
+        }
+
+        private static void setField(MemberOuterClass.Member.Builder member, String column, String value) {
+            if (value.isEmpty()) {
+                return;
+            }
+            // the person is only set when the record has a person column
+            try {
+                switch (column) {
+                    case "externalId":
+                        member.setExternalId(value);
+                        break;
+                    case "programId":
+                        member.setProgramId(value);
+                        break;
+                    case "tierId":
+                        member.setTierId(value);
+                        break;
+                    case "forename":
+                        member.getPersonBuilder().setForename(value);
+                        break;
+                    case "surname":
+                        member.getPersonBuilder().setSurname(value);
+                        break;
+                    case "displayName":
+                        member.getPersonBuilder().setDisplayName(value);
+                        break;
+                    case "emailAddress":
+                        member.getPersonBuilder().setEmailAddress(value);
+                        break;
+                    case "mobileNumber":
+                        member.getPersonBuilder().setMobileNumber(value);
+                        break;
+                    case "points":
+                        member.setPoints(Float.parseFloat(value));
+                        break;
+                    case "secondaryPoints":
+                        member.setSecondaryPoints(Float.parseFloat(value));
+                        break;
+                    case "tierPoints":
+                        member.setTierPoints(Float.parseFloat(value));
+                        break;
+                    default:
+                        member.putMetaData(column, value);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(column + " is not a number: " + value, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
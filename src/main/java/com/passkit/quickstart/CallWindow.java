@@ -0,0 +1,73 @@
+package com.passkit.quickstart;
+
+import io.grpc.Status;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The calls a bulk tool has in flight. At most maxInFlight are outstanding: a slot is acquired before a record is
+ * sent and released once its last attempt completes. Attempts the retry policy allows are sent again after their
+ * backoff on the window's scheduler thread, keeping the record's slot.
+ */
+final class CallWindow implements Closeable {
+    private final int maxInFlight;
+    private final Semaphore slots;
+    private final RetryPolicy retryPolicy;
+    private final ScheduledExecutorService scheduler;
+
+    // name is the name of the scheduler thread
+    CallWindow(String name, int maxInFlight, RetryPolicy retryPolicy) {
+        this.maxInFlight = maxInFlight;
+        this.slots = new Semaphore(maxInFlight);
+        this.retryPolicy = retryPolicy;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void acquire() throws InterruptedException {
+        slots.acquire();
+    }
+
+    void release() {
+        slots.release();
+    }
+
+    // Schedules send to run after the backoff if the attempt that failed with code can be retried, and returns
+    // whether it was
+    boolean retry(int attempt, Status.Code code, Runnable send) {
+        return retry(retryPolicy, attempt, code, send);
+    }
+
+    // As retry, for calls that follow a policy of their own rather than the window's
+    boolean retry(RetryPolicy policy, int attempt, Status.Code code, Runnable send) {
+        if (!policy.shouldRetry(attempt, code)) {
+            return false;
+        }
+        scheduler.schedule(send, policy.backoffMillis(attempt), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // Waits until every slot has been released, after which the window can be used again
+    void awaitIdle() throws InterruptedException {
+        slots.acquire(maxInFlight);
+        slots.release(maxInFlight);
+    }
+
+    // The scheduler thread retries run on, for other periodic work of the run such as progress reports
+    ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    // Drops retries that are still waiting
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
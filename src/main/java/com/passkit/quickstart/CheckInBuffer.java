@@ -0,0 +1,531 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Members.MemberEventsOuterClass;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Status;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Buffers check-ins and check-outs from venue scanners and sends them as checkInMember and checkOutMember calls over
+ * the connection pool. checkIn and checkOut return as soon as the event is buffered. A single dispatcher thread sends
+ * the buffered events with at most maxInFlight calls at once and at most one call per member, so a member's events
+ * reach the server in the order they were submitted, a check-in before the check-out that follows it. Calls failing
+ * with a retryable status are retried before the member's next event is sent; events failing otherwise are logged
+ * and dropped. Calls failing with DEADLINE_EXCEEDED are not retried, since the event may have been recorded by the
+ * call that ran out of time and a retry would record it twice: each event is sent at most once, and those events are
+ * logged as possibly recorded.
+ *
+ * Up to memoryCapacity events are held in memory. When the backend is slow and the buffer fills, further events are
+ * written to memory-mapped journal files in the spill directory and read back in order as the buffer drains. Spilled
+ * events that were not read back when the process stopped are sent by the next buffer started on the directory;
+ * events held in memory are not kept across a restart.
+ */
+public final class CheckInBuffer implements Closeable {
+    private static final Logger logger = Logger.getLogger(CheckInBuffer.class.getName());
+
+    private static final long CALL_TIMEOUT_MILLIS = 30_000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private static final byte CHECK_IN = 1;
+    private static final byte CHECK_OUT = 2;
+
+    private final GrpcConnectionPool pool;
+    private final int maxInFlight;
+    private final int memoryCapacity;
+    private final Spill spill;
+    private final ScheduledExecutorService retries;
+    private final Thread dispatcher;
+
+    // events in memory, from being buffered until their call completes
+    private final AtomicInteger buffered = new AtomicInteger();
+    private final Queue<Object> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private volatile boolean spilling;
+    private volatile boolean closed;
+
+    // only used by the dispatcher thread
+    private final Map<String, ArrayDeque<Event>> members = new HashMap<>();
+    private final ArrayDeque<String> ready = new ArrayDeque<>();
+    private int inFlight;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    // Reads the concurrency, memory and spill settings from passkit.properties
+    public CheckInBuffer(GrpcConnectionPool pool, Path spillDirectory) throws IOException {
+        this(pool, spillDirectory, PassKitProperties.load());
+    }
+
+    private CheckInBuffer(GrpcConnectionPool pool, Path spillDirectory, Properties properties) throws IOException {
+        this(pool, spillDirectory,
+                Integer.parseInt(properties.getProperty("checkin.buffer.maxInFlight", "32")),
+                Integer.parseInt(properties.getProperty("checkin.buffer.memoryCapacity", "10000")),
+                Integer.parseInt(properties.getProperty("checkin.buffer.spillSegmentBytes", "67108864")));
+    }
+
+    public CheckInBuffer(GrpcConnectionPool pool, Path spillDirectory, int maxInFlight, int memoryCapacity,
+            int spillSegmentBytes) throws IOException {
+        if (maxInFlight < 1 || memoryCapacity < 2 || spillSegmentBytes < 4096) {
+            throw new IllegalArgumentException(
+                    "maxInFlight must be at least 1, memoryCapacity 2 and spillSegmentBytes 4096");
+        }
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+        this.memoryCapacity = memoryCapacity;
+        this.spill = new Spill(spillDirectory, spillSegmentBytes);
+        if (spill.backlog() > 0) {
+            logger.info("sending " + spill.backlog() + " check-in events spilled by an earlier run");
+            spilling = true;
+        }
+        this.retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "check-in-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatch, "check-in-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    public void checkIn(MemberOuterClass.MemberCheckInOutRequest request) throws IOException {
+        submit(new Event(CHECK_IN, request));
+    }
+
+    public void checkOut(MemberOuterClass.MemberCheckInOutRequest request) throws IOException {
+        submit(new Event(CHECK_OUT, request));
+    }
+
+    // Once anything is spilled, events keep going to the spill until the dispatcher has read it all back, so no
+    // event overtakes one spilled before it
+    private void submit(Event event) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("check-in buffer is closed");
+        }
+        if (event.request.getMemberId().isEmpty()) {
+            throw new IllegalArgumentException("memberId is required");
+        }
+        submitted.incrementAndGet();
+        if (!spilling) {
+            if (buffered.incrementAndGet() <= memoryCapacity) {
+                add(event);
+                return;
+            }
+            buffered.decrementAndGet();
+        }
+        synchronized (spill) {
+            if (spilling || buffered.get() >= memoryCapacity) {
+                spilling = true;
+                spill.write(event.kind, event.request.toByteArray());
+                spilled.incrementAndGet();
+                return;
+            }
+            buffered.incrementAndGet();
+        }
+        add(event);
+    }
+
+    private void add(Object task) {
+        inbox.add(task);
+        if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    private void dispatch() {
+        while (!closed || buffered.get() > 0) {
+            boolean busy = false;
+            Object task;
+            while ((task = inbox.poll()) != null) {
+                busy = true;
+                if (task instanceof Event) {
+                    enqueue((Event) task);
+                } else if (task instanceof Retry) {
+                    // still at the head of its member's queue
+                    ready.add(((Retry) task).event.request.getMemberId());
+                } else {
+                    complete((Completion) task);
+                }
+            }
+            if (!closed && spilling && buffered.get() < memoryCapacity / 2) {
+                busy |= readSpill();
+            }
+            while (inFlight < maxInFlight && !ready.isEmpty()) {
+                busy = true;
+                send(members.get(ready.poll()).peek());
+            }
+            if (!busy) {
+                sleeping.set(true);
+                // check again so a task added before sleeping was set isn't missed
+                if (inbox.isEmpty() && !(spilling && buffered.get() < memoryCapacity / 2)) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                sleeping.set(false);
+            }
+        }
+    }
+
+    private boolean readSpill() {
+        int room = memoryCapacity - buffered.get();
+        int read = 0;
+        synchronized (spill) {
+            try {
+                for (; read < room; read++) {
+                    Spill.Record record = spill.read();
+                    if (record == null) {
+                        spilling = false;
+                        break;
+                    }
+                    buffered.incrementAndGet();
+                    try {
+                        enqueue(new Event(record.kind, MemberOuterClass.MemberCheckInOutRequest.parseFrom(record.bytes)));
+                    } catch (InvalidProtocolBufferException e) {
+                        buffered.decrementAndGet();
+                        failed.incrementAndGet();
+                        logger.log(Level.SEVERE, "dropping unreadable spilled check-in event", e);
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "couldn't read check-in spill", e);
+            }
+        }
+        return read > 0;
+    }
+
+    // Queues the event behind the member's earlier events, the member is ready when it has no call in flight
+    private void enqueue(Event event) {
+        ArrayDeque<Event> queue = members.computeIfAbsent(event.request.getMemberId(), m -> new ArrayDeque<>());
+        queue.add(event);
+        if (queue.size() == 1) {
+            ready.add(event.request.getMemberId());
+        }
+    }
+
+    private void send(Event event) {
+        inFlight++;
+        sent.incrementAndGet();
+        ListenableFuture<MemberEventsOuterClass.MemberEvent> call;
+        try {
+            MembersGrpc.MembersFutureStub stub = MembersGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            call = event.kind == CHECK_IN ? stub.checkInMember(event.request) : stub.checkOutMember(event.request);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<MemberEventsOuterClass.MemberEvent>() {
+            @Override
+            public void onSuccess(MemberEventsOuterClass.MemberEvent result) {
+                add(new Completion(event, null));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                add(new Completion(event, Status.fromThrowable(t)));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void complete(Completion completion) {
+        inFlight--;
+        Event event = completion.event;
+        if (completion.status != null && event.attempt < MAX_ATTEMPTS && !closed
+                && completion.status.getCode() != Status.Code.DEADLINE_EXCEEDED
+                && RetryPolicy.isRetryable(completion.status.getCode())) {
+            // the member stays busy until the retry is sent, keeping its later events behind this one
+            retried.incrementAndGet();
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (event.attempt - 1));
+            event.attempt++;
+            retries.schedule(() -> add(new Retry(event)),
+                    backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1), TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (completion.status != null) {
+            failed.incrementAndGet();
+            logger.warning((event.kind == CHECK_IN ? "check-in" : "check-out") + " for member "
+                    + event.request.getMemberId() + " failed: " + completion.status);
+            if (completion.status.getCode() == Status.Code.DEADLINE_EXCEEDED) {
+                logger.warning("the event may have been recorded by the call whose response was lost");
+            }
+        }
+        buffered.decrementAndGet();
+        String memberId = event.request.getMemberId();
+        ArrayDeque<Event> queue = members.get(memberId);
+        queue.poll();
+        if (queue.isEmpty()) {
+            members.remove(memberId);
+        } else {
+            ready.add(memberId);
+        }
+    }
+
+    // Stops taking events and waits for the events in memory to be sent. Events still spilled are left for the next
+    // buffer started on the spill directory.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        retries.shutdownNow();
+        synchronized (spill) {
+            spill.close();
+        }
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    // Calls sent, including retries
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    // Events written to the spill journal
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    // Events in memory, waiting or in flight
+    public int getBuffered() {
+        return buffered.get();
+    }
+
+    // Events in the spill journal not yet read back
+    public long getSpillBacklog() {
+        synchronized (spill) {
+            return spill.backlog();
+        }
+    }
+
+    private static final class Event {
+        private final byte kind;
+        private final MemberOuterClass.MemberCheckInOutRequest request;
+        private int attempt = 1;
+
+        private Event(byte kind, MemberOuterClass.MemberCheckInOutRequest request) {
+            this.kind = kind;
+            this.request = request;
+        }
+    }
+
+    private static final class Retry {
+        private final Event event;
+
+        private Retry(Event event) {
+            this.event = event;
+        }
+    }
+
+    private static final class Completion {
+        private final Event event;
+        private final Status status;
+
+        private Completion(Event event, Status status) {
+            this.event = event;
+            this.status = status;
+        }
+    }
+
+    // Journal of spilled events in memory-mapped segment files of segmentBytes. A segment starts with the offset of
+    // the next record to read, followed by records of a length, a kind byte and the serialized request. A zero
+    // length marks the end of the records written so far.
+    private static final class Spill {
+        private static final String PREFIX = "checkins-";
+        private static final String SUFFIX = ".spill";
+        private static final int HEADER = 4;
+
+        private final Path directory;
+        private final int segmentBytes;
+        private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+        private long nextSegment;
+        private long backlog;
+        private boolean closed;
+
+        private Spill(Path directory, int segmentBytes) throws IOException {
+            this.directory = directory;
+            this.segmentBytes = segmentBytes;
+            Files.createDirectories(directory);
+            TreeMap<Long, Path> files = new TreeMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+                for (Path file : stream) {
+                    String name = file.getFileName().toString();
+                    files.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                }
+            }
+            for (Map.Entry<Long, Path> file : files.entrySet()) {
+                Segment segment = new Segment(file.getValue(), segmentBytes);
+                segments.add(segment);
+                backlog += segment.recover();
+                nextSegment = file.getKey() + 1;
+            }
+        }
+
+        private long backlog() {
+            return backlog;
+        }
+
+        private void write(byte kind, byte[] bytes) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("check-in buffer is closed");
+            }
+            int length = bytes.length + 1;
+            if (HEADER + 4 + length + 4 > segmentBytes) {
+                throw new IllegalArgumentException("check-in event is larger than a spill segment");
+            }
+            Segment last = segments.peekLast();
+            if (last == null || last.write + 4 + length + 4 > segmentBytes) {
+                last = new Segment(directory.resolve(String.format("%s%020d%s", PREFIX, nextSegment++, SUFFIX)),
+                        segmentBytes);
+                segments.add(last);
+            }
+            MappedByteBuffer buffer = last.buffer;
+            buffer.position(last.write + 4);
+            buffer.put(kind);
+            buffer.put(bytes);
+            // the length is written last, so a reader never sees a partly written record
+            buffer.putInt(last.write, length);
+            last.write += 4 + length;
+            backlog++;
+        }
+
+        // Returns the next spilled event, or null if there is none
+        private Record read() throws IOException {
+            while (true) {
+                Segment first = segments.peekFirst();
+                if (first == null) {
+                    return null;
+                }
+                if (first.read < first.write) {
+                    MappedByteBuffer buffer = first.buffer;
+                    int length = buffer.getInt(first.read);
+                    byte[] bytes = new byte[length - 1];
+                    buffer.position(first.read + 5);
+                    buffer.get(bytes);
+                    Record record = new Record(buffer.get(first.read + 4), bytes);
+                    first.read += 4 + length;
+                    buffer.putInt(0, first.read);
+                    backlog--;
+                    return record;
+                }
+                if (segments.size() == 1) {
+                    return null;
+                }
+                segments.poll();
+                first.delete();
+            }
+        }
+
+        private void close() throws IOException {
+            closed = true;
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            // a journal that was read back in full isn't needed by the next run
+            if (backlog == 0) {
+                for (Segment segment : segments) {
+                    Files.deleteIfExists(segment.path);
+                }
+            }
+            segments.clear();
+        }
+
+        private static final class Record {
+            private final byte kind;
+            private final byte[] bytes;
+
+            private Record(byte kind, byte[] bytes) {
+                this.kind = kind;
+                this.bytes = bytes;
+            }
+        }
+
+        private static final class Segment {
+            private final Path path;
+            private final FileChannel channel;
+            private final MappedByteBuffer buffer;
+            private int read = HEADER;
+            private int write = HEADER;
+
+            private Segment(Path path, int segmentBytes) throws IOException {
+                this.path = path;
+                this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+
+            // Finds the read offset and the end of the records in a segment left by an earlier run, returning the
+            // number of records still to read
+            private long recover() {
+                read = Math.max(HEADER, buffer.getInt(0));
+                int records = 0;
+                int offset = HEADER;
+                while (offset + 4 <= buffer.capacity()) {
+                    int length = buffer.getInt(offset);
+                    if (length <= 0 || offset + 4 + length > buffer.capacity()) {
+                        break;
+                    }
+                    if (offset >= read) {
+                        records++;
+                    }
+                    offset += 4 + length;
+                }
+                write = offset;
+                return records;
+            }
+
+            private void delete() throws IOException {
+                channel.close();
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Filter;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import com.google.protobuf.util.JsonFormat;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Exports the coupons of a campaign to a JSONL or CSV file. The listing is split into pages of pageSize coupons using
+ * the limit and offset of the list filter, ordered by creation time, and up to parallelism pages are fetched at once.
+ * Each page is encoded as it streams in and written to the file in page order, so at most a few pages are held in
+ * memory however large the campaign is. The export ends at the first page with fewer than pageSize coupons.
+ *
+ * Files ending in .csv or .csv.gz are written as CSV, anything else as JSONL with one coupon per line in the protobuf
+ * JSON format. Files ending in .gz are gzip compressed. The file is written next to the output and moved into place
+ * when the export is complete, so a failed export doesn't leave a partial file behind.
+ */
+public final class CouponExporter {
+    private static final Logger logger = Logger.getLogger(CouponExporter.class.getName());
+
+    private static final long PAGE_TIMEOUT_MILLIS = 120_000;
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy(5, 200);
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String ORDER_BY = "created";
+    private static final String CSV_HEADER = "id,externalId,campaignId,offerId,sku,status,displayName,forename,"
+            + "surname,emailAddress,mobileNumber";
+    private static final JsonFormat.Printer JSON = JsonFormat.printer().omittingInsignificantWhitespace();
+
+    private final GrpcConnectionPool pool;
+    private final int pageSize;
+    private final int parallelism;
+
+    // Reads the page size and parallelism from passkit.properties
+    public CouponExporter(GrpcConnectionPool pool) throws IOException {
+        this(pool, PassKitProperties.load());
+    }
+
+    private CouponExporter(GrpcConnectionPool pool, Properties properties) {
+        this(pool, Integer.parseInt(properties.getProperty("coupons.export.pageSize", "1000")),
+                Integer.parseInt(properties.getProperty("coupons.export.parallelism", "4")));
+    }
+
+    public CouponExporter(GrpcConnectionPool pool, int pageSize, int parallelism) {
+        if (pageSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("pageSize and parallelism must be at least 1");
+        }
+        this.pool = pool;
+        this.pageSize = pageSize;
+        this.parallelism = parallelism;
+    }
+
+    public Summary export(String campaignId, Path output) throws IOException, InterruptedException {
+        String name = output.getFileName().toString().toLowerCase();
+        boolean gzip = name.endsWith(".gz");
+        boolean csv = name.endsWith(".csv") || name.endsWith(".csv.gz");
+        Path partial = output.resolveSibling(output.getFileName() + ".part");
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "coupon-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Progress progress = new Progress();
+        // cancelled when the export ends, stopping pages still in flight past the end or after a failure
+        Context.CancellableContext calls = Context.current().withCancellation();
+        boolean complete = false;
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = Channels.newOutputStream(channel);
+            out = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+            if (csv) {
+                out.write((CSV_HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            fetchPages(campaignId, csv, out, channel, calls, scheduler, progress);
+            out.close();
+            progress.bytes.set(Files.size(partial));
+            complete = true;
+        } finally {
+            calls.cancel(null);
+            scheduler.shutdownNow();
+            if (!complete) {
+                Files.deleteIfExists(partial);
+            }
+        }
+        Files.move(partial, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Summary summary = progress.summary();
+        logger.info(summary.toString());
+        return summary;
+    }
+
+    // Starts pages while fewer than parallelism are in flight and the page is within twice that of the next page to
+    // write, and writes completed pages in order. Pages are started and written only on this thread; calls report
+    // back through the completed queue.
+    private void fetchPages(String campaignId, boolean csv, OutputStream out, FileChannel channel, Context calls,
+            ScheduledExecutorService scheduler, Progress progress) throws IOException, InterruptedException {
+        BlockingQueue<Page> completed = new LinkedBlockingQueue<>();
+        Map<Integer, Page> ready = new HashMap<>();
+        int nextPage = 0;
+        int nextToWrite = 0;
+        int lastPage = Integer.MAX_VALUE;
+        int inFlight = 0;
+        long lastReport = System.nanoTime();
+        while (nextToWrite <= lastPage) {
+            while (inFlight < parallelism && nextPage <= lastPage && nextPage < nextToWrite + 2 * parallelism) {
+                Page page = new Page(campaignId, nextPage++, csv);
+                calls.run(() -> fetch(page, completed));
+                inFlight++;
+            }
+            Page page = completed.take();
+            if (page.number > lastPage) {
+                // started before the end of the listing was known
+                inFlight--;
+                continue;
+            }
+            if (page.error != null) {
+                if (RETRY_POLICY.shouldRetry(page.attempt, page.error.getCode())) {
+                    progress.retries.incrementAndGet();
+                    Page retry = page.retry();
+                    scheduler.schedule(calls.wrap(() -> fetch(retry, completed)),
+                            RETRY_POLICY.backoffMillis(page.attempt), TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                logger.log(Level.SEVERE, "couldn't fetch coupons from offset " + page.offset() + ": " + page.error);
+                throw new IOException("couldn't fetch coupons from offset " + page.offset() + ": " + page.error,
+                        page.error.asException());
+            }
+            inFlight--;
+            if (page.coupons < pageSize) {
+                lastPage = Math.min(lastPage, page.number);
+            }
+            ready.put(page.number, page);
+            // a page past the end can complete before the last page, so it isn't known to be past the end until then
+            while (nextToWrite <= lastPage && ready.containsKey(nextToWrite)) {
+                Page next = ready.remove(nextToWrite++);
+                next.writeTo(out);
+                progress.coupons.addAndGet(next.coupons);
+                progress.pages.incrementAndGet();
+            }
+            progress.bytes.set(channel.position());
+            if (System.nanoTime() - lastReport > PROGRESS_INTERVAL_NANOS) {
+                lastReport = System.nanoTime();
+                logger.info(progress.toString());
+            }
+        }
+    }
+
+    private void fetch(Page page, BlockingQueue<Page> completed) {
+        CouponOuterClass.ListRequest request = CouponOuterClass.ListRequest.newBuilder()
+                .setCouponCampaignId(page.campaignId)
+                .setFilters(Filter.Filters.newBuilder()
+                        .setLimit(pageSize)
+                        .setOffset(page.offset())
+                        .setOrderBy(ORDER_BY)
+                        .setOrderAsc(true))
+                .build();
+        StreamObserver<CouponOuterClass.Coupon> observer = new StreamObserver<CouponOuterClass.Coupon>() {
+            @Override
+            public void onNext(CouponOuterClass.Coupon coupon) {
+                page.add(coupon);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                page.error = Status.fromThrowable(t);
+                completed.add(page);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed.add(page);
+            }
+        };
+        try {
+            SingleUseCouponsGrpc.newStub(pool.getChannel())
+                    .withDeadlineAfter(PAGE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .listCouponsByCouponCampaign(request, observer);
+        } catch (RuntimeException e) {
+            observer.onError(e);
+        }
+    }
+
+    // One page of the listing, encoded as its coupons arrive. Calls deliver coupons one at a time, so the page
+    // needs no locking; the completed queue hands it over to the writing thread.
+    private final class Page {
+        private final String campaignId;
+        private final int number;
+        private final boolean csv;
+        private final int attempt;
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(BUFFER_SIZE);
+        private final StringBuilder line = new StringBuilder();
+        private int coupons;
+        private Status error;
+
+        private Page(String campaignId, int number, boolean csv) {
+            this(campaignId, number, csv, 1);
+        }
+
+        private Page(String campaignId, int number, boolean csv, int attempt) {
+            this.campaignId = campaignId;
+            this.number = number;
+            this.csv = csv;
+            this.attempt = attempt;
+        }
+
+        private int offset() {
+            return number * pageSize;
+        }
+
+        private Page retry() {
+            return new Page(campaignId, number, csv, attempt + 1);
+        }
+
+        private void add(CouponOuterClass.Coupon coupon) {
+            line.setLength(0);
+            if (csv) {
+                appendCsv(coupon);
+            } else {
+                try {
+                    JSON.appendTo(coupon, line);
+                } catch (IOException e) {
+                    // only thrown for types missing from the printer's registry
+                    throw new IllegalStateException(e);
+                }
+            }
+            line.append('\n');
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            encoded.write(bytes, 0, bytes.length);
+            coupons++;
+        }
+
+        private void appendCsv(CouponOuterClass.Coupon coupon) {
+            line.append(RecordReader.csvValue(coupon.getId())).append(',')
+                    .append(RecordReader.csvValue(coupon.getExternalId())).append(',')
+                    .append(RecordReader.csvValue(coupon.getCampaignId())).append(',')
+                    .append(RecordReader.csvValue(coupon.getOfferId())).append(',')
+                    .append(RecordReader.csvValue(coupon.getSku())).append(',')
+                    .append(coupon.getStatus()).append(',')
+                    .append(RecordReader.csvValue(coupon.getPerson().getDisplayName())).append(',')
+                    .append(RecordReader.csvValue(coupon.getPerson().getForename())).append(',')
+                    .append(RecordReader.csvValue(coupon.getPerson().getSurname())).append(',')
+                    .append(RecordReader.csvValue(coupon.getPerson().getEmailAddress())).append(',')
+                    .append(RecordReader.csvValue(coupon.getPerson().getMobileNumber()));
+        }
+
+        private void writeTo(OutputStream out) throws IOException {
+            encoded.writeTo(out);
+        }
+    }
+
+    private static final class Progress {
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong coupons = new AtomicLong();
+        private final AtomicLong pages = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Summary summary() {
+            return new Summary(coupons.get(), pages.get(), retries.get(), bytes.get(),
+                    System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "coupon export in progress: " + summary();
+        }
+    }
+
+    public static final class Summary {
+        private final long coupons;
+        private final long pages;
+        private final long retries;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        private Summary(long coupons, long pages, long retries, long bytes, long elapsedNanos) {
+            this.coupons = coupons;
+            this.pages = pages;
+            this.retries = retries;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getCoupons() {
+            return coupons;
+        }
+
+        public long getPages() {
+            return pages;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        // Bytes written to the file, compressed if it is gzipped
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public double getCouponsPerSecond() {
+            return elapsedNanos == 0 ? 0 : coupons * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d coupons in %d pages, %d retries, %d bytes in %dms (%.1f coupons/s)",
+                    coupons, pages, retries, bytes, getElapsedMillis(), getCouponsPerSecond());
+        }
+    }
+}
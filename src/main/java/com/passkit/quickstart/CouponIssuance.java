@@ -0,0 +1,584 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass.CouponStatus;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import io.grpc.Status;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Issues coupons for an offer from a CSV or JSONL file of recipients. Records are streamed from the input file and
+ * sent as createCoupon calls over the connection pool. The number of calls in flight adapts to the backend: it starts
+ * at initialInFlight, grows by one for every window of successful calls up to maxInFlight and halves when calls fail
+ * with RESOURCE_EXHAUSTED, UNAVAILABLE or DEADLINE_EXCEEDED.
+ *
+ * CSV files need a header row. The columns externalId, sku, offerId, forename, surname, displayName, emailAddress and
+ * mobileNumber are mapped to the coupon, any other column is added to its metaData. JSONL files hold one coupon per
+ * line in the protobuf JSON format. The campaign and offer given to the constructor are used for records that don't
+ * name their own.
+ *
+ * Progress is checkpointed to <output>.checkpoint every second as the number of leading records that are complete and
+ * the length of the result file holding their lines. Running again with the same input and output resumes after the
+ * checkpoint, dropping any result lines written after it and appending to the rest. Every
+ * coupon is sent with an externalId, records without one get record-<n>, so coupons issued after the checkpoint was
+ * written are rejected with ALREADY_EXISTS instead of being issued twice. Delete the checkpoint to start over.
+ *
+ * The result file has a line for each record in input order: externalId,couponId,status where status is OK or the gRPC
+ * status code of the last attempt. Lines of records that complete ahead of an earlier record, such as one waiting to
+ * be retried, are held in memory until it completes; reading pauses while 4 * maxInFlight lines are held.
+ */
+public final class CouponIssuance {
+    private static final Logger logger = Logger.getLogger(CouponIssuance.class.getName());
+
+    private static final long CALL_TIMEOUT_MILLIS = 30_000;
+    private static final long PROGRESS_INTERVAL_SECONDS = 10;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+    // result lines held for records completed out of order, per call of maxInFlight
+    private static final int WAITING_PER_CALL = 4;
+    private static final String HEADER = "externalId,couponId,status";
+
+    private final GrpcConnectionPool pool;
+    private final String campaignId;
+    private final String offerId;
+    private final int initialInFlight;
+    private final int maxInFlight;
+    private final RetryPolicy retryPolicy;
+
+    // Reads the window and retry settings from passkit.properties
+    public CouponIssuance(GrpcConnectionPool pool, String campaignId, String offerId) throws IOException {
+        this(pool, campaignId, offerId, PassKitProperties.load());
+    }
+
+    private CouponIssuance(GrpcConnectionPool pool, String campaignId, String offerId, Properties properties) {
+        this(pool, campaignId, offerId,
+                Integer.parseInt(properties.getProperty("coupons.issue.initialInFlight", "16")),
+                Integer.parseInt(properties.getProperty("coupons.issue.maxInFlight", "256")),
+                Integer.parseInt(properties.getProperty("coupons.issue.maxAttempts", "5")),
+                Long.parseLong(properties.getProperty("coupons.issue.initialBackoffMillis", "200")));
+    }
+
+    public CouponIssuance(GrpcConnectionPool pool, String campaignId, String offerId, int initialInFlight,
+            int maxInFlight, int maxAttempts, long initialBackoffMillis) {
+        if (initialInFlight < 1 || maxInFlight < initialInFlight || maxAttempts < 1) {
+            throw new IllegalArgumentException(
+                    "initialInFlight and maxAttempts must be at least 1 and maxInFlight at least initialInFlight");
+        }
+        this.pool = pool;
+        this.campaignId = campaignId;
+        this.offerId = offerId;
+        this.initialInFlight = initialInFlight;
+        this.maxInFlight = maxInFlight;
+        this.retryPolicy = new RetryPolicy(maxAttempts, initialBackoffMillis);
+    }
+
+    public Summary issue(Path input, Path output) throws IOException, InterruptedException {
+        Path checkpointFile = output.resolveSibling(output.getFileName() + ".checkpoint");
+        long[] saved = readCheckpoint(checkpointFile);
+        long resumeFrom = saved == null ? 0 : saved[0];
+        if (resumeFrom > 0) {
+            logger.info("resuming after record " + resumeFrom + " from " + checkpointFile);
+        }
+        AdaptiveWindow window = new AdaptiveWindow(initialInFlight, maxInFlight);
+        Progress progress = new Progress(window);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "coupon-issuance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (CouponReader reader = new CouponReader(input, campaignId, offerId);
+             ResultWriter results = saved == null
+                     ? new ResultWriter(output, HEADER, false, false)
+                     : new ResultWriter(output, saved[1], false)) {
+            Checkpoint checkpoint = new Checkpoint(resumeFrom, results, (long) maxInFlight * WAITING_PER_CALL);
+            ScheduledFuture<?> report = scheduler.scheduleAtFixedRate(
+                    () -> logger.info(progress.toString()),
+                    PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            ScheduledFuture<?> save = scheduler.scheduleWithFixedDelay(
+                    () -> saveCheckpoint(checkpoint, checkpointFile),
+                    CHECKPOINT_INTERVAL_MILLIS, CHECKPOINT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            for (long record = 0; ; record++) {
+                if (record < resumeFrom) {
+                    try {
+                        if (!reader.skip()) {
+                            break;
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // an invalid record the earlier run already wrote a result for
+                    }
+                    progress.skipped.incrementAndGet();
+                    continue;
+                }
+                checkpoint.awaitRoom(record);
+                CouponOuterClass.Coupon coupon;
+                try {
+                    coupon = reader.next(record);
+                } catch (IllegalArgumentException e) {
+                    logger.warning("skipping invalid record: " + e.getMessage());
+                    progress.read.incrementAndGet();
+                    progress.failed.incrementAndGet();
+                    checkpoint.complete(record, "line " + reader.lineNumber(), "", Status.Code.INVALID_ARGUMENT.name());
+                    continue;
+                }
+                if (coupon == null) {
+                    break;
+                }
+                window.acquire();
+                progress.read.incrementAndGet();
+                send(record, coupon, 1, window, checkpoint, progress, scheduler);
+            }
+            window.awaitIdle();
+            report.cancel(false);
+            save.cancel(false);
+            results.checkError();
+            // on the scheduler thread so it can't overlap a periodic save
+            try {
+                scheduler.submit(() -> saveCheckpoint(checkpoint, checkpointFile)).get();
+            } catch (ExecutionException e) {
+                throw new IOException("couldn't write checkpoint " + checkpointFile, e.getCause());
+            }
+        } finally {
+            scheduler.shutdownNow();
+        }
+        Summary summary = progress.summary();
+        logger.info(summary.toString());
+        return summary;
+    }
+
+    private void send(long record, CouponOuterClass.Coupon coupon, int attempt, AdaptiveWindow window,
+            Checkpoint checkpoint, Progress progress, ScheduledExecutorService scheduler) {
+        long sequence = window.started();
+        ListenableFuture<CommonObjects.Id> call;
+        try {
+            call = SingleUseCouponsGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .createCoupon(coupon);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<CommonObjects.Id>() {
+            @Override
+            public void onSuccess(CommonObjects.Id id) {
+                window.onSuccess();
+                progress.issued.incrementAndGet();
+                finish(id.getId(), "OK");
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status.Code code = Status.fromThrowable(t).getCode();
+                progress.errors.incrementAndGet(code.value());
+                if (code == Status.Code.ALREADY_EXISTS) {
+                    // issued by an earlier attempt or an earlier run
+                    progress.existing.incrementAndGet();
+                    finish("", code.name());
+                    return;
+                }
+                if (isOverload(code)) {
+                    window.onOverload(sequence);
+                }
+                if (retryPolicy.shouldRetry(attempt, code)) {
+                    progress.retries.incrementAndGet();
+                    scheduler.schedule(() -> send(record, coupon, attempt + 1, window, checkpoint, progress, scheduler),
+                            retryPolicy.backoffMillis(attempt), TimeUnit.MILLISECONDS);
+                    return;
+                }
+                logger.log(Level.FINE, "couldn't issue coupon " + coupon.getExternalId() + ": " + code);
+                progress.failed.incrementAndGet();
+                finish("", code.name());
+            }
+
+            private void finish(String couponId, String status) {
+                checkpoint.complete(record, coupon.getExternalId(), couponId, status);
+                window.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static boolean isOverload(Status.Code code) {
+        return code == Status.Code.RESOURCE_EXHAUSTED || code == Status.Code.UNAVAILABLE
+                || code == Status.Code.DEADLINE_EXCEEDED;
+    }
+
+    // Returns the records completed and the length of the result file when the checkpoint was saved, or null if there
+    // is no checkpoint
+    private static long[] readCheckpoint(Path checkpointFile) throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return null;
+        }
+        String[] values = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim().split(" ");
+        try {
+            if (values.length != 2) {
+                throw new NumberFormatException("expected records and result length, found " + values.length
+                        + " values");
+            }
+            return new long[] {Long.parseLong(values[0]), Long.parseLong(values[1])};
+        } catch (NumberFormatException e) {
+            logger.log(Level.SEVERE, "invalid checkpoint " + checkpointFile);
+            throw new IOException("invalid checkpoint " + checkpointFile, e);
+        }
+    }
+
+    private static void saveCheckpoint(Checkpoint checkpoint, Path checkpointFile) {
+        try {
+            String saved = checkpoint.save();
+            Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+            Files.write(temp, saved.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "couldn't write checkpoint " + checkpointFile, e);
+        }
+    }
+
+    // Additive increase, multiplicative decrease. The limit grows by one for every limit calls that succeed and halves
+    // on overload, at most once for the calls that were in flight together, so a burst of failures halves it once.
+    private static final class AdaptiveWindow {
+        private final int maxLimit;
+        private double limit;
+        private int inFlight;
+        private long sequence;
+        private long decreasedAt;
+
+        private AdaptiveWindow(int initialLimit, int maxLimit) {
+            this.limit = initialLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        private synchronized void acquire() throws InterruptedException {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+            inFlight++;
+        }
+
+        // Numbers each attempt so onOverload can tell whether it was sent before the last decrease
+        private synchronized long started() {
+            return ++sequence;
+        }
+
+        private synchronized void release() {
+            inFlight--;
+            notifyAll();
+        }
+
+        private synchronized void onSuccess() {
+            if (limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        private synchronized void onOverload(long attempt) {
+            if (attempt > decreasedAt) {
+                limit = Math.max(1, limit / 2);
+                decreasedAt = sequence;
+            }
+        }
+
+        private synchronized int limit() {
+            return (int) limit;
+        }
+
+        private synchronized void awaitIdle() throws InterruptedException {
+            while (inFlight > 0) {
+                wait();
+            }
+        }
+    }
+
+    // Result lines are written in record order as the leading records complete, so the result file only ever holds
+    // the lines of the records the checkpoint covers. Lines of records that complete ahead of an earlier one wait
+    // here until it does, and awaitRoom holds the reader back so at most maxWaiting of them wait.
+    private static final class Checkpoint {
+        private final Map<Long, String[]> waiting = new HashMap<>();
+        private final ResultWriter results;
+        private final long maxWaiting;
+        private long completed;
+
+        private Checkpoint(long completed, ResultWriter results, long maxWaiting) {
+            this.completed = completed;
+            this.results = results;
+            this.maxWaiting = maxWaiting;
+        }
+
+        // Waits until the record is within maxWaiting of the first record that isn't complete
+        private synchronized void awaitRoom(long record) throws InterruptedException {
+            while (record - completed >= maxWaiting) {
+                wait();
+            }
+        }
+
+        private synchronized void complete(long record, String... result) {
+            waiting.put(record, result);
+            long before = completed;
+            for (String[] next = waiting.remove(completed); next != null; next = waiting.remove(completed)) {
+                results.write(next);
+                completed++;
+            }
+            if (completed != before) {
+                notifyAll();
+            }
+        }
+
+        // Flushes the result file and returns the checkpoint for it
+        private synchronized String save() throws IOException {
+            return completed + " " + results.flush();
+        }
+    }
+
+    private static final class Progress {
+        private final long startNanos = System.nanoTime();
+        private final AdaptiveWindow window;
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong issued = new AtomicLong();
+        private final AtomicLong existing = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLongArray errors = new AtomicLongArray(Status.Code.values().length);
+
+        private Progress(AdaptiveWindow window) {
+            this.window = window;
+        }
+
+        private Summary summary() {
+            Map<Status.Code, Long> errorCounts = new EnumMap<>(Status.Code.class);
+            for (Status.Code code : Status.Code.values()) {
+                long count = errors.get(code.value());
+                if (count > 0) {
+                    errorCounts.put(code, count);
+                }
+            }
+            return new Summary(read.get(), skipped.get(), issued.get(), existing.get(), failed.get(), retries.get(),
+                    errorCounts, window.limit(), System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "coupon issuance in progress: " + summary();
+        }
+    }
+
+    public static final class Summary {
+        private final long records;
+        private final long skipped;
+        private final long issued;
+        private final long existing;
+        private final long failed;
+        private final long retries;
+        private final Map<Status.Code, Long> errors;
+        private final int window;
+        private final long elapsedNanos;
+
+        private Summary(long records, long skipped, long issued, long existing, long failed, long retries,
+                Map<Status.Code, Long> errors, int window, long elapsedNanos) {
+            this.records = records;
+            this.skipped = skipped;
+            this.issued = issued;
+            this.existing = existing;
+            this.failed = failed;
+            this.retries = retries;
+            this.errors = errors;
+            this.window = window;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        // Records read in this run, not counting those skipped by the checkpoint
+        public long getRecords() {
+            return records;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getIssued() {
+            return issued;
+        }
+
+        // Records whose coupon was already issued by an earlier attempt or run
+        public long getExisting() {
+            return existing;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        // Failed attempts by status code, including attempts that were retried
+        public Map<Status.Code, Long> getErrors() {
+            return errors;
+        }
+
+        // Calls allowed in flight when the summary was taken
+        public int getWindow() {
+            return window;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : (issued + existing + failed) * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records, %d issued, %d existing, %d failed, %d retries, %d skipped in %dms "
+                            + "(%.1f records/s, window %d), errors %s",
+                    records, issued, existing, failed, retries, skipped, getElapsedMillis(), getRecordsPerSecond(),
+                    window, errors);
+        }
+    }
+
+    // Builds every coupon in the same builder, so reading a record creates only the coupon itself
+    private static final class CouponReader implements Closeable {
+        private final RecordReader reader;
+        private final JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+        private final CouponOuterClass.Coupon.Builder coupon = CouponOuterClass.Coupon.newBuilder();
+        private final String campaignId;
+        private final String offerId;
+        private List<String> header;
+
+        private CouponReader(Path input, String campaignId, String offerId) throws IOException {
+            this.reader = new RecordReader(input);
+            this.campaignId = campaignId;
+            this.offerId = offerId;
+        }
+
+        private long lineNumber() {
+            return reader.lineNumber();
+        }
+
+        // Reads past one record without parsing it, returns false at the end of the file
+        private boolean skip() throws IOException {
+            if (!reader.isCsv()) {
+                return reader.readLine() != null;
+            }
+            if (header == null) {
+                header = reader.readCsvRecord();
+                if (header == null) {
+                    return false;
+                }
+            }
+            return reader.readCsvRecord() != null;
+        }
+
+        // Returns the coupon for the record, or null at the end of the file
+        private CouponOuterClass.Coupon next(long record) throws IOException {
+            coupon.clear();
+            if (reader.isCsv()) {
+                if (header == null) {
+                    header = reader.readCsvRecord();
+                    if (header == null) {
+                        return null;
+                    }
+                }
+                List<String> values = reader.readCsvRecord();
+                if (values == null) {
+                    return null;
+                }
+                if (values.size() != header.size()) {
+                    throw new IllegalArgumentException("line " + lineNumber() + ": expected " + header.size()
+                            + " columns, found " + values.size());
+                }
+                for (int i = 0; i < header.size(); i++) {
+                    setField(header.get(i), values.get(i));
+                }
+            } else {
+                String line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                try {
+                    parser.merge(line, coupon);
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IllegalArgumentException("line " + lineNumber() + ": " + e.getMessage(), e);
+                }
+            }
+            if (coupon.getExternalId().isEmpty()) {
+                coupon.setExternalId("record-" + record);
+            }
+            if (coupon.getCampaignId().isEmpty()) {
+                coupon.setCampaignId(campaignId);
+            }
+            if (coupon.getOfferId().isEmpty()) {
+                coupon.setOfferId(offerId);
+            }
+            if (coupon.getStatus() == CouponStatus.STATUS_NONE) {
+                coupon.setStatus(CouponStatus.UNREDEEMED);
+            }
+            return coupon.build();
+        }
+
+        private void setField(String column, String value) {
+            if (value.isEmpty()) {
+                return;
+            }
+            switch (column) {
+                case "externalId":
+                    coupon.setExternalId(value);
+                    break;
+                case "sku":
+                    coupon.setSku(value);
+                    break;
+                case "offerId":
+                    coupon.setOfferId(value);
+                    break;
+                case "forename":
+                    coupon.getPersonBuilder().setForename(value);
+                    break;
+                case "surname":
+                    coupon.getPersonBuilder().setSurname(value);
+                    break;
+                case "displayName":
+                    coupon.getPersonBuilder().setDisplayName(value);
+                    break;
+                case "emailAddress":
+                    coupon.getPersonBuilder().setEmailAddress(value);
+                    break;
+                case "mobileNumber":
+                    coupon.getPersonBuilder().setMobileNumber(value);
+                    break;
+                default:
+                    coupon.putMetaData(column, value);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
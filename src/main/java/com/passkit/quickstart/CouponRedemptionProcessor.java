@@ -0,0 +1,375 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Redeems coupons for a fleet of point of sale terminals. Terminals call redeem from any thread and get a future of
+ * the redemption; the call never blocks. Each coupon is assigned to one of a fixed number of workers by its id, and
+ * each worker is the only consumer of a lock-free queue its producers add to, so the state of a coupon is only ever
+ * touched by one thread and needs no locking.
+ *
+ * A worker sends at most maxInFlightPerWorker redeemCoupon calls at once. Redemption is idempotent by coupon id:
+ * redeeming a coupon that is already being redeemed joins that call, and redeeming one of the last recentPerWorker
+ * coupons the worker redeemed returns the earlier result without a call, so a terminal retrying a redemption never
+ * redeems twice. Calls failing with UNAVAILABLE, which the server didn't process, are retried; any other failure is
+ * returned to the terminal.
+ *
+ * Latency from redeem to the result is recorded per store.
+ */
+public final class CouponRedemptionProcessor {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+
+    private final GrpcConnectionPool pool;
+    private final int maxInFlightPerWorker;
+    private final int recentPerWorker;
+    private final long deadlineMillis;
+    private final Worker[] workers;
+    private final ScheduledExecutorService retries;
+    private volatile boolean shutdown;
+
+    private final ConcurrentHashMap<String, LatencyHistogram> storeLatency = new ConcurrentHashMap<>();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong repeated = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Futures are completed on the worker threads, so listeners on them must not block
+    public CouponRedemptionProcessor(GrpcConnectionPool pool, int workers, int maxInFlightPerWorker,
+            int recentPerWorker, long deadlineMillis) {
+        if (workers < 1 || maxInFlightPerWorker < 1 || recentPerWorker < 0) {
+            throw new IllegalArgumentException(
+                    "workers and maxInFlightPerWorker must be at least 1 and recentPerWorker not negative");
+        }
+        this.pool = pool;
+        this.maxInFlightPerWorker = maxInFlightPerWorker;
+        this.recentPerWorker = recentPerWorker;
+        this.deadlineMillis = deadlineMillis;
+        this.retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "coupon-redemption-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker("coupon-redemption-" + i);
+            this.workers[i].thread.start();
+        }
+    }
+
+    // The coupon needs its id, or its externalId and campaignId
+    public ListenableFuture<CommonObjects.Id> redeem(String storeId, CouponOuterClass.Coupon coupon) {
+        String key = !coupon.getId().isEmpty() ? coupon.getId()
+                : coupon.getCampaignId().isEmpty() || coupon.getExternalId().isEmpty() ? null
+                : coupon.getCampaignId() + "/" + coupon.getExternalId();
+        if (key == null) {
+            return Futures.immediateFailedFuture(Status.INVALID_ARGUMENT
+                    .withDescription("coupon needs an id, or an externalId and campaignId").asRuntimeException());
+        }
+        Worker worker = workers[Math.floorMod(key.hashCode(), workers.length)];
+        // a worker doesn't stop while a redemption is being added, see Worker.finished
+        worker.adding.incrementAndGet();
+        try {
+            if (shutdown) {
+                return Futures.immediateFailedFuture(Status.UNAVAILABLE
+                        .withDescription("redemption processor is shut down").asRuntimeException());
+            }
+            submitted.incrementAndGet();
+            Redemption redemption = new Redemption(key, storeId, coupon);
+            worker.add(redemption);
+            return redemption.result;
+        } finally {
+            worker.adding.decrementAndGet();
+            if (shutdown) {
+                worker.wake();
+            }
+        }
+    }
+
+    // Stops taking redemptions. Redemptions already taken are completed.
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            worker.wake();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(worker.thread, remaining);
+            }
+            if (worker.thread.isAlive()) {
+                return false;
+            }
+        }
+        retries.shutdownNow();
+        return true;
+    }
+
+    // Latency by store id, from redeem to the result, including redemptions answered without a call
+    public Map<String, LatencyHistogram> getStoreLatency() {
+        return Collections.unmodifiableMap(storeLatency);
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    // Redemptions that joined a call in progress for the same coupon
+    public long getJoined() {
+        return joined.get();
+    }
+
+    // Redemptions of a recently redeemed coupon, answered with the earlier result
+    public long getRepeated() {
+        return repeated.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    // Redemptions taken but not yet sent, across all workers
+    public int getQueued() {
+        int queued = 0;
+        for (Worker worker : workers) {
+            queued += worker.waiting.get();
+        }
+        return queued;
+    }
+
+    private void send(Worker worker, Call call) {
+        sent.incrementAndGet();
+        ListenableFuture<CommonObjects.Id> future;
+        try {
+            future = SingleUseCouponsGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS)
+                    .redeemCoupon(call.request);
+        } catch (RuntimeException e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(future, new FutureCallback<CommonObjects.Id>() {
+            @Override
+            public void onSuccess(CommonObjects.Id id) {
+                worker.add(new Completion(call, id, null));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status status = Status.fromThrowable(t);
+                if (status.getCode() == Status.Code.UNAVAILABLE && call.attempt < MAX_ATTEMPTS) {
+                    retried.incrementAndGet();
+                    long backoff = INITIAL_BACKOFF_MILLIS << (call.attempt - 1);
+                    call.attempt++;
+                    retries.schedule(() -> send(worker, call),
+                            backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1), TimeUnit.MILLISECONDS);
+                    return;
+                }
+                worker.add(new Completion(call, null, status));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void record(Redemption redemption, long now) {
+        storeLatency.computeIfAbsent(redemption.storeId, store -> new LatencyHistogram())
+                .record(now - redemption.startNanos);
+    }
+
+    // Runs the redemptions of its coupons. Terminals and call callbacks add to the inbox, only the worker thread
+    // reads it and touches the maps.
+    private final class Worker implements Runnable {
+        private final Thread thread;
+        private final Queue<Object> inbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean sleeping = new AtomicBoolean();
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicInteger adding = new AtomicInteger();
+
+        private final Map<String, Call> inFlight = new HashMap<>();
+        private final ArrayDeque<Call> pending = new ArrayDeque<>();
+        private final LinkedHashMap<String, CommonObjects.Id> recent = new LinkedHashMap<String, CommonObjects.Id>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CommonObjects.Id> eldest) {
+                return size() > recentPerWorker;
+            }
+        };
+        private int running;
+
+        private Worker(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        private void add(Object task) {
+            inbox.add(task);
+            wake();
+        }
+
+        private void wake() {
+            if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!finished()) {
+                Object task = inbox.poll();
+                if (task == null) {
+                    sleeping.set(true);
+                    // check again so a task added before sleeping was set isn't missed
+                    if (inbox.isEmpty() && !finished()) {
+                        LockSupport.park(this);
+                    }
+                    sleeping.set(false);
+                    continue;
+                }
+                if (task instanceof Redemption) {
+                    take((Redemption) task);
+                } else {
+                    complete((Completion) task);
+                }
+            }
+        }
+
+        // Shut down with nothing left to do. redeem checks shutdown after counting itself in adding, so once this
+        // sees shutdown with adding at zero no redemption can be added any more.
+        private boolean finished() {
+            return shutdown && adding.get() == 0 && inbox.isEmpty() && running == 0 && pending.isEmpty();
+        }
+
+        private void take(Redemption redemption) {
+            CommonObjects.Id earlier = recent.get(redemption.key);
+            if (earlier != null) {
+                repeated.incrementAndGet();
+                record(redemption, System.nanoTime());
+                redemption.result.set(earlier);
+                return;
+            }
+            Call call = inFlight.get(redemption.key);
+            if (call != null) {
+                joined.incrementAndGet();
+                call.redemptions.add(redemption);
+                return;
+            }
+            call = new Call(redemption);
+            inFlight.put(redemption.key, call);
+            if (running < maxInFlightPerWorker) {
+                running++;
+                send(this, call);
+            } else {
+                waiting.incrementAndGet();
+                pending.add(call);
+            }
+        }
+
+        private void complete(Completion completion) {
+            Call call = completion.call;
+            inFlight.remove(call.key);
+            long now = System.nanoTime();
+            if (completion.status == null) {
+                if (recentPerWorker > 0) {
+                    recent.put(call.key, completion.id);
+                }
+            } else {
+                failed.incrementAndGet();
+            }
+            for (Redemption redemption : call.redemptions) {
+                record(redemption, now);
+                if (completion.status == null) {
+                    redemption.result.set(completion.id);
+                } else {
+                    redemption.result.setException(completion.status.asRuntimeException());
+                }
+            }
+            Call next = pending.poll();
+            if (next == null) {
+                running--;
+            } else {
+                waiting.decrementAndGet();
+                send(this, next);
+            }
+        }
+    }
+
+    private static final class Redemption {
+        private final String key;
+        private final String storeId;
+        private final CouponOuterClass.Coupon coupon;
+        private final long startNanos = System.nanoTime();
+        private final SettableFuture<CommonObjects.Id> result = SettableFuture.create();
+
+        private Redemption(String key, String storeId, CouponOuterClass.Coupon coupon) {
+            this.key = key;
+            this.storeId = storeId;
+            this.coupon = coupon;
+        }
+    }
+
+    // One redeemCoupon call and the redemptions waiting for it. Only the worker thread adds redemptions.
+    private static final class Call {
+        private final String key;
+        private final CouponOuterClass.Coupon request;
+        private final List<Redemption> redemptions = new ArrayList<>(1);
+        private volatile int attempt = 1;
+
+        private Call(Redemption first) {
+            this.key = first.key;
+            this.request = first.coupon;
+            this.redemptions.add(first);
+        }
+    }
+
+    private static final class Completion {
+        private final Call call;
+        private final CommonObjects.Id id;
+        private final Status status;
+
+        private Completion(Call call, CommonObjects.Id id, Status status) {
+            this.call = call;
+            this.id = id;
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Protocols;
+import com.passkit.grpc.Template;
+import com.passkit.grpc.TemplatesGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Read-through cache for TemplatesGrpc.getDefaultTemplate keyed by protocol and revision. Templates are kept for ttl
+ * in a size bounded LRU map. If a directory is given the serialized templates are also written there, so a new process
+ * can build templates without fetching the defaults again while the files are younger than ttl.
+ *
+ * Concurrent requests for a template that isn't cached share one call. Templates are returned as immutable protobuf
+ * messages, so callers can use toBuilder() on them as they would on the stub's response.
+ */
+public final class DefaultTemplateCache {
+    private static final Logger logger = Logger.getLogger(DefaultTemplateCache.class.getName());
+
+    private static final class Entry {
+        private final ListenableFuture<Template.PassTemplate> template;
+        // Guarded by entries. A template read from disk keeps the file's age rather than the time it was read
+        private long loadedAtMillis;
+
+        private Entry(ListenableFuture<Template.PassTemplate> template, long loadedAtMillis) {
+            this.template = template;
+            this.loadedAtMillis = loadedAtMillis;
+        }
+    }
+
+    private final TemplatesGrpc.TemplatesFutureStub templatesStub;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Path directory;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // Reads templates.cache.ttlSeconds, templates.cache.maxEntries and templates.cache.directory from
+    // passkit.properties
+    public DefaultTemplateCache(Channel channel) throws IOException {
+        this(channel, PassKitProperties.load());
+    }
+
+    private DefaultTemplateCache(Channel channel, Properties properties) {
+        this(channel,
+                TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty("templates.cache.ttlSeconds", "3600"))),
+                Integer.parseInt(properties.getProperty("templates.cache.maxEntries", "32")),
+                properties.getProperty("templates.cache.directory", "").isEmpty()
+                        ? null : Paths.get(properties.getProperty("templates.cache.directory")));
+    }
+
+    // directory may be null to keep templates in memory only
+    public DefaultTemplateCache(Channel channel, long ttlMillis, int maxEntries, Path directory) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.templatesStub = TemplatesGrpc.newFutureStub(channel);
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.directory = directory;
+    }
+
+    public Template.PassTemplate getDefaultTemplate(Protocols.PassProtocol protocol, int revision) {
+        return Helpers.await(getDefaultTemplateAsync(protocol, revision));
+    }
+
+    public ListenableFuture<Template.PassTemplate> getDefaultTemplateAsync(Protocols.PassProtocol protocol,
+            int revision) {
+        String key = protocol.name() + "-" + revision;
+        long now = System.currentTimeMillis();
+        SettableFuture<Template.PassTemplate> load;
+        Entry loading;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && (!entry.template.isDone() || now - entry.loadedAtMillis < ttlMillis)) {
+                hits.incrementAndGet();
+                return entry.template;
+            }
+            load = SettableFuture.create();
+            loading = new Entry(load, now);
+            entries.put(key, loading);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        Template.PassTemplate stored = readFile(key, now, loading);
+        if (stored != null) {
+            diskHits.incrementAndGet();
+            load.set(stored);
+            return load;
+        }
+
+        misses.incrementAndGet();
+        Template.DefaultTemplateRequest request = Template.DefaultTemplateRequest.newBuilder()
+                .setProtocol(protocol)
+                .setRevision(revision)
+                .build();
+        ListenableFuture<Template.PassTemplate> call;
+        try {
+            call = templatesStub.getDefaultTemplate(request);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<Template.PassTemplate>() {
+            @Override
+            public void onSuccess(Template.PassTemplate template) {
+                writeFile(key, template);
+                load.set(template);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // don't cache failures, the next request calls the server again
+                synchronized (entries) {
+                    Entry entry = entries.get(key);
+                    if (entry != null && entry.template == load) {
+                        entries.remove(key);
+                    }
+                }
+                load.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return load;
+    }
+
+    // Sets the entry's load time to the file's modification time when the file is used
+    private Template.PassTemplate readFile(String key, long now, Entry entry) {
+        if (directory == null) {
+            return null;
+        }
+        Path file = directory.resolve(key + ".pb");
+        try {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            long modifiedMillis = Files.getLastModifiedTime(file).toMillis();
+            if (now - modifiedMillis >= ttlMillis) {
+                return null;
+            }
+            Template.PassTemplate template;
+            try (InputStream in = Files.newInputStream(file)) {
+                template = Template.PassTemplate.parseFrom(in);
+            }
+            synchronized (entries) {
+                entry.loadedAtMillis = Math.min(modifiedMillis, now);
+            }
+            return template;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "couldn't read cached template " + file, e);
+            return null;
+        }
+    }
+
+    private void writeFile(String key, Template.PassTemplate template) {
+        if (directory == null) {
+            return;
+        }
+        Path file = directory.resolve(key + ".pb");
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                template.writeTo(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "couldn't write cached template " + file, e);
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException deleteFailed) {
+                    logger.log(Level.WARNING, "couldn't delete " + temp, deleteFailed);
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    // Requests answered from memory, including requests that joined a call already in progress
+    public long getHits() {
+        return hits.get();
+    }
+
+    // Requests answered from the cache directory
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    // Requests that called getDefaultTemplate
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.SingleUseCoupons.Campaign;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+import com.passkit.grpc.SingleUseCoupons.Offer;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import com.google.protobuf.Empty;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Fake of the SingleUseCoupons service for FakePassKit. Campaigns hold offers and coupons, offers get an id of their
+ * own whatever id they were sent with, coupons are listed in the order they were created, and a coupon can only be
+ * redeemed once. Deleting a campaign deletes its offers and coupons.
+ */
+public class FakeCoupons extends SingleUseCouponsGrpc.SingleUseCouponsImplBase {
+
+    private final Map<String, CampaignState> campaigns = new HashMap<>();
+
+    private static final class CampaignState {
+        private final Map<String, Offer.CouponOffer> offers = new HashMap<>();
+        private final Map<String, CouponOuterClass.Coupon> coupons = new LinkedHashMap<>();
+    }
+
+    private static CommonObjects.Id id(String id) {
+        return CommonObjects.Id.newBuilder().setId(id).build();
+    }
+
+    private CampaignState campaign(String campaignId) {
+        CampaignState campaign = campaigns.get(campaignId);
+        if (campaign == null) {
+            throw FakePassKit.notFound("campaign " + campaignId);
+        }
+        return campaign;
+    }
+
+    @Override
+    public void createCouponCampaign(Campaign.CouponCampaign request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String campaignId = FakePassKit.newId();
+                campaigns.put(campaignId, new CampaignState());
+                return id(campaignId);
+            }
+        });
+    }
+
+    @Override
+    public void deleteCouponCampaign(CommonObjects.Id request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                if (campaigns.remove(request.getId()) == null) {
+                    throw FakePassKit.notFound("campaign " + request.getId());
+                }
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void createCouponOffer(Offer.CouponOffer request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                CampaignState campaign = campaign(request.getCampaignId());
+                String offerId = FakePassKit.newId();
+                campaign.offers.put(offerId, request.toBuilder().setId(offerId).build());
+                return id(offerId);
+            }
+        });
+    }
+
+    @Override
+    public void createCoupon(CouponOuterClass.Coupon request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                CampaignState campaign = campaign(request.getCampaignId());
+                if (!campaign.offers.containsKey(request.getOfferId())) {
+                    throw FakePassKit.notFound("offer " + request.getOfferId());
+                }
+                String couponId = FakePassKit.newId();
+                campaign.coupons.put(couponId, request.toBuilder()
+                        .setId(couponId)
+                        .setStatus(CouponOuterClass.CouponStatus.UNREDEEMED)
+                        .build());
+                return id(couponId);
+            }
+        });
+    }
+
+    @Override
+    public void redeemCoupon(CouponOuterClass.Coupon request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                CouponOuterClass.Coupon coupon = campaign(request.getCampaignId()).coupons.get(request.getId());
+                if (coupon == null) {
+                    throw FakePassKit.notFound("coupon " + request.getId());
+                }
+                if (coupon.getStatus() != CouponOuterClass.CouponStatus.UNREDEEMED) {
+                    throw FakePassKit.failedPrecondition("coupon " + request.getId() + " is " + coupon.getStatus());
+                }
+                campaign(request.getCampaignId()).coupons.put(coupon.getId(), coupon.toBuilder()
+                        .setStatus(CouponOuterClass.CouponStatus.REDEEMED)
+                        .build());
+                return id(coupon.getId());
+            }
+        });
+    }
+
+    @Override
+    public void listCouponsByCouponCampaign(CouponOuterClass.ListRequest request,
+            StreamObserver<CouponOuterClass.Coupon> response) {
+        List<CouponOuterClass.Coupon> coupons;
+        synchronized (this) {
+            CampaignState campaign = campaigns.get(request.getCouponCampaignId());
+            if (campaign == null) {
+                response.onError(FakePassKit.notFound("campaign " + request.getCouponCampaignId()));
+                return;
+            }
+            coupons = new ArrayList<>(campaign.coupons.values());
+        }
+        FakePassKit.replyAll(response, coupons, request.getFilters());
+    }
+
+    // Returns a coupon, or null if the campaign has none with the id
+    public synchronized CouponOuterClass.Coupon getCoupon(String campaignId, String couponId) {
+        CampaignState campaign = campaigns.get(campaignId);
+        return campaign == null ? null : campaign.coupons.get(couponId);
+    }
+
+    public synchronized int getCouponCount() {
+        int count = 0;
+        for (CampaignState campaign : campaigns.values()) {
+            count += campaign.coupons.size();
+        }
+        return count;
+    }
+}
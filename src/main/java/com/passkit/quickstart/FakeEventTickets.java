@@ -0,0 +1,306 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventOuterClass;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.ProductionOuterClass;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+import com.passkit.grpc.EventTickets.TicketTypeOuterClass;
+import com.passkit.grpc.EventTickets.VenueOuterClass;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import io.grpc.stub.StreamObserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Fake of the EventTickets service for FakePassKit. Issuing a ticket creates its event from the production, venue and
+ * start date when there isn't one yet, and a ticket number can only be issued once per production. Deleting an event
+ * deletes its tickets; venues, productions and ticket types can't be deleted while something still uses them, which
+ * fails with FAILED_PRECONDITION. Validations are counted per ticket against the request's maxNumberOfValidations,
+ * with 0 meaning no limit, and a ticket can only be redeemed once.
+ */
+public class FakeEventTickets extends EventTicketsGrpc.EventTicketsImplBase {
+
+    private final Map<String, VenueOuterClass.Venue> venues = new HashMap<>();
+    private final Map<String, ProductionOuterClass.Production> productions = new HashMap<>();
+    private final Map<String, TicketTypeOuterClass.TicketType> ticketTypes = new HashMap<>();
+    private final Map<String, String> eventIds = new HashMap<>();
+    private final Map<String, Ticket> tickets = new HashMap<>();
+    private final Map<String, String> ticketIdsByNumber = new HashMap<>();
+
+    private static final class Ticket {
+        private final String id;
+        private final String eventKey;
+        private final TicketOuterClass.IssueTicketRequest request;
+        private int validations;
+        private boolean redeemed;
+
+        private Ticket(String id, String eventKey, TicketOuterClass.IssueTicketRequest request) {
+            this.id = id;
+            this.eventKey = eventKey;
+            this.request = request;
+        }
+    }
+
+    private static CommonObjects.Id id(String id) {
+        return CommonObjects.Id.newBuilder().setId(id).build();
+    }
+
+    private static String eventKey(String productionId, String venueId, long scheduledStartSeconds) {
+        return productionId + "/" + venueId + "/" + scheduledStartSeconds;
+    }
+
+    private static String numberKey(String productionId, String ticketNumber) {
+        return productionId + "/" + ticketNumber;
+    }
+
+    private Ticket ticket(TicketOuterClass.TicketId ticketId) {
+        String id = ticketId.hasTicketNumber()
+                ? ticketIdsByNumber.get(numberKey(ticketId.getTicketNumber().getProductionId(),
+                        ticketId.getTicketNumber().getTicketNumber()))
+                : ticketId.getTicketId();
+        Ticket ticket = id == null ? null : tickets.get(id);
+        if (ticket == null) {
+            throw FakePassKit.notFound("ticket " + (id == null ? ticketId.getTicketNumber().getTicketNumber() : id));
+        }
+        return ticket;
+    }
+
+    @Override
+    public void createVenue(VenueOuterClass.Venue request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String venueId = FakePassKit.newId();
+                venues.put(venueId, request.toBuilder().setId(venueId).build());
+                return id(venueId);
+            }
+        });
+    }
+
+    @Override
+    public void deleteVenue(VenueOuterClass.Venue request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                if (!venues.containsKey(request.getId())) {
+                    throw FakePassKit.notFound("venue " + request.getId());
+                }
+                for (String key : eventIds.keySet()) {
+                    if (key.split("/")[1].equals(request.getId())) {
+                        throw FakePassKit.failedPrecondition("venue " + request.getId() + " has events");
+                    }
+                }
+                venues.remove(request.getId());
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void createProduction(ProductionOuterClass.Production request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String productionId = FakePassKit.newId();
+                productions.put(productionId, request.toBuilder().setId(productionId).build());
+                return id(productionId);
+            }
+        });
+    }
+
+    @Override
+    public void deleteProduction(ProductionOuterClass.Production request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                if (!productions.containsKey(request.getId())) {
+                    throw FakePassKit.notFound("production " + request.getId());
+                }
+                for (TicketTypeOuterClass.TicketType ticketType : ticketTypes.values()) {
+                    if (ticketType.getProductionId().equals(request.getId())) {
+                        throw FakePassKit.failedPrecondition("production " + request.getId() + " has ticket types");
+                    }
+                }
+                productions.remove(request.getId());
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void createTicketType(TicketTypeOuterClass.TicketType request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                if (!productions.containsKey(request.getProductionId())) {
+                    throw FakePassKit.notFound("production " + request.getProductionId());
+                }
+                String ticketTypeId = FakePassKit.newId();
+                ticketTypes.put(ticketTypeId, request.toBuilder().setId(ticketTypeId).build());
+                return id(ticketTypeId);
+            }
+        });
+    }
+
+    // Finds the ticket type by its id, or by its production and uid
+    @Override
+    public void deleteTicketType(TicketTypeOuterClass.TicketType request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String ticketTypeId = request.getId();
+                if (ticketTypeId.isEmpty()) {
+                    for (TicketTypeOuterClass.TicketType ticketType : ticketTypes.values()) {
+                        if (ticketType.getProductionId().equals(request.getProductionId())
+                                && ticketType.getUid().equals(request.getUid())) {
+                            ticketTypeId = ticketType.getId();
+                        }
+                    }
+                }
+                if (!ticketTypes.containsKey(ticketTypeId)) {
+                    throw FakePassKit.notFound("ticket type "
+                            + (ticketTypeId.isEmpty() ? request.getUid() : ticketTypeId));
+                }
+                for (Ticket ticket : tickets.values()) {
+                    if (ticket.request.getTicketTypeId().equals(ticketTypeId)) {
+                        throw FakePassKit.failedPrecondition("ticket type " + ticketTypeId + " has tickets");
+                    }
+                }
+                ticketTypes.remove(ticketTypeId);
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    // Finds the event by its id, or by its production, venue and start date
+    @Override
+    public void deleteEvent(EventOuterClass.Event request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String key = null;
+                for (Map.Entry<String, String> event : eventIds.entrySet()) {
+                    if (event.getValue().equals(request.getId())) {
+                        key = event.getKey();
+                    }
+                }
+                if (key == null) {
+                    key = eventKey(request.getProduction().getId(), request.getVenue().getId(),
+                            request.getScheduledStartDate().getSeconds());
+                }
+                if (eventIds.remove(key) == null) {
+                    throw FakePassKit.notFound("event " + (request.getId().isEmpty() ? key : request.getId()));
+                }
+                String eventKey = key;
+                tickets.values().removeIf(ticket -> {
+                    if (!ticket.eventKey.equals(eventKey)) {
+                        return false;
+                    }
+                    ticketIdsByNumber.remove(numberKey(ticket.request.getEvent().getProductionId(),
+                            ticket.request.getTicketNumber()));
+                    return true;
+                });
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void issueTicket(TicketOuterClass.IssueTicketRequest request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                TicketTypeOuterClass.TicketType ticketType = ticketTypes.get(request.getTicketTypeId());
+                if (ticketType == null) {
+                    throw FakePassKit.notFound("ticket type " + request.getTicketTypeId());
+                }
+                EventOuterClass.EventLimitedFieldsRequest event = request.getEvent();
+                if (!venues.containsKey(event.getVenueId())) {
+                    throw FakePassKit.notFound("venue " + event.getVenueId());
+                }
+                String productionId = event.getProductionId().isEmpty()
+                        ? ticketType.getProductionId() : event.getProductionId();
+                String ticketNumber = request.getTicketNumber().isEmpty()
+                        ? FakePassKit.newId() : request.getTicketNumber();
+                if (ticketIdsByNumber.containsKey(numberKey(productionId, ticketNumber))) {
+                    throw FakePassKit.alreadyExists("ticket " + ticketNumber);
+                }
+                String eventKey = eventKey(productionId, event.getVenueId(),
+                        event.getScheduledStartDate().getSeconds());
+                eventIds.computeIfAbsent(eventKey, key -> FakePassKit.newId());
+                String ticketId = FakePassKit.newId();
+                tickets.put(ticketId, new Ticket(ticketId, eventKey, request.toBuilder()
+                        .setEvent(event.toBuilder().setProductionId(productionId))
+                        .setTicketNumber(ticketNumber)
+                        .build()));
+                ticketIdsByNumber.put(numberKey(productionId, ticketNumber), ticketId);
+                return id(ticketId);
+            }
+        });
+    }
+
+    // Answers with a bundle in the requested formats, or with a pass url when none are requested
+    @Override
+    public void getEventTicketPass(TicketOuterClass.EventTicketPassRequest request,
+            StreamObserver<CommonObjects.PassBundles> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String ticketId = ticket(TicketOuterClass.TicketId.newBuilder()
+                        .setTicketId(request.getTicketId().getId())
+                        .build()).id;
+                CommonObjects.PassBundle.Builder bundle = CommonObjects.PassBundle.newBuilder().setId(ticketId);
+                if (request.getFormatCount() == 0
+                        || request.getFormatList().contains(CommonObjects.PassBundleFormat.PASS_URL)) {
+                    bundle.setUrl("https://pub1.pskt.io/" + ticketId);
+                }
+                if (request.getFormatList().contains(CommonObjects.PassBundleFormat.MULTI_LINK)) {
+                    bundle.setMultiplePassesURL("https://pub1.pskt.io/m/" + ticketId);
+                }
+                if (request.getFormatList().contains(CommonObjects.PassBundleFormat.PKPASS_FILE)) {
+                    bundle.setPkpass(ByteString.copyFrom("pkpass " + ticketId, StandardCharsets.UTF_8));
+                }
+                return CommonObjects.PassBundles.newBuilder().addPasses(bundle).build();
+            }
+        });
+    }
+
+    @Override
+    public void validateTicket(TicketOuterClass.ValidateTicketRequest request,
+            StreamObserver<TicketOuterClass.ValidateTicketResponse> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                Ticket ticket = ticket(request.getTicket());
+                boolean validated = !ticket.redeemed && (request.getMaxNumberOfValidations() == 0
+                        || ticket.validations < request.getMaxNumberOfValidations());
+                if (validated) {
+                    ticket.validations++;
+                }
+                return TicketOuterClass.ValidateTicketResponse.newBuilder()
+                        .setTicketId(ticket.id)
+                        .setValidated(validated)
+                        .build();
+            }
+        });
+    }
+
+    @Override
+    public void redeemTicket(TicketOuterClass.RedeemTicketRequest request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                Ticket ticket = ticket(request.getTicket());
+                if (ticket.redeemed) {
+                    throw FakePassKit.failedPrecondition("ticket " + ticket.id + " has already been redeemed");
+                }
+                ticket.redeemed = true;
+                return id(ticket.id);
+            }
+        });
+    }
+
+    // Returns the request a ticket was issued from, or null if there is no ticket with the id
+    public synchronized TicketOuterClass.IssueTicketRequest getTicket(String ticketId) {
+        Ticket ticket = tickets.get(ticketId);
+        return ticket == null ? null : ticket.request;
+    }
+
+    public synchronized int getTicketCount() {
+        return tickets.size();
+    }
+}
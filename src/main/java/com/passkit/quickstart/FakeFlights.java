@@ -0,0 +1,288 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Flights.Airport;
+import com.passkit.grpc.Flights.BoardingPass;
+import com.passkit.grpc.Flights.CarrierOuterClass;
+import com.passkit.grpc.Flights.FlightDesignatorOuterClass;
+import com.passkit.grpc.Flights.FlightOuterClass;
+import com.passkit.grpc.Flights.FlightsGrpc;
+
+import com.google.protobuf.Empty;
+import io.grpc.stub.StreamObserver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Fake of the Flights service for FakePassKit. Carriers and ports are keyed by their IATA code, flights by carrier,
+ * number, route and departure date, and designators by carrier, number and revision. Creating something that exists
+ * fails with ALREADY_EXISTS and updating something that doesn't with NOT_FOUND, which is what FlightScheduleSync
+ * relies on. A carrier can't be deleted while flights or designators still use it, which fails with
+ * FAILED_PRECONDITION the way Teardown expects.
+ */
+public class FakeFlights extends FlightsGrpc.FlightsImplBase {
+
+    private final Map<String, CarrierOuterClass.Carrier> carriers = new HashMap<>();
+    private final Map<String, Airport.Port> ports = new HashMap<>();
+    private final Map<String, FlightOuterClass.Flight> flights = new HashMap<>();
+    private final Map<String, FlightDesignatorOuterClass.FlightDesignator> designators = new HashMap<>();
+    private int boardingPasses;
+
+    private static String flightKey(String carrierCode, String flightNumber, String boardingPoint,
+            String deplaningPoint, CommonObjects.Date departureDate) {
+        return carrierCode + "/" + flightNumber + "/" + boardingPoint + "/" + deplaningPoint + "/"
+                + departureDate.getYear() + "-" + departureDate.getMonth() + "-" + departureDate.getDay();
+    }
+
+    private static String flightKey(FlightOuterClass.Flight flight) {
+        return flightKey(flight.getCarrierCode(), flight.getFlightNumber(), flight.getBoardingPoint(),
+                flight.getDeplaningPoint(), flight.getDepartureDate());
+    }
+
+    private static String flightKey(FlightOuterClass.FlightRequest request) {
+        return flightKey(request.getCarrierCode(), request.getFlightNumber(), request.getBoardingPoint(),
+                request.getDeplaningPoint(), request.getDepartureDate());
+    }
+
+    private static String designatorKey(String carrierCode, String flightNumber, int revision) {
+        return carrierCode + "/" + flightNumber + "/" + revision;
+    }
+
+    private void requireCarrier(String carrierCode) {
+        if (!carriers.containsKey(carrierCode)) {
+            throw FakePassKit.notFound("carrier " + carrierCode);
+        }
+    }
+
+    private static <T> T require(Map<String, T> map, String key, String what) {
+        T value = map.get(key);
+        if (value == null) {
+            throw FakePassKit.notFound(what + " " + key);
+        }
+        return value;
+    }
+
+    @Override
+    public void createCarrier(CarrierOuterClass.Carrier request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                if (carriers.putIfAbsent(request.getIataCarrierCode(), request) != null) {
+                    throw FakePassKit.alreadyExists("carrier " + request.getIataCarrierCode());
+                }
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void getCarrier(CarrierOuterClass.CarrierCode request, StreamObserver<CarrierOuterClass.Carrier> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                return require(carriers, request.getCarrierCode(), "carrier");
+            }
+        });
+    }
+
+    @Override
+    public void updateCarrier(CarrierOuterClass.Carrier request, StreamObserver<CarrierOuterClass.Carrier> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                require(carriers, request.getIataCarrierCode(), "carrier");
+                carriers.put(request.getIataCarrierCode(), request);
+                return request;
+            }
+        });
+    }
+
+    @Override
+    public void deleteCarrier(CarrierOuterClass.CarrierCode request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                require(carriers, request.getCarrierCode(), "carrier");
+                boolean inUse = flights.values().stream()
+                        .anyMatch(flight -> flight.getCarrierCode().equals(request.getCarrierCode()))
+                        || designators.values().stream()
+                        .anyMatch(designator -> designator.getCarrierCode().equals(request.getCarrierCode()));
+                if (inUse) {
+                    throw FakePassKit.failedPrecondition("carrier " + request.getCarrierCode() + " has flights");
+                }
+                carriers.remove(request.getCarrierCode());
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void createPort(Airport.Port request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                if (ports.putIfAbsent(request.getIataAirportCode(), request) != null) {
+                    throw FakePassKit.alreadyExists("port " + request.getIataAirportCode());
+                }
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void getPort(Airport.AirportCode request, StreamObserver<Airport.Port> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                return require(ports, request.getAirportCode(), "port");
+            }
+        });
+    }
+
+    @Override
+    public void updatePort(Airport.Port request, StreamObserver<Airport.Port> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                require(ports, request.getIataAirportCode(), "port");
+                ports.put(request.getIataAirportCode(), request);
+                return request;
+            }
+        });
+    }
+
+    @Override
+    public void deletePort(Airport.AirportCode request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                require(ports, request.getAirportCode(), "port");
+                ports.remove(request.getAirportCode());
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void createFlight(FlightOuterClass.Flight request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                requireCarrier(request.getCarrierCode());
+                String key = flightKey(request);
+                if (flights.putIfAbsent(key, request) != null) {
+                    throw FakePassKit.alreadyExists("flight " + key);
+                }
+                return CommonObjects.Id.newBuilder().setId(FakePassKit.newId()).build();
+            }
+        });
+    }
+
+    @Override
+    public void getFlight(FlightOuterClass.FlightRequest request, StreamObserver<FlightOuterClass.Flight> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                return require(flights, flightKey(request), "flight");
+            }
+        });
+    }
+
+    @Override
+    public void updateFlight(FlightOuterClass.Flight request, StreamObserver<FlightOuterClass.Flight> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String key = flightKey(request);
+                require(flights, key, "flight");
+                flights.put(key, request);
+                return request;
+            }
+        });
+    }
+
+    @Override
+    public void deleteFlight(FlightOuterClass.FlightRequest request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String key = flightKey(request);
+                require(flights, key, "flight");
+                flights.remove(key);
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void createFlightDesignator(FlightDesignatorOuterClass.FlightDesignator request,
+            StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                requireCarrier(request.getCarrierCode());
+                String key = designatorKey(request.getCarrierCode(), request.getFlightNumber(), request.getRevision());
+                if (designators.putIfAbsent(key, request) != null) {
+                    throw FakePassKit.alreadyExists("flight designator " + key);
+                }
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void getFlightDesignator(FlightDesignatorOuterClass.FlightDesignatorRequest request,
+            StreamObserver<FlightDesignatorOuterClass.FlightDesignator> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                return require(designators, designatorKey(request.getCarrierCode(), request.getFlightNumber(),
+                        request.getRevision()), "flight designator");
+            }
+        });
+    }
+
+    @Override
+    public void updateFlightDesignator(FlightDesignatorOuterClass.FlightDesignator request,
+            StreamObserver<FlightDesignatorOuterClass.FlightDesignator> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String key = designatorKey(request.getCarrierCode(), request.getFlightNumber(), request.getRevision());
+                require(designators, key, "flight designator");
+                designators.put(key, request);
+                return request;
+            }
+        });
+    }
+
+    @Override
+    public void deleteFlightDesignator(FlightDesignatorOuterClass.FlightDesignatorRequest request,
+            StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String key = designatorKey(request.getCarrierCode(), request.getFlightNumber(), request.getRevision());
+                require(designators, key, "flight designator");
+                designators.remove(key);
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    // The flight doesn't have to exist, but its carrier does
+    @Override
+    public void createBoardingPass(BoardingPass.BoardingPassRecord request,
+            StreamObserver<BoardingPass.BoardingPassesResponse> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                requireCarrier(request.getCarrierCode());
+                boardingPasses++;
+                String passId = FakePassKit.newId();
+                return BoardingPass.BoardingPassesResponse.newBuilder()
+                        .addBoardingPasses(BoardingPass.BoardingPassResponse.newBuilder()
+                                .setId(passId)
+                                .setUrl("https://pub1.pskt.io/" + passId))
+                        .build();
+            }
+        });
+    }
+
+    // Returns a created flight, or null if there is none with the key
+    public synchronized FlightOuterClass.Flight getFlight(FlightOuterClass.FlightRequest request) {
+        return flights.get(flightKey(request));
+    }
+
+    public synchronized int getFlightCount() {
+        return flights.size();
+    }
+
+    public synchronized int getBoardingPassCount() {
+        return boardingPasses;
+    }
+}
@@ -0,0 +1,74 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Image;
+import com.passkit.grpc.ImagesGrpc;
+
+import com.google.protobuf.Empty;
+import io.grpc.stub.StreamObserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Fake of the Images service for FakePassKit. Each image in a createImages call gets an id in the same field of
+ * ImageIds, and the name of the call is kept against it until the image is deleted. As on PassKit, a logo sent
+ * without an Apple logo gets an Apple logo id too.
+ */
+public class FakeImages extends ImagesGrpc.ImagesImplBase {
+
+    private final Map<String, String> images = new ConcurrentHashMap<>();
+
+    @Override
+    public void createImages(Image.CreateImageInput request, StreamObserver<Image.ImageIds> response) {
+        FakePassKit.reply(response, () -> {
+            Image.ImageData data = request.getImageData();
+            Image.ImageIds.Builder ids = Image.ImageIds.newBuilder();
+            if (!data.getIcon().isEmpty()) {
+                ids.setIcon(store(request.getName()));
+            }
+            if (!data.getLogo().isEmpty()) {
+                ids.setLogo(store(request.getName()));
+            }
+            if (!data.getAppleLogo().isEmpty() || !data.getLogo().isEmpty()) {
+                ids.setAppleLogo(store(request.getName()));
+            }
+            if (!data.getHero().isEmpty()) {
+                ids.setHero(store(request.getName()));
+            }
+            if (!data.getEventStrip().isEmpty()) {
+                ids.setEventStrip(store(request.getName()));
+            }
+            if (!data.getStrip().isEmpty()) {
+                ids.setStrip(store(request.getName()));
+            }
+            if (!data.getBackground().isEmpty()) {
+                ids.setBackground(store(request.getName()));
+            }
+            if (!data.getThumbnail().isEmpty()) {
+                ids.setThumbnail(store(request.getName()));
+            }
+            return ids.build();
+        });
+    }
+
+    private String store(String name) {
+        String id = FakePassKit.newId();
+        images.put(id, name);
+        return id;
+    }
+
+    @Override
+    public void deleteImage(CommonObjects.Id request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            if (images.remove(request.getId()) == null) {
+                throw FakePassKit.notFound("image " + request.getId());
+            }
+            return Empty.getDefaultInstance();
+        });
+    }
+
+    public int getImageCount() {
+        return images.size();
+    }
+}
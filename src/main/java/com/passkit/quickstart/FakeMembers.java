@@ -0,0 +1,279 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Distribution;
+import com.passkit.grpc.Members.MemberEventsOuterClass;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+import com.passkit.grpc.Members.ProgramOuterClass;
+import com.passkit.grpc.Members.TierOuterClass;
+
+import com.google.protobuf.Empty;
+import com.google.protobuf.Timestamp;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Fake of the Members service for FakePassKit. Programs hold tiers, members and the events of their members. A member
+ * is found by its id or by its program and external id, and an external id can only be enrolled once per program.
+ * Burning more points than a member has fails with FAILED_PRECONDITION.
+ */
+public class FakeMembers extends MembersGrpc.MembersImplBase {
+
+    private final Map<String, Program> programs = new HashMap<>();
+    private final Map<String, MemberOuterClass.Member> members = new HashMap<>();
+
+    private static final class Program {
+        private final ProgramOuterClass.Program program;
+        private final String shortCode = FakePassKit.newId().substring(0, 6);
+        private final Map<String, TierOuterClass.Tier> tiers = new HashMap<>();
+        private final Map<String, String> memberIdsByExternalId = new HashMap<>();
+        private final List<MemberEventsOuterClass.MemberEvent> events = new ArrayList<>();
+
+        private Program(ProgramOuterClass.Program program) {
+            this.program = program;
+        }
+    }
+
+    private static CommonObjects.Id id(String id) {
+        return CommonObjects.Id.newBuilder().setId(id).build();
+    }
+
+    private Program program(String programId) {
+        Program program = programs.get(programId);
+        if (program == null) {
+            throw FakePassKit.notFound("program " + programId);
+        }
+        return program;
+    }
+
+    private MemberOuterClass.Member member(String memberId, String programId, String externalId) {
+        String id = memberId.isEmpty() ? program(programId).memberIdsByExternalId.get(externalId) : memberId;
+        MemberOuterClass.Member member = id == null ? null : members.get(id);
+        if (member == null) {
+            throw FakePassKit.notFound("member " + (memberId.isEmpty() ? externalId : memberId));
+        }
+        return member;
+    }
+
+    @Override
+    public void createProgram(ProgramOuterClass.Program request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                String programId = FakePassKit.newId();
+                programs.put(programId, new Program(request.toBuilder().setId(programId).build()));
+                return id(programId);
+            }
+        });
+    }
+
+    @Override
+    public void deleteProgram(CommonObjects.Id request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                Program program = program(request.getId());
+                programs.remove(request.getId());
+                members.values().removeIf(member -> member.getProgramId().equals(program.program.getId()));
+                return Empty.getDefaultInstance();
+            }
+        });
+    }
+
+    @Override
+    public void createTier(TierOuterClass.Tier request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                Program program = program(request.getProgramId());
+                String tierId = request.getId().isEmpty() ? FakePassKit.newId() : request.getId();
+                if (program.tiers.containsKey(tierId)) {
+                    throw FakePassKit.alreadyExists("tier " + tierId);
+                }
+                program.tiers.put(tierId, request.toBuilder()
+                        .setId(tierId)
+                        .setShortCode(FakePassKit.newId().substring(0, 6))
+                        .build());
+                return id(tierId);
+            }
+        });
+    }
+
+    @Override
+    public void getTier(TierOuterClass.TierRequestInput request, StreamObserver<TierOuterClass.Tier> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                TierOuterClass.Tier tier = program(request.getProgramId()).tiers.get(request.getTierId());
+                if (tier == null) {
+                    throw FakePassKit.notFound("tier " + request.getTierId());
+                }
+                return tier;
+            }
+        });
+    }
+
+    @Override
+    public void enrolMember(MemberOuterClass.Member request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                Program program = program(request.getProgramId());
+                if (!program.tiers.containsKey(request.getTierId())) {
+                    throw FakePassKit.notFound("tier " + request.getTierId());
+                }
+                if (!request.getExternalId().isEmpty()
+                        && program.memberIdsByExternalId.containsKey(request.getExternalId())) {
+                    throw FakePassKit.alreadyExists("member " + request.getExternalId());
+                }
+                String memberId = FakePassKit.newId();
+                members.put(memberId, request.toBuilder().setId(memberId).build());
+                if (!request.getExternalId().isEmpty()) {
+                    program.memberIdsByExternalId.put(request.getExternalId(), memberId);
+                }
+                return id(memberId);
+            }
+        });
+    }
+
+    // Replaces the fields set in the request, leaving the others as they were
+    @Override
+    public void updateMember(MemberOuterClass.Member request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                MemberOuterClass.Member member = member(request.getId(), request.getProgramId(),
+                        request.getExternalId());
+                members.put(member.getId(), member.toBuilder().mergeFrom(request).setId(member.getId()).build());
+                return id(member.getId());
+            }
+        });
+    }
+
+    @Override
+    public void getMemberRecordById(CommonObjects.Id request, StreamObserver<MemberOuterClass.Member> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                return member(request.getId(), "", "");
+            }
+        });
+    }
+
+    @Override
+    public void getMemberRecordByExternalId(MemberOuterClass.MemberRecordByExternalIdRequest request,
+            StreamObserver<MemberOuterClass.Member> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                return member("", request.getProgramId(), request.getExternalId());
+            }
+        });
+    }
+
+    @Override
+    public void checkInMember(MemberOuterClass.MemberCheckInOutRequest request,
+            StreamObserver<MemberEventsOuterClass.MemberEvent> response) {
+        FakePassKit.reply(response, () -> record(request, MemberEventsOuterClass.MemberEvents.EVENT_MEMBER_CHECK_IN));
+    }
+
+    @Override
+    public void checkOutMember(MemberOuterClass.MemberCheckInOutRequest request,
+            StreamObserver<MemberEventsOuterClass.MemberEvent> response) {
+        FakePassKit.reply(response, () -> record(request, MemberEventsOuterClass.MemberEvents.EVENT_MEMBER_CHECK_OUT));
+    }
+
+    private synchronized MemberEventsOuterClass.MemberEvent record(MemberOuterClass.MemberCheckInOutRequest request,
+            MemberEventsOuterClass.MemberEvents type) {
+        MemberOuterClass.Member member = member(request.getMemberId(), "", "");
+        long now = System.currentTimeMillis();
+        MemberEventsOuterClass.MemberEvent event = MemberEventsOuterClass.MemberEvent.newBuilder()
+                .setId(FakePassKit.newId())
+                .setMember(member)
+                .setEventType(type)
+                .setLat(request.getLat())
+                .setLon(request.getLon())
+                .setAddress(request.getAddress())
+                .setExternalId(request.getExternalEventId())
+                .putAllMetaData(request.getMetaDataMap())
+                .setCreated(Timestamp.newBuilder().setSeconds(now / 1000).setNanos((int) (now % 1000) * 1_000_000))
+                .build();
+        program(member.getProgramId()).events.add(event);
+        return event;
+    }
+
+    @Override
+    public void earnPoints(MemberOuterClass.EarnBurnPointsRequest request,
+            StreamObserver<MemberOuterClass.MemberPoints> response) {
+        FakePassKit.reply(response, () -> addPoints(request, 1));
+    }
+
+    @Override
+    public void burnPoints(MemberOuterClass.EarnBurnPointsRequest request,
+            StreamObserver<MemberOuterClass.MemberPoints> response) {
+        FakePassKit.reply(response, () -> addPoints(request, -1));
+    }
+
+    private synchronized MemberOuterClass.MemberPoints addPoints(MemberOuterClass.EarnBurnPointsRequest request,
+            int sign) {
+        MemberOuterClass.Member member = member(request.getId(), request.getProgramId(), request.getExternalId());
+        float points = member.getPoints() + sign * request.getPoints();
+        float secondaryPoints = member.getSecondaryPoints() + sign * request.getSecondaryPoints();
+        float tierPoints = member.getTierPoints() + sign * request.getTierPoints();
+        if (points < 0 || secondaryPoints < 0 || tierPoints < 0) {
+            throw FakePassKit.failedPrecondition("member " + member.getId() + " doesn't have enough points");
+        }
+        members.put(member.getId(), member.toBuilder()
+                .setPoints(points)
+                .setSecondaryPoints(secondaryPoints)
+                .setTierPoints(tierPoints)
+                .build());
+        return MemberOuterClass.MemberPoints.newBuilder()
+                .setId(member.getId())
+                .setPoints(points)
+                .setSecondaryPoints(secondaryPoints)
+                .setTierPoints(tierPoints)
+                .build();
+    }
+
+    @Override
+    public void listMemberEvents(MemberOuterClass.ListRequest request,
+            StreamObserver<MemberEventsOuterClass.MemberEvent> response) {
+        List<MemberEventsOuterClass.MemberEvent> events;
+        synchronized (this) {
+            Program program = programs.get(request.getProgramId());
+            if (program == null) {
+                response.onError(FakePassKit.notFound("program " + request.getProgramId()));
+                return;
+            }
+            events = new ArrayList<>(program.events);
+        }
+        FakePassKit.replyAll(response, events, request.getFilters());
+    }
+
+    @Override
+    public void getProgramEnrolment(CommonObjects.Id request, StreamObserver<Distribution.EnrolmentUrls> response) {
+        FakePassKit.reply(response, () -> {
+            synchronized (this) {
+                Program program = program(request.getId());
+                Distribution.EnrolmentUrls.Builder urls = Distribution.EnrolmentUrls.newBuilder()
+                        .setPageUrl("https://pub1.pskt.io/c/" + program.shortCode)
+                        .setQrCodeUrl("https://pub1.pskt.io/c/" + program.shortCode + ".png");
+                for (TierOuterClass.Tier tier : program.tiers.values()) {
+                    if (tier.getAllowTierEnrolment().getOk()) {
+                        String url = "https://pub1.pskt.io/c/" + tier.getShortCode();
+                        urls.putTierEnrolmentUrls(tier.getId(), url);
+                        urls.putTierEnrolmentQRs(tier.getId(), url + ".png");
+                    }
+                }
+                return urls.build();
+            }
+        });
+    }
+
+    // Returns an enrolled member, or null if there is none with the id
+    public synchronized MemberOuterClass.Member getMember(String memberId) {
+        return members.get(memberId);
+    }
+
+    public synchronized int getMemberCount() {
+        return members.size();
+    }
+}
@@ -0,0 +1,347 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Filter;
+
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * In-process fakes of the Images, Templates, Members, SingleUseCoupons, EventTickets and Flights services, for running
+ * the quickstarts and load testing the client without PassKit credentials or a network. Each fake keeps what it is
+ * sent in memory and answers the way PassKit does for the calls the quickstarts make: ids for what is created,
+ * NOT_FOUND for what doesn't exist and ALREADY_EXISTS for duplicate members, tickets and flights. Nothing is checked
+ * beyond that, so a call the fake accepts may still be rejected by PassKit.
+ *
+ * Every call waits for a delay drawn from its method's Latency, and may be failed on the way in, either at random at
+ * the configured error rate or by failNext. The call is then answered on a scheduler thread, so slow calls don't hold
+ * up others and the client sees the same concurrency it would against PassKit.
+ *
+ * Setting grpc.fake=true in passkit.properties points GrpcConnection and GrpcConnectionPool at shared(), configured by
+ * grpc.fake.latency, grpc.fake.errorRate and grpc.fake.errorCode.
+ */
+public class FakePassKit implements Closeable {
+
+    private static final String ID_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    private static FakePassKit shared;
+
+    private final String name = InProcessServerBuilder.generateName();
+    private final ScheduledExecutorService scheduler;
+    private final Server server;
+    private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+    private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private volatile Latency latency;
+    private volatile double errorRate;
+    private volatile Status.Code errorCode = Status.Code.UNAVAILABLE;
+
+    private final FakeImages images = new FakeImages();
+    private final FakeTemplates templates = new FakeTemplates();
+    private final FakeMembers members = new FakeMembers();
+    private final FakeCoupons coupons = new FakeCoupons();
+    private final FakeEventTickets eventTickets = new FakeEventTickets();
+    private final FakeFlights flights = new FakeFlights();
+
+    // Starts the fakes, delaying each call by the latency. Calls are answered from a pool of schedulerThreads.
+    public FakePassKit(Latency latency, int schedulerThreads) throws IOException {
+        this.latency = latency;
+        this.scheduler = Executors.newScheduledThreadPool(schedulerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "fake-passkit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ServerInterceptor delay = new Delay();
+        this.server = InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(images, delay))
+                .addService(ServerInterceptors.intercept(templates, delay))
+                .addService(ServerInterceptors.intercept(members, delay))
+                .addService(ServerInterceptors.intercept(coupons, delay))
+                .addService(ServerInterceptors.intercept(eventTickets, delay))
+                .addService(ServerInterceptors.intercept(flights, delay))
+                .build()
+                .start();
+    }
+
+    public FakePassKit() throws IOException {
+        this(Latency.none(), 4);
+    }
+
+    // The fakes GrpcConnection and GrpcConnectionPool use when grpc.fake is true, started on first use
+    public static synchronized FakePassKit shared() throws IOException {
+        if (shared == null) {
+            Properties properties = PassKitProperties.load();
+            FakePassKit fake = new FakePassKit(Latency.parse(properties.getProperty("grpc.fake.latency", "none")),
+                    Runtime.getRuntime().availableProcessors());
+            fake.setErrorRate(Double.parseDouble(properties.getProperty("grpc.fake.errorRate", "0")),
+                    Status.Code.valueOf(properties.getProperty("grpc.fake.errorCode", "UNAVAILABLE")));
+            shared = fake;
+        }
+        return shared;
+    }
+
+    // Whether passkit.properties asks for the fakes instead of grpc.host
+    static boolean isEnabled(Properties properties) {
+        return Boolean.parseBoolean(properties.getProperty("grpc.fake", "false"));
+    }
+
+    // A builder for a channel to the fakes, for GrpcConnection, GrpcConnectionPool or a test
+    public InProcessChannelBuilder channelBuilder() {
+        return InProcessChannelBuilder.forName(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setLatency(Latency latency) {
+        this.latency = latency;
+    }
+
+    // Overrides the latency of one method, for example MembersGrpc.getEnrolMemberMethod()
+    public void setLatency(MethodDescriptor<?, ?> method, Latency latency) {
+        latencies.put(method.getFullMethodName(), latency);
+    }
+
+    // Fails the given fraction of all calls with the code
+    public void setErrorRate(double errorRate, Status.Code errorCode) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("error rate must be between 0 and 1");
+        }
+        this.errorRate = errorRate;
+        this.errorCode = errorCode;
+    }
+
+    // Fails the next calls to the method with the code, before the fake sees them
+    public void failNext(MethodDescriptor<?, ?> method, int times, Status.Code code) {
+        failures.put(method.getFullMethodName(), new Failure(times, code));
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public FakeImages getImages() {
+        return images;
+    }
+
+    public FakeTemplates getTemplates() {
+        return templates;
+    }
+
+    public FakeMembers getMembers() {
+        return members;
+    }
+
+    public FakeCoupons getCoupons() {
+        return coupons;
+    }
+
+    public FakeEventTickets getEventTickets() {
+        return eventTickets;
+    }
+
+    public FakeFlights getFlights() {
+        return flights;
+    }
+
+    @Override
+    public void close() {
+        server.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    // Answers a unary call with what answer returns, or with the status of the StatusRuntimeException it throws
+    static <T> void reply(StreamObserver<T> observer, Supplier<T> answer) {
+        T response;
+        try {
+            response = answer.get();
+        } catch (StatusRuntimeException e) {
+            observer.onError(e);
+            return;
+        }
+        observer.onNext(response);
+        observer.onCompleted();
+    }
+
+    // Sends the items in the page the filters' offset and limit select, all of them when no limit is set
+    static <T> void replyAll(StreamObserver<T> observer, List<T> items, Filter.Filters filters) {
+        int from = Math.min(filters.getOffset(), items.size());
+        int to = filters.getLimit() == 0 ? items.size() : Math.min(items.size(), from + filters.getLimit());
+        for (T item : items.subList(from, to)) {
+            observer.onNext(item);
+        }
+        observer.onCompleted();
+    }
+
+    // A random 22 character id, the length and alphabet of PassKit's
+    static String newId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] id = new char[22];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = ID_ALPHABET.charAt(random.nextInt(ID_ALPHABET.length()));
+        }
+        return new String(id);
+    }
+
+    static StatusRuntimeException notFound(String what) {
+        return Status.NOT_FOUND.withDescription(what + " not found").asRuntimeException();
+    }
+
+    static StatusRuntimeException alreadyExists(String what) {
+        return Status.ALREADY_EXISTS.withDescription(what + " already exists").asRuntimeException();
+    }
+
+    static StatusRuntimeException failedPrecondition(String why) {
+        return Status.FAILED_PRECONDITION.withDescription(why).asRuntimeException();
+    }
+
+    // Decides on the way in whether a call fails, and hands it to the fake once its delay has passed. The call's
+    // callbacks are serialized on the wrapper, since the delayed one runs on a scheduler thread.
+    private final class Delay implements ServerInterceptor {
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                ServerCallHandler<ReqT, RespT> next) {
+            calls.incrementAndGet();
+            String method = call.getMethodDescriptor().getFullMethodName();
+            Status.Code injected = injectedError(method);
+            long delayNanos = latencies.getOrDefault(method, latency).nextNanos();
+            return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(
+                    next.startCall(call, headers)) {
+                @Override
+                public synchronized void onMessage(ReqT message) {
+                    super.onMessage(message);
+                }
+
+                @Override
+                public void onHalfClose() {
+                    scheduler.schedule(() -> {
+                        synchronized (this) {
+                            if (injected != null) {
+                                call.close(Status.fromCode(injected).withDescription("injected by FakePassKit"),
+                                        new Metadata());
+                            } else {
+                                super.onHalfClose();
+                            }
+                        }
+                    }, delayNanos, TimeUnit.NANOSECONDS);
+                }
+
+                @Override
+                public synchronized void onCancel() {
+                    super.onCancel();
+                }
+
+                @Override
+                public synchronized void onComplete() {
+                    super.onComplete();
+                }
+            };
+        }
+
+        private Status.Code injectedError(String method) {
+            Failure failure = failures.get(method);
+            if (failure != null) {
+                if (failure.remaining.getAndDecrement() > 0) {
+                    injectedErrors.incrementAndGet();
+                    return failure.code;
+                }
+                failures.remove(method, failure);
+            }
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                return errorCode;
+            }
+            return null;
+        }
+    }
+
+    private static final class Failure {
+        private final AtomicInteger remaining;
+        private final Status.Code code;
+
+        private Failure(int times, Status.Code code) {
+            this.remaining = new AtomicInteger(times);
+            this.code = code;
+        }
+    }
+
+    // Distribution of the delay before each call is answered
+    public interface Latency {
+        long nextNanos();
+
+        static Latency none() {
+            return () -> 0;
+        }
+
+        static Latency fixed(long millis) {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            return () -> nanos;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            long min = TimeUnit.MILLISECONDS.toNanos(minMillis);
+            long max = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+            return () -> ThreadLocalRandom.current().nextLong(min, max + 1);
+        }
+
+        // Log-normal around the median, with sigma the standard deviation of its logarithm: 0.5 puts the 99th
+        // percentile at about 3.2 times the median
+        static Latency logNormal(double medianMillis, double sigma) {
+            double mu = Math.log(TimeUnit.MILLISECONDS.toNanos(1) * medianMillis);
+            return () -> (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+        }
+
+        // Parses none, fixed:<millis>, uniform:<min>,<max> or lognormal:<median>,<sigma>
+        static Latency parse(String spec) {
+            String[] parts = spec.trim().split("[:,]");
+            try {
+                switch (parts[0].toLowerCase()) {
+                    case "none":
+                        return none();
+                    case "fixed":
+                        return fixed(Long.parseLong(parts[1].trim()));
+                    case "uniform":
+                        return uniform(Long.parseLong(parts[1].trim()), Long.parseLong(parts[2].trim()));
+                    case "lognormal":
+                        return logNormal(Double.parseDouble(parts[1].trim()), Double.parseDouble(parts[2].trim()));
+                    default:
+                        break;
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException("couldn't parse latency " + spec, e);
+            }
+            throw new IllegalArgumentException("unknown latency " + spec
+                    + ", expected none, fixed:<millis>, uniform:<min>,<max> or lognormal:<median>,<sigma>");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Template;
+import com.passkit.grpc.TemplatesGrpc;
+
+import com.google.protobuf.Empty;
+import io.grpc.stub.StreamObserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Fake of the Templates service for FakePassKit. The default template of a protocol is a bare template in PassKit's
+ * default colours with a couple of data fields, and created templates are kept until they are deleted.
+ */
+public class FakeTemplates extends TemplatesGrpc.TemplatesImplBase {
+
+    private final Map<String, Template.PassTemplate> templates = new ConcurrentHashMap<>();
+
+    @Override
+    public void getDefaultTemplate(Template.DefaultTemplateRequest request,
+            StreamObserver<Template.PassTemplate> response) {
+        FakePassKit.reply(response, () -> Template.PassTemplate.newBuilder()
+                .setProtocol(request.getProtocol())
+                .setRevision(request.getRevision())
+                .setName("Default template")
+                .setColors(Template.Colors.newBuilder()
+                        .setBackgroundColor("#FFFFFF")
+                        .setLabelColor("#000000")
+                        .setTextColor("#000000"))
+                .setData(Template.Data.newBuilder()
+                        .addDataFields(field("person.displayName", Template.FieldSection.SECONDARY_FIELDS))
+                        .addDataFields(field("meta.passId", Template.FieldSection.SECONDARY_FIELDS)))
+                .setTimezone("Europe/London")
+                .build());
+    }
+
+    private static Template.DataField field(String uniqueName, Template.FieldSection section) {
+        return Template.DataField.newBuilder()
+                .setUniqueName(uniqueName)
+                .setAppleWalletFieldRenderOptions(Template.AppleWalletFieldRenderOptions.newBuilder()
+                        .setPositionSettings(Template.PositionSettings.newBuilder().setSection(section)))
+                .build();
+    }
+
+    @Override
+    public void createTemplate(Template.PassTemplate request, StreamObserver<CommonObjects.Id> response) {
+        FakePassKit.reply(response, () -> {
+            String id = FakePassKit.newId();
+            templates.put(id, request.toBuilder().setId(id).build());
+            return CommonObjects.Id.newBuilder().setId(id).build();
+        });
+    }
+
+    @Override
+    public void deleteTemplate(CommonObjects.Id request, StreamObserver<Empty> response) {
+        FakePassKit.reply(response, () -> {
+            if (templates.remove(request.getId()) == null) {
+                throw FakePassKit.notFound("template " + request.getId());
+            }
+            return Empty.getDefaultInstance();
+        });
+    }
+
+    // Returns a created template, or null if there is none with the id
+    public Template.PassTemplate getTemplate(String id) {
+        return templates.get(id);
+    }
+
+    public int getTemplateCount() {
+        return templates.size();
+    }
+}
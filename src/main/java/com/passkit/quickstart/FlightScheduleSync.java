@@ -0,0 +1,479 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Flights.Airport;
+import com.passkit.grpc.Flights.CarrierOuterClass;
+import com.passkit.grpc.Flights.FlightDesignatorOuterClass;
+import com.passkit.grpc.Flights.FlightOuterClass;
+import com.passkit.grpc.Flights.FlightsGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import com.google.protobuf.util.JsonFormat;
+import io.grpc.Status;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/*
+ * Provisions carriers, ports, flights and flight designators from a schedule file, sending only the calls needed to
+ * bring PassKit in line with it. An index file keeps what earlier runs provisioned. The schedule is diffed against
+ * it, and only new records are created, changed records updated and records gone from the schedule deleted, so
+ * importing a full schedule again costs one call per change rather than one per record.
+ *
+ * Flights and designators name their carrier and ports, so the changes are made in four phases: deletes of flights
+ * and designators, creates and updates of carriers and ports, creates and updates of flights and designators, then
+ * deletes of carriers and ports. Within a phase at most maxInFlight calls are outstanding. Calls failing with a
+ * retryable status are retried with exponential backoff. A carrier or port can't be deleted until PassKit has
+ * finished removing the boarding passes of the flights deleted before it, so those deletes are also retried on
+ * FAILED_PRECONDITION, for up to about 45 seconds with the default backoff. A create that finds the record already
+ * exists is sent as an update, an update that finds none as a create, and a delete of a record that is already gone
+ * counts as done. Records whose calls fail are left out of the index, so the next run tries them again.
+ *
+ * The schedule is JSONL with one record per line, named by its kind, in the protobuf JSON format, for example
+ * {"carrier": {"iataCarrierCode": "YY", "airlineName": "ABC Airline"}},
+ * {"port": {"iataAirportCode": "YY4", "airportName": "ABC Airport"}},
+ * {"flight": {"carrierCode": "YY", "flightNumber": "123", "departureDate": {"year": 2026, "month": 4, "day": 25}}} or
+ * {"flightDesignator": {"carrierCode": "YY", "flightNumber": "123", "revision": 2}}.
+ */
+public final class FlightScheduleSync {
+    private static final Logger logger = Logger.getLogger(FlightScheduleSync.class.getName());
+
+    private static final long CALL_TIMEOUT_MILLIS = 30_000;
+    private static final int REFERENCE_DELETE_ATTEMPTS = 12;
+
+    // Kinds of reference data, with the phase their creates and updates are made in
+    private enum Kind {
+        CARRIER("carrier", 0),
+        PORT("port", 0),
+        FLIGHT("flight", 1),
+        FLIGHT_DESIGNATOR("flightDesignator", 1);
+
+        private final String name;
+        private final int level;
+
+        Kind(String name, int level) {
+            this.name = name;
+            this.level = level;
+        }
+    }
+
+    private enum Operation {
+        CREATE, UPDATE, DELETE
+    }
+
+    private final GrpcConnectionPool pool;
+    private final int maxInFlight;
+    private final RetryPolicy retryPolicy;
+    private final RetryPolicy referenceDeletePolicy;
+
+    // Reads the window and retry settings from passkit.properties
+    public FlightScheduleSync(GrpcConnectionPool pool) throws IOException {
+        this(pool, PassKitProperties.load());
+    }
+
+    private FlightScheduleSync(GrpcConnectionPool pool, Properties properties) {
+        this(pool,
+                Integer.parseInt(properties.getProperty("flights.sync.maxInFlight", "32")),
+                Integer.parseInt(properties.getProperty("flights.sync.maxAttempts", "5")),
+                Long.parseLong(properties.getProperty("flights.sync.initialBackoffMillis", "200")));
+    }
+
+    public FlightScheduleSync(GrpcConnectionPool pool, int maxInFlight, int maxAttempts, long initialBackoffMillis) {
+        if (maxInFlight < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("maxInFlight and maxAttempts must be at least 1");
+        }
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+        this.retryPolicy = new RetryPolicy(maxAttempts, initialBackoffMillis);
+        this.referenceDeletePolicy = new RetryPolicy(Math.max(maxAttempts, REFERENCE_DELETE_ATTEMPTS),
+                initialBackoffMillis).retryingOn(Status.Code.FAILED_PRECONDITION);
+    }
+
+    // Brings PassKit in line with the schedule. The index file is created if it doesn't exist and rewritten with
+    // what is provisioned once the run completes.
+    public Summary sync(Path schedule, Path index) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        Map<String, Message> provisioned = new ConcurrentHashMap<>(readIndex(index));
+        Map<String, Message> wanted = readSchedule(schedule);
+
+        List<Change> changes = new ArrayList<>();
+        long unchanged = 0;
+        for (Map.Entry<String, Message> record : wanted.entrySet()) {
+            Message current = provisioned.get(record.getKey());
+            if (current == null) {
+                changes.add(new Change(Operation.CREATE, record.getKey(), record.getValue()));
+            } else if (!current.equals(record.getValue())) {
+                changes.add(new Change(Operation.UPDATE, record.getKey(), record.getValue()));
+            } else {
+                unchanged++;
+            }
+        }
+        for (Map.Entry<String, Message> record : provisioned.entrySet()) {
+            if (!wanted.containsKey(record.getKey())) {
+                changes.add(new Change(Operation.DELETE, record.getKey(), record.getValue()));
+            }
+        }
+        logger.info(String.format("%d records in schedule, %d provisioned, %d changes", wanted.size(),
+                provisioned.size(), changes.size()));
+
+        Progress progress = new Progress();
+        try (CallWindow window = new CallWindow("flight-schedule-sync", maxInFlight, retryPolicy)) {
+            runPhase(changes, true, 1, provisioned, progress, window);
+            runPhase(changes, false, 0, provisioned, progress, window);
+            runPhase(changes, false, 1, provisioned, progress, window);
+            runPhase(changes, true, 0, provisioned, progress, window);
+        } finally {
+            writeIndex(index, provisioned);
+        }
+        Summary summary = new Summary(wanted.size(), unchanged, progress.created.get(), progress.updated.get(),
+                progress.deleted.get(), progress.failed.get(), progress.calls.get(), System.nanoTime() - startNanos);
+        logger.info(summary.toString());
+        return summary;
+    }
+
+    private void runPhase(List<Change> changes, boolean deletes, int level, Map<String, Message> provisioned,
+            Progress progress, CallWindow window) throws InterruptedException {
+        for (Change change : changes) {
+            if ((change.operation == Operation.DELETE) == deletes && kindOf(change.key).level == level) {
+                window.acquire();
+                send(change, change.operation, 1, window, provisioned, progress);
+            }
+        }
+        // wait for the window to drain before the next phase
+        window.awaitIdle();
+    }
+
+    private void send(Change change, Operation operation, int attempt, CallWindow window,
+            Map<String, Message> provisioned, Progress progress) {
+        progress.calls.incrementAndGet();
+        ListenableFuture<?> call;
+        try {
+            call = call(FlightsGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), operation, change.record);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                done(operation);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status status = Status.fromThrowable(t);
+                // the index is out of step with PassKit, the other operation is tried once
+                if (operation == change.operation && operation == Operation.CREATE
+                        && status.getCode() == Status.Code.ALREADY_EXISTS) {
+                    send(change, Operation.UPDATE, attempt, window, provisioned, progress);
+                } else if (operation == change.operation && operation == Operation.UPDATE
+                        && status.getCode() == Status.Code.NOT_FOUND) {
+                    send(change, Operation.CREATE, attempt, window, provisioned, progress);
+                } else if (operation == Operation.DELETE && status.getCode() == Status.Code.NOT_FOUND) {
+                    done(operation);
+                } else if (!window.retry(policy(change, operation), attempt, status.getCode(),
+                        () -> send(change, operation, attempt + 1, window, provisioned, progress))) {
+                    logger.warning("couldn't " + operation.name().toLowerCase() + " " + change.key + ": " + status);
+                    progress.failed.incrementAndGet();
+                    window.release();
+                }
+            }
+
+            private void done(Operation operation) {
+                if (change.operation == Operation.DELETE) {
+                    provisioned.remove(change.key);
+                    progress.deleted.incrementAndGet();
+                } else {
+                    provisioned.put(change.key, change.record);
+                    (operation == Operation.CREATE ? progress.created : progress.updated).incrementAndGet();
+                }
+                window.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private RetryPolicy policy(Change change, Operation operation) {
+        return operation == Operation.DELETE && kindOf(change.key).level == 0 ? referenceDeletePolicy : retryPolicy;
+    }
+
+    private static ListenableFuture<?> call(FlightsGrpc.FlightsFutureStub stub, Operation operation, Message record) {
+        if (record instanceof CarrierOuterClass.Carrier) {
+            CarrierOuterClass.Carrier carrier = (CarrierOuterClass.Carrier) record;
+            switch (operation) {
+                case CREATE:
+                    return stub.createCarrier(carrier);
+                case UPDATE:
+                    return stub.updateCarrier(carrier);
+                default:
+                    return stub.deleteCarrier(CarrierOuterClass.CarrierCode.newBuilder()
+                            .setCarrierCode(carrier.getIataCarrierCode())
+                            .build());
+            }
+        }
+        if (record instanceof Airport.Port) {
+            Airport.Port port = (Airport.Port) record;
+            switch (operation) {
+                case CREATE:
+                    return stub.createPort(port);
+                case UPDATE:
+                    return stub.updatePort(port);
+                default:
+                    return stub.deletePort(Airport.AirportCode.newBuilder()
+                            .setAirportCode(port.getIataAirportCode())
+                            .build());
+            }
+        }
+        if (record instanceof FlightOuterClass.Flight) {
+            FlightOuterClass.Flight flight = (FlightOuterClass.Flight) record;
+            switch (operation) {
+                case CREATE:
+                    return stub.createFlight(flight);
+                case UPDATE:
+                    return stub.updateFlight(flight);
+                default:
+                    return stub.deleteFlight(FlightOuterClass.FlightRequest.newBuilder()
+                            .setCarrierCode(flight.getCarrierCode())
+                            .setFlightNumber(flight.getFlightNumber())
+                            .setBoardingPoint(flight.getBoardingPoint())
+                            .setDeplaningPoint(flight.getDeplaningPoint())
+                            .setDepartureDate(flight.getDepartureDate())
+                            .build());
+            }
+        }
+        FlightDesignatorOuterClass.FlightDesignator designator = (FlightDesignatorOuterClass.FlightDesignator) record;
+        switch (operation) {
+            case CREATE:
+                return stub.createFlightDesignator(designator);
+            case UPDATE:
+                return stub.updateFlightDesignator(designator);
+            default:
+                return stub.deleteFlightDesignator(FlightDesignatorOuterClass.FlightDesignatorRequest.newBuilder()
+                        .setCarrierCode(designator.getCarrierCode())
+                        .setFlightNumber(designator.getFlightNumber())
+                        .setRevision(designator.getRevision())
+                        .build());
+        }
+    }
+
+    // Keys start with the kind's name, followed by the fields PassKit identifies the record by
+    private static String key(Message record) {
+        if (record instanceof CarrierOuterClass.Carrier) {
+            return Kind.CARRIER.name + "/" + ((CarrierOuterClass.Carrier) record).getIataCarrierCode();
+        }
+        if (record instanceof Airport.Port) {
+            return Kind.PORT.name + "/" + ((Airport.Port) record).getIataAirportCode();
+        }
+        if (record instanceof FlightOuterClass.Flight) {
+            FlightOuterClass.Flight flight = (FlightOuterClass.Flight) record;
+            CommonObjects.Date date = flight.getDepartureDate();
+            return Kind.FLIGHT.name + "/" + flight.getCarrierCode() + "/" + flight.getFlightNumber() + "/"
+                    + flight.getBoardingPoint() + "/" + flight.getDeplaningPoint() + "/"
+                    + String.format("%04d-%02d-%02d", date.getYear(), date.getMonth(), date.getDay());
+        }
+        FlightDesignatorOuterClass.FlightDesignator designator = (FlightDesignatorOuterClass.FlightDesignator) record;
+        return Kind.FLIGHT_DESIGNATOR.name + "/" + designator.getCarrierCode() + "/" + designator.getFlightNumber()
+                + "/" + designator.getRevision();
+    }
+
+    private static Kind kindOf(String key) {
+        return kindNamed(key.substring(0, Math.max(0, key.indexOf('/'))));
+    }
+
+    private static Kind kindNamed(String name) {
+        for (Kind kind : Kind.values()) {
+            if (kind.name.equals(name)) {
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("unknown kind of record: " + name);
+    }
+
+    private static Message.Builder newBuilder(Kind kind) {
+        switch (kind) {
+            case CARRIER:
+                return CarrierOuterClass.Carrier.newBuilder();
+            case PORT:
+                return Airport.Port.newBuilder();
+            case FLIGHT:
+                return FlightOuterClass.Flight.newBuilder();
+            default:
+                return FlightDesignatorOuterClass.FlightDesignator.newBuilder();
+        }
+    }
+
+    private static Map<String, Message> readSchedule(Path schedule) throws IOException {
+        Map<String, Message> records = new HashMap<>();
+        JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+        JsonFormat.Printer printer = JsonFormat.printer();
+        try (RecordReader reader = new RecordReader(schedule)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    Struct.Builder wrapper = Struct.newBuilder();
+                    parser.merge(line, wrapper);
+                    if (wrapper.getFieldsCount() != 1) {
+                        throw new IllegalArgumentException("line " + reader.lineNumber()
+                                + ": expected one record, found " + wrapper.getFieldsCount());
+                    }
+                    Map.Entry<String, Value> field = wrapper.getFieldsMap().entrySet().iterator().next();
+                    Message.Builder record = newBuilder(kindNamed(field.getKey()));
+                    parser.merge(printer.print(field.getValue()), record);
+                    Message message = record.build();
+                    if (records.put(key(message), message) != null) {
+                        logger.warning("line " + reader.lineNumber() + ": " + key(message)
+                                + " is in the schedule more than once, using the last");
+                    }
+                } catch (InvalidProtocolBufferException | IllegalArgumentException e) {
+                    throw new IOException("invalid schedule at line " + reader.lineNumber() + ": " + e.getMessage(),
+                            e);
+                }
+            }
+        }
+        return records;
+    }
+
+    // The index has a line per provisioned record: its key and the base64 of the record as last sent
+    private static Map<String, Message> readIndex(Path index) throws IOException {
+        Map<String, Message> records = new HashMap<>();
+        if (!Files.exists(index)) {
+            return records;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                // keyed again from the record, so indexes written before a key gained a field still match
+                Message record = newBuilder(kindOf(line.substring(0, tab)))
+                        .mergeFrom(Base64.getDecoder().decode(line.substring(tab + 1)))
+                        .build();
+                records.put(key(record), record);
+            }
+        }
+        return records;
+    }
+
+    private static void writeIndex(Path index, Map<String, Message> records) throws IOException {
+        Path directory = index.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, index.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Message> record : new TreeMap<>(records).entrySet()) {
+                writer.write(record.getKey());
+                writer.write('\t');
+                writer.write(Base64.getEncoder().encodeToString(record.getValue().toByteArray()));
+                writer.newLine();
+            }
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class Change {
+        private final Operation operation;
+        private final String key;
+        private final Message record;
+
+        private Change(Operation operation, String key, Message record) {
+            this.operation = operation;
+            this.key = key;
+            this.record = record;
+        }
+    }
+
+    private static final class Progress {
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong updated = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong calls = new AtomicLong();
+    }
+
+    public static final class Summary {
+        private final long records;
+        private final long unchanged;
+        private final long created;
+        private final long updated;
+        private final long deleted;
+        private final long failed;
+        private final long calls;
+        private final long elapsedNanos;
+
+        private Summary(long records, long unchanged, long created, long updated, long deleted, long failed,
+                long calls, long elapsedNanos) {
+            this.records = records;
+            this.unchanged = unchanged;
+            this.created = created;
+            this.updated = updated;
+            this.deleted = deleted;
+            this.failed = failed;
+            this.calls = calls;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        // Records in the schedule
+        public long getRecords() {
+            return records;
+        }
+
+        public long getUnchanged() {
+            return unchanged;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getUpdated() {
+            return updated;
+        }
+
+        public long getDeleted() {
+            return deleted;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        // Calls sent, including retries
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records, %d unchanged, %d created, %d updated, %d deleted, %d failed, "
+                    + "%d calls in %dms", records, unchanged, created, updated, deleted, failed, calls,
+                    getElapsedMillis());
+        }
+    }
+}
@@ -36,6 +36,13 @@ public final class GrpcConnection {
             properties.load(GrpcConnection.class.getResourceAsStream("/passkit.properties"));
             mHost = properties.getProperty("grpc.host", "grpc.pub1.passkit.io");
             mPort = Integer.parseInt(properties.getProperty("grpc.port", "443"));
+            if (FakePassKit.isEnabled(properties)) {
+                // grpc.fake=true talks to in-process fakes instead, so no credentials are needed
+                channel = FakePassKit.shared().channelBuilder()
+                        .intercept(RpcMetrics.shared())
+                        .build();
+                return;
+            }
             try {
                 SslContext ctx = buildSslContext(mHost, mPort,
                         properties.getProperty("credentials.chain", "src/main/resources/credentials/ca-chain.pem"),
@@ -45,6 +52,7 @@ public final class GrpcConnection {
                 channel = NettyChannelBuilder.forAddress(mHost, mPort)
                         .negotiationType(NegotiationType.TLS)
                         .sslContext(ctx)
+                        .intercept(RpcMetrics.shared())
                         .build();
             } catch (SSLException e) {
                 logger.log(Level.SEVERE, "couldn't build SSL context from passkit.properties values or program defaults");
@@ -66,6 +74,7 @@ public final class GrpcConnection {
         this(NettyChannelBuilder.forAddress(mHost, mPort)
                 .negotiationType(NegotiationType.TLS)
                 .sslContext(sslContext)
+                .intercept(RpcMetrics.shared())
                 .build());
     }
 
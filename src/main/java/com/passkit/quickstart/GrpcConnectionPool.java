@@ -1,22 +1,68 @@
 package com.passkit.quickstart;
 
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
 import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
 import io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.DefaultThreadFactory;
 
 import javax.net.ssl.SSLException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class GrpcConnectionPool {
-    private final List<ManagedChannel> channelPool = new ArrayList<>();
-    private final AtomicInteger currentIndex = new AtomicInteger(0);
-    private final int poolSize;
+    private static final Logger logger = Logger.getLogger(GrpcConnectionPool.class.getName());
+    private static final long NOT_SET = -1;
+    // gRPC's initial reconnect backoff, so resetting it more often than this would only add connection attempts
+    private static final long BACKOFF_RESET_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // How long a channel dropped from the pool stays open for callers that took it from an older snapshot but haven't
+    // started their call yet
+    private static final long DRAIN_GRACE_MILLIS = 5000;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int streamsPerChannel;
+    private final long idleCooldownNanos;
+    private final Supplier<ManagedChannelBuilder<?>> channelFactory;
+    private final EventLoopGroup eventLoopGroup;
+    private final ScheduledExecutorService scaler;
+    private final long startupNanos;
+
+    // Copy-on-write: getChannel() reads a snapshot without locking, the scaler swaps in a new array when resizing
+    private volatile PooledChannel[] channels;
+    private long lowLoadSince = NOT_SET;
+    private final List<PooledChannel> draining = new ArrayList<>();
+    private final AtomicLong lastBackoffReset = new AtomicLong(System.nanoTime() - BACKOFF_RESET_INTERVAL_NANOS);
 
     // Build SslContext similar to GrpcConnection class
     private static SslContext buildSslContext(String host, int port, String trustFile, String clientCertFile,
@@ -27,44 +73,402 @@ public class GrpcConnectionPool {
                 .build();
     }
 
+    // Fixed size pool
     public GrpcConnectionPool(int poolSize) throws IOException {
-        this.poolSize = poolSize;
+        this(poolSize, poolSize);
+    }
+
+    // Elastic pool that grows towards maxSize when the average number of calls in flight per channel goes over
+    // grpc.pool.streamsPerChannel, and shrinks back to minSize once load has stayed low for
+    // grpc.pool.idleCooldownSeconds
+    public GrpcConnectionPool(int minSize, int maxSize) throws IOException {
+        long started = System.nanoTime();
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("pool size must satisfy 1 <= minSize <= maxSize");
+        }
         Properties properties = new Properties();
         properties.load(GrpcConnection.class.getResourceAsStream("/passkit.properties"));
 
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.streamsPerChannel = Integer.parseInt(properties.getProperty("grpc.pool.streamsPerChannel", "80"));
+        this.idleCooldownNanos = TimeUnit.SECONDS.toNanos(
+                Long.parseLong(properties.getProperty("grpc.pool.idleCooldownSeconds", "60")));
+        // one event loop per channel at most, never more than there are cores
+        this.eventLoopGroup = newEventLoopGroup(Math.min(maxSize, Runtime.getRuntime().availableProcessors()));
+        try {
+            if (FakePassKit.isEnabled(properties)) {
+                this.channelFactory = FakePassKit.shared()::channelBuilder;
+            } else {
+                this.channelFactory = nettyChannelFactory(properties, eventLoopGroup);
+            }
+        } catch (IOException e) {
+            eventLoopGroup.shutdownGracefully();
+            throw e;
+        }
+        this.channels = openChannels(minSize);
+        this.scaler = minSize < maxSize ? newScaler() : null;
+        this.startupNanos = System.nanoTime() - started;
+        // only once every field is set, since the scaler thread uses the pool
+        if (scaler != null) {
+            scaler.scheduleWithFixedDelay(this::scale, 1000, 1000, TimeUnit.MILLISECONDS);
+        }
+        logger.log(Level.INFO, "started pool of " + minSize + " channels in "
+                + TimeUnit.NANOSECONDS.toMillis(startupNanos) + "ms using " + eventLoopGroup.getClass().getSimpleName());
+    }
+
+    // Used by tests to build a fixed pool over in-process or otherwise pre-configured channel builders
+    GrpcConnectionPool(List<? extends ManagedChannelBuilder<?>> channelBuilders) {
+        long started = System.nanoTime();
+        this.minSize = channelBuilders.size();
+        this.maxSize = channelBuilders.size();
+        this.streamsPerChannel = Integer.MAX_VALUE;
+        this.idleCooldownNanos = Long.MAX_VALUE;
+        this.channelFactory = null;
+        this.eventLoopGroup = null;
+        PooledChannel[] opened = new PooledChannel[channelBuilders.size()];
+        for (int i = 0; i < opened.length; i++) {
+            opened[i] = open(channelBuilders.get(i));
+        }
+        this.channels = opened;
+        this.scaler = null;
+        this.startupNanos = System.nanoTime() - started;
+    }
+
+    // Used by tests to run an elastic pool over in-process channels with short scaling timings
+    GrpcConnectionPool(int minSize, int maxSize, int streamsPerChannel, long idleCooldownMillis,
+            long scaleIntervalMillis, Supplier<ManagedChannelBuilder<?>> channelFactory) {
+        long started = System.nanoTime();
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.streamsPerChannel = streamsPerChannel;
+        this.idleCooldownNanos = TimeUnit.MILLISECONDS.toNanos(idleCooldownMillis);
+        this.channelFactory = channelFactory;
+        this.eventLoopGroup = null;
+        this.channels = openChannels(minSize);
+        this.scaler = newScaler();
+        this.startupNanos = System.nanoTime() - started;
+        scaler.scheduleWithFixedDelay(this::scale, scaleIntervalMillis, scaleIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private PooledChannel[] openChannels(int count) {
+        PooledChannel[] opened = new PooledChannel[count];
+        for (int i = 0; i < count; i++) {
+            opened[i] = open(channelFactory.get());
+        }
+        return opened;
+    }
+
+    private static PooledChannel open(ManagedChannelBuilder<?> builder) {
+        CallTracker tracker = new CallTracker();
+        PooledChannel pooled = new PooledChannel(builder.intercept(tracker, RpcMetrics.shared()).build(), tracker);
+        // connect eagerly so unhealthy channels are detected before they are handed out
+        watch(pooled);
+        return pooled;
+    }
+
+    private static ScheduledExecutorService newScaler() {
+        return Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("passkit-grpc-pool-scaler", true));
+    }
+
+    // Uses native epoll transport when it is available on the platform, NIO otherwise
+    private static EventLoopGroup newEventLoopGroup(int threads) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory("passkit-grpc-pool", true);
+        if (Epoll.isAvailable()) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+        return new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    // The PEM files are read and parsed once and the resulting SslContext, event loop group and channel type are
+    // shared by every channel the pool opens
+    private static Supplier<ManagedChannelBuilder<?>> nettyChannelFactory(Properties properties,
+            EventLoopGroup eventLoopGroup) throws IOException {
         String host = properties.getProperty("grpc.host", "grpc.pub1.passkit.io");
         int port = Integer.parseInt(properties.getProperty("grpc.port", "443"));
 
-        for (int i = 0; i < poolSize; i++) {
-            try {
-                SslContext ctx = buildSslContext(host, port,
-                        properties.getProperty("credentials.chain", "src/main/resources/credentials/ca-chain.pem"),
-                        properties.getProperty("credentials.certificate",
-                                "src/main/resources/credentials/certificate.pem"),
-                        properties.getProperty("credentials.key", "src/main/resources/credentials/key-java.pem"),
-                        properties.getProperty("credentials.password", "password").replaceAll("^['\"]|['\"]$", ""));
-
-                ManagedChannel channel = NettyChannelBuilder.forAddress(host, port)
-                        .sslContext(ctx)
-                        .build();
-
-                channelPool.add(channel);
-            } catch (SSLException e) {
-                e.printStackTrace();
-                throw new SSLException("Couldn't build SSL context", e);
-            }
+        SslContext ctx;
+        try {
+            ctx = buildSslContext(host, port,
+                    properties.getProperty("credentials.chain", "src/main/resources/credentials/ca-chain.pem"),
+                    properties.getProperty("credentials.certificate",
+                            "src/main/resources/credentials/certificate.pem"),
+                    properties.getProperty("credentials.key", "src/main/resources/credentials/key-java.pem"),
+                    properties.getProperty("credentials.password", "password").replaceAll("^['\"]|['\"]$", ""));
+        } catch (SSLException e) {
+            e.printStackTrace();
+            throw new SSLException("Couldn't build SSL context", e);
         }
+
+        Class<? extends io.netty.channel.Channel> channelType = eventLoopGroup instanceof EpollEventLoopGroup
+                ? EpollSocketChannel.class
+                : NioSocketChannel.class;
+        return () -> NettyChannelBuilder.forAddress(host, port)
+                .sslContext(ctx)
+                .eventLoopGroup(eventLoopGroup)
+                .channelType(channelType);
     }
 
-    // Round-robin selection of channels from the pool
+    // Time taken to build the TLS context and open the initial channels of the pool
+    public long getStartupTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(startupNanos);
+    }
+
+    // Power-of-two-choices: sample two channels and return the healthy one with the lower load, where load is the
+    // number of calls in flight weighted by recent latency, with a floor so that a channel whose calls haven't
+    // completed yet still counts them. Falls back to a full scan of the healthy channels when
+    // either sample is unhealthy.
     public ManagedChannel getChannel() {
-        int index = currentIndex.getAndUpdate(i -> (i + 1) % poolSize);
-        return channelPool.get(index);
+        PooledChannel[] snapshot = channels;
+        int size = snapshot.length;
+        if (size == 0) {
+            throw new IllegalStateException("connection pool has been shut down");
+        }
+        if (size == 1) {
+            return snapshot[0].channel;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        PooledChannel a = snapshot[first];
+        PooledChannel b = snapshot[second];
+        if (a.isHealthy() && b.isHealthy()) {
+            long now = System.nanoTime();
+            return (a.load(now) <= b.load(now) ? a : b).channel;
+        }
+        return leastLoaded(snapshot).channel;
+    }
+
+    private PooledChannel leastLoaded(PooledChannel[] snapshot) {
+        long now = System.nanoTime();
+        PooledChannel best = null;
+        PooledChannel bestUnhealthy = null;
+        for (PooledChannel pooled : snapshot) {
+            if (pooled.isHealthy()) {
+                if (best == null || pooled.load(now) < best.load(now)) {
+                    best = pooled;
+                }
+            } else if (bestUnhealthy == null || pooled.inFlight() < bestUnhealthy.inFlight()) {
+                bestUnhealthy = pooled;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        // every channel is failing or still connecting: skip the remaining backoff of the failed ones so they retry
+        // now, but at most once per interval so that an outage doesn't turn every call into a reconnect
+        long last = lastBackoffReset.get();
+        if (now - last >= BACKOFF_RESET_INTERVAL_NANOS && lastBackoffReset.compareAndSet(last, now)) {
+            for (PooledChannel pooled : snapshot) {
+                if (pooled.channel.getState(false) == ConnectivityState.TRANSIENT_FAILURE) {
+                    pooled.channel.resetConnectBackoff();
+                }
+            }
+        }
+        return bestUnhealthy;
+    }
+
+    // Runs on the scaler thread only. Channels that were shut down from outside the pool are replaced, the pool grows
+    // straight to the size that brings the average back under streamsPerChannel, and shrinks one channel per cool-down
+    // period while it would stay under half that average with a channel less.
+    private synchronized void scale() {
+        try {
+            PooledChannel[] current = channels;
+            if (current.length == 0) {
+                return;
+            }
+            List<PooledChannel> live = new ArrayList<>(current.length);
+            int inFlight = 0;
+            for (PooledChannel pooled : current) {
+                if (pooled.channel.isShutdown()) {
+                    continue;
+                }
+                live.add(pooled);
+                inFlight += pooled.inFlight();
+            }
+            int size = live.size();
+            long now = System.nanoTime();
+            PooledChannel drained = null;
+            if (inFlight > (long) streamsPerChannel * size && size < maxSize) {
+                int target = (int) Math.min(maxSize, (inFlight + streamsPerChannel - 1L) / streamsPerChannel);
+                while (live.size() < target) {
+                    live.add(open(channelFactory.get()));
+                }
+                lowLoadSince = NOT_SET;
+                logger.log(Level.INFO, "grew pool from " + size + " to " + live.size() + " channels with "
+                        + inFlight + " calls in flight");
+            } else if (size > minSize && inFlight * 2L < (long) streamsPerChannel * (size - 1)) {
+                if (lowLoadSince == NOT_SET) {
+                    lowLoadSince = now;
+                } else if (now - lowLoadSince >= idleCooldownNanos) {
+                    drained = leastBusy(live);
+                    live.remove(drained);
+                    lowLoadSince = now;
+                    logger.log(Level.INFO, "shrank pool from " + size + " to " + live.size() + " channels");
+                }
+            } else {
+                lowLoadSince = NOT_SET;
+            }
+            while (live.size() < minSize) {
+                live.add(open(channelFactory.get()));
+            }
+            if (live.size() != current.length || drained != null) {
+                channels = live.toArray(new PooledChannel[0]);
+            }
+            // stop handing the channel out, and shut it down once callers holding it from an older snapshot have had
+            // time to start their calls; calls in flight are allowed to finish
+            if (drained != null) {
+                draining.add(drained);
+                PooledChannel closing = drained;
+                scaler.schedule(() -> {
+                    synchronized (this) {
+                        draining.remove(closing);
+                    }
+                    closing.channel.shutdown();
+                }, DRAIN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "couldn't resize connection pool", e);
+        }
+    }
+
+    private static PooledChannel leastBusy(List<PooledChannel> pooledChannels) {
+        PooledChannel best = pooledChannels.get(0);
+        for (PooledChannel pooled : pooledChannels) {
+            if (pooled.inFlight() < best.inFlight()) {
+                best = pooled;
+            }
+        }
+        return best;
+    }
+
+    // Follows the connectivity state of a channel for as long as it is open, reconnecting whenever it drops to IDLE
+    private static void watch(PooledChannel pooled) {
+        ConnectivityState state = pooled.channel.getState(true);
+        if (state == ConnectivityState.SHUTDOWN) {
+            return;
+        }
+        pooled.channel.notifyWhenStateChanged(state, () -> watch(pooled));
+    }
+
+    int inFlightCalls() {
+        int total = 0;
+        for (PooledChannel pooled : channels) {
+            total += pooled.inFlight();
+        }
+        return total;
+    }
+
+    public int size() {
+        return channels.length;
     }
 
     public void shutdown() {
-        for (ManagedChannel channel : channelPool) {
-            channel.shutdown();
+        if (scaler != null) {
+            scaler.shutdownNow();
+        }
+        List<PooledChannel> closing;
+        synchronized (this) {
+            closing = new ArrayList<>(Arrays.asList(channels));
+            closing.addAll(draining);
+            draining.clear();
+            channels = new PooledChannel[0];
+        }
+        for (PooledChannel pooled : closing) {
+            pooled.channel.shutdown();
+        }
+        // the quiet period lets calls still in flight on the shut down channels finish
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+
+    private static final class PooledChannel {
+        private final ManagedChannel channel;
+        private final CallTracker tracker;
+
+        private PooledChannel(ManagedChannel channel, CallTracker tracker) {
+            this.channel = channel;
+            this.tracker = tracker;
+        }
+
+        // IDLE channels connect on their first call so they are treated as usable
+        private boolean isHealthy() {
+            ConnectivityState state = channel.getState(false);
+            return state == ConnectivityState.READY || state == ConnectivityState.IDLE;
+        }
+
+        private int inFlight() {
+            return tracker.inFlight.get();
+        }
+
+        private double load(long now) {
+            return (double) Math.max(tracker.latency(now), CallTracker.LATENCY_FLOOR_NANOS) * (inFlight() + 1);
+        }
+    }
+
+    // Counts the calls that have been started on a channel but not yet closed, and keeps a peak-sensitive moving
+    // average of their latency. While calls are in flight the latency is at least the time since the channel last
+    // completed one, so a channel whose calls hang looks slower the longer they do. The average only decays while a
+    // channel has no calls in flight, so a stalled channel that has recovered is eventually tried again.
+    private static final class CallTracker implements ClientInterceptor {
+        private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+        private static final long LATENCY_FLOOR_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long latencyNanos;
+        private volatile long lastUpdate = System.nanoTime();
+        private volatile long lastProgress = lastUpdate;
+
+        private long latency(long now) {
+            if (inFlight.get() > 0) {
+                return Math.max(latencyNanos, now - lastProgress);
+            }
+            return (long) (latencyNanos * Math.exp(-(now - lastUpdate) / DECAY_NANOS));
+        }
+
+        // Updates are racy but only ever lose a sample, which is fine for a load estimate
+        private void record(long elapsed, long now) {
+            long previous = latency(now);
+            latencyNanos = elapsed > previous ? elapsed : previous + (elapsed - previous) / 8;
+            lastUpdate = now;
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                CallOptions callOptions, Channel next) {
+            return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions)) {
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    long started = System.nanoTime();
+                    if (inFlight.getAndIncrement() == 0) {
+                        lastProgress = started;
+                    }
+                    try {
+                        super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(
+                                responseListener) {
+                            @Override
+                            public void onClose(Status status, Metadata trailers) {
+                                lastProgress = System.nanoTime();
+                                inFlight.decrementAndGet();
+                                // calls that never reached the server would make a failing channel look fast
+                                if (status.getCode() != Status.Code.UNAVAILABLE) {
+                                    long now = System.nanoTime();
+                                    record(now - started, now);
+                                }
+                                super.onClose(status, trailers);
+                            }
+                        }, headers);
+                    } catch (RuntimeException | Error e) {
+                        // the listener is never closed when start throws
+                        inFlight.decrementAndGet();
+                        throw e;
+                    }
+                }
+            };
         }
     }
 }
@@ -3,23 +3,33 @@ package com.passkit.quickstart;
 import com.passkit.grpc.Image;
 import com.passkit.grpc.ImagesGrpc;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 
 public class Helpers {
 
     private static ImagesGrpc.ImagesBlockingStub imageStub;
 
+    // Encodes through the shared ImageEncoder, so images used by several passes and templates are read and encoded
+    // once
     public static String encodeFileToBase64(String path) throws IOException {
+        return ImageEncoder.shared().encodeToBase64(path);
+    }
+
+    // Waits for a future stub call, rethrowing the StatusRuntimeException a blocking stub would have thrown
+    public static <T> T await(Future<T> future) {
         try {
-            File file = new File(path);
-            byte[] fileContent = Files.readAllBytes(file.toPath());
-            return Base64.getEncoder().encodeToString(fileContent);
-        } catch (IOException e) {
-            throw new IOException("could not read file: " + path, e);
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for PassKit response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
         }
     }
 }
@@ -0,0 +1,240 @@
+package com.passkit.quickstart;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Base64 encodes image files for CreateImageInput and keeps the results in a size bounded LRU cache.
+ *
+ * A file whose modification time and size haven't changed since it was last encoded is served from the cache without
+ * being read. Otherwise the file is streamed in chunks through SHA-256 and a Base64 encoder into a reused buffer. If
+ * another file with the same SHA-256 is cached that result is returned, so identical images at different paths share
+ * one String. The returned String is the only new allocation the size of the image.
+ *
+ * The lock only guards the cache maps and counters. Files are read and encoded outside it, each thread into buffers of
+ * its own, so encodes of different images run in parallel.
+ */
+public final class ImageEncoder {
+
+    private static final int DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+    private static final ImageEncoder shared = new ImageEncoder(DEFAULT_MAX_BYTES);
+
+    public static final class EncodedImage {
+        private final String base64;
+        private final String sha256;
+
+        private EncodedImage(String base64, String sha256) {
+            this.base64 = base64;
+            this.sha256 = sha256;
+        }
+
+        public String getBase64() {
+            return base64;
+        }
+
+        // Hex SHA-256 of the image file contents
+        public String getSha256() {
+            return sha256;
+        }
+    }
+
+    private static final class FileKey {
+        private final long modifiedMillis;
+        private final long size;
+        private final String sha256;
+
+        private FileKey(long modifiedMillis, long size, String sha256) {
+            this.modifiedMillis = modifiedMillis;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+    }
+
+    // The digest and buffers a thread reads and encodes files with, kept between images
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private final long maxBytes;
+    // Both maps are in access order and only used while holding the encoder's lock
+    private final LinkedHashMap<Path, FileKey> files = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, EncodedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    private long hits;
+    private long contentHits;
+    private long misses;
+
+    // The encoder shared by Helpers.encodeFileToBase64
+    public static ImageEncoder shared() {
+        return shared;
+    }
+
+    // maxBytes bounds the total length of the cached Base64 strings
+    public ImageEncoder(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public String encodeToBase64(String path) throws IOException {
+        return encode(path).getBase64();
+    }
+
+    public EncodedImage encode(String path) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new IOException("could not read file: " + path, e);
+        }
+        long modifiedMillis = attributes.lastModifiedTime().toMillis();
+
+        synchronized (this) {
+            FileKey key = files.get(file);
+            if (key != null && key.modifiedMillis == modifiedMillis && key.size == attributes.size()) {
+                EncodedImage image = images.get(key.sha256);
+                if (image != null) {
+                    hits++;
+                    return image;
+                }
+            }
+        }
+
+        Scratch buffers = scratch.get();
+        String sha256 = readAndEncode(file, path, buffers);
+        synchronized (this) {
+            files.put(file, new FileKey(modifiedMillis, attributes.size(), sha256));
+            trimFiles();
+            EncodedImage image = images.get(sha256);
+            if (image != null) {
+                contentHits++;
+                return image;
+            }
+        }
+
+        // Base64 output is ASCII, so ISO-8859-1 decodes it with a straight copy
+        String base64 = new String(buffers.encoded.array(), 0, buffers.encoded.size(), StandardCharsets.ISO_8859_1);
+        synchronized (this) {
+            // another thread may have encoded the same content meanwhile
+            EncodedImage image = images.get(sha256);
+            if (image != null) {
+                contentHits++;
+                return image;
+            }
+            misses++;
+            image = new EncodedImage(base64, sha256);
+            images.put(sha256, image);
+            cachedBytes += base64.length();
+            trimImages();
+            return image;
+        }
+    }
+
+    // Streams the file through the digest and the Base64 encoder into the reused output buffer and returns the hex
+    // SHA-256 of its contents
+    private static String readAndEncode(Path file, String path, Scratch buffers) throws IOException {
+        ByteBuffer readBuffer = buffers.readBuffer;
+        buffers.encoded.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             OutputStream base64 = Base64.getEncoder().wrap(buffers.encoded)) {
+            readBuffer.clear();
+            while (channel.read(readBuffer) >= 0) {
+                buffers.digest.update(readBuffer.array(), 0, readBuffer.position());
+                base64.write(readBuffer.array(), 0, readBuffer.position());
+                readBuffer.clear();
+            }
+        } catch (IOException e) {
+            buffers.digest.reset();
+            throw new IOException("could not read file: " + path, e);
+        }
+        return toHex(buffers.digest.digest());
+    }
+
+    private void trimImages() {
+        Iterator<Map.Entry<String, EncodedImage>> eldest = images.entrySet().iterator();
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            cachedBytes -= eldest.next().getValue().base64.length();
+            eldest.remove();
+        }
+    }
+
+    // Keeps file entries for at most a few times as many files as could have images cached
+    private void trimFiles() {
+        Iterator<Map.Entry<Path, FileKey>> eldest = files.entrySet().iterator();
+        while (files.size() > Math.max(64, images.size() * 4) && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private static final class Scratch {
+        private final MessageDigest digest;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        private final EncodeBuffer encoded = new EncodeBuffer(128 * 1024);
+
+        private Scratch() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    }
+
+    // A ByteArrayOutputStream whose buffer is kept between images and can be read without copying
+    private static final class EncodeBuffer extends ByteArrayOutputStream {
+        private EncodeBuffer(int size) {
+            super(size);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // Files served from the cache without being read
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    // Files read again but served from the cache, because a file with the same content was cached
+    public synchronized long getContentHits() {
+        return contentHits;
+    }
+
+    // Files read and encoded
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized void clear() {
+        files.clear();
+        images.clear();
+        cachedBytes = 0;
+    }
+}
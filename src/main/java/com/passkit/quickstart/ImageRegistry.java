@@ -0,0 +1,299 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Image;
+import com.passkit.grpc.ImagesGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.Descriptors;
+import io.grpc.Channel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Content addressed registry of uploaded images. createImages looks up each image by its slot and the SHA-256 of its
+ * bytes, and only uploads images that haven't been uploaded to that slot before, so the same icon or logo used by many
+ * templates is stored once. PassKit processes an image for the slot it is sent in, so the same bytes sent as icon and
+ * as logo are two images. Concurrent calls for the same new image share one upload.
+ *
+ * As on PassKit, a logo sent without an Apple logo gets an Apple logo too. The registry keeps that Apple logo as the
+ * appleLogo image of the logo's bytes, and uploads it with the logo when it doesn't know it yet. Ids the response
+ * returns for slots that weren't sent are carried over into the result.
+ *
+ * Known images are kept in a local file with one "slot/sha256 imageId" line per upload and "slot/sha256 -" when an
+ * image has been deleted, so the registry survives restarts. Lines from registries that were keyed on the hash alone
+ * are skipped, and those images are uploaded again. Images deleted without going through deleteImage must be removed
+ * with forget, otherwise their ids will still be handed out.
+ */
+public final class ImageRegistry implements Closeable {
+    private static final Logger logger = Logger.getLogger(ImageRegistry.class.getName());
+
+    private static final String DELETED = "-";
+    private static final Descriptors.Descriptor IMAGE_IDS = Image.ImageIds.getDescriptor();
+    private static final Descriptors.FieldDescriptor LOGO =
+            Image.ImageData.getDescriptor().findFieldByNumber(Image.ImageData.LOGO_FIELD_NUMBER);
+    private static final Descriptors.FieldDescriptor APPLE_LOGO =
+            Image.ImageData.getDescriptor().findFieldByNumber(Image.ImageData.APPLELOGO_FIELD_NUMBER);
+
+    private final ImagesGrpc.ImagesFutureStub imagesStub;
+    private final Path store;
+    // completed or in-progress uploads by slot and SHA-256 of the image
+    private final ConcurrentHashMap<String, ListenableFuture<String>> images = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> keysById = new ConcurrentHashMap<>();
+    private final BufferedWriter journal;
+    private final AtomicLong uploaded = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public ImageRegistry(Channel channel, Path store) throws IOException {
+        this.imagesStub = ImagesGrpc.newFutureStub(channel);
+        this.store = store;
+        load();
+        this.journal = Files.newBufferedWriter(store, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // Reads the registry file, and rewrites it without deleted and replaced entries if they make up most of it
+    private void load() throws IOException {
+        if (!Files.exists(store)) {
+            return;
+        }
+        Map<String, String> ids = new LinkedHashMap<>();
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(store, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] entry = line.trim().split(" ");
+                if (entry.length != 2) {
+                    continue;
+                }
+                lines++;
+                if (entry[0].indexOf('/') < 0) {
+                    continue;
+                }
+                if (DELETED.equals(entry[1])) {
+                    ids.remove(entry[0]);
+                } else {
+                    ids.put(entry[0], entry[1]);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "couldn't read image registry " + store);
+            throw new IOException("couldn't read image registry " + store, e);
+        }
+        for (Map.Entry<String, String> entry : ids.entrySet()) {
+            images.put(entry.getKey(), Futures.immediateFuture(entry.getValue()));
+            keysById.put(entry.getValue(), entry.getKey());
+        }
+        if (lines > 2 * ids.size() + 16) {
+            Path compacted = store.resolveSibling(store.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> entry : ids.entrySet()) {
+                    writer.write(entry.getKey() + " " + entry.getValue());
+                    writer.newLine();
+                }
+            }
+            Files.move(compacted, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    public Image.ImageIds createImagesBlocking(Image.CreateImageInput input) {
+        return Helpers.await(createImages(input));
+    }
+
+    // Returns ids for every image in the input, uploading only the images the registry doesn't know
+    public ListenableFuture<Image.ImageIds> createImages(Image.CreateImageInput input) {
+        Map<Descriptors.FieldDescriptor, ListenableFuture<String>> slots = new LinkedHashMap<>();
+        Map<String, SettableFuture<String>> claimed = new HashMap<>();
+        Map<String, Descriptors.FieldDescriptor> claimedFields = new HashMap<>();
+        Image.ImageData data = input.getImageData();
+        Image.ImageData.Builder upload = Image.ImageData.newBuilder();
+
+        // check and hash every image before claiming any uploads
+        Map<Descriptors.FieldDescriptor, String> hashes = new LinkedHashMap<>();
+        for (Map.Entry<Descriptors.FieldDescriptor, Object> field : data.getAllFields().entrySet()) {
+            Descriptors.FieldDescriptor imageField = field.getKey();
+            if (IMAGE_IDS.findFieldByName(imageField.getName()) == null) {
+                return Futures.immediateFailedFuture(
+                        new IllegalArgumentException("no image id field for " + imageField.getName()));
+            }
+            try {
+                hashes.put(imageField, sha256((String) field.getValue()));
+            } catch (IllegalArgumentException e) {
+                return Futures.immediateFailedFuture(
+                        new IllegalArgumentException(imageField.getName() + " is not valid Base64", e));
+            }
+        }
+        // PassKit makes an Apple logo from the logo when none is sent, so it is looked up as one
+        Map<Descriptors.FieldDescriptor, Object> content = new HashMap<>(data.getAllFields());
+        if (hashes.containsKey(LOGO) && !hashes.containsKey(APPLE_LOGO)) {
+            hashes.put(APPLE_LOGO, hashes.get(LOGO));
+            content.put(APPLE_LOGO, data.getLogo());
+        }
+
+        for (Map.Entry<Descriptors.FieldDescriptor, String> entry : hashes.entrySet()) {
+            Descriptors.FieldDescriptor imageField = entry.getKey();
+            String key = imageField.getName() + "/" + entry.getValue();
+            SettableFuture<String> pending = SettableFuture.create();
+            ListenableFuture<String> existing = images.putIfAbsent(key, pending);
+            if (existing == null) {
+                claimed.put(key, pending);
+                claimedFields.put(key, imageField);
+                upload.setField(imageField, content.get(imageField));
+                slots.put(imageField, pending);
+            } else {
+                reused.incrementAndGet();
+                slots.put(imageField, existing);
+            }
+        }
+
+        List<ListenableFuture<?>> ids = new ArrayList<>(slots.values());
+        ListenableFuture<Image.ImageIds> response = null;
+        if (!claimed.isEmpty()) {
+            response = upload(input.toBuilder().setImageData(upload).build(), claimed, claimedFields);
+            ids.add(response);
+        }
+
+        ListenableFuture<Image.ImageIds> uploadResponse = response;
+        return Futures.whenAllSucceed(ids).call(() -> {
+            Image.ImageIds.Builder result = Image.ImageIds.newBuilder();
+            if (uploadResponse != null) {
+                result.mergeFrom(Futures.getDone(uploadResponse));
+            }
+            for (Map.Entry<Descriptors.FieldDescriptor, ListenableFuture<String>> slot : slots.entrySet()) {
+                result.setField(IMAGE_IDS.findFieldByName(slot.getKey().getName()), Futures.getDone(slot.getValue()));
+            }
+            return result.build();
+        }, MoreExecutors.directExecutor());
+    }
+
+    // Settles every claimed upload from the response, which is returned so ids for other slots can be carried over
+    private ListenableFuture<Image.ImageIds> upload(Image.CreateImageInput input,
+            Map<String, SettableFuture<String>> claimed, Map<String, Descriptors.FieldDescriptor> claimedFields) {
+        ListenableFuture<Image.ImageIds> call;
+        try {
+            call = imagesStub.createImages(input);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<Image.ImageIds>() {
+            @Override
+            public void onSuccess(Image.ImageIds ids) {
+                for (Map.Entry<String, SettableFuture<String>> entry : claimed.entrySet()) {
+                    String key = entry.getKey();
+                    String id = (String) ids.getField(
+                            IMAGE_IDS.findFieldByName(claimedFields.get(key).getName()));
+                    if (id.isEmpty()) {
+                        images.remove(key, entry.getValue());
+                        entry.getValue().setException(new IllegalStateException(
+                                "no id returned for " + claimedFields.get(key).getName()));
+                        continue;
+                    }
+                    uploaded.incrementAndGet();
+                    keysById.put(id, key);
+                    record(key, id);
+                    entry.getValue().set(id);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // forget the failed uploads before failing any, so a caller that retries straight away uploads them
+                for (Map.Entry<String, SettableFuture<String>> entry : claimed.entrySet()) {
+                    images.remove(entry.getKey(), entry.getValue());
+                }
+                for (SettableFuture<String> pending : claimed.values()) {
+                    pending.setException(t);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return call;
+    }
+
+    // Deletes the image and removes it from the registry
+    public ListenableFuture<?> deleteImage(String imageId) {
+        forget(imageId);
+        return imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(imageId).build());
+    }
+
+    // Removes an image that has been deleted elsewhere from the registry
+    public void forget(String imageId) {
+        String key = keysById.remove(imageId);
+        if (key != null) {
+            images.remove(key);
+            record(key, DELETED);
+        }
+    }
+
+    private void record(String key, String id) {
+        synchronized (journal) {
+            try {
+                journal.write(key + " " + id);
+                journal.newLine();
+                journal.flush();
+            } catch (IOException e) {
+                // the registry keeps working in memory, the image will be uploaded again after a restart
+                logger.log(Level.WARNING, "couldn't write to image registry " + store, e);
+            }
+        }
+    }
+
+    private static String sha256(String base64) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        byte[] hash = digest.digest(Base64.getDecoder().decode(base64));
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    public int size() {
+        return keysById.size();
+    }
+
+    // Images uploaded by this registry
+    public long getUploaded() {
+        return uploaded.get();
+    }
+
+    // Images served from the registry instead of being uploaded
+    public long getReused() {
+        return reused.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (journal) {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/*
+ * Read-through cache for MembersGrpc.getMemberRecordByExternalId keyed by program id and external id. Members are
+ * kept for ttl in a size bounded LRU map, and external ids the server doesn't know are remembered for negativeTtl so
+ * repeated lookups of an unknown customer fail with NOT_FOUND without a call. Concurrent lookups of a member that
+ * isn't cached share one call.
+ *
+ * earnPoints, burnPoints and updateMember go to the server and drop the member from the cache, so the next lookup
+ * sees the new balance. Changes made some other way can be dropped with invalidate or invalidateMember. A member id
+ * isn't known until its lookup completes, so invalidateMember also marks the id with a generation, and a lookup that
+ * was in progress when its member was invalidated returns the member without caching it.
+ */
+public final class MemberCache {
+    private static final class Entry {
+        private final ListenableFuture<MemberOuterClass.Member> member;
+        // the invalidation generation when the lookup started
+        private final long generation;
+        // set once the lookup completes, until then the entry is never stale
+        private volatile long expiresAtMillis = Long.MAX_VALUE;
+
+        private Entry(ListenableFuture<MemberOuterClass.Member> member, long generation) {
+            this.member = member;
+            this.generation = generation;
+        }
+    }
+
+    private final GrpcConnectionPool pool;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // member id to key of the cached members, so a change by member id finds the entry
+    private final Map<String, String> keysByMemberId = new HashMap<>();
+    // Guarded by entries. Member ids invalidated by id, with the generation they were invalidated in. Cleared once it
+    // holds maxEntries ids, after which lookups started before the clear are treated as invalidated.
+    private final Map<String, Long> invalidatedMemberIds = new HashMap<>();
+    private long generation;
+    private long forgottenBefore;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // Reads members.cache.ttlSeconds, members.cache.negativeTtlSeconds and members.cache.maxEntries from
+    // passkit.properties
+    public MemberCache(GrpcConnectionPool pool) throws IOException {
+        this(pool, PassKitProperties.load());
+    }
+
+    private MemberCache(GrpcConnectionPool pool, Properties properties) {
+        this(pool,
+                TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty("members.cache.ttlSeconds", "300"))),
+                TimeUnit.SECONDS.toMillis(
+                        Long.parseLong(properties.getProperty("members.cache.negativeTtlSeconds", "30"))),
+                Integer.parseInt(properties.getProperty("members.cache.maxEntries", "10000")));
+    }
+
+    public MemberCache(GrpcConnectionPool pool, long ttlMillis, long negativeTtlMillis, int maxEntries) {
+        if (maxEntries < 1 || ttlMillis < 0 || negativeTtlMillis < 0) {
+            throw new IllegalArgumentException("maxEntries must be at least 1 and the ttls not negative");
+        }
+        this.pool = pool;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    private static String key(String programId, String externalId) {
+        return programId + "\n" + externalId;
+    }
+
+    public MemberOuterClass.Member getMemberByExternalId(String programId, String externalId) {
+        return Helpers.await(getMemberByExternalIdAsync(programId, externalId));
+    }
+
+    public ListenableFuture<MemberOuterClass.Member> getMemberByExternalIdAsync(String programId,
+            String externalId) {
+        String key = key(programId, externalId);
+        SettableFuture<MemberOuterClass.Member> load = SettableFuture.create();
+        final Entry loading;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() < entry.expiresAtMillis) {
+                if (entry.member.isDone() && isNotFound(entry.member)) {
+                    negativeHits.incrementAndGet();
+                } else {
+                    hits.incrementAndGet();
+                }
+                return entry.member;
+            }
+            loading = new Entry(load, generation);
+            entries.put(key, loading);
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries) {
+                Map.Entry<String, Entry> evicted = eldest.next();
+                eldest.remove();
+                forgetMemberId(evicted.getKey(), evicted.getValue());
+            }
+        }
+
+        misses.incrementAndGet();
+        MemberOuterClass.MemberRecordByExternalIdRequest request =
+                MemberOuterClass.MemberRecordByExternalIdRequest.newBuilder()
+                        .setProgramId(programId)
+                        .setExternalId(externalId)
+                        .build();
+        ListenableFuture<MemberOuterClass.Member> call;
+        try {
+            call = MembersGrpc.newFutureStub(pool.getChannel()).getMemberRecordByExternalId(request);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<MemberOuterClass.Member>() {
+            @Override
+            public void onSuccess(MemberOuterClass.Member member) {
+                synchronized (entries) {
+                    // an entry invalidated while loading stays dropped, the lookups that joined it still get the
+                    // member
+                    if (entries.get(key) == loading) {
+                        if (wasInvalidated(member.getId(), loading)) {
+                            entries.remove(key);
+                            invalidations.incrementAndGet();
+                        } else {
+                            loading.expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+                            keysByMemberId.put(member.getId(), key);
+                        }
+                    }
+                }
+                load.set(member);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                synchronized (entries) {
+                    if (entries.get(key) == loading) {
+                        if (Status.fromThrowable(t).getCode() == Status.Code.NOT_FOUND) {
+                            loading.expiresAtMillis = System.currentTimeMillis() + negativeTtlMillis;
+                        } else {
+                            // don't cache other failures, the next lookup calls the server again
+                            entries.remove(key);
+                        }
+                    }
+                }
+                load.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return load;
+    }
+
+    // Called with entries locked
+    private boolean wasInvalidated(String memberId, Entry entry) {
+        if (entry.generation < forgottenBefore) {
+            return true;
+        }
+        Long invalidated = invalidatedMemberIds.get(memberId);
+        return invalidated != null && invalidated > entry.generation;
+    }
+
+    private static boolean isNotFound(ListenableFuture<MemberOuterClass.Member> member) {
+        try {
+            Futures.getDone(member);
+            return false;
+        } catch (Exception e) {
+            return Status.fromThrowable(e.getCause() != null ? e.getCause() : e).getCode() == Status.Code.NOT_FOUND;
+        }
+    }
+
+    // Called with entries locked
+    private void forgetMemberId(String key, Entry entry) {
+        if (entry.member.isDone() && !isNotFound(entry.member)) {
+            try {
+                keysByMemberId.remove(Futures.getDone(entry.member).getId(), key);
+            } catch (Exception e) {
+                // a failed lookup was never indexed
+            }
+        }
+    }
+
+    public ListenableFuture<MemberOuterClass.MemberPoints> earnPoints(MemberOuterClass.EarnBurnPointsRequest request) {
+        return invalidatingAfter(stub -> stub.earnPoints(request),
+                request.getId(), request.getProgramId(), request.getExternalId());
+    }
+
+    public ListenableFuture<MemberOuterClass.MemberPoints> burnPoints(MemberOuterClass.EarnBurnPointsRequest request) {
+        return invalidatingAfter(stub -> stub.burnPoints(request),
+                request.getId(), request.getProgramId(), request.getExternalId());
+    }
+
+    public ListenableFuture<CommonObjects.Id> updateMember(MemberOuterClass.Member member) {
+        // the external id may be the one being changed, so drop both the old and the new key
+        return invalidatingAfter(stub -> stub.updateMember(member),
+                member.getId(), member.getProgramId(), member.getExternalId());
+    }
+
+    // The member is dropped when the call completes, whether or not it succeeded, as a call that timed out may still
+    // have changed it. The returned future completes after that, so a lookup made once it is done sees the change.
+    // A call that can't be started, such as on a pool that was shut down, is returned as a failed future.
+    private <T> ListenableFuture<T> invalidatingAfter(
+            Function<MembersGrpc.MembersFutureStub, ListenableFuture<T>> send, String memberId, String programId,
+            String externalId) {
+        ListenableFuture<T> call = start(send);
+        SettableFuture<T> result = SettableFuture.create();
+        call.addListener(() -> {
+            invalidateMember(memberId);
+            if (!externalId.isEmpty()) {
+                invalidate(programId, externalId);
+            }
+            result.setFuture(call);
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    private <T> ListenableFuture<T> start(Function<MembersGrpc.MembersFutureStub, ListenableFuture<T>> send) {
+        try {
+            return send.apply(MembersGrpc.newFutureStub(pool.getChannel()));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    public void invalidate(String programId, String externalId) {
+        synchronized (entries) {
+            String key = key(programId, externalId);
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                forgetMemberId(key, entry);
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidateMember(String memberId) {
+        if (memberId.isEmpty()) {
+            return;
+        }
+        synchronized (entries) {
+            generation++;
+            if (invalidatedMemberIds.size() >= maxEntries) {
+                invalidatedMemberIds.clear();
+                forgottenBefore = generation;
+            }
+            invalidatedMemberIds.put(memberId, generation);
+            String key = keysByMemberId.remove(memberId);
+            if (key != null && entries.remove(key) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            keysByMemberId.clear();
+        }
+    }
+
+    // Lookups answered from memory, including lookups that joined a call already in progress
+    public long getHits() {
+        return hits.get();
+    }
+
+    // Lookups answered with NOT_FOUND from memory
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    // Lookups that called getMemberRecordByExternalId
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
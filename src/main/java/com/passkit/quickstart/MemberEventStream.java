@@ -0,0 +1,192 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Members.MemberEventsOuterClass;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Channel;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Consumes listMemberEvents with manual flow control. Events are only requested from the server when there is room
+ * for them in a bounded buffer, and are passed to the sink one at a time on the sink executor, so a slow sink slows
+ * the stream down instead of events piling up in memory. No thread is held while waiting for events.
+ *
+ *   MemberEventStream.Subscription events = new MemberEventStream(channel, 1000, executor)
+ *           .consume(request, event -> analytics.send(event));
+ *   events.completion().get();
+ */
+public final class MemberEventStream {
+
+    public interface Sink {
+        void accept(MemberEventsOuterClass.MemberEvent event) throws Exception;
+    }
+
+    private final MembersGrpc.MembersStub membersStub;
+    private final int bufferSize;
+    private final Executor sinkExecutor;
+
+    public MemberEventStream(Channel channel, int bufferSize, Executor sinkExecutor) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be at least 1");
+        }
+        this.membersStub = MembersGrpc.newStub(channel);
+        this.bufferSize = bufferSize;
+        this.sinkExecutor = sinkExecutor;
+    }
+
+    public Subscription consume(MemberOuterClass.ListRequest request, Sink sink) {
+        Subscription subscription = new Subscription(sink);
+        membersStub.listMemberEvents(request, subscription);
+        return subscription;
+    }
+
+    public final class Subscription
+            implements ClientResponseObserver<MemberOuterClass.ListRequest, MemberEventsOuterClass.MemberEvent> {
+        private final Sink sink;
+        private final ArrayBlockingQueue<MemberEventsOuterClass.MemberEvent> buffer =
+                new ArrayBlockingQueue<>(bufferSize);
+        // Events are requested again in batches once a quarter of the buffer has been delivered
+        private final int replenish = Math.max(1, bufferSize / 4);
+        private final SettableFuture<Void> completion = SettableFuture.create();
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicInteger maxBuffered = new AtomicInteger();
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos;
+        private volatile ClientCallStreamObserver<MemberOuterClass.ListRequest> requestStream;
+        private volatile boolean done;
+        private volatile Throwable error;
+        private volatile Exception sinkError;
+
+        private Subscription(Sink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<MemberOuterClass.ListRequest> requestStream) {
+            this.requestStream = requestStream;
+            requestStream.disableAutoRequestWithInitial(bufferSize);
+        }
+
+        @Override
+        public void onNext(MemberEventsOuterClass.MemberEvent event) {
+            // never more than bufferSize events are requested and not yet delivered, so there is always room
+            buffer.add(event);
+            received.incrementAndGet();
+            maxBuffered.accumulateAndGet(buffer.size(), Math::max);
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void onCompleted() {
+            done = true;
+            drain();
+        }
+
+        private void drain() {
+            if (drainRequests.getAndIncrement() == 0) {
+                sinkExecutor.execute(this::drainLoop);
+            }
+        }
+
+        // Only one drain loop runs at a time. Calls to drain() while it runs make it go round again, so events
+        // arriving while the last event is delivered aren't left in the buffer.
+        private void drainLoop() {
+            int missed = 1;
+            int consumed = 0;
+            while (true) {
+                MemberEventsOuterClass.MemberEvent event;
+                while (sinkError == null && (event = buffer.poll()) != null) {
+                    try {
+                        sink.accept(event);
+                    } catch (Exception e) {
+                        sinkError = e;
+                        requestStream.cancel("member event sink failed", e);
+                        break;
+                    }
+                    delivered.incrementAndGet();
+                    if (++consumed == replenish) {
+                        requestStream.request(consumed);
+                        consumed = 0;
+                    }
+                }
+                if (consumed > 0 && sinkError == null) {
+                    requestStream.request(consumed);
+                    consumed = 0;
+                }
+                if (done && (sinkError != null || buffer.isEmpty())) {
+                    buffer.clear();
+                    endNanos = System.nanoTime();
+                    if (sinkError != null) {
+                        completion.setException(sinkError);
+                    } else if (error != null) {
+                        completion.setException(error);
+                    } else {
+                        completion.set(null);
+                    }
+                    return;
+                }
+                missed = drainRequests.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        // Completes when every event has been passed to the sink, or fails with the stream or sink error
+        public ListenableFuture<Void> completion() {
+            return completion;
+        }
+
+        public void cancel() {
+            requestStream.cancel("cancelled by consumer", null);
+        }
+
+        public long getReceived() {
+            return received.get();
+        }
+
+        public long getDelivered() {
+            return delivered.get();
+        }
+
+        public int getBuffered() {
+            return buffer.size();
+        }
+
+        public int getMaxBuffered() {
+            return maxBuffered.get();
+        }
+
+        public double getEventsPerSecond() {
+            long end = endNanos == 0 ? System.nanoTime() : endNanos;
+            return end == startNanos ? 0 : delivered.get() * 1e9 / (end - startNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d events received, %d delivered, %d buffered (max %d) in %dms (%.0f events/s)",
+                    getReceived(), getDelivered(), getBuffered(), getMaxBuffered(),
+                    TimeUnit.NANOSECONDS.toMillis((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos),
+                    getEventsPerSecond());
+        }
+    }
+}
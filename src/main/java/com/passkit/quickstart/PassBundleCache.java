@@ -0,0 +1,637 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Status;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Two tier cache for EventTicketsGrpc.getEventTicketPass keyed by ticket id. Bundles fetched from the server are kept
+ * in a size bounded LRU map and written to memory-mapped segment files in the cache directory, so a bundle evicted
+ * from memory, or fetched by an earlier run, is read back from disk rather than fetched again. The disk tier keeps at
+ * most maxSegments segments and drops the oldest when it is full. The next segment is created, and dropped segments
+ * are deleted, outside the cache's lock, so lookups don't wait on file work. Concurrent lookups of a ticket that isn't
+ * cached share one call.
+ *
+ * issueTicket issues the ticket and queues it for the prefetcher, which fetches queued bundles in the background with
+ * at most prefetchInFlight calls at once, so the bundles are cached before the confirmation emails go out. prefetch
+ * queues tickets issued some other way.
+ */
+public final class PassBundleCache implements Closeable {
+    private static final Logger logger = Logger.getLogger(PassBundleCache.class.getName());
+
+    private static final class Prefetch {
+        private final String ticketId;
+        private final SettableFuture<Boolean> fetched = SettableFuture.create();
+
+        private Prefetch(String ticketId) {
+            this.ticketId = ticketId;
+        }
+    }
+
+    private final GrpcConnectionPool pool;
+    private final List<CommonObjects.PassBundleFormat> formats;
+    private final int memoryEntries;
+    private final int prefetchInFlight;
+
+    // guarded by itself, with loading, disk and the prefetch queue
+    private final LinkedHashMap<String, CommonObjects.PassBundle> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, SettableFuture<CommonObjects.PassBundle>> loading = new HashMap<>();
+    private final Disk disk;
+    private final ArrayDeque<Prefetch> pending = new ArrayDeque<>();
+    private int prefetching;
+    private boolean pumping;
+    private boolean closed;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong prefetchFailures = new AtomicLong();
+
+    // Reads the tier sizes, prefetch concurrency and pass formats from passkit.properties
+    public PassBundleCache(GrpcConnectionPool pool, Path directory) throws IOException {
+        this(pool, directory, PassKitProperties.load());
+    }
+
+    private PassBundleCache(GrpcConnectionPool pool, Path directory, Properties properties) throws IOException {
+        this(pool, directory,
+                Integer.parseInt(properties.getProperty("passbundle.cache.memoryEntries", "1000")),
+                Integer.parseInt(properties.getProperty("passbundle.cache.segmentBytes", "67108864")),
+                Integer.parseInt(properties.getProperty("passbundle.cache.maxSegments", "8")),
+                Integer.parseInt(properties.getProperty("passbundle.cache.prefetchInFlight", "16")),
+                parseFormats(properties.getProperty("passbundle.cache.formats", "PASS_URL,MULTI_LINK")));
+    }
+
+    public PassBundleCache(GrpcConnectionPool pool, Path directory, int memoryEntries, int segmentBytes,
+            int maxSegments, int prefetchInFlight, CommonObjects.PassBundleFormat... formats) throws IOException {
+        if (memoryEntries < 1 || segmentBytes < 4096 || maxSegments < 1 || prefetchInFlight < 1
+                || formats.length == 0) {
+            throw new IllegalArgumentException("memoryEntries, maxSegments and prefetchInFlight must be at least 1, "
+                    + "segmentBytes 4096, and a format is needed");
+        }
+        this.pool = pool;
+        this.formats = Arrays.asList(formats);
+        this.memoryEntries = memoryEntries;
+        this.prefetchInFlight = prefetchInFlight;
+        this.disk = new Disk(memory, directory, segmentBytes, maxSegments);
+    }
+
+    private static CommonObjects.PassBundleFormat[] parseFormats(String formats) {
+        List<CommonObjects.PassBundleFormat> parsed = new ArrayList<>();
+        for (String format : formats.split(",")) {
+            parsed.add(CommonObjects.PassBundleFormat.valueOf(format.trim()));
+        }
+        return parsed.toArray(new CommonObjects.PassBundleFormat[0]);
+    }
+
+    public CommonObjects.PassBundle getPass(String ticketId) {
+        return Helpers.await(getPassAsync(ticketId));
+    }
+
+    public ListenableFuture<CommonObjects.PassBundle> getPassAsync(String ticketId) {
+        SettableFuture<CommonObjects.PassBundle> load = SettableFuture.create();
+        synchronized (memory) {
+            if (closed) {
+                throw new IllegalStateException("pass bundle cache is closed");
+            }
+            CommonObjects.PassBundle bundle = memory.get(ticketId);
+            if (bundle != null) {
+                memoryHits.incrementAndGet();
+                bytesServed.addAndGet(bundle.getSerializedSize());
+                return Futures.immediateFuture(bundle);
+            }
+            bundle = disk.read(ticketId);
+            if (bundle != null) {
+                diskHits.incrementAndGet();
+                bytesServed.addAndGet(bundle.getSerializedSize());
+                keepInMemory(ticketId, bundle);
+                return Futures.immediateFuture(bundle);
+            }
+            SettableFuture<CommonObjects.PassBundle> inProgress = loading.putIfAbsent(ticketId, load);
+            if (inProgress != null) {
+                joined.incrementAndGet();
+                return inProgress;
+            }
+        }
+        misses.incrementAndGet();
+        fetch(ticketId, load);
+        return load;
+    }
+
+    // Issues the ticket and queues its bundle for the prefetcher once it is issued
+    public ListenableFuture<CommonObjects.Id> issueTicket(TicketOuterClass.IssueTicketRequest request) {
+        ListenableFuture<CommonObjects.Id> call;
+        try {
+            call = EventTicketsGrpc.newFutureStub(pool.getChannel()).issueTicket(request);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<CommonObjects.Id>() {
+            @Override
+            public void onSuccess(CommonObjects.Id id) {
+                prefetch(List.of(id.getId()));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // there is no ticket to prefetch, the caller sees the failure
+            }
+        }, MoreExecutors.directExecutor());
+        return call;
+    }
+
+    // Queues the bundles of these tickets for the prefetcher. The returned future completes with the number of bundles
+    // fetched once all of them are cached or have failed; failures are logged and counted rather than failing it.
+    // Once the cache is closed it fails at once.
+    public ListenableFuture<Integer> prefetch(Collection<String> ticketIds) {
+        List<ListenableFuture<Boolean>> fetched = new ArrayList<>();
+        synchronized (memory) {
+            if (closed) {
+                return Futures.immediateFailedFuture(new IllegalStateException("pass bundle cache is closed"));
+            }
+            for (String ticketId : ticketIds) {
+                Prefetch prefetch = new Prefetch(ticketId);
+                pending.add(prefetch);
+                fetched.add(prefetch.fetched);
+            }
+        }
+        pump();
+        return Futures.whenAllComplete(fetched).call(() -> {
+            int count = 0;
+            for (ListenableFuture<Boolean> future : fetched) {
+                if (Futures.getDone(future)) {
+                    count++;
+                }
+            }
+            return count;
+        }, MoreExecutors.directExecutor());
+    }
+
+    // Starts queued prefetches while fewer than prefetchInFlight are in progress. A prefetch completing while this
+    // runs lowers prefetching for the loop to see, rather than pumping recursively.
+    private void pump() {
+        synchronized (memory) {
+            if (pumping) {
+                return;
+            }
+            pumping = true;
+        }
+        while (true) {
+            Prefetch next;
+            SettableFuture<CommonObjects.PassBundle> load = SettableFuture.create();
+            ListenableFuture<CommonObjects.PassBundle> inProgress;
+            synchronized (memory) {
+                if (closed || prefetching >= prefetchInFlight || pending.isEmpty()) {
+                    pumping = false;
+                    return;
+                }
+                next = pending.poll();
+                if (memory.containsKey(next.ticketId) || disk.contains(next.ticketId)) {
+                    next.fetched.set(false);
+                    continue;
+                }
+                inProgress = loading.putIfAbsent(next.ticketId, load);
+                prefetching++;
+            }
+            if (inProgress == null) {
+                fetch(next.ticketId, load);
+            }
+            ListenableFuture<CommonObjects.PassBundle> pass = inProgress == null ? load : inProgress;
+            pass.addListener(() -> {
+                boolean fetched = false;
+                try {
+                    Futures.getDone(pass);
+                    // a prefetch that joined a lookup in progress didn't fetch the bundle itself
+                    fetched = pass == load;
+                    if (fetched) {
+                        prefetched.incrementAndGet();
+                    }
+                } catch (ExecutionException e) {
+                    prefetchFailures.incrementAndGet();
+                    logger.log(Level.WARNING, "couldn't prefetch pass bundle for ticket " + next.ticketId,
+                            e.getCause());
+                }
+                synchronized (memory) {
+                    prefetching--;
+                }
+                next.fetched.set(fetched);
+                pump();
+            }, MoreExecutors.directExecutor());
+        }
+    }
+
+    private void fetch(String ticketId, SettableFuture<CommonObjects.PassBundle> load) {
+        TicketOuterClass.EventTicketPassRequest request = TicketOuterClass.EventTicketPassRequest.newBuilder()
+                .setTicketId(CommonObjects.Id.newBuilder().setId(ticketId).build())
+                .addAllFormat(formats)
+                .build();
+        ListenableFuture<CommonObjects.PassBundles> call;
+        try {
+            call = EventTicketsGrpc.newFutureStub(pool.getChannel()).getEventTicketPass(request);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<CommonObjects.PassBundles>() {
+            @Override
+            public void onSuccess(CommonObjects.PassBundles bundles) {
+                if (bundles.getPassesCount() == 0) {
+                    onFailure(Status.NOT_FOUND.withDescription("no pass bundle for ticket " + ticketId)
+                            .asRuntimeException());
+                    return;
+                }
+                CommonObjects.PassBundle bundle = bundles.getPasses(0);
+                synchronized (memory) {
+                    // a ticket invalidated while loading isn't cached, the lookups that joined it still get the bundle
+                    if (loading.remove(ticketId, load) && !closed) {
+                        keepInMemory(ticketId, bundle);
+                        disk.write(ticketId, bundle);
+                    }
+                }
+                disk.maintain();
+                load.set(bundle);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                synchronized (memory) {
+                    loading.remove(ticketId, load);
+                }
+                load.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    // Called with memory locked
+    private void keepInMemory(String ticketId, CommonObjects.PassBundle bundle) {
+        memory.put(ticketId, bundle);
+        Iterator<String> eldest = memory.keySet().iterator();
+        while (memory.size() > memoryEntries) {
+            // still on disk
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    // Drops the ticket's bundle from both tiers, for a ticket whose pass has changed
+    public void invalidate(String ticketId) {
+        synchronized (memory) {
+            memory.remove(ticketId);
+            loading.remove(ticketId);
+            disk.invalidate(ticketId);
+        }
+        disk.maintain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (memory) {
+            closed = true;
+            for (Prefetch prefetch : pending) {
+                prefetch.fetched.set(false);
+            }
+            pending.clear();
+            disk.close();
+        }
+    }
+
+    // Lookups answered without a call of their own, from either tier or by joining a call already in progress
+    public long getHits() {
+        return memoryHits.get() + diskHits.get() + joined.get();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    // Lookups that called getEventTicketPass
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long hits = getHits();
+        long lookups = hits + misses.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    // Serialized size of the bundles answered from memory or disk
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    // Bundles fetched by the prefetcher
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    public long getPrefetchFailures() {
+        return prefetchFailures.get();
+    }
+
+    public int getMemoryEntries() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    public int getDiskEntries() {
+        synchronized (memory) {
+            return disk.index.size();
+        }
+    }
+
+    // Bundles in memory-mapped segment files of segmentBytes. A segment holds records of a length, a kind byte, the
+    // length of the ticket id, the ticket id and the serialized bundle, and a zero length marks the end of the records
+    // written so far. A later record for a ticket replaces an earlier one, and an invalidation record drops it.
+    //
+    // Everything but maintain is called with lock held. A write that fills the last segment moves on to a spare
+    // segment created ahead of time and leaves the segments it drops for maintain, which creates the next spare and
+    // deletes them without the lock.
+    private static final class Disk {
+        private static final String PREFIX = "bundles-";
+        private static final String SUFFIX = ".cache";
+        private static final byte BUNDLE = 1;
+        private static final byte INVALIDATED = 2;
+
+        private final Object lock;
+        private final Path directory;
+        private final int segmentBytes;
+        private final int maxSegments;
+        private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+        private final Map<String, Location> index = new HashMap<>();
+        private final List<Segment> dropped = new ArrayList<>();
+        private Segment spare;
+        private boolean creatingSpare;
+        private long nextSegment;
+        private boolean closed;
+
+        private Disk(Object lock, Path directory, int segmentBytes, int maxSegments) throws IOException {
+            this.lock = lock;
+            this.directory = directory;
+            this.segmentBytes = segmentBytes;
+            this.maxSegments = maxSegments;
+            Files.createDirectories(directory);
+            TreeMap<Long, Path> files = new TreeMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+                for (Path file : stream) {
+                    String name = file.getFileName().toString();
+                    files.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                }
+            }
+            for (Map.Entry<Long, Path> file : files.entrySet()) {
+                Segment segment = new Segment(file.getValue(), segmentBytes);
+                segment.recover(index);
+                nextSegment = file.getKey() + 1;
+                if (segment.write == 0) {
+                    // a spare left by an earlier run
+                    segment.delete();
+                } else {
+                    segments.add(segment);
+                }
+            }
+            dropOldest();
+            for (Segment segment : dropped) {
+                segment.delete();
+            }
+            dropped.clear();
+            spare = new Segment(segmentPath(nextSegment++), segmentBytes);
+        }
+
+        private Path segmentPath(long number) {
+            return directory.resolve(String.format("%s%020d%s", PREFIX, number, SUFFIX));
+        }
+
+        private boolean contains(String ticketId) {
+            return index.containsKey(ticketId);
+        }
+
+        // Returns the ticket's bundle, or null if it isn't on disk
+        private CommonObjects.PassBundle read(String ticketId) {
+            Location location = index.get(ticketId);
+            if (location == null) {
+                return null;
+            }
+            byte[] bytes = new byte[location.length];
+            location.segment.buffer.get(location.offset, bytes);
+            try {
+                return CommonObjects.PassBundle.parseFrom(bytes);
+            } catch (InvalidProtocolBufferException e) {
+                logger.log(Level.WARNING, "dropping unreadable pass bundle for ticket " + ticketId, e);
+                index.remove(ticketId);
+                return null;
+            }
+        }
+
+        private void write(String ticketId, CommonObjects.PassBundle bundle) {
+            byte[] bytes = bundle.toByteArray();
+            Segment segment = append(BUNDLE, ticketId, bytes);
+            if (segment != null) {
+                index.put(ticketId, new Location(segment, segment.write - bytes.length, bytes.length));
+            }
+        }
+
+        private void invalidate(String ticketId) {
+            if (index.remove(ticketId) != null) {
+                append(INVALIDATED, ticketId, new byte[0]);
+            }
+        }
+
+        // Appends a record, returning its segment, or null if it couldn't be written and is only kept in memory
+        private Segment append(byte kind, String ticketId, byte[] bytes) {
+            if (closed) {
+                return null;
+            }
+            byte[] key = ticketId.getBytes(StandardCharsets.UTF_8);
+            int length = 1 + 2 + key.length + bytes.length;
+            if (key.length > Short.MAX_VALUE || 4 + length + 4 > segmentBytes) {
+                logger.fine("pass bundle for ticket " + ticketId + " is larger than a cache segment");
+                return null;
+            }
+            Segment last = segments.peekLast();
+            if (last == null || last.write + 4 + length + 4 > segmentBytes) {
+                if (spare == null) {
+                    logger.fine("no pass bundle cache segment ready for ticket " + ticketId);
+                    return null;
+                }
+                last = spare;
+                spare = null;
+                segments.add(last);
+                dropOldest();
+            }
+            MappedByteBuffer buffer = last.buffer;
+            buffer.position(last.write + 4);
+            buffer.put(kind);
+            buffer.putShort((short) key.length);
+            buffer.put(key);
+            buffer.put(bytes);
+            // the length is written last, so a reader never sees a partly written record
+            buffer.putInt(last.write, length);
+            last.write += 4 + length;
+            return last;
+        }
+
+        private void dropOldest() {
+            while (segments.size() > maxSegments) {
+                Segment oldest = segments.poll();
+                index.values().removeIf(location -> location.segment == oldest);
+                dropped.add(oldest);
+            }
+        }
+
+        // Deletes dropped segments and creates the next spare, called without the lock
+        private void maintain() {
+            List<Segment> delete;
+            long number = -1;
+            synchronized (lock) {
+                delete = new ArrayList<>(dropped);
+                dropped.clear();
+                if (!closed && spare == null && !creatingSpare) {
+                    creatingSpare = true;
+                    number = nextSegment++;
+                }
+            }
+            for (Segment segment : delete) {
+                delete(segment);
+            }
+            if (number < 0) {
+                return;
+            }
+            Segment created = null;
+            try {
+                created = new Segment(segmentPath(number), segmentBytes);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "couldn't add a pass bundle cache segment", e);
+            }
+            synchronized (lock) {
+                creatingSpare = false;
+                if (!closed) {
+                    spare = created;
+                    return;
+                }
+            }
+            if (created != null) {
+                delete(created);
+            }
+        }
+
+        private static void delete(Segment segment) {
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "couldn't delete " + segment.path, e);
+            }
+        }
+
+        private void close() throws IOException {
+            closed = true;
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            segments.clear();
+            index.clear();
+            if (spare != null) {
+                dropped.add(spare);
+                spare = null;
+            }
+            for (Segment segment : dropped) {
+                delete(segment);
+            }
+            dropped.clear();
+        }
+
+        private static final class Location {
+            private final Segment segment;
+            private final int offset;
+            private final int length;
+
+            private Location(Segment segment, int offset, int length) {
+                this.segment = segment;
+                this.offset = offset;
+                this.length = length;
+            }
+        }
+
+        private static final class Segment {
+            private final Path path;
+            private final FileChannel channel;
+            private final MappedByteBuffer buffer;
+            private int write;
+
+            private Segment(Path path, int segmentBytes) throws IOException {
+                this.path = path;
+                this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+
+            // Adds the records of a segment left by an earlier run to the index and finds their end
+            private void recover(Map<String, Location> index) {
+                int offset = 0;
+                while (offset + 4 <= buffer.capacity()) {
+                    int length = buffer.getInt(offset);
+                    if (length < 3 || offset + 4 + length > buffer.capacity()) {
+                        break;
+                    }
+                    byte kind = buffer.get(offset + 4);
+                    int keyLength = buffer.getShort(offset + 5);
+                    byte[] key = new byte[keyLength];
+                    buffer.get(offset + 7, key);
+                    String ticketId = new String(key, StandardCharsets.UTF_8);
+                    int bundleOffset = offset + 7 + keyLength;
+                    if (kind == BUNDLE) {
+                        index.put(ticketId, new Location(this, bundleOffset, offset + 4 + length - bundleOffset));
+                    } else {
+                        index.remove(ticketId);
+                    }
+                    offset += 4 + length;
+                }
+                write = offset;
+            }
+
+            private void delete() throws IOException {
+                channel.close();
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
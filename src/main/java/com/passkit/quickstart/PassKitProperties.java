@@ -0,0 +1,31 @@
+package com.passkit.quickstart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Loads passkit.properties from the classpath for the classes that read their settings from it.
+ */
+final class PassKitProperties {
+    private static final Logger logger = Logger.getLogger(PassKitProperties.class.getName());
+
+    private PassKitProperties() {
+    }
+
+    static Properties load() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = GrpcConnection.class.getResourceAsStream("/passkit.properties")) {
+            if (in == null) {
+                throw new IOException("passkit.properties is not on the classpath");
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "couldn't load passkit.properties");
+            throw new IOException("couldn't load passkit.properties", e);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,545 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Status;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Collects earn and burn transactions and sends them as one earnPoints and one burnPoints call per member per window,
+ * instead of a call per transaction. Transactions are added to per member totals in striped maps, so threads adding
+ * points for different members rarely contend, and every window the totals are sent over the connection pool.
+ *
+ * Each transaction is written to a journal file before earn or burn returns, and every window starts a new journal
+ * file. A file is deleted once the totals it holds are sent, and the calls for each member are marked in it as they
+ * complete, so a batcher started on the same directory after a crash sends the totals that weren't sent. Only a crash
+ * between a call completing and its mark being written sends that member's total twice.
+ *
+ * earnPoints and burnPoints aren't idempotent, so a total is only sent again when its call is known not to have been
+ * applied: when the server turned it away with RESOURCE_EXHAUSTED or ABORTED, it is sent again in the next window. A
+ * call that failed with DEADLINE_EXCEEDED or UNAVAILABLE may have been applied before it failed, and sending it again
+ * could credit the points twice, so its total is written to rejected.csv in the journal directory, with the status,
+ * to be reconciled against the member's balance. Totals the server rejects are written there too.
+ *
+ * By default the journal is written to the operating system on every transaction, which survives the process
+ * crashing, and forced to disk every window. With syncWrites every transaction is forced to disk before it returns.
+ */
+public final class PointsBatcher implements Closeable {
+    private static final Logger logger = Logger.getLogger(PointsBatcher.class.getName());
+
+    private static final int STRIPES = 16;
+    private static final long CALL_TIMEOUT_MILLIS = 30_000;
+    private static final String PREFIX = "points-";
+    private static final String SUFFIX = ".journal";
+
+    private static final byte DELTA = 1;
+    private static final byte EARNED = 2;
+    private static final byte BURNED = 3;
+
+    private final GrpcConnectionPool pool;
+    private final Path directory;
+    private final int maxInFlight;
+    private final boolean syncWrites;
+    private final ScheduledExecutorService scheduler;
+
+    // adding transactions takes the read lock, starting a new window takes the write lock
+    private final ReadWriteLock windowLock = new ReentrantReadWriteLock();
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private Segment current;
+    private long nextSegment;
+    // earlier windows not yet sent in full, oldest first, only used while holding flushLock
+    private final List<Segment> draining = new ArrayList<>();
+    private final Object flushLock = new Object();
+    private boolean closed;
+
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong unconfirmed = new AtomicLong();
+
+    // Reads the window, in-flight and sync settings from passkit.properties
+    public PointsBatcher(GrpcConnectionPool pool, Path directory) throws IOException {
+        this(pool, directory, PassKitProperties.load());
+    }
+
+    private PointsBatcher(GrpcConnectionPool pool, Path directory, Properties properties) throws IOException {
+        this(pool, directory,
+                Long.parseLong(properties.getProperty("points.batch.windowMillis", "1000")),
+                Integer.parseInt(properties.getProperty("points.batch.maxInFlight", "64")),
+                Boolean.parseBoolean(properties.getProperty("points.batch.syncWrites", "false")));
+    }
+
+    // Sends any totals left in the journal directory by an earlier run in the first window
+    public PointsBatcher(GrpcConnectionPool pool, Path directory, long windowMillis, int maxInFlight,
+            boolean syncWrites) throws IOException {
+        if (windowMillis < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("windowMillis and maxInFlight must be at least 1");
+        }
+        this.pool = pool;
+        this.directory = directory;
+        this.maxInFlight = maxInFlight;
+        this.syncWrites = syncWrites;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        Files.createDirectories(directory);
+        recover();
+        current = Segment.create(directory, nextSegment++);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "points-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "couldn't flush points", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void earn(String memberId, float points, float tierPoints, float secondaryPoints) throws IOException {
+        add(memberId, points, tierPoints, secondaryPoints);
+    }
+
+    public void burn(String memberId, float points, float tierPoints, float secondaryPoints) throws IOException {
+        add(memberId, -points, -tierPoints, -secondaryPoints);
+    }
+
+    private void add(String memberId, float points, float tierPoints, float secondaryPoints) throws IOException {
+        if (memberId.isEmpty()) {
+            throw new IllegalArgumentException("memberId is required");
+        }
+        windowLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("points batcher is closed");
+            }
+            current.append(DELTA, memberId, points, tierPoints, secondaryPoints, syncWrites);
+            stripes[Math.floorMod(memberId.hashCode(), STRIPES)].add(memberId, points, tierPoints, secondaryPoints);
+        } finally {
+            windowLock.readLock().unlock();
+        }
+        transactions.incrementAndGet();
+    }
+
+    // Ends the current window and sends its totals, along with totals from earlier windows that failed to send.
+    // Returns once every call has completed.
+    public void flush() throws IOException, InterruptedException {
+        synchronized (flushLock) {
+            Segment ended;
+            windowLock.writeLock().lock();
+            try {
+                if (current == null) {
+                    return;
+                }
+                ended = current;
+                current = closed ? null : Segment.create(directory, nextSegment++);
+                for (Stripe stripe : stripes) {
+                    stripe.drainTo(ended.pending);
+                }
+            } finally {
+                windowLock.writeLock().unlock();
+            }
+            ended.force();
+            draining.add(ended);
+
+            send(true);
+            send(false);
+
+            List<Segment> done = new ArrayList<>();
+            for (Segment segment : draining) {
+                if (segment.isResolved()) {
+                    segment.delete();
+                    done.add(segment);
+                }
+            }
+            draining.removeAll(done);
+        }
+    }
+
+    // Sends the earn or burn part of every unresolved total and waits for the calls. Earns are sent before burns so a
+    // member's balance never dips below what it will be at the end of the window.
+    private void send(boolean earn) throws InterruptedException {
+        Semaphore window = new Semaphore(maxInFlight);
+        List<Runnable> requests = new ArrayList<>();
+        for (Segment segment : draining) {
+            for (Map.Entry<String, Total> entry : segment.pending.entrySet()) {
+                Total total = entry.getValue();
+                MemberOuterClass.EarnBurnPointsRequest request = total.request(entry.getKey(), earn);
+                if (request != null) {
+                    requests.add(() -> send(segment, entry.getKey(), total, request, earn, window));
+                }
+            }
+        }
+        for (Runnable request : requests) {
+            window.acquire();
+            request.run();
+        }
+        window.acquire(maxInFlight);
+    }
+
+    private void send(Segment segment, String memberId, Total total, MemberOuterClass.EarnBurnPointsRequest request,
+            boolean earn, Semaphore window) {
+        calls.incrementAndGet();
+        ListenableFuture<MemberOuterClass.MemberPoints> call;
+        try {
+            MembersGrpc.MembersFutureStub stub = MembersGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            call = earn ? stub.earnPoints(request) : stub.burnPoints(request);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<MemberOuterClass.MemberPoints>() {
+            @Override
+            public void onSuccess(MemberOuterClass.MemberPoints points) {
+                resolve();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status status = Status.fromThrowable(t);
+                if (isRefused(status.getCode())) {
+                    // left unresolved, sent again next window
+                    retries.incrementAndGet();
+                    window.release();
+                    return;
+                }
+                if (RetryPolicy.isRetryable(status.getCode())) {
+                    logger.warning("points for member " + memberId + " may or may not have been applied: " + status);
+                    unconfirmed.incrementAndGet();
+                } else {
+                    logger.warning("points for member " + memberId + " rejected: " + status);
+                    rejected.incrementAndGet();
+                }
+                writeRejected(memberId, request, earn, status);
+                resolve();
+            }
+
+            private void resolve() {
+                try {
+                    segment.append(earn ? EARNED : BURNED, memberId, 0, 0, 0, false);
+                    total.resolve(earn);
+                } catch (IOException e) {
+                    // left unresolved, the journal is kept and the total sent again
+                    logger.log(Level.SEVERE, "couldn't write to points journal " + segment.path, e);
+                } finally {
+                    window.release();
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    // Whether a call failing with code was turned away by the server before it was applied
+    private static boolean isRefused(Status.Code code) {
+        return code == Status.Code.RESOURCE_EXHAUSTED || code == Status.Code.ABORTED;
+    }
+
+    private synchronized void writeRejected(String memberId, MemberOuterClass.EarnBurnPointsRequest request,
+            boolean earn, Status status) {
+        String line = String.format("%s,%s,%s,%s,%s,%s%n", memberId, earn ? "earn" : "burn", request.getPoints(),
+                request.getTierPoints(), request.getSecondaryPoints(), status.getCode());
+        try {
+            Files.write(directory.resolve("rejected.csv"), line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "couldn't record rejected points: " + line.trim(), e);
+        }
+    }
+
+    // Loads the journal files of an earlier run as windows waiting to be sent
+    private void recover() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    logger.warning("ignoring unexpected file in points journal: " + file);
+                }
+            }
+        }
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            Segment segment = Segment.recover(file.getValue());
+            if (segment.isResolved()) {
+                segment.delete();
+            } else {
+                logger.info("recovered " + segment.pending.size() + " unsent point totals from " + file.getValue());
+                draining.add(segment);
+            }
+            nextSegment = file.getKey() + 1;
+        }
+    }
+
+    // Sends what is left and stops. Totals that still fail to send stay in the journal for the next run.
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        windowLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            windowLock.writeLock().unlock();
+        }
+        try {
+            scheduler.awaitTermination(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (flushLock) {
+            for (Segment segment : draining) {
+                segment.close();
+            }
+        }
+    }
+
+    public long getTransactions() {
+        return transactions.get();
+    }
+
+    // earnPoints and burnPoints calls sent, including those sent again
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    // Totals whose call failed in a way that leaves open whether it was applied, written to rejected.csv
+    public long getUnconfirmed() {
+        return unconfirmed.get();
+    }
+
+    private static final class Stripe {
+        private Map<String, float[]> totals = new HashMap<>();
+
+        private synchronized void add(String memberId, float points, float tierPoints, float secondaryPoints) {
+            float[] total = totals.computeIfAbsent(memberId, id -> new float[3]);
+            total[0] += points;
+            total[1] += tierPoints;
+            total[2] += secondaryPoints;
+        }
+
+        private synchronized void drainTo(Map<String, Total> pending) {
+            for (Map.Entry<String, float[]> entry : totals.entrySet()) {
+                float[] total = entry.getValue();
+                pending.computeIfAbsent(entry.getKey(), id -> new Total()).add(total[0], total[1], total[2]);
+            }
+            totals = new HashMap<>();
+        }
+    }
+
+    // A member's total for one window. Positive parts are earned and negative parts burned, each resolved when its
+    // call completes.
+    private static final class Total {
+        private final float[] points = new float[3];
+        private volatile boolean earned;
+        private volatile boolean burned;
+
+        private void add(float points, float tierPoints, float secondaryPoints) {
+            this.points[0] += points;
+            this.points[1] += tierPoints;
+            this.points[2] += secondaryPoints;
+        }
+
+        // Returns the earn or burn request still to send, or null if there is none
+        private MemberOuterClass.EarnBurnPointsRequest request(String memberId, boolean earn) {
+            if (earn ? earned : burned) {
+                return null;
+            }
+            float sign = earn ? 1 : -1;
+            float points = Math.max(0, sign * this.points[0]);
+            float tierPoints = Math.max(0, sign * this.points[1]);
+            float secondaryPoints = Math.max(0, sign * this.points[2]);
+            if (points == 0 && tierPoints == 0 && secondaryPoints == 0) {
+                return null;
+            }
+            return MemberOuterClass.EarnBurnPointsRequest.newBuilder()
+                    .setId(memberId)
+                    .setPoints(points)
+                    .setTierPoints(tierPoints)
+                    .setSecondaryPoints(secondaryPoints)
+                    .build();
+        }
+
+        private void resolve(boolean earn) {
+            if (earn) {
+                earned = true;
+            } else {
+                burned = true;
+            }
+        }
+
+        private boolean isResolved() {
+            return request("", true) == null && request("", false) == null;
+        }
+    }
+
+    // One journal file. Records are a type byte, the member id as a length and UTF-8 bytes, and for DELTA records
+    // the three point values.
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+        private final Map<String, Total> pending;
+
+        private Segment(Path path, FileChannel channel, Map<String, Total> pending) {
+            this.path = path;
+            this.channel = channel;
+            this.pending = pending;
+        }
+
+        private static Path path(Path directory, long number) {
+            return directory.resolve(String.format("%s%020d%s", PREFIX, number, SUFFIX));
+        }
+
+        private static Segment create(Path directory, long number) throws IOException {
+            Path path = path(directory, number);
+            return new Segment(path, FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                    new HashMap<>());
+        }
+
+        // A record cut short by a crash while it was written is ignored, its transaction never returned. The file is
+        // truncated after the last complete record so that records appended later can be read back.
+        private static Segment recover(Path path) throws IOException {
+            Map<String, Total> pending = new HashMap<>();
+            Map<String, boolean[]> resolved = new HashMap<>();
+            long complete = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                while (true) {
+                    byte type;
+                    String memberId;
+                    int size;
+                    float points = 0;
+                    float tierPoints = 0;
+                    float secondaryPoints = 0;
+                    try {
+                        type = in.readByte();
+                        byte[] id = new byte[in.readUnsignedShort()];
+                        in.readFully(id);
+                        memberId = new String(id, StandardCharsets.UTF_8);
+                        size = 3 + id.length;
+                        if (type == DELTA) {
+                            points = in.readFloat();
+                            tierPoints = in.readFloat();
+                            secondaryPoints = in.readFloat();
+                            size += 12;
+                        }
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    complete += size;
+                    if (type == DELTA) {
+                        pending.computeIfAbsent(memberId, m -> new Total()).add(points, tierPoints, secondaryPoints);
+                    } else {
+                        resolved.computeIfAbsent(memberId, m -> new boolean[2])[type == EARNED ? 0 : 1] = true;
+                    }
+                }
+            }
+            for (Map.Entry<String, boolean[]> entry : resolved.entrySet()) {
+                Total total = pending.get(entry.getKey());
+                if (total != null) {
+                    total.earned = entry.getValue()[0];
+                    total.burned = entry.getValue()[1];
+                }
+            }
+            pending.values().removeIf(Total::isResolved);
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            try {
+                if (channel.size() > complete) {
+                    channel.truncate(complete);
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return new Segment(path, channel, pending);
+        }
+
+        private synchronized void append(byte type, String memberId, float points, float tierPoints,
+                float secondaryPoints, boolean force) throws IOException {
+            byte[] id = memberId.getBytes(StandardCharsets.UTF_8);
+            if (id.length > 512) {
+                throw new IllegalArgumentException("memberId is too long");
+            }
+            buffer.clear();
+            buffer.put(type).putShort((short) id.length).put(id);
+            if (type == DELTA) {
+                buffer.putFloat(points).putFloat(tierPoints).putFloat(secondaryPoints);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+        }
+
+        private synchronized void force() throws IOException {
+            channel.force(false);
+        }
+
+        private boolean isResolved() {
+            for (Total total : pending.values()) {
+                if (!total.isResolved()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private synchronized void close() throws IOException {
+            channel.close();
+        }
+
+        private void delete() throws IOException {
+            close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.passkit.quickstart;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.grpc.Status;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToLongFunction;
+
+/*
+ * Serves RpcMetrics in the Prometheus text format on http://localhost:<port>/metrics, from a single daemon thread.
+ * Only the loopback address is bound: the endpoint is meant for a local agent or a developer, not the network.
+ *
+ * Latency is exported as a histogram in seconds. Its buckets are read from LatencyHistogram, whose own buckets are
+ * about 6% wide, so a call close to a bucket boundary may be counted in the neighbouring one.
+ */
+public class PrometheusExporter implements Closeable {
+
+    // Bucket boundaries in seconds, from 1ms to 10s
+    private static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final RpcMetrics metrics;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // Starts serving on the port, or on a free port if it is 0
+    public PrometheusExporter(RpcMetrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "prometheus-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/metrics", this::scrape);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = format(metrics).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Renders every method's metrics, in method order so consecutive scrapes line up
+    public static String format(RpcMetrics metrics) {
+        List<RpcMetrics.MethodStats> methods = metrics.getMethods();
+        methods.sort(Comparator.comparing(RpcMetrics.MethodStats::getMethod));
+        StringBuilder out = new StringBuilder();
+
+        out.append("# HELP grpc_client_completed_total Calls completed, by status code.\n");
+        out.append("# TYPE grpc_client_completed_total counter\n");
+        for (RpcMetrics.MethodStats stats : methods) {
+            for (Map.Entry<Status.Code, Long> entry : stats.getStatusCounts().entrySet()) {
+                out.append("grpc_client_completed_total{method=\"").append(stats.getMethod())
+                        .append("\",code=\"").append(entry.getKey().name()).append("\"} ")
+                        .append(entry.getValue()).append('\n');
+            }
+        }
+
+        out.append("# HELP grpc_client_latency_seconds Time from starting a call to its close.\n");
+        out.append("# TYPE grpc_client_latency_seconds histogram\n");
+        for (RpcMetrics.MethodStats stats : methods) {
+            LatencyHistogram.Snapshot latency = stats.getLatency();
+            String method = stats.getMethod();
+            for (double bucket : BUCKETS) {
+                out.append("grpc_client_latency_seconds_bucket{method=\"").append(method)
+                        .append("\",le=\"").append(bucket).append("\"} ")
+                        .append(latency.countAtOrBelow((long) (bucket * 1e9))).append('\n');
+            }
+            out.append("grpc_client_latency_seconds_bucket{method=\"").append(method).append("\",le=\"+Inf\"} ")
+                    .append(latency.getCount()).append('\n');
+            out.append("grpc_client_latency_seconds_sum{method=\"").append(method).append("\"} ")
+                    .append(latency.getSumNanos() / 1e9).append('\n');
+            out.append("grpc_client_latency_seconds_count{method=\"").append(method).append("\"} ")
+                    .append(latency.getCount()).append('\n');
+        }
+
+        series(out, methods, "grpc_client_in_flight", "Calls started and not yet closed.", "gauge",
+                RpcMetrics.MethodStats::getInFlight);
+        series(out, methods, "grpc_client_sent_bytes_total", "Serialized size of the messages sent.", "counter",
+                RpcMetrics.MethodStats::getBytesSent);
+        series(out, methods, "grpc_client_received_bytes_total", "Serialized size of the messages received.",
+                "counter", RpcMetrics.MethodStats::getBytesReceived);
+        return out.toString();
+    }
+
+    private static void series(StringBuilder out, List<RpcMetrics.MethodStats> methods, String name, String help,
+            String type, ToLongFunction<RpcMetrics.MethodStats> value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (RpcMetrics.MethodStats stats : methods) {
+            out.append(name).append("{method=\"").append(stats.getMethod()).append("\"} ")
+                    .append(value.applyAsLong(stats)).append('\n');
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -268,17 +268,30 @@ public class QuickstartCoupons {
         }
 
         public static void cleanup() {
-                couponsStub.deleteCouponCampaign(campaignId);
-                templatesStub.deleteTemplate(baseTemplateId);
-                templatesStub.deleteTemplate(vipTemplateId);
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(campaignImageIds.getIcon()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(campaignImageIds.getLogo()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(campaignImageIds.getAppleLogo()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(campaignImageIds.getStrip()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(campaignImageIds.getHero()).build());
-
-                // always close the channel when there will be no further calls made.
-                conn.closeChannel();
+                // the campaign goes before the templates its offers use, and the templates before their images, with
+                // the deletes whose dependencies are done running concurrently
+                // throws an IllegalStateException if a delete fails, records that are already gone count as deleted
+                Teardown teardown = new Teardown();
+                Teardown.Step campaign = teardown.deleteBlocking("campaign",
+                                () -> couponsStub.deleteCouponCampaign(campaignId));
+                Teardown.Step[] templates = {
+                                teardown.deleteBlocking("base template",
+                                                () -> templatesStub.deleteTemplate(baseTemplateId), campaign),
+                                teardown.deleteBlocking("vip template",
+                                                () -> templatesStub.deleteTemplate(vipTemplateId), campaign)
+                };
+                for (String imageId : new String[] {campaignImageIds.getIcon(), campaignImageIds.getLogo(),
+                                campaignImageIds.getAppleLogo(), campaignImageIds.getStrip(),
+                                campaignImageIds.getHero()}) {
+                        teardown.deleteBlocking("image " + imageId, () -> imagesStub.deleteImage(
+                                        CommonObjects.Id.newBuilder().setId(imageId).build()), templates);
+                }
+                try {
+                        teardown.run();
+                } finally {
+                        // always close the channel when there will be no further calls made.
+                        conn.closeChannel();
+                }
 
                 // Shutdown if you are using the connection pool
                 // shutdownPool();
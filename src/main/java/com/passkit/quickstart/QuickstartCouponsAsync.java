@@ -0,0 +1,341 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.*;
+import com.passkit.grpc.SingleUseCoupons.*;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass.CouponStatus;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.Timestamp;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/* Quickstart Coupons Async runs the same steps as Quickstart Coupons using future stubs. Each call is started as soon
+   as the calls it depends on have completed:
+
+   images, default template  -> base template, VIP template
+   base template, campaign   -> base offer -> base coupon -> redeem base coupon
+   VIP template, campaign    -> VIP offer -> VIP coupon
+   redeem base, VIP coupon   -> list coupons
+ */
+public class QuickstartCouponsAsync {
+
+        private static GrpcConnection conn;
+
+        // Callbacks only copy results and start the next calls, so they can run on the gRPC thread that completed
+        // the previous call
+        private static final Executor direct = MoreExecutors.directExecutor();
+
+        public QuickstartCouponsAsync() {
+                // initiate client stubs
+                try {
+                        conn = new GrpcConnection();
+                        createStubs();
+                } catch (Exception e) {
+                        e.printStackTrace();
+                        conn.closeChannel();
+                        System.exit(1);
+                }
+        }
+
+        // Runs the quickstart over an existing connection, for example one wrapping a channel from a connection pool
+        public QuickstartCouponsAsync(GrpcConnection connection) {
+                try {
+                        conn = connection;
+                        createStubs();
+                } catch (Exception e) {
+                        e.printStackTrace();
+                        conn.closeChannel();
+                        System.exit(1);
+                }
+        }
+
+        private static void createStubs() throws Exception {
+                imagesStub = ImagesGrpc.newFutureStub(conn.getChannel());
+                templatesStub = TemplatesGrpc.newFutureStub(conn.getChannel());
+                couponsStub = SingleUseCouponsGrpc.newFutureStub(conn.getChannel());
+                couponsStreamStub = SingleUseCouponsGrpc.newStub(conn.getChannel());
+        }
+
+        /*
+         * Future stubs return a ListenableFuture for every unary call instead of blocking until the response
+         * arrives. Streaming responses are not supported by future stubs so listing coupons uses the async stub.
+         */
+        private static ImagesGrpc.ImagesFutureStub imagesStub;
+        private static SingleUseCouponsGrpc.SingleUseCouponsFutureStub couponsStub;
+        private static SingleUseCouponsGrpc.SingleUseCouponsStub couponsStreamStub;
+        private static TemplatesGrpc.TemplatesFutureStub templatesStub;
+
+        // Public objects for testing purposes
+        public static Image.ImageIds campaignImageIds;
+        public static CommonObjects.Id baseTemplateId;
+        public static CommonObjects.Id vipTemplateId;
+        public static CommonObjects.Id campaignId;
+        public static CommonObjects.Id baseOfferId;
+        public static CommonObjects.Id vipOfferId;
+        public static CommonObjects.Id baseCouponId;
+        public static CommonObjects.Id vipCouponId;
+        public static List<CouponOuterClass.Coupon> coupons;
+        public static String baseEmail = "loyal.larry@dummy.passkit.com"; // Change to your email to receive cards
+        public static String vipEmail = "harry.highroller@dummy.passkit.com"; // Change to your email to receive cards
+
+        public void quickStart() {
+                Helpers.await(quickStartAsync());
+        }
+
+        public ListenableFuture<?> quickStartAsync() {
+                ListenableFuture<Image.ImageIds> images = createImages();
+                ListenableFuture<Template.PassTemplate> defaultTemplate = getDefaultTemplate();
+                ListenableFuture<CommonObjects.Id> campaign = createCampaign();
+
+                ListenableFuture<CommonObjects.Id> baseTemplate = Futures.whenAllSucceed(images, defaultTemplate)
+                                .callAsync(() -> createBaseTemplate(Futures.getDone(defaultTemplate)), direct);
+                ListenableFuture<CommonObjects.Id> vipTemplate = Futures.whenAllSucceed(images, defaultTemplate)
+                                .callAsync(() -> createVipTemplate(Futures.getDone(defaultTemplate)), direct);
+
+                ListenableFuture<CommonObjects.Id> baseOffer = Futures.whenAllSucceed(baseTemplate, campaign)
+                                .callAsync(this::createBaseOffer, direct);
+                ListenableFuture<CommonObjects.Id> vipOffer = Futures.whenAllSucceed(vipTemplate, campaign)
+                                .callAsync(this::createVipOffer, direct);
+
+                ListenableFuture<CommonObjects.Id> baseCoupon = Futures.transformAsync(baseOffer,
+                                id -> createBaseCoupon(), direct);
+                ListenableFuture<CommonObjects.Id> vipCoupon = Futures.transformAsync(vipOffer,
+                                id -> createVipCoupon(), direct);
+
+                ListenableFuture<CommonObjects.Id> redeemed = Futures.transformAsync(baseCoupon,
+                                id -> redeemBaseCoupon(), direct); // Optional
+
+                return Futures.whenAllSucceed(redeemed, vipCoupon).callAsync(this::listCoupons, direct); // Optional
+        }
+
+        private ListenableFuture<Image.ImageIds> createImages() {
+                // Create the image assets we'll need for the pass design. A logo and icon are
+                // mandatory.
+                String logo, hero, strip, icon;
+                try {
+                        icon = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/icon.png");
+                        logo = Helpers.encodeFileToBase64("src/main/resources/images/shared/logo.png");
+                        hero = Helpers.encodeFileToBase64("src/main/resources/images/loyalty/hero.png");
+                        strip = Helpers.encodeFileToBase64("src/main/resources/images/loyalty/strip.png");
+                } catch (IOException e) {
+                        e.printStackTrace();
+                        return Futures.immediateFailedFuture(e);
+                }
+
+                Image.CreateImageInput imageInput = Image.CreateImageInput.newBuilder()
+                                .setImageData(Image.ImageData.newBuilder()
+                                                .setIcon(icon)
+                                                .setLogo(logo)
+                                                .setHero(hero)
+                                                .setStrip(strip))
+                                .build();
+
+                return Futures.transform(imagesStub.createImages(imageInput), ids -> campaignImageIds = ids, direct);
+        }
+
+        private ListenableFuture<Template.PassTemplate> getDefaultTemplate() {
+                Template.DefaultTemplateRequest templateRequest = Template.DefaultTemplateRequest.newBuilder()
+                                .setProtocol(Protocols.PassProtocol.SINGLE_USE_COUPON)
+                                .setRevision(1)
+                                .build();
+                return templatesStub.getDefaultTemplate(templateRequest);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createBaseTemplate(Template.PassTemplate defaultTemplate) {
+                // Modify the default template for the base offer
+                Template.PassTemplate template = defaultTemplate.toBuilder()
+                                .setName("Quickstart Before Redeem Campaign")
+                                .setDescription("Quickstart Unredeemed Offer Pass")
+                                .setImageIds(campaignImageIds)
+                                .setTimezone("Europe/London")
+                                .build();
+
+                return Futures.transform(templatesStub.createTemplate(template), id -> baseTemplateId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createVipTemplate(Template.PassTemplate defaultTemplate) {
+                // Modify the default template for the vip offer
+                Template.PassTemplate template = defaultTemplate.toBuilder()
+                                .setName("Quickstart VIP Before Redeem Campaign")
+                                .setDescription("Quickstart VIP Unredeemed Offer Pass")
+                                .setImageIds(campaignImageIds)
+                                .setTimezone("Europe/London")
+                                .setColors(Template.Colors.newBuilder()
+                                                .setBackgroundColor("#000000")
+                                                .setLabelColor("#FFFFFF")
+                                                .setTextColor("#FFFFFF")
+                                                .build())
+                                .build();
+
+                return Futures.transform(templatesStub.createTemplate(template), id -> vipTemplateId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createCampaign() {
+                // Create the campaign
+                Campaign.CouponCampaign campaign = Campaign.CouponCampaign.newBuilder()
+                                .setName("Quickstart Campaign")
+                                .addStatus(ProjectOuterClass.ProjectStatus.PROJECT_DRAFT)
+                                .addStatus(ProjectOuterClass.ProjectStatus.PROJECT_ACTIVE_FOR_OBJECT_CREATION)
+                                .build();
+
+                return Futures.transform(couponsStub.createCouponCampaign(campaign), id -> campaignId = id, direct);
+        }
+
+        private static Offer.CouponOffer.Builder offer() {
+                return Offer.CouponOffer.newBuilder()
+                                .setIssueStartDate(Timestamp.newBuilder()
+                                                .setSeconds(System.currentTimeMillis() / 1000L)
+                                                .build())
+                                .setIssueEndDate(Timestamp.newBuilder()
+                                                .setSeconds(System.currentTimeMillis() / 1000L + 360000)
+                                                .build())
+                                .setRedemptionSettings(Offer.RedemptionSettings.newBuilder()
+                                                .setRedemptionStartDate(Timestamp.newBuilder()
+                                                                .setSeconds(System.currentTimeMillis() / 1000L)
+                                                                .build())
+                                                .setRedemptionEndDate(Timestamp.newBuilder()
+                                                                .setSeconds(System.currentTimeMillis() / 1000L + 360000)
+                                                                .build()))
+                                .setCouponExpirySettings(Offer.CouponExpirySettings.newBuilder()
+                                                .setCouponExpiryType(
+                                                                Offer.CouponExpiryType.AUTO_EXPIRE_REDEMPTION_END_DATE)
+                                                .build())
+                                .setCampaignId(campaignId.getId())
+                                .setIanaTimezone("Europe/London");
+        }
+
+        private ListenableFuture<CommonObjects.Id> createBaseOffer() {
+                Offer.CouponOffer offer = offer()
+                                .setId("Base offer")
+                                .setOfferTitle("Base offer")
+                                .setOfferShortTitle("Base offer")
+                                .setOfferDetails("Base Offer details")
+                                .setOfferFinePrint("Base Offer fine print")
+                                .setBeforeRedeemPassTemplateId(baseTemplateId.getId())
+                                .build();
+
+                return Futures.transform(couponsStub.createCouponOffer(offer), id -> baseOfferId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createVipOffer() {
+                Offer.CouponOffer offer = offer()
+                                .setId("VIP offer")
+                                .setOfferTitle("VIP offer")
+                                .setOfferShortTitle("VIP offer")
+                                .setOfferDetails("VIP Offer details")
+                                .setOfferFinePrint("VIP Offer fine print")
+                                .setBeforeRedeemPassTemplateId(vipTemplateId.getId())
+                                .build();
+
+                return Futures.transform(couponsStub.createCouponOffer(offer), id -> vipOfferId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createBaseCoupon() {
+                CouponOuterClass.Coupon coupon = CouponOuterClass.Coupon.newBuilder()
+                                .setOfferId(baseOfferId.getId())
+                                .setCampaignId(campaignId.getId())
+                                .setSku("123456789")
+                                .setPerson(Personal.Person.newBuilder()
+                                                .setDisplayName("Loyal Larry")
+                                                // set to an email address that can receive mail to receive an enrolment
+                                                // email.
+                                                .setEmailAddress(baseEmail)
+                                                .build())
+                                .setStatus(CouponStatus.UNREDEEMED)
+                                .build();
+
+                return Futures.transform(couponsStub.createCoupon(coupon), id -> baseCouponId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createVipCoupon() {
+                CouponOuterClass.Coupon coupon = CouponOuterClass.Coupon.newBuilder()
+                                .setOfferId(vipOfferId.getId())
+                                .setCampaignId(campaignId.getId())
+                                .setSku("123456789")
+                                .setPerson(Personal.Person.newBuilder()
+                                                .setDisplayName("Harry Highroller")
+                                                // set to an email address that can receive mail to receive an enrolment
+                                                // email.
+                                                .setEmailAddress(vipEmail)
+                                                .build())
+                                .setStatus(CouponStatus.UNREDEEMED)
+                                .build();
+
+                return Futures.transform(couponsStub.createCoupon(coupon), id -> vipCouponId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> redeemBaseCoupon() {
+                // Redeem base coupon, if redeemed pass url will no longer be valid
+                CouponOuterClass.Coupon baseRequest = CouponOuterClass.Coupon.newBuilder()
+                                .setId(baseCouponId.getId())
+                                .setCampaignId(campaignId.getId())
+                                .build();
+                return couponsStub.redeemCoupon(baseRequest);
+        }
+
+        private ListenableFuture<List<CouponOuterClass.Coupon>> listCoupons() {
+                // Lists any coupons under the selected campaign
+                CouponOuterClass.ListRequest listRequest = CouponOuterClass.ListRequest.newBuilder()
+                                .setCouponCampaignId(campaignId.getId())
+                                .build();
+
+                SettableFuture<List<CouponOuterClass.Coupon>> listed = SettableFuture.create();
+                List<CouponOuterClass.Coupon> received = new ArrayList<>();
+                couponsStreamStub.listCouponsByCouponCampaign(listRequest,
+                                new StreamObserver<CouponOuterClass.Coupon>() {
+                                        @Override
+                                        public void onNext(CouponOuterClass.Coupon coupon) {
+                                                received.add(coupon);
+                                        }
+
+                                        @Override
+                                        public void onError(Throwable t) {
+                                                listed.setException(t);
+                                        }
+
+                                        @Override
+                                        public void onCompleted() {
+                                                coupons = received;
+                                                listed.set(received);
+                                        }
+                                });
+                return listed;
+        }
+
+        public static void cleanup() {
+                // The campaign has to go before the templates its offers use, and the templates before their images.
+                // Deletes whose dependencies are done run concurrently.
+                // Throws an IllegalStateException if a delete fails. Records that are already gone count as deleted.
+                Teardown teardown = new Teardown();
+                Teardown.Step campaign = teardown.delete("campaign",
+                                () -> couponsStub.deleteCouponCampaign(campaignId));
+                Teardown.Step[] templates = {
+                                teardown.delete("base template",
+                                                () -> templatesStub.deleteTemplate(baseTemplateId), campaign),
+                                teardown.delete("vip template",
+                                                () -> templatesStub.deleteTemplate(vipTemplateId), campaign)
+                };
+                teardown.delete("icon", () -> deleteImage(campaignImageIds.getIcon()), templates);
+                teardown.delete("logo", () -> deleteImage(campaignImageIds.getLogo()), templates);
+                teardown.delete("apple logo", () -> deleteImage(campaignImageIds.getAppleLogo()), templates);
+                teardown.delete("strip", () -> deleteImage(campaignImageIds.getStrip()), templates);
+                teardown.delete("hero", () -> deleteImage(campaignImageIds.getHero()), templates);
+                try {
+                        teardown.run();
+                } finally {
+                        // always close the channel when there will be no further calls made.
+                        conn.closeChannel();
+                }
+        }
+
+        private static ListenableFuture<?> deleteImage(String imageId) {
+                return imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(imageId).build());
+        }
+}
@@ -449,43 +449,60 @@ public class QuickstartEventTickets {
         }
 
         public static void cleanup() {
-                eventsStub.deleteEvent(EventOuterClass.Event.newBuilder()
-                                .setProduction(ProductionOuterClass.Production.newBuilder()
-                                                .setId(productionId.getId())
-                                                .build())
-                                .setVenue(VenueOuterClass.Venue.newBuilder()
-                                                .setId(venueId.getId())
-                                                .build())
-                                .setScheduledStartDate(Timestamp.newBuilder()
-                                                .setSeconds(eventTimeUnix)
-                                                .build())
-                                .build());
-                eventsStub.deleteTicketType(TicketTypeOuterClass.TicketType.newBuilder()
-                                .setProductionId(productionId.getId())
-                                .setUid("BK5-SEAT")
-                                .build());
-                eventsStub.deleteTicketType(TicketTypeOuterClass.TicketType.newBuilder()
-                                .setProductionId(productionId.getId())
-                                .setUid("BK5-VIP")
-                                .build());
-                eventsStub.deleteProduction(ProductionOuterClass.Production.newBuilder()
-                                .setId(productionId.getId())
-                                .build());
-                eventsStub.deleteVenue(VenueOuterClass.Venue.newBuilder()
+                // the event goes first, then the ticket types and the venue, then the production and the templates the
+                // ticket types used, and finally the images, with the deletes whose dependencies are done running
+                // concurrently
+                // throws an IllegalStateException if a delete fails, records that are already gone count as deleted
+                Teardown teardown = new Teardown();
+                Teardown.Step event = teardown.deleteBlocking("event", () -> eventsStub.deleteEvent(
+                                EventOuterClass.Event.newBuilder()
+                                                .setProduction(ProductionOuterClass.Production.newBuilder()
+                                                                .setId(productionId.getId())
+                                                                .build())
+                                                .setVenue(VenueOuterClass.Venue.newBuilder()
+                                                                .setId(venueId.getId())
+                                                                .build())
+                                                .setScheduledStartDate(Timestamp.newBuilder()
+                                                                .setSeconds(eventTimeUnix)
+                                                                .build())
+                                                .build()));
+                teardown.deleteBlocking("venue", () -> eventsStub.deleteVenue(VenueOuterClass.Venue.newBuilder()
                                 .setId(venueId.getId())
-                                .build());
-                templatesStub.deleteTemplate(baseTemplateId);
-                templatesStub.deleteTemplate(vipTemplateId);
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(eventImageIds.getIcon()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(eventImageIds.getLogo()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(eventImageIds.getAppleLogo()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(eventImageIds.getEventStrip()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(eventImageIds.getHero()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(eventImageIds.getBackground()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(eventImageIds.getThumbnail()).build());
-
-                // always close the channel when there will be no further calls made.
-                conn.closeChannel();
+                                .build()), event);
+                Teardown.Step[] ticketTypes = {
+                                teardown.deleteBlocking("ticket type BK5-SEAT", () -> eventsStub.deleteTicketType(
+                                                TicketTypeOuterClass.TicketType.newBuilder()
+                                                                .setProductionId(productionId.getId())
+                                                                .setUid("BK5-SEAT")
+                                                                .build()), event),
+                                teardown.deleteBlocking("ticket type BK5-VIP", () -> eventsStub.deleteTicketType(
+                                                TicketTypeOuterClass.TicketType.newBuilder()
+                                                                .setProductionId(productionId.getId())
+                                                                .setUid("BK5-VIP")
+                                                                .build()), event)
+                };
+                teardown.deleteBlocking("production", () -> eventsStub.deleteProduction(
+                                ProductionOuterClass.Production.newBuilder()
+                                                .setId(productionId.getId())
+                                                .build()), ticketTypes);
+                Teardown.Step[] templates = {
+                                teardown.deleteBlocking("base template",
+                                                () -> templatesStub.deleteTemplate(baseTemplateId), ticketTypes),
+                                teardown.deleteBlocking("vip template",
+                                                () -> templatesStub.deleteTemplate(vipTemplateId), ticketTypes)
+                };
+                for (String imageId : new String[] {eventImageIds.getIcon(), eventImageIds.getLogo(),
+                                eventImageIds.getAppleLogo(), eventImageIds.getEventStrip(), eventImageIds.getHero(),
+                                eventImageIds.getBackground(), eventImageIds.getThumbnail()}) {
+                        teardown.deleteBlocking("image " + imageId, () -> imagesStub.deleteImage(
+                                        CommonObjects.Id.newBuilder().setId(imageId).build()), templates);
+                }
+                try {
+                        teardown.run();
+                } finally {
+                        // always close the channel when there will be no further calls made.
+                        conn.closeChannel();
+                }
 
                 // Shutdown if you are using the connection pool
                 // shutdownPool();
@@ -0,0 +1,534 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.*;
+import com.passkit.grpc.EventTickets.*;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Timestamp;
+
+import java.io.IOException;
+import java.time.*;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/* Quickstart Event Tickets Async runs the same steps as Quickstart Event Tickets using future stubs. Each call is
+   started as soon as the calls it depends on have completed:
+
+   images, default template               -> base template, VIP template
+   base template, production              -> base ticket type
+   VIP template, production               -> VIP ticket type
+   base ticket type, VIP ticket type, venue -> base ticket -> VIP ticket
+   each ticket                            -> its pass bundle, validate -> redeem
+
+   The VIP ticket is issued after the base ticket because issuing the first ticket for a new date creates the event
+   both tickets belong to.
+ */
+public class QuickstartEventTicketsAsync {
+
+        private static GrpcConnection conn;
+
+        // Callbacks only copy results and start the next calls, so they can run on the gRPC thread that completed
+        // the previous call
+        private static final Executor direct = MoreExecutors.directExecutor();
+
+        public QuickstartEventTicketsAsync() {
+                // initiate client stubs
+                try {
+                        conn = new GrpcConnection();
+                        createStubs();
+                } catch (Exception e) {
+                        e.printStackTrace();
+                        conn.closeChannel();
+                        System.exit(1);
+                }
+        }
+
+        // Runs the quickstart over an existing connection, for example one wrapping a channel from a connection pool
+        public QuickstartEventTicketsAsync(GrpcConnection connection) {
+                try {
+                        conn = connection;
+                        createStubs();
+                } catch (Exception e) {
+                        e.printStackTrace();
+                        conn.closeChannel();
+                        System.exit(1);
+                }
+        }
+
+        private static void createStubs() throws Exception {
+                imagesStub = ImagesGrpc.newFutureStub(conn.getChannel());
+                templatesStub = TemplatesGrpc.newFutureStub(conn.getChannel());
+                eventsStub = EventTicketsGrpc.newFutureStub(conn.getChannel());
+        }
+
+        /*
+         * Future stubs return a ListenableFuture for every unary call instead of blocking until the response
+         * arrives.
+         */
+        private static ImagesGrpc.ImagesFutureStub imagesStub;
+        private static EventTicketsGrpc.EventTicketsFutureStub eventsStub;
+        private static TemplatesGrpc.TemplatesFutureStub templatesStub;
+
+        // Public objects for testing purposes
+        public static Image.ImageIds eventImageIds;
+        public static CommonObjects.Id baseTemplateId;
+        public static CommonObjects.Id vipTemplateId;
+        public static CommonObjects.Id venueId;
+        public static CommonObjects.Id productionId;
+        public static CommonObjects.Id baseTicketTypeId;
+        public static CommonObjects.Id vipTicketTypeId;
+        public static CommonObjects.Id baseTicket;
+        public static CommonObjects.Id vipTicket;
+        public static CommonObjects.PassBundle basePass;
+        public static CommonObjects.PassBundle vipPass;
+        public static TicketOuterClass.ValidateTicketResponse baseTicketValidation;
+        public static TicketOuterClass.ValidateTicketResponse vipTicketValidation;
+        public static CommonObjects.Id baseTicketRedeemedId;
+        public static CommonObjects.Id vipTicketRedeemedId;
+        public static long eventTimeUnix;
+
+        public void quickStart() {
+                Helpers.await(quickStartAsync());
+        }
+
+        public ListenableFuture<?> quickStartAsync() {
+                ListenableFuture<Image.ImageIds> images = createImages();
+                ListenableFuture<Template.PassTemplate> defaultTemplate = getDefaultTemplate();
+                ListenableFuture<CommonObjects.Id> venue = createVenue();
+                ListenableFuture<CommonObjects.Id> production = createProduction();
+
+                ListenableFuture<CommonObjects.Id> baseTemplate = Futures.whenAllSucceed(images, defaultTemplate)
+                                .callAsync(() -> createBaseTemplate(Futures.getDone(defaultTemplate)), direct);
+                ListenableFuture<CommonObjects.Id> vipTemplate = Futures.whenAllSucceed(images, defaultTemplate)
+                                .callAsync(() -> createVipTemplate(Futures.getDone(defaultTemplate)), direct);
+
+                ListenableFuture<CommonObjects.Id> baseTicketType = Futures.whenAllSucceed(baseTemplate, production)
+                                .callAsync(this::createBaseTicketType, direct);
+                ListenableFuture<CommonObjects.Id> vipTicketType = Futures.whenAllSucceed(vipTemplate, production)
+                                .callAsync(this::createVipTicketType, direct);
+
+                ListenableFuture<CommonObjects.Id> base = Futures.whenAllSucceed(baseTicketType, vipTicketType, venue)
+                                .callAsync(this::issueBaseTicket, direct);
+                ListenableFuture<CommonObjects.Id> vip = Futures.transformAsync(base, id -> issueVipTicket(), direct);
+
+                ListenableFuture<CommonObjects.PassBundle> baseBundle = Futures.transformAsync(base,
+                                id -> getPass(id), direct);
+                ListenableFuture<CommonObjects.PassBundle> vipBundle = Futures.transformAsync(vip,
+                                id -> getPass(id), direct);
+                ListenableFuture<CommonObjects.Id> baseRedeemed = Futures.transformAsync(
+                                Futures.transformAsync(base, id -> validateBaseTicket(), direct),
+                                validation -> redeemBaseTicket(), direct);
+                ListenableFuture<CommonObjects.Id> vipRedeemed = Futures.transformAsync(
+                                Futures.transformAsync(vip, id -> validateVipTicket(), direct),
+                                validation -> redeemVipTicket(), direct);
+
+                return Futures.whenAllSucceed(baseBundle, vipBundle, baseRedeemed, vipRedeemed)
+                                .call(() -> {
+                                        basePass = Futures.getDone(baseBundle);
+                                        vipPass = Futures.getDone(vipBundle);
+                                        return null;
+                                }, direct);
+        }
+
+        private ListenableFuture<Image.ImageIds> createImages() {
+                // Create the image assets we'll need for the pass designs. A logo and icon are
+                // mandatory.
+                String icon, logo, appleLogo, background, thumbnail, hero, eventStrip;
+                try {
+                        icon = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/icon.png");
+                        logo = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/logo.png");
+                        appleLogo = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/appleLogo.png");
+                        background = Helpers
+                                        .encodeFileToBase64("src/main/resources/images/eventTickets/background.png");
+                        thumbnail = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/thumbnail.png");
+                        hero = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/hero.png");
+                        eventStrip = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/strip.png");
+                } catch (IOException e) {
+                        e.printStackTrace();
+                        return Futures.immediateFailedFuture(e);
+                }
+
+                Image.CreateImageInput imageInput = Image.CreateImageInput.newBuilder()
+                                .setImageData(Image.ImageData.newBuilder()
+                                                .setIcon(icon)
+                                                .setLogo(logo)
+                                                .setAppleLogo(appleLogo)
+                                                .setBackground(background)
+                                                .setThumbnail(thumbnail)
+                                                .setHero(hero)
+                                                .setEventStrip(eventStrip))
+                                .build();
+
+                return Futures.transform(imagesStub.createImages(imageInput), ids -> eventImageIds = ids, direct);
+        }
+
+        private ListenableFuture<Template.PassTemplate> getDefaultTemplate() {
+                // Get the default template - revision 1 is a template that contains
+                // comprehensive fields
+                Template.DefaultTemplateRequest templateRequest = Template.DefaultTemplateRequest.newBuilder()
+                                .setProtocol(Protocols.PassProtocol.EVENT_TICKETING)
+                                .setRevision(1)
+                                .build();
+                return templatesStub.getDefaultTemplate(templateRequest);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createBaseTemplate(Template.PassTemplate defaultTemplate) {
+                // Modify the default template for the base tier
+                Template.PassTemplate template = defaultTemplate.toBuilder()
+                                .setName("BK5 Ticket")
+                                .setDescription("The Bangkok Five - Category B Ticket")
+                                .setImageIds(Image.ImageIds.newBuilder()
+                                                .setIcon(eventImageIds.getIcon())
+                                                .setLogo(eventImageIds.getLogo())
+                                                .setAppleLogo(eventImageIds.getAppleLogo())
+                                                .setEventStrip(eventImageIds.getEventStrip())
+                                                .setHero(eventImageIds.getHero())
+                                                .build())
+                                .setColors(Template.Colors.newBuilder()
+                                                .setTextColor("000000")
+                                                .setLabelColor("000000")
+                                                .setStripColor("000000")
+                                                .setBackgroundColor("FFEA6C")
+                                                .build())
+                                .setTimezone("Asia/Bangkok")
+                                .build();
+
+                return Futures.transform(templatesStub.createTemplate(template), id -> baseTemplateId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createVipTemplate(Template.PassTemplate defaultTemplate) {
+                ArrayList<Template.DataField> dataFields = new ArrayList<>(
+                                defaultTemplate.getData().getDataFieldsList());
+                if (!dataFields.isEmpty()) {
+                        Template.DataField firstField = dataFields.get(0);
+                        firstField = firstField.toBuilder()
+                                        .setAppleWalletFieldRenderOptions(firstField.getAppleWalletFieldRenderOptions()
+                                                        .toBuilder()
+                                                        .setPositionSettings(Template.PositionSettings.newBuilder()
+                                                                        .setSection(Template.FieldSection.PRIMARY_FIELDS)
+                                                                        .build()))
+                                        .build();
+                        dataFields.set(0, firstField);
+                }
+
+                Template.PassTemplate template = defaultTemplate.toBuilder()
+                                .setName("BK5 VIP Ticket")
+                                .setDescription("The Bangkok Five - VIP Ticket")
+                                .setImageIds(Image.ImageIds.newBuilder()
+                                                .setIcon(eventImageIds.getIcon())
+                                                .setLogo(eventImageIds.getLogo())
+                                                .setAppleLogo(eventImageIds.getAppleLogo())
+                                                .setHero(eventImageIds.getHero())
+                                                .setThumbnail(eventImageIds.getThumbnail())
+                                                .setBackground(eventImageIds.getBackground())
+                                                .build())
+                                .setColors(Template.Colors.newBuilder()
+                                                .setTextColor("FFFFFF")
+                                                .setLabelColor("FFEA6C")
+                                                .setBackgroundColor("000000")
+                                                .build())
+                                .setTimezone("Asia/Bangkok")
+                                .setData(Template.Data.newBuilder()
+                                                .addAllDataFields(dataFields)
+                                                .build())
+                                .build();
+
+                return Futures.transform(templatesStub.createTemplate(template), id -> vipTemplateId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createVenue() {
+                VenueOuterClass.Venue venue = VenueOuterClass.Venue.newBuilder()
+                                .setName("Impact Arena, Muang Thong Thani")
+                                .setAddress("Popular 3 Rd,\nPak Kret District,\nNonthaburi 11120,\nThailand")
+                                .setTimezone("Asia/Bangkok")
+                                .setLocalizedName(Localization.LocalizedString.newBuilder()
+                                                .putTranslations("TH", "อิมแพ็ค เมืองทองธานี")
+                                                .build())
+                                .addGpsCoords(Proximity.GPSLocation.newBuilder()
+                                                .setLat(13.913)
+                                                .setLon(100.5478)
+                                                .build())
+                                .build();
+
+                return Futures.transform(eventsStub.createVenue(venue), id -> venueId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createProduction() {
+                ProductionOuterClass.Production production = ProductionOuterClass.Production.newBuilder()
+                                .setName("The Bangkok Five")
+                                .setFinePrint("1. In case of postpone/cancellation, please bring the ticket(s) to refund at 14 Main "
+                                                +
+                                                "Outlets and will receive credit return within 2 months.\n" +
+                                                "2. Lost of ticket(s) of fixed seats, please present police report with a signed copy of "
+                                                +
+                                                "photo ID or passport at the venue on event day.\n" +
+                                                "3. Lost of ticket(s) of non-fixed seats, standing. Thaiticketmajor reserve the right to "
+                                                +
+                                                "refuse issue new ticket(s) in any circumstances.\n" +
+                                                "4. The transaction is completed cannot be changed round(s), seat(s), event and refundable.")
+                                .setLocalizedFinePrint(Localization.LocalizedString.newBuilder()
+                                                .putTranslations("TH",
+                                                                "1. ถ้าการแสดงเลื่อน, ยกเลิก ท่านต้องนำบัตรคืนที่ 14 สาขาหลัก ภายในวันที่กำหนด "
+                                                                                +
+                                                                                "โดยจะได้รับวงเงินคืนกลับที่บัตรเครดิตภายใน 2 เดือน\n"
+                                                                                +
+                                                                                "2. บัตรสูญหาย ซึ่งเป็นบัตรระบุที่นั่ง กรุณาแสดงใบแจ้งความ พร้อมสำเนาบัตรประชาชน ติดต่อที่หน้างานในวันแสดง\n"
+                                                                                +
+                                                                                "3. บัตรสูญหาย ซึ่งเป็นบัตรไม่ระบุที่นั่ง หรือ เป็นบัตรยืน ทางบริษัทขอสงวนสิทธิ์ไม่ออกบัตรให้ใหม่ ในทุกกรณี\n"
+                                                                                +
+                                                                                "4. เมื่อทำรายการเสร็จสมบูรณ์แล้ว ไม่สามารถเปลี่ยนรอบ, เปลี่ยนที่นั่ง, เปลี่ยนการแสดง หรือ ขอคืนเงิน")
+                                                .build())
+                                .setAutoInvalidateTicketsUponEventEnd(CommonObjects.Toggle.ON)
+                                .build();
+
+                return Futures.transform(eventsStub.createProduction(production), id -> productionId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createBaseTicketType() {
+                TicketTypeOuterClass.TicketType ticketType = TicketTypeOuterClass.TicketType.newBuilder()
+                                .setBeforeRedeemPassTemplateId(baseTemplateId.getId())
+                                .setName("BK5 CAT B")
+                                .setProductionId(productionId.getId())
+                                .setUid("BK5-SEAT")
+                                .build();
+
+                return Futures.transform(eventsStub.createTicketType(ticketType), id -> baseTicketTypeId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createVipTicketType() {
+                TicketTypeOuterClass.TicketType ticketType = TicketTypeOuterClass.TicketType.newBuilder()
+                                .setBeforeRedeemPassTemplateId(vipTemplateId.getId())
+                                .setName("BK5 VIP")
+                                .setProductionId(productionId.getId())
+                                .setUid("BK5-VIP")
+                                .build();
+
+                return Futures.transform(eventsStub.createTicketType(ticketType), id -> vipTicketTypeId = id, direct);
+        }
+
+        private static TicketOuterClass.IssueTicketRequest.Builder ticket() {
+                return TicketOuterClass.IssueTicketRequest.newBuilder()
+                                .setEvent(EventOuterClass.EventLimitedFieldsRequest.newBuilder()
+                                                .setProductionId(productionId.getId())
+                                                .setVenueId(venueId.getId())
+                                                .setScheduledStartDate(Timestamp.newBuilder()
+                                                                .setSeconds(eventTimeUnix)
+                                                                .build())
+                                                .setDoorsOpen(Timestamp.newBuilder()
+                                                                .setSeconds(eventTimeUnix - 7200)
+                                                                .build())
+                                                .setEndDate(Timestamp.newBuilder()
+                                                                .setSeconds(eventTimeUnix + 7200)
+                                                                .build())
+                                                .setRelevantDate(Timestamp.newBuilder()
+                                                                .setSeconds(eventTimeUnix)
+                                                                .build()))
+                                .setExpiryDate(Timestamp.newBuilder()
+                                                .setSeconds(eventTimeUnix + 10800)
+                                                .build())
+                                .setOrderNumber("2940571");
+        }
+
+        private ListenableFuture<CommonObjects.Id> issueBaseTicket() {
+                // set the event date to 14 days from today in Asia/Bangkok Timezone
+                LocalTime eightPM = LocalTime.of(20, 0);
+                LocalDate eventDate = LocalDate.now(ZoneId.of("Asia/Bangkok")).plusDays(14);
+                LocalDateTime eventDateTime = LocalDateTime.of(eventDate, eightPM);
+                eventTimeUnix = eventDateTime
+                                .toEpochSecond(ZoneId.of("Asia/Bangkok").getRules().getOffset(eventDateTime));
+
+                TicketOuterClass.IssueTicketRequest ticket = ticket()
+                                .setTicketTypeId(baseTicketTypeId.getId())
+                                .setFaceValue(TicketOuterClass.FaceValue.newBuilder()
+                                                .setAmount(3000)
+                                                .setCurrency("THB")
+                                                .build())
+                                .setPerson(Personal.Person.newBuilder()
+                                                .setDisplayName("Nangsao Kor")
+                                                .build())
+                                .setSeatInfo(TicketOuterClass.Seat.newBuilder()
+                                                .setGate("9")
+                                                .setSection("SC")
+                                                .setRow("F")
+                                                .setSeat("22")
+                                                .build())
+                                .setTicketNumber("4929910033527")
+                                .build();
+
+                return Futures.transform(eventsStub.issueTicket(ticket), id -> baseTicket = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> issueVipTicket() {
+                TicketOuterClass.IssueTicketRequest ticket = ticket()
+                                .setTicketTypeId(vipTicketTypeId.getId())
+                                .setFaceValue(TicketOuterClass.FaceValue.newBuilder()
+                                                .setAmount(10000)
+                                                .setCurrency("THB")
+                                                .build())
+                                .setPerson(Personal.Person.newBuilder()
+                                                .setDisplayName("Nai Kor")
+                                                .build())
+                                .setSeatInfo(TicketOuterClass.Seat.newBuilder()
+                                                .setGate("1")
+                                                .setSection("VP")
+                                                .setRow("A")
+                                                .setSeat("88")
+                                                .build())
+                                .setTicketNumber("4929910033528")
+                                .build();
+
+                return Futures.transform(eventsStub.issueTicket(ticket), id -> vipTicket = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.PassBundle> getPass(CommonObjects.Id ticketId) {
+                TicketOuterClass.EventTicketPassRequest passRequest = TicketOuterClass.EventTicketPassRequest
+                                .newBuilder()
+                                .setTicketId(CommonObjects.Id.newBuilder()
+                                                .setId(ticketId.getId())
+                                                .build())
+                                .addFormat(com.passkit.grpc.CommonObjects.PassBundleFormat.PASS_URL)
+                                .addFormat(com.passkit.grpc.CommonObjects.PassBundleFormat.MULTI_LINK)
+                                .build();
+
+                return Futures.transform(eventsStub.getEventTicketPass(passRequest), passes -> passes.getPasses(0),
+                                direct);
+        }
+
+        private static TicketOuterClass.ValidateDetails validateDetails(String reference) {
+                return TicketOuterClass.ValidateDetails.newBuilder()
+                                .setValidateDate(Timestamp.newBuilder()
+                                                .setSeconds(System.currentTimeMillis() / 1000L)
+                                                .build())
+                                .setLat(47.50846)
+                                .setLon(11.14335)
+                                .setAlt(550)
+                                .setValidateSource("PassReader App")
+                                .setValidateReference(reference)
+                                .build();
+        }
+
+        private ListenableFuture<TicketOuterClass.ValidateTicketResponse> validateBaseTicket() {
+                TicketOuterClass.ValidateTicketRequest request = TicketOuterClass.ValidateTicketRequest.newBuilder()
+                                .setMaxNumberOfValidations(1)
+                                .setTicket(TicketOuterClass.TicketId.newBuilder()
+                                                .setTicketId(baseTicket.getId()).build())
+                                .setValidateDetails(validateDetails("888"))
+                                .build();
+
+                return Futures.transform(eventsStub.validateTicket(request),
+                                validation -> baseTicketValidation = validation, direct);
+        }
+
+        private ListenableFuture<TicketOuterClass.ValidateTicketResponse> validateVipTicket() {
+                TicketOuterClass.ValidateTicketRequest request = TicketOuterClass.ValidateTicketRequest.newBuilder()
+                                .setMaxNumberOfValidations(1)
+                                .setTicket(TicketOuterClass.TicketId.newBuilder()
+                                                .setTicketNumber(TicketOuterClass.TicketNumber.newBuilder()
+                                                                .setProductionId(productionId.getId())
+                                                                .setTicketNumber("4929910033528")
+                                                                .build()))
+                                .setValidateDetails(validateDetails("777"))
+                                .build();
+
+                return Futures.transform(eventsStub.validateTicket(request),
+                                validation -> vipTicketValidation = validation, direct);
+        }
+
+        private static TicketOuterClass.RedemptionDetails redemptionDetails(String reference) {
+                return TicketOuterClass.RedemptionDetails.newBuilder()
+                                .setRedemptionDate(Timestamp.newBuilder()
+                                                .setSeconds(System.currentTimeMillis() / 1000L)
+                                                .build())
+                                .setLat(47.50846)
+                                .setLon(11.14335)
+                                .setAlt(550)
+                                .setRedemptionSource("PassReader App")
+                                .setRedemptionReference(reference)
+                                .build();
+        }
+
+        private ListenableFuture<CommonObjects.Id> redeemBaseTicket() {
+                TicketOuterClass.RedeemTicketRequest request = TicketOuterClass.RedeemTicketRequest.newBuilder()
+                                .setTicket(TicketOuterClass.TicketId.newBuilder()
+                                                .setTicketId(baseTicket.getId()).build())
+                                .setRedemptionDetails(redemptionDetails("888"))
+                                .build();
+
+                return Futures.transform(eventsStub.redeemTicket(request), id -> baseTicketRedeemedId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> redeemVipTicket() {
+                TicketOuterClass.RedeemTicketRequest request = TicketOuterClass.RedeemTicketRequest.newBuilder()
+                                .setTicket(TicketOuterClass.TicketId.newBuilder()
+                                                .setTicketNumber(TicketOuterClass.TicketNumber.newBuilder()
+                                                                .setProductionId(productionId.getId())
+                                                                .setTicketNumber("4929910033528")
+                                                                .build()))
+                                .setRedemptionDetails(redemptionDetails("777"))
+                                .build();
+
+                return Futures.transform(eventsStub.redeemTicket(request), id -> vipTicketRedeemedId = id, direct);
+        }
+
+        public static void cleanup() {
+                // The event goes first, then the ticket types and the venue, then the production and the templates
+                // the ticket types used, and finally the images. Deletes whose dependencies are done run concurrently.
+                // Throws an IllegalStateException if a delete fails. Records that are already gone count as deleted.
+                Teardown teardown = new Teardown();
+                Teardown.Step event = teardown.delete("event", () -> eventsStub.deleteEvent(
+                                EventOuterClass.Event.newBuilder()
+                                                .setProduction(ProductionOuterClass.Production.newBuilder()
+                                                                .setId(productionId.getId())
+                                                                .build())
+                                                .setVenue(VenueOuterClass.Venue.newBuilder()
+                                                                .setId(venueId.getId())
+                                                                .build())
+                                                .setScheduledStartDate(Timestamp.newBuilder()
+                                                                .setSeconds(eventTimeUnix)
+                                                                .build())
+                                                .build()));
+                teardown.delete("venue", () -> eventsStub.deleteVenue(VenueOuterClass.Venue.newBuilder()
+                                .setId(venueId.getId())
+                                .build()), event);
+                Teardown.Step[] ticketTypes = {
+                                teardown.delete("ticket type BK5-SEAT", () -> deleteTicketType("BK5-SEAT"), event),
+                                teardown.delete("ticket type BK5-VIP", () -> deleteTicketType("BK5-VIP"), event)
+                };
+                teardown.delete("production", () -> eventsStub.deleteProduction(
+                                ProductionOuterClass.Production.newBuilder()
+                                                .setId(productionId.getId())
+                                                .build()), ticketTypes);
+                Teardown.Step[] templates = {
+                                teardown.delete("base template",
+                                                () -> templatesStub.deleteTemplate(baseTemplateId), ticketTypes),
+                                teardown.delete("vip template",
+                                                () -> templatesStub.deleteTemplate(vipTemplateId), ticketTypes)
+                };
+                teardown.delete("icon", () -> deleteImage(eventImageIds.getIcon()), templates);
+                teardown.delete("logo", () -> deleteImage(eventImageIds.getLogo()), templates);
+                teardown.delete("apple logo", () -> deleteImage(eventImageIds.getAppleLogo()), templates);
+                teardown.delete("event strip", () -> deleteImage(eventImageIds.getEventStrip()), templates);
+                teardown.delete("hero", () -> deleteImage(eventImageIds.getHero()), templates);
+                teardown.delete("background", () -> deleteImage(eventImageIds.getBackground()), templates);
+                teardown.delete("thumbnail", () -> deleteImage(eventImageIds.getThumbnail()), templates);
+                try {
+                        teardown.run();
+                } finally {
+                        // always close the channel when there will be no further calls made.
+                        conn.closeChannel();
+                }
+        }
+
+        private static ListenableFuture<?> deleteTicketType(String uid) {
+                return eventsStub.deleteTicketType(TicketTypeOuterClass.TicketType.newBuilder()
+                                .setProductionId(productionId.getId())
+                                .setUid(uid)
+                                .build());
+        }
+
+        private static ListenableFuture<?> deleteImage(String imageId) {
+                return imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(imageId).build());
+        }
+}
@@ -23,6 +23,8 @@ import com.passkit.grpc.Flights.FlightOuterClass;
 import com.passkit.grpc.Flights.FlightsGrpc;
 import com.passkit.grpc.Flights.PassengerOuterClass;
 
+import io.grpc.Status;
+
 import java.io.IOException;
 
 /* Quickstart Flight Tickets runs through the high level steps required to create flight tickets from scratch using the PassKit gRPC Java SDK. 
@@ -339,44 +341,52 @@ public class QuickstartFlightTickets {
         }
 
         public static void cleanup() {
-                flightsStub.deleteFlight(FlightOuterClass.FlightRequest.newBuilder()
-                                .setCarrierCode("YY")
-                                .setFlightNumber("123")
-                                .setBoardingPoint("YY4")
-                                .setDeplaningPoint("ADP")
-                                .setDepartureDate(CommonObjects.Date.newBuilder()
-                                                .setDay(25)
-                                                .setMonth(4)
-                                                .setYear(2026)
-                                                .build())
-                                .build());
-                flightsStub.deleteFlightDesignator(FlightDesignatorRequest.newBuilder()
-                                .setCarrierCode("YY")
-                                .setFlightNumber("123")
-                                .setRevision(2)
-                                .build());
-                flightsStub.deletePort(AirportCode.newBuilder()
-                                .setAirportCode("YY4")
-                                .build());
-                flightsStub.deletePort(AirportCode.newBuilder()
-                                .setAirportCode("ADP")
-                                .build());
-                // sleep to allow deleting of boarding passes for deleted flight to be processed
+                // independent deletes run together, each after the deletes of the records that reference it
+                // throws an IllegalStateException if a delete fails, records that are already gone count as deleted
+                Teardown teardown = new Teardown();
+                Teardown.Step flight = teardown.deleteBlocking("flight",
+                                () -> flightsStub.deleteFlight(FlightOuterClass.FlightRequest.newBuilder()
+                                                .setCarrierCode("YY")
+                                                .setFlightNumber("123")
+                                                .setBoardingPoint("YY4")
+                                                .setDeplaningPoint("ADP")
+                                                .setDepartureDate(CommonObjects.Date.newBuilder()
+                                                                .setDay(25)
+                                                                .setMonth(4)
+                                                                .setYear(2026)
+                                                                .build())
+                                                .build()));
+                Teardown.Step designator = teardown.deleteBlocking("flight designator",
+                                () -> flightsStub.deleteFlightDesignator(FlightDesignatorRequest.newBuilder()
+                                                .setCarrierCode("YY")
+                                                .setFlightNumber("123")
+                                                .setRevision(2)
+                                                .build()));
+                teardown.deleteBlocking("port YY4",
+                                () -> flightsStub.deletePort(AirportCode.newBuilder().setAirportCode("YY4").build()),
+                                flight, designator);
+                teardown.deleteBlocking("port ADP",
+                                () -> flightsStub.deletePort(AirportCode.newBuilder().setAirportCode("ADP").build()),
+                                flight, designator);
+                // the carrier can't be deleted until the boarding passes of the deleted flight have been removed, so
+                // poll until they have
+                teardown.deleteBlocking("carrier",
+                                () -> flightsStub.deleteCarrier(CarrierCode.newBuilder().setCarrierCode("YY").build()),
+                                flight, designator)
+                                .retryingOn(Status.Code.FAILED_PRECONDITION);
+                Teardown.Step template = teardown.deleteBlocking("template",
+                                () -> templatesStub.deleteTemplate(templateId), flight, designator);
+                for (String imageId : new String[] {flightImageIds.getIcon(), flightImageIds.getLogo(),
+                                flightImageIds.getAppleLogo()}) {
+                        teardown.deleteBlocking("image " + imageId, () -> imagesStub.deleteImage(
+                                        CommonObjects.Id.newBuilder().setId(imageId).build()), template);
+                }
                 try {
-                        Thread.sleep(5 * 1000L);
-                } catch (Exception e) {
-                        e.printStackTrace();
+                        teardown.run();
+                } finally {
+                        // always close the channel when there will be no further calls made.
+                        conn.closeChannel();
                 }
-                flightsStub.deleteCarrier(CarrierCode.newBuilder()
-                                .setCarrierCode("YY")
-                                .build());
-                templatesStub.deleteTemplate(templateId);
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(flightImageIds.getIcon()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(flightImageIds.getLogo()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(flightImageIds.getAppleLogo()).build());
-
-                // always close the channel when there will be no further calls made.
-                conn.closeChannel();
 
                 // Shutdown if you are using the connection pool
                 // shutdownPool();
@@ -0,0 +1,330 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.CommonObjects.LocalDateTime;
+import com.passkit.grpc.CommonObjects.Time;
+import com.passkit.grpc.Image;
+import com.passkit.grpc.ImagesGrpc;
+import com.passkit.grpc.Personal;
+import com.passkit.grpc.Protocols;
+import com.passkit.grpc.Template;
+import com.passkit.grpc.TemplatesGrpc;
+import com.passkit.grpc.Flights.Airport;
+import com.passkit.grpc.Flights.Airport.AirportCode;
+import com.passkit.grpc.Flights.BoardingPass.BoardingPassesResponse;
+import com.passkit.grpc.Flights.BoardingPass;
+import com.passkit.grpc.Flights.CarrierOuterClass;
+import com.passkit.grpc.Flights.CarrierOuterClass.CarrierCode;
+import com.passkit.grpc.Flights.FlightDesignatorOuterClass;
+import com.passkit.grpc.Flights.FlightDesignatorOuterClass.FlightDesignatorRequest;
+import com.passkit.grpc.Flights.FlightDesignatorOuterClass.FlightSchedule;
+import com.passkit.grpc.Flights.FlightDesignatorOuterClass.FlightTimes;
+import com.passkit.grpc.Flights.FlightOuterClass;
+import com.passkit.grpc.Flights.FlightsGrpc;
+import com.passkit.grpc.Flights.PassengerOuterClass;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/* Quickstart Flight Tickets Async runs the same steps as Quickstart Flight Tickets using future stubs. Each call is
+   started as soon as the calls it depends on have completed:
+
+   images, default template                    -> template
+   template, carrier, departure and arrival port -> flight, flight designator
+   flight, flight designator                   -> boarding pass
+ */
+public class QuickstartFlightTicketsAsync {
+
+        private static GrpcConnection conn;
+
+        // Callbacks only copy results and start the next calls, so they can run on the gRPC thread that completed
+        // the previous call
+        private static final Executor direct = MoreExecutors.directExecutor();
+
+        public QuickstartFlightTicketsAsync() {
+                // initiate client stubs
+                try {
+                        conn = new GrpcConnection();
+                        createStubs();
+                } catch (Exception e) {
+                        e.printStackTrace();
+                        conn.closeChannel();
+                        System.exit(1);
+                }
+        }
+
+        // Runs the quickstart over an existing connection, for example one wrapping a channel from a connection pool
+        public QuickstartFlightTicketsAsync(GrpcConnection connection) {
+                try {
+                        conn = connection;
+                        createStubs();
+                } catch (Exception e) {
+                        e.printStackTrace();
+                        conn.closeChannel();
+                        System.exit(1);
+                }
+        }
+
+        private static void createStubs() throws Exception {
+                imagesStub = ImagesGrpc.newFutureStub(conn.getChannel());
+                templatesStub = TemplatesGrpc.newFutureStub(conn.getChannel());
+                flightsStub = FlightsGrpc.newFutureStub(conn.getChannel());
+        }
+
+        /*
+         * Future stubs return a ListenableFuture for every unary call instead of blocking until the response
+         * arrives.
+         */
+        private static ImagesGrpc.ImagesFutureStub imagesStub;
+        private static FlightsGrpc.FlightsFutureStub flightsStub;
+        private static TemplatesGrpc.TemplatesFutureStub templatesStub;
+        private static String appleCertificate = "pass.com.passkit.e2e"; // Replace with your apple certificate id
+
+        // Public objects for testing purposes
+        public static Image.ImageIds flightImageIds;
+        public static CommonObjects.Id templateId;
+        public static BoardingPassesResponse pass;
+
+        public void quickStart() {
+                Helpers.await(quickStartAsync());
+        }
+
+        public ListenableFuture<BoardingPassesResponse> quickStartAsync() {
+                ListenableFuture<Image.ImageIds> images = createImages();
+                ListenableFuture<Template.PassTemplate> defaultTemplate = getDefaultTemplate();
+                ListenableFuture<?> carrier = createCarrier();
+                ListenableFuture<?> departureAirport = createDepartureAirport();
+                ListenableFuture<?> arrivalAirport = createArrivalAirport();
+
+                ListenableFuture<CommonObjects.Id> template = Futures.whenAllSucceed(images, defaultTemplate)
+                                .callAsync(() -> createTemplate(Futures.getDone(defaultTemplate)), direct);
+
+                ListenableFuture<?> flight = Futures
+                                .whenAllSucceed(template, carrier, departureAirport, arrivalAirport)
+                                .callAsync(this::createFlight, direct);
+                ListenableFuture<?> flightDesignator = Futures
+                                .whenAllSucceed(template, carrier, departureAirport, arrivalAirport)
+                                .callAsync(this::createFlightDesignator, direct);
+
+                return Futures.whenAllSucceed(flight, flightDesignator)
+                                .callAsync(this::createBoardingPass, direct);
+        }
+
+        private ListenableFuture<Image.ImageIds> createImages() {
+                // Create the image assets we'll need for the pass designs. A logo and icon are
+                // mandatory.
+                String icon, logo, appleLogo;
+                try {
+                        icon = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/icon.png");
+                        logo = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/logo.png");
+                        appleLogo = Helpers.encodeFileToBase64("src/main/resources/images/eventTickets/appleLogo.png");
+                } catch (IOException e) {
+                        e.printStackTrace();
+                        return Futures.immediateFailedFuture(e);
+                }
+
+                Image.CreateImageInput imageInput = Image.CreateImageInput.newBuilder()
+                                .setImageData(Image.ImageData.newBuilder()
+                                                .setIcon(icon)
+                                                .setLogo(logo)
+                                                .setAppleLogo(appleLogo))
+                                .build();
+
+                return Futures.transform(imagesStub.createImages(imageInput), ids -> flightImageIds = ids, direct);
+        }
+
+        private ListenableFuture<Template.PassTemplate> getDefaultTemplate() {
+                // Get the default template - revision 1 is a template that contains
+                // comprehensive fields
+                Template.DefaultTemplateRequest templateRequest = Template.DefaultTemplateRequest.newBuilder()
+                                .setProtocol(Protocols.PassProtocol.FLIGHT_PROTOCOL)
+                                .setRevision(1)
+                                .build();
+                return templatesStub.getDefaultTemplate(templateRequest);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createTemplate(Template.PassTemplate defaultTemplate) {
+                // Modify the default template for the base tier
+                Template.PassTemplate template = defaultTemplate.toBuilder()
+                                .setName("ABC Flight Ticket")
+                                .setDescription("ABC - Economy Section Ticket ")
+                                .setImageIds(Image.ImageIds.newBuilder()
+                                                .setIcon(flightImageIds.getIcon())
+                                                .setLogo(flightImageIds.getLogo())
+                                                .setAppleLogo(flightImageIds.getAppleLogo())
+                                                .build())
+                                .setColors(Template.Colors.newBuilder()
+                                                .setTextColor("000000")
+                                                .setLabelColor("000000")
+                                                .setStripColor("000000")
+                                                .setBackgroundColor("FFEA6C")
+                                                .build())
+                                .setTimezone("Europe/London")
+                                .build();
+
+                return Futures.transform(templatesStub.createTemplate(template), id -> templateId = id, direct);
+        }
+
+        private ListenableFuture<?> createCarrier() {
+                CarrierOuterClass.Carrier carrier = CarrierOuterClass.Carrier.newBuilder()
+                                .setAirlineName("ABC Airline ")
+                                .setIataCarrierCode("YY")
+                                .setPassTypeIdentifier(appleCertificate)
+                                .build();
+                return flightsStub.createCarrier(carrier);
+        }
+
+        private ListenableFuture<?> createDepartureAirport() {
+                Airport.Port departureAirport = Airport.Port.newBuilder()
+                                .setAirportName("ABC Airport")
+                                .setCityName("ABC")
+                                .setIataAirportCode("YY4")
+                                .setIcaoAirportCode("YYYY")
+                                .setCountryCode("IE")
+                                .setTimezone("Europe/London")
+                                .build();
+                return flightsStub.createPort(departureAirport);
+        }
+
+        private ListenableFuture<?> createArrivalAirport() {
+                Airport.Port arrivalAirport = Airport.Port.newBuilder()
+                                .setAirportName("DEF Airport")
+                                .setCityName("DEF")
+                                .setIataAirportCode("ADP")
+                                .setIcaoAirportCode("ADPY")
+                                .setCountryCode("HK")
+                                .setTimezone("Asia/Hong_Kong")
+                                .build();
+                return flightsStub.createPort(arrivalAirport);
+        }
+
+        private static CommonObjects.Date departureDate() {
+                return CommonObjects.Date.newBuilder()
+                                .setDay(25)
+                                .setMonth(4)
+                                .setYear(2026)
+                                .build();
+        }
+
+        private ListenableFuture<?> createFlight() {
+                LocalDateTime flightDateTime = LocalDateTime.newBuilder()
+                                .setDateTime("2026-04-25T13:00:00")
+                                .build();
+                FlightOuterClass.Flight flight = FlightOuterClass.Flight.newBuilder()
+                                .setCarrierCode("YY")
+                                .setFlightNumber("123")
+                                .setBoardingPoint("YY4")
+                                .setDeplaningPoint("ADP")
+                                .setDepartureDate(departureDate())
+                                .setScheduledDepartureTime(flightDateTime)
+                                .setPassTemplateId(templateId.getId())
+                                .build();
+                return flightsStub.createFlight(flight);
+        }
+
+        private ListenableFuture<?> createFlightDesignator() {
+                // The flight departs at the same time every day of the week
+                FlightTimes times = FlightTimes.newBuilder()
+                                .setScheduledDepartureTime(Time.newBuilder().setHour(13)
+                                                .setMinute(00).setSecond(0).build())
+                                .setBoardingTime(Time.newBuilder().setHour(12)
+                                                .setMinute(15).setSecond(0).build())
+                                .setGateClosingTime(Time.newBuilder().setHour(12)
+                                                .setMinute(30).setSecond(0).build())
+                                .setScheduledArrivalTime(Time.newBuilder().setHour(14)
+                                                .setMinute(00).setSecond(0))
+                                .build();
+                FlightDesignatorOuterClass.FlightDesignator flightDesignator = FlightDesignatorOuterClass.FlightDesignator
+                                .newBuilder()
+                                .setCarrierCode("YY")
+                                .setFlightNumber("123")
+                                .setRevision(2)
+                                .setSchedule(FlightSchedule.newBuilder()
+                                                .setMonday(times)
+                                                .setTuesday(times)
+                                                .setWednesday(times)
+                                                .setThursday(times)
+                                                .setFriday(times)
+                                                .setSaturday(times)
+                                                .setSunday(times)
+                                                .build())
+                                .setOrigin("YY4")
+                                .setDestination("ADP")
+                                .setPassTemplateId(templateId.getId())
+                                .build();
+                return flightsStub.createFlightDesignator(flightDesignator);
+        }
+
+        private ListenableFuture<BoardingPassesResponse> createBoardingPass() {
+                BoardingPass.BoardingPassRecord boardingPassRecord = BoardingPass.BoardingPassRecord.newBuilder()
+                                .setOperatingCarrierPNR("P8F8R8")
+                                .setBoardingPoint("YY4")
+                                .setDeplaningPoint("ADP")
+                                .setCarrierCode("YY")
+                                .setFlightNumber("123")
+                                .setDepartureDate(departureDate())
+                                .setPassenger(PassengerOuterClass.Passenger.newBuilder()
+                                                .setPassengerDetails(Personal.Person.newBuilder()
+                                                                .setForename("John")
+                                                                .setSurname("Smith")
+                                                                .build())
+                                                .build())
+                                .setSequenceNumber(123)
+                                .build();
+                return Futures.transform(flightsStub.createBoardingPass(boardingPassRecord),
+                                response -> pass = response, direct);
+        }
+
+        public static void cleanup() {
+                // The flight and designator go first, then the ports, the carrier and the template, then the images.
+                // Deletes whose dependencies are done run concurrently.
+                // Throws an IllegalStateException if a delete fails. Records that are already gone count as deleted.
+                Teardown teardown = new Teardown();
+                Teardown.Step flight = teardown.delete("flight",
+                                () -> flightsStub.deleteFlight(FlightOuterClass.FlightRequest.newBuilder()
+                                                .setCarrierCode("YY")
+                                                .setFlightNumber("123")
+                                                .setBoardingPoint("YY4")
+                                                .setDeplaningPoint("ADP")
+                                                .setDepartureDate(departureDate())
+                                                .build()));
+                Teardown.Step designator = teardown.delete("flight designator",
+                                () -> flightsStub.deleteFlightDesignator(FlightDesignatorRequest.newBuilder()
+                                                .setCarrierCode("YY")
+                                                .setFlightNumber("123")
+                                                .setRevision(2)
+                                                .build()));
+                teardown.delete("port YY4",
+                                () -> flightsStub.deletePort(AirportCode.newBuilder().setAirportCode("YY4").build()),
+                                flight, designator);
+                teardown.delete("port ADP",
+                                () -> flightsStub.deletePort(AirportCode.newBuilder().setAirportCode("ADP").build()),
+                                flight, designator);
+                // the carrier can't be deleted until the boarding passes of the deleted flight have been removed, so
+                // poll until they have
+                teardown.delete("carrier",
+                                () -> flightsStub.deleteCarrier(CarrierCode.newBuilder().setCarrierCode("YY").build()),
+                                flight, designator)
+                                .retryingOn(Status.Code.FAILED_PRECONDITION);
+                Teardown.Step template = teardown.delete("template", () -> templatesStub.deleteTemplate(templateId),
+                                flight, designator);
+                teardown.delete("icon", () -> deleteImage(flightImageIds.getIcon()), template);
+                teardown.delete("logo", () -> deleteImage(flightImageIds.getLogo()), template);
+                teardown.delete("apple logo", () -> deleteImage(flightImageIds.getAppleLogo()), template);
+                try {
+                        teardown.run();
+                } finally {
+                        // always close the channel when there will be no further calls made.
+                        conn.closeChannel();
+                }
+        }
+
+        private static ListenableFuture<?> deleteImage(String imageId) {
+                return imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(imageId).build());
+        }
+}
@@ -342,17 +342,29 @@ public class QuickstartLoyalty {
         }
 
         public static void cleanup() {
-                membersStub.deleteProgram(programId);
-                templatesStub.deleteTemplate(baseTemplateId);
-                templatesStub.deleteTemplate(vipTemplateId);
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(loyaltyImageIds.getIcon()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(loyaltyImageIds.getLogo()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(loyaltyImageIds.getAppleLogo()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(loyaltyImageIds.getStrip()).build());
-                imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(loyaltyImageIds.getHero()).build());
-
-                // always close the channel when there will be no further calls made.
-                conn.closeChannel();
+                // the program goes before the templates its tiers use, and the templates before their images, with
+                // the deletes whose dependencies are done running concurrently
+                // throws an IllegalStateException if a delete fails, records that are already gone count as deleted
+                Teardown teardown = new Teardown();
+                Teardown.Step program = teardown.deleteBlocking("program", () -> membersStub.deleteProgram(programId));
+                Teardown.Step[] templates = {
+                                teardown.deleteBlocking("base template",
+                                                () -> templatesStub.deleteTemplate(baseTemplateId), program),
+                                teardown.deleteBlocking("vip template",
+                                                () -> templatesStub.deleteTemplate(vipTemplateId), program)
+                };
+                for (String imageId : new String[] {loyaltyImageIds.getIcon(), loyaltyImageIds.getLogo(),
+                                loyaltyImageIds.getAppleLogo(), loyaltyImageIds.getStrip(),
+                                loyaltyImageIds.getHero()}) {
+                        teardown.deleteBlocking("image " + imageId, () -> imagesStub.deleteImage(
+                                        CommonObjects.Id.newBuilder().setId(imageId).build()), templates);
+                }
+                try {
+                        teardown.run();
+                } finally {
+                        // always close the channel when there will be no further calls made.
+                        conn.closeChannel();
+                }
 
                 // Shutdown if you are using the connection pool
                 // shutdownPool();
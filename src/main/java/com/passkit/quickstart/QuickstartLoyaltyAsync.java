@@ -0,0 +1,366 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.*;
+import com.passkit.grpc.Members.*;
+import com.passkit.grpc.Members.MemberOuterClass.Member;
+import com.passkit.grpc.Members.MemberOuterClass.MemberRecordByExternalIdRequest;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/* Quickstart Loyalty Async runs the same steps as Quickstart Loyalty using future stubs. Each call is started as soon
+   as the calls it depends on have completed, so independent calls run concurrently and the total time is close to the
+   longest chain of dependent calls rather than the sum of all of them:
+
+   images, default template  -> base template, VIP template
+   base template, program    -> base tier
+   VIP template, program     -> VIP tier -> VIP member, VIP tier short code
+   base tier                 -> base member -> check-in -> check-out -> add points
+   base member               -> member by external id
+   base tier, VIP tier       -> enrolment urls
+ */
+public class QuickstartLoyaltyAsync {
+
+        private static GrpcConnection conn;
+
+        // Callbacks only copy results and start the next calls, so they can run on the gRPC thread that completed
+        // the previous call
+        private static final Executor direct = MoreExecutors.directExecutor();
+
+        public QuickstartLoyaltyAsync() {
+                // initiate client stubs
+                try {
+                        conn = new GrpcConnection();
+                        createStubs();
+                } catch (Exception e) {
+                        e.printStackTrace();
+                        conn.closeChannel();
+                        System.exit(1);
+                }
+        }
+
+        // Runs the quickstart over an existing connection, for example one wrapping a channel from a connection pool
+        public QuickstartLoyaltyAsync(GrpcConnection connection) {
+                try {
+                        conn = connection;
+                        createStubs();
+                } catch (Exception e) {
+                        e.printStackTrace();
+                        conn.closeChannel();
+                        System.exit(1);
+                }
+        }
+
+        private static void createStubs() throws Exception {
+                imagesStub = ImagesGrpc.newFutureStub(conn.getChannel());
+                templatesStub = TemplatesGrpc.newFutureStub(conn.getChannel());
+                membersStub = MembersGrpc.newFutureStub(conn.getChannel());
+        }
+
+        /*
+         * Future stubs return a ListenableFuture for every unary call instead of blocking until the response
+         * arrives.
+         */
+        private static ImagesGrpc.ImagesFutureStub imagesStub;
+        private static MembersGrpc.MembersFutureStub membersStub;
+        private static TemplatesGrpc.TemplatesFutureStub templatesStub;
+
+        // Public objects for testing purposes
+        public static Image.ImageIds loyaltyImageIds;
+        public static CommonObjects.Id baseTemplateId;
+        public static CommonObjects.Id vipTemplateId;
+        public static CommonObjects.Id programId;
+        public static CommonObjects.Id baseTierId;
+        public static CommonObjects.Id vipTierId;
+        public static String vipShortCode;
+        public static CommonObjects.Id memberId;
+        public static CommonObjects.Id vipMemberId;
+        public static MemberEventsOuterClass.MemberEvent checkInEvent;
+        public static MemberEventsOuterClass.MemberEvent checkOutEvent;
+        public static MemberOuterClass.MemberPoints memberPoints;
+        public static Distribution.EnrolmentUrls enrolmentUrls;
+        public static String baseEmail = "loyal.larry@dummy.passkit.com"; // Change to your email to receive cards
+        public static String vipEmail = "harry.highroller@dummy.passkit.com"; // Change to your email to receive cards
+        public static Member externalId;
+
+        public void quickStart() {
+                Helpers.await(quickStartAsync());
+        }
+
+        public ListenableFuture<?> quickStartAsync() {
+                ListenableFuture<Image.ImageIds> images = createImages();
+                ListenableFuture<Template.PassTemplate> defaultTemplate = getDefaultTemplate();
+                ListenableFuture<CommonObjects.Id> program = createProgram();
+
+                ListenableFuture<CommonObjects.Id> baseTemplate = Futures.whenAllSucceed(images, defaultTemplate)
+                                .callAsync(() -> createBaseTemplate(Futures.getDone(defaultTemplate)), direct);
+                ListenableFuture<CommonObjects.Id> vipTemplate = Futures.whenAllSucceed(images, defaultTemplate)
+                                .callAsync(() -> createVipTemplate(Futures.getDone(defaultTemplate)), direct);
+
+                ListenableFuture<CommonObjects.Id> baseTier = Futures.whenAllSucceed(baseTemplate, program)
+                                .callAsync(this::createBaseTier, direct);
+                ListenableFuture<CommonObjects.Id> vipTier = Futures.whenAllSucceed(vipTemplate, program)
+                                .callAsync(this::createVipTier, direct);
+                ListenableFuture<TierOuterClass.Tier> vipTierDetails = Futures.transformAsync(vipTier,
+                                id -> getVipTier(), direct);
+
+                ListenableFuture<CommonObjects.Id> baseMember = Futures.transformAsync(baseTier,
+                                id -> enrolBaseMember(), direct);
+                ListenableFuture<CommonObjects.Id> vipMember = Futures.transformAsync(vipTier,
+                                id -> enrolVipMember(), direct);
+
+                // check-in, check-out and points are chained so the member events are recorded in that order
+                ListenableFuture<MemberOuterClass.MemberPoints> points = Futures.transformAsync(
+                                Futures.transformAsync(
+                                                Futures.transformAsync(baseMember, id -> checkInMember(), direct),
+                                                event -> checkOutMember(), direct),
+                                event -> addPoints(100), direct);
+                ListenableFuture<Member> member = Futures.transformAsync(baseMember,
+                                id -> getMemberByExternalId(), direct);
+                ListenableFuture<Distribution.EnrolmentUrls> distribution = Futures.whenAllSucceed(baseTier, vipTier)
+                                .callAsync(this::getDistribution, direct);
+
+                return Futures.whenAllSucceed(vipTierDetails, vipMember, points, member, distribution)
+                                .call(() -> null, direct);
+        }
+
+        private ListenableFuture<Image.ImageIds> createImages() {
+                // Create the image assets we'll need for the pass design. A logo and icon are
+                // mandatory.
+                String icon, logo, hero, strip;
+                try {
+                        icon = Helpers.encodeFileToBase64("src/main/resources/images/shared/icon.png");
+                        logo = Helpers.encodeFileToBase64("src/main/resources/images/shared/logo.png");
+                        hero = Helpers.encodeFileToBase64("src/main/resources/images/loyalty/hero.png");
+                        strip = Helpers.encodeFileToBase64("src/main/resources/images/loyalty/strip.png");
+                } catch (IOException e) {
+                        e.printStackTrace();
+                        return Futures.immediateFailedFuture(e);
+                }
+
+                Image.CreateImageInput imageInput = Image.CreateImageInput.newBuilder()
+                                .setImageData(Image.ImageData.newBuilder()
+                                                .setIcon(icon)
+                                                .setLogo(logo)
+                                                .setHero(hero)
+                                                .setStrip(strip))
+                                .build();
+
+                return Futures.transform(imagesStub.createImages(imageInput), ids -> loyaltyImageIds = ids, direct);
+        }
+
+        private ListenableFuture<Template.PassTemplate> getDefaultTemplate() {
+                Template.DefaultTemplateRequest templateRequest = Template.DefaultTemplateRequest.newBuilder()
+                                .setProtocol(Protocols.PassProtocol.MEMBERSHIP)
+                                .setRevision(1)
+                                .build();
+                return templatesStub.getDefaultTemplate(templateRequest);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createBaseTemplate(Template.PassTemplate defaultTemplate) {
+                // Modify the default template for the base tier
+                Template.PassTemplate template = defaultTemplate.toBuilder()
+                                .setName("Quickstart Base Tier")
+                                .setDescription("Quickstart Base Tier Pass")
+                                .setImageIds(loyaltyImageIds)
+                                .setTimezone("Europe/London")
+                                .build();
+
+                return Futures.transform(templatesStub.createTemplate(template), id -> baseTemplateId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createVipTemplate(Template.PassTemplate defaultTemplate) {
+                // Modify the default template for VIP tier
+                Template.PassTemplate template = defaultTemplate.toBuilder()
+                                .setName("Quickstart VIP Tier")
+                                .setDescription("Quickstart VIP Tier Pass")
+                                .setImageIds(loyaltyImageIds)
+                                .setTimezone("Europe/London")
+                                .setColors(Template.Colors.newBuilder()
+                                                .setBackgroundColor("#000000")
+                                                .setLabelColor("#FFFFFF")
+                                                .setTextColor("#FFFFFF")
+                                                .build())
+                                .build();
+
+                return Futures.transform(templatesStub.createTemplate(template), id -> vipTemplateId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createProgram() {
+                // Create the loyalty program
+                ProgramOuterClass.Program program = ProgramOuterClass.Program.newBuilder()
+                                .setName("Quickstart Loyalty Program")
+                                .addStatus(ProjectOuterClass.ProjectStatus.PROJECT_DRAFT)
+                                .addStatus(ProjectOuterClass.ProjectStatus.PROJECT_ACTIVE_FOR_OBJECT_CREATION)
+                                .setPointsType(ProgramOuterClass.PointsType.newBuilder()
+                                                .setBalanceType(ProgramOuterClass.BalanceType.BALANCE_TYPE_INT))
+                                .build();
+
+                return Futures.transform(membersStub.createProgram(program), id -> programId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createBaseTier() {
+                TierOuterClass.Tier tier = TierOuterClass.Tier.newBuilder()
+                                .setId("base")
+                                .setName("Quickstart Base Tier")
+                                .setTierIndex(1)
+                                .setPassTemplateId(baseTemplateId.getId())
+                                .setProgramId(programId.getId())
+                                .setTimezone("Europe/London")
+                                .build();
+
+                return Futures.transform(membersStub.createTier(tier), id -> baseTierId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> createVipTier() {
+                TierOuterClass.Tier tier = TierOuterClass.Tier.newBuilder()
+                                .setId("vip")
+                                .setName(" VIP Tier")
+                                .setTierIndex(10)
+                                .setPassTemplateId(vipTemplateId.getId())
+                                .setProgramId(programId.getId())
+                                .setTimezone("Europe/London")
+                                // Set allow tier enrolment will allow direct enrolment to the tier via a public
+                                // link
+                                .setAllowTierEnrolment(CommonObjects.PkBool.newBuilder().setOk(true).build())
+                                .build();
+
+                return Futures.transform(membersStub.createTier(tier), id -> vipTierId = id, direct);
+        }
+
+        private ListenableFuture<TierOuterClass.Tier> getVipTier() {
+                ListenableFuture<TierOuterClass.Tier> vipTier = membersStub.getTier(TierOuterClass.TierRequestInput
+                                .newBuilder()
+                                .setProgramId(programId.getId())
+                                .setTierId("vip")
+                                .build());
+
+                return Futures.transform(vipTier, tier -> {
+                        vipShortCode = tier.getShortCode();
+                        return tier;
+                }, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> enrolBaseMember() {
+                MemberOuterClass.Member member = MemberOuterClass.Member.newBuilder()
+                                .setTierId("base")
+                                .setProgramId(programId.getId())
+                                .setExternalId("12345")
+                                .setPerson(Personal.Person.newBuilder()
+                                                .setDisplayName("Loyal Larry")
+                                                // set to an email address that can receive mail to receive an enrolment
+                                                // email.
+                                                .setEmailAddress(baseEmail)
+                                                .build())
+                                .setPoints(88)
+                                .build();
+
+                return Futures.transform(membersStub.enrolMember(member), id -> memberId = id, direct);
+        }
+
+        private ListenableFuture<CommonObjects.Id> enrolVipMember() {
+                MemberOuterClass.Member member = MemberOuterClass.Member.newBuilder()
+                                .setTierId("vip")
+                                .setProgramId(programId.getId())
+                                .setExternalId("123456")
+                                .setPerson(Personal.Person.newBuilder()
+                                                .setDisplayName("Harry Highroller")
+                                                // set to an email address that can receive mail to receive an enrolment
+                                                // email.
+                                                .setEmailAddress(vipEmail)
+                                                .build())
+                                .setPoints(9999)
+                                .build();
+
+                return Futures.transform(membersStub.enrolMember(member), id -> vipMemberId = id, direct);
+        }
+
+        private ListenableFuture<MemberEventsOuterClass.MemberEvent> checkInMember() {
+                MemberOuterClass.MemberCheckInOutRequest request = MemberOuterClass.MemberCheckInOutRequest.newBuilder()
+                                .setMemberId(memberId.getId())
+                                .setLat(51.5014)
+                                .setLon(0.1419)
+                                .setAddress("Buckingham Palace, Westminster, London SW1A 1AA")
+                                .putMetaData("ticketType", "royalDayOut")
+                                .putMetaData("bookingReference", "4929910033527")
+                                .setExternalEventId("7253300199294")
+                                .build();
+
+                return Futures.transform(membersStub.checkInMember(request), event -> checkInEvent = event, direct);
+        }
+
+        private ListenableFuture<MemberEventsOuterClass.MemberEvent> checkOutMember() {
+                MemberOuterClass.MemberCheckInOutRequest request = MemberOuterClass.MemberCheckInOutRequest.newBuilder()
+                                .setMemberId(memberId.getId())
+                                .setLat(51.5014)
+                                .setLon(0.1419)
+                                .setAddress("Buckingham Palace, Westminster, London SW1A 1AA")
+                                .putMetaData("ticketType", "royalDayOut")
+                                .putMetaData("bookingReference", "4929910033527")
+                                .putMetaData("corgisSeen", "6")
+                                .putMetaData("visitorSatisfactionRating", "9")
+                                .setExternalEventId("7253300199492")
+                                .build();
+
+                return Futures.transform(membersStub.checkOutMember(request), event -> checkOutEvent = event, direct);
+        }
+
+        private ListenableFuture<MemberOuterClass.MemberPoints> addPoints(float points) {
+                MemberOuterClass.EarnBurnPointsRequest request = MemberOuterClass.EarnBurnPointsRequest.newBuilder()
+                                .setId(memberId.getId())
+                                .setPoints(points)
+                                .setTierPoints(0)
+                                .setSecondaryPoints(points)
+                                .build();
+
+                return Futures.transform(membersStub.earnPoints(request), balance -> memberPoints = balance, direct);
+        }
+
+        private ListenableFuture<Member> getMemberByExternalId() {
+                MemberRecordByExternalIdRequest request = MemberRecordByExternalIdRequest.newBuilder()
+                                .setExternalId("12345")
+                                .setProgramId(programId.getId())
+                                .build();
+
+                return Futures.transform(membersStub.getMemberRecordByExternalId(request),
+                                record -> externalId = record, direct);
+        }
+
+        private ListenableFuture<Distribution.EnrolmentUrls> getDistribution() {
+                return Futures.transform(membersStub.getProgramEnrolment(programId), urls -> enrolmentUrls = urls,
+                                direct);
+        }
+
+        public static void cleanup() {
+                // The program has to go before the templates its tiers use, and the templates before their images.
+                // Deletes whose dependencies are done run concurrently.
+                // Throws an IllegalStateException if a delete fails. Records that are already gone count as deleted.
+                Teardown teardown = new Teardown();
+                Teardown.Step program = teardown.delete("program", () -> membersStub.deleteProgram(programId));
+                Teardown.Step[] templates = {
+                                teardown.delete("base template",
+                                                () -> templatesStub.deleteTemplate(baseTemplateId), program),
+                                teardown.delete("vip template",
+                                                () -> templatesStub.deleteTemplate(vipTemplateId), program)
+                };
+                teardown.delete("icon", () -> deleteImage(loyaltyImageIds.getIcon()), templates);
+                teardown.delete("logo", () -> deleteImage(loyaltyImageIds.getLogo()), templates);
+                teardown.delete("apple logo", () -> deleteImage(loyaltyImageIds.getAppleLogo()), templates);
+                teardown.delete("strip", () -> deleteImage(loyaltyImageIds.getStrip()), templates);
+                teardown.delete("hero", () -> deleteImage(loyaltyImageIds.getHero()), templates);
+                try {
+                        teardown.run();
+                } finally {
+                        // always close the channel when there will be no further calls made.
+                        conn.closeChannel();
+                }
+        }
+
+        private static ListenableFuture<?> deleteImage(String imageId) {
+                return imagesStub.deleteImage(CommonObjects.Id.newBuilder().setId(imageId).build());
+        }
+}
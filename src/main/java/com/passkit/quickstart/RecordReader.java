@@ -0,0 +1,113 @@
+package com.passkit.quickstart;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Reads the CSV and JSONL input files of the bulk tools, counting lines so errors can name the line they were found
+ * on. Files ending in .csv are CSV, anything else is JSONL.
+ */
+final class RecordReader implements Closeable {
+    private final BufferedReader reader;
+    private final boolean csv;
+    private long lineNumber;
+
+    RecordReader(Path input) throws IOException {
+        this.reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+        this.csv = input.toString().toLowerCase().endsWith(".csv");
+    }
+
+    boolean isCsv() {
+        return csv;
+    }
+
+    // Line number of the last line read
+    long lineNumber() {
+        return lineNumber;
+    }
+
+    // Returns the next line that isn't blank, or null at the end of the file
+    String readLine() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+        } while (line.trim().isEmpty());
+        return line;
+    }
+
+    // Reads one RFC 4180 record, or returns null at the end of the file. Quoted values may contain commas, doubled
+    // quotes and line breaks.
+    List<String> readCsvRecord() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+        } while (line.isEmpty());
+
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                line = reader.readLine();
+                if (line == null) {
+                    throw new IllegalArgumentException("line " + lineNumber + ": unterminated quoted value");
+                }
+                lineNumber++;
+                value.append('\n');
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString().trim());
+        return values;
+    }
+
+    // Quotes a value for a CSV result file if it needs it
+    static String csvValue(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,237 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Remembers recent validations and redemptions so repeated scans of the same ticket can be answered without a call.
+ * A ticket is found by its ticket id or by its production id and ticket number, whichever the scan carries. When a
+ * call made with a ticket number returns the ticket id, both keys are recorded.
+ *
+ * Entries are kept in primitive arrays rather than maps of objects, so millions of entries add no objects for the
+ * garbage collector to trace. Keys are stored as 64-bit hashes: the chance of two tickets sharing a hash is about
+ * n^2 / 2^65, around one in 10^7 for 10 million tickets. Entries expire after ttl, and when a segment is full the
+ * entries closest to expiry are dropped first.
+ */
+public final class RedemptionCache {
+
+    public enum State {
+        VALIDATED, NOT_VALIDATED, REDEEMED
+    }
+
+    private static final State[] STATES = State.values();
+    private static final int SEGMENTS = 16;
+    private static final long EMPTY = 0;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long ttlNanos;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RedemptionCache(int capacity, long ttlMillis) {
+        if (capacity < SEGMENTS) {
+            throw new IllegalArgumentException("capacity must be at least " + SEGMENTS);
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity / SEGMENTS);
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    // Returns the recorded state of the ticket, or null if there is none or it has expired
+    public State get(TicketOuterClass.TicketId ticket) {
+        long key = key(ticket);
+        State state = key == EMPTY ? null : segment(key).get(key, System.nanoTime());
+        if (state == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return state;
+    }
+
+    public void recordValidation(TicketOuterClass.TicketId ticket,
+            TicketOuterClass.ValidateTicketResponse response) {
+        record(ticket, response.getTicketId(), response.getValidated() ? State.VALIDATED : State.NOT_VALIDATED);
+    }
+
+    public void recordRedemption(TicketOuterClass.TicketId ticket, String ticketId) {
+        record(ticket, ticketId, State.REDEEMED);
+    }
+
+    private void record(TicketOuterClass.TicketId ticket, String ticketId, State state) {
+        long now = System.nanoTime();
+        long expires = now + ttlNanos;
+        long key = key(ticket);
+        if (key != EMPTY) {
+            segment(key).put(key, state, now, expires);
+        }
+        if (!ticketId.isEmpty()) {
+            long idKey = ticketIdKey(ticketId);
+            if (idKey != key) {
+                segment(idKey).put(idKey, state, now, expires);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    private Segment segment(long key) {
+        return segments[(int) (key >>> 60)];
+    }
+
+    private static long key(TicketOuterClass.TicketId ticket) {
+        switch (ticket.getIdCase()) {
+            case TICKETID:
+                return ticketIdKey(ticket.getTicketId());
+            case TICKETNUMBER:
+                TicketOuterClass.TicketNumber number = ticket.getTicketNumber();
+                return finish(hash(hash(0xcbf29ce484222325L ^ 2, number.getProductionId()) * 31,
+                        number.getTicketNumber()));
+            default:
+                return EMPTY;
+        }
+    }
+
+    private static long ticketIdKey(String ticketId) {
+        return finish(hash(0xcbf29ce484222325L ^ 1, ticketId));
+    }
+
+    // FNV-1a over the characters, without creating a byte array
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ value.length();
+    }
+
+    // Spreads the bits so the top bits pick segments and the low bits slots evenly, and keeps 0 free for empty slots
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    // Open addressing table with linear probing. Removal shifts later entries of the same run back, so lookups need
+    // no tombstones.
+    private static final class Segment {
+        private final int capacity;
+        private final int mask;
+        private final long[] keys;
+        private final long[] expires;
+        private final byte[] states;
+        private int size;
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+            int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+            this.mask = slots - 1;
+            this.keys = new long[slots];
+            this.expires = new long[slots];
+            this.states = new byte[slots];
+        }
+
+        private synchronized State get(long key, long now) {
+            for (int slot = (int) key & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    if (expires[slot] - now <= 0) {
+                        remove(slot);
+                        return null;
+                    }
+                    return STATES[states[slot]];
+                }
+            }
+            return null;
+        }
+
+        private synchronized void put(long key, State state, long now, long expiresAt) {
+            int slot = (int) key & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == key) {
+                // a redemption is final, later validations don't replace it
+                if (states[slot] != State.REDEEMED.ordinal() || state == State.REDEEMED) {
+                    states[slot] = (byte) state.ordinal();
+                }
+                expires[slot] = expiresAt;
+                return;
+            }
+            if (size >= capacity) {
+                evict(now, expiresAt);
+                put(key, state, now, expiresAt);
+                return;
+            }
+            keys[slot] = key;
+            expires[slot] = expiresAt;
+            states[slot] = (byte) state.ordinal();
+            size++;
+        }
+
+        // Drops expired entries, and if fewer than a quarter of the slots are then free also drops the older half of
+        // what is left, so a full segment pays for one sweep per capacity / 4 inserts
+        private void evict(long now, long newest) {
+            removeExpiringBy(now);
+            if (size > capacity * 3 / 4) {
+                long oldest = newest;
+                for (int slot = 0; slot <= mask; slot++) {
+                    if (keys[slot] != EMPTY && expires[slot] - oldest < 0) {
+                        oldest = expires[slot];
+                    }
+                }
+                removeExpiringBy(oldest + (newest - oldest) / 2);
+            }
+        }
+
+        private void removeExpiringBy(long time) {
+            for (int slot = 0; slot <= mask; ) {
+                // removal may shift the next entry into this slot, so look at it again
+                if (keys[slot] != EMPTY && expires[slot] - time <= 0) {
+                    remove(slot);
+                } else {
+                    slot++;
+                }
+            }
+        }
+
+        private void remove(int slot) {
+            keys[slot] = EMPTY;
+            size--;
+            int next = (slot + 1) & mask;
+            while (keys[next] != EMPTY) {
+                int home = (int) keys[next] & mask;
+                // move the entry back if its home slot is not between the hole and its current slot
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    keys[slot] = keys[next];
+                    expires[slot] = expires[next];
+                    states[slot] = states[next];
+                    keys[next] = EMPTY;
+                    slot = next;
+                }
+                next = (next + 1) & mask;
+            }
+        }
+    }
+}
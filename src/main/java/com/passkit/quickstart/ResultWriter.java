@@ -0,0 +1,97 @@
+package com.passkit.quickstart;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Writes the CSV result file of a bulk tool, one line per record. Lines are written from gRPC callback threads, so
+ * writes are serialised and the first error is kept until the run checks for it.
+ */
+final class ResultWriter implements Closeable {
+    private final Path output;
+    private final FileChannel channel;
+    private final BufferedWriter writer;
+    private final boolean flushLines;
+    private IOException error;
+
+    // Starts the file with header, or with append adds to the file if it exists. With flushLines every line is
+    // flushed as it is written, so the file has every result if the run is stopped.
+    ResultWriter(Path output, String header, boolean append, boolean flushLines) throws IOException {
+        this.output = output;
+        this.flushLines = flushLines;
+        if (append && Files.exists(output)) {
+            channel = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+        } else {
+            channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+            writer.write(header);
+            writer.newLine();
+        }
+    }
+
+    // Continues a file that flush() returned length for, dropping whatever was written after that flush
+    ResultWriter(Path output, long length, boolean flushLines) throws IOException {
+        this.output = output;
+        this.flushLines = flushLines;
+        channel = FileChannel.open(output, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < length) {
+                throw new IOException(output + " is shorter than the " + length + " bytes it had been written to");
+            }
+            channel.truncate(length);
+            channel.position(length);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+    }
+
+    // Values are quoted where they need it
+    synchronized void write(String... values) {
+        if (error != null) {
+            return;
+        }
+        try {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(RecordReader.csvValue(values[i]));
+            }
+            writer.newLine();
+            if (flushLines) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    // Returns the length of the file, which holds every line written so far
+    synchronized long flush() throws IOException {
+        checkError();
+        writer.flush();
+        return channel.position();
+    }
+
+    synchronized void checkError() throws IOException {
+        if (error != null) {
+            throw new IOException("couldn't write results to " + output, error);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
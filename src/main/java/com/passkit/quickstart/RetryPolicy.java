@@ -0,0 +1,63 @@
+package com.passkit.quickstart;
+
+import io.grpc.Status;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * When the bulk tools send a failed call again. Calls failing with a status that may clear up on its own are retried
+ * until maxAttempts have been made, after an exponential backoff with jitter so that calls failing together don't
+ * retry together.
+ */
+final class RetryPolicy {
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final Set<Status.Code> alsoRetryOn;
+
+    RetryPolicy(int maxAttempts, long initialBackoffMillis) {
+        this(maxAttempts, initialBackoffMillis, Collections.emptySet());
+    }
+
+    private RetryPolicy(int maxAttempts, long initialBackoffMillis, Set<Status.Code> alsoRetryOn) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.alsoRetryOn = alsoRetryOn;
+    }
+
+    // A policy that also retries calls failing with codes, for calls that can only succeed once PassKit has finished
+    // work an earlier call started
+    RetryPolicy retryingOn(Status.Code... codes) {
+        Set<Status.Code> retryOn = EnumSet.noneOf(Status.Code.class);
+        retryOn.addAll(alsoRetryOn);
+        Collections.addAll(retryOn, codes);
+        return new RetryPolicy(maxAttempts, initialBackoffMillis, retryOn);
+    }
+
+    static boolean isRetryable(Status.Code code) {
+        switch (code) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+            case ABORTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Whether a call whose attempt, counting from 1, failed with code should be sent again
+    boolean shouldRetry(int attempt, Status.Code code) {
+        return attempt < maxAttempts && (isRetryable(code) || alsoRetryOn.contains(code));
+    }
+
+    // How long to wait before sending the attempt after this one
+    long backoffMillis(int attempt) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << Math.min(attempt - 1, 20));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+}
@@ -0,0 +1,273 @@
+package com.passkit.quickstart;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Client-side metrics for the calls made over the channels it intercepts, kept per method: a latency histogram, the
+ * number of calls closed with each status code, the bytes sent and received and the calls in flight. Recording a call
+ * is a handful of atomic updates on counters that exist once the method has been called, and allocates nothing beyond
+ * the call and listener wrappers every interceptor needs. Bytes are the serialized size of the protobuf messages,
+ * which protobuf keeps once computed, so counting them doesn't serialize a message again.
+ *
+ * shared() is attached to every channel GrpcConnection and GrpcConnectionPool open. Exporters read the metrics through
+ * getMethods and addListener: RpcMetricsJmx registers an MXBean per method and PrometheusExporter serves them in the
+ * Prometheus text format. The shared instance starts them as set by grpc.metrics.jmx and grpc.metrics.prometheusPort
+ * in passkit.properties.
+ */
+public final class RpcMetrics implements ClientInterceptor {
+    private static final Logger logger = Logger.getLogger(RpcMetrics.class.getName());
+
+    private static volatile RpcMetrics shared;
+
+    private final Map<String, MethodStats> methods = new ConcurrentHashMap<>();
+    private final List<Consumer<MethodStats>> listeners = new CopyOnWriteArrayList<>();
+
+    // The instance attached to the channels of GrpcConnection and GrpcConnectionPool, with the exporters
+    // passkit.properties asks for started on first use
+    public static RpcMetrics shared() {
+        RpcMetrics metrics = shared;
+        if (metrics == null) {
+            synchronized (RpcMetrics.class) {
+                metrics = shared;
+                if (metrics == null) {
+                    metrics = new RpcMetrics();
+                    startExporters(metrics);
+                    shared = metrics;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    // Exporters that fail to start are logged rather than failing the channel that asked for the metrics
+    private static void startExporters(RpcMetrics metrics) {
+        Properties properties = new Properties();
+        try (InputStream in = GrpcConnection.class.getResourceAsStream("/passkit.properties")) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "couldn't load passkit.properties, not exporting client metrics", e);
+            return;
+        }
+        if (Boolean.parseBoolean(properties.getProperty("grpc.metrics.jmx", "false"))) {
+            RpcMetricsJmx.register(metrics);
+        }
+        String port = properties.getProperty("grpc.metrics.prometheusPort", "").trim();
+        if (!port.isEmpty()) {
+            try {
+                PrometheusExporter exporter = new PrometheusExporter(metrics, Integer.parseInt(port));
+                logger.info("serving client metrics on http://localhost:" + exporter.getPort() + "/metrics");
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "couldn't serve client metrics on port " + port, e);
+            }
+        }
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+            CallOptions callOptions, Channel next) {
+        MethodStats stats = methods.get(method.getFullMethodName());
+        if (stats == null) {
+            stats = register(method.getFullMethodName());
+        }
+        return new MeteredCall<>(next.newCall(method, callOptions), stats);
+    }
+
+    private MethodStats register(String method) {
+        MethodStats created = new MethodStats(method);
+        MethodStats existing = methods.putIfAbsent(method, created);
+        if (existing != null) {
+            return existing;
+        }
+        for (Consumer<MethodStats> listener : listeners) {
+            listener.accept(created);
+        }
+        return created;
+    }
+
+    // Calls the listener with every method called so far, and then with each method when it is first called
+    public void addListener(Consumer<MethodStats> listener) {
+        listeners.add(listener);
+        for (MethodStats stats : methods.values()) {
+            listener.accept(stats);
+        }
+    }
+
+    public void removeListener(Consumer<MethodStats> listener) {
+        listeners.remove(listener);
+    }
+
+    public List<MethodStats> getMethods() {
+        return new ArrayList<>(methods.values());
+    }
+
+    // Returns the metrics of a method by its full name, for example members.Members/enrolMember, or null if it hasn't
+    // been called
+    public MethodStats getMethod(String fullMethodName) {
+        return methods.get(fullMethodName);
+    }
+
+    private static long serializedSize(Object message) {
+        return message instanceof MessageLite ? ((MessageLite) message).getSerializedSize() : 0;
+    }
+
+    private static final class MeteredCall<ReqT, RespT>
+            extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+        private final MethodStats stats;
+
+        private MeteredCall(ClientCall<ReqT, RespT> delegate, MethodStats stats) {
+            super(delegate);
+            this.stats = stats;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            stats.started.incrementAndGet();
+            stats.inFlight.incrementAndGet();
+            try {
+                super.start(new MeteredListener<>(responseListener, stats, System.nanoTime()), headers);
+            } catch (RuntimeException | Error e) {
+                // the listener will never be closed
+                stats.inFlight.decrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+            stats.bytesSent.addAndGet(serializedSize(message));
+            super.sendMessage(message);
+        }
+    }
+
+    private static final class MeteredListener<RespT>
+            extends ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT> {
+        private final MethodStats stats;
+        private final long startNanos;
+
+        private MeteredListener(ClientCall.Listener<RespT> delegate, MethodStats stats, long startNanos) {
+            super(delegate);
+            this.stats = stats;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void onMessage(RespT message) {
+            stats.bytesReceived.addAndGet(serializedSize(message));
+            super.onMessage(message);
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            stats.latency.record(System.nanoTime() - startNanos);
+            stats.statusCounts.incrementAndGet(status.getCode().value());
+            stats.inFlight.decrementAndGet();
+            super.onClose(status, trailers);
+        }
+    }
+
+    public static final class MethodStats {
+        private static final Status.Code[] CODES = Status.Code.values();
+
+        private final String method;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLongArray statusCounts = new AtomicLongArray(CODES.length);
+        private final AtomicLong started = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        private MethodStats(String method) {
+            this.method = method;
+        }
+
+        // Full method name, for example members.Members/enrolMember
+        public String getMethod() {
+            return method;
+        }
+
+        // Latency of the completed calls, from start to close
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency.snapshot();
+        }
+
+        public long getStarted() {
+            return started.get();
+        }
+
+        public long getCompleted() {
+            return latency.getCount();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getStatusCount(Status.Code code) {
+            return statusCounts.get(code.value());
+        }
+
+        // Completed calls by status code, leaving out codes no call closed with
+        public Map<Status.Code, Long> getStatusCounts() {
+            Map<Status.Code, Long> counts = new EnumMap<>(Status.Code.class);
+            for (Status.Code code : CODES) {
+                long count = statusCounts.get(code.value());
+                if (count > 0) {
+                    counts.put(code, count);
+                }
+            }
+            return counts;
+        }
+
+        // Completed calls that closed with a status other than OK
+        public long getErrors() {
+            long errors = 0;
+            for (Status.Code code : CODES) {
+                if (code != Status.Code.OK) {
+                    errors += statusCounts.get(code.value());
+                }
+            }
+            return errors;
+        }
+
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d calls, %d errors, %d in flight, %d bytes sent, %d received, %s", method,
+                    getCompleted(), getErrors(), getInFlight(), getBytesSent(), getBytesReceived(), getLatency());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.passkit.quickstart;
+
+import io.grpc.Status;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Exports RpcMetrics over JMX, registering an MXBean for each method as it is first called under
+ * com.passkit.quickstart:type=RpcMetrics,method=<full method name>. Attributes are read from the metrics when JMX
+ * asks for them, so nothing is copied while calls are made. Latencies are in milliseconds.
+ */
+public class RpcMetricsJmx implements Closeable {
+    private static final Logger logger = Logger.getLogger(RpcMetricsJmx.class.getName());
+
+    private final RpcMetrics metrics;
+    private final MBeanServer server;
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+    private final Consumer<RpcMetrics.MethodStats> listener = this::register;
+
+    public RpcMetricsJmx(RpcMetrics metrics, MBeanServer server) {
+        this.metrics = metrics;
+        this.server = server;
+        metrics.addListener(listener);
+    }
+
+    // Registers the metrics with the platform MBean server
+    public static RpcMetricsJmx register(RpcMetrics metrics) {
+        return new RpcMetricsJmx(metrics, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public static ObjectName objectName(String fullMethodName) throws JMException {
+        return new ObjectName("com.passkit.quickstart:type=RpcMetrics,method=" + ObjectName.quote(fullMethodName));
+    }
+
+    private void register(RpcMetrics.MethodStats stats) {
+        try {
+            ObjectName name = objectName(stats.getMethod());
+            server.registerMBean(new RpcMethod(stats), name);
+            registered.add(name);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "couldn't register client metrics for " + stats.getMethod(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        metrics.removeListener(listener);
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                logger.log(Level.FINE, "couldn't unregister " + name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    public interface RpcMethodMXBean {
+        String getMethod();
+
+        long getStarted();
+
+        long getCompleted();
+
+        int getInFlight();
+
+        long getErrors();
+
+        long getBytesSent();
+
+        long getBytesReceived();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP99Millis();
+
+        double getP999Millis();
+
+        double getMaxMillis();
+
+        Map<String, Long> getStatusCounts();
+    }
+
+    private static final class RpcMethod implements RpcMethodMXBean {
+        private final RpcMetrics.MethodStats stats;
+
+        private RpcMethod(RpcMetrics.MethodStats stats) {
+            this.stats = stats;
+        }
+
+        private static double millis(double nanos) {
+            return nanos / 1_000_000.0;
+        }
+
+        @Override
+        public String getMethod() {
+            return stats.getMethod();
+        }
+
+        @Override
+        public long getStarted() {
+            return stats.getStarted();
+        }
+
+        @Override
+        public long getCompleted() {
+            return stats.getCompleted();
+        }
+
+        @Override
+        public int getInFlight() {
+            return stats.getInFlight();
+        }
+
+        @Override
+        public long getErrors() {
+            return stats.getErrors();
+        }
+
+        @Override
+        public long getBytesSent() {
+            return stats.getBytesSent();
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return stats.getBytesReceived();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            return millis(stats.getLatency().getMeanNanos());
+        }
+
+        @Override
+        public double getP50Millis() {
+            return millis(stats.getLatency().percentile(0.5));
+        }
+
+        @Override
+        public double getP99Millis() {
+            return millis(stats.getLatency().percentile(0.99));
+        }
+
+        @Override
+        public double getP999Millis() {
+            return millis(stats.getLatency().percentile(0.999));
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return millis(stats.getLatency().getMaxNanos());
+        }
+
+        @Override
+        public Map<String, Long> getStatusCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            for (Map.Entry<Status.Code, Long> entry : stats.getStatusCounts().entrySet()) {
+                counts.put(entry.getKey().name(), entry.getValue());
+            }
+            return counts;
+        }
+    }
+}
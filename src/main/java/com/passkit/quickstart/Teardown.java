@@ -0,0 +1,199 @@
+package com.passkit.quickstart;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/*
+ * Deletes the records a quickstart created, following the order their references impose. Each delete is a step
+ * that names the steps it has to wait for, and every step whose dependencies are done runs at once, so independent
+ * deletes overlap and the teardown takes as long as its longest chain of dependent deletes.
+ *
+ * Some deletes can only succeed once PassKit has finished work started by an earlier one, for example a carrier
+ * can't be deleted while the boarding passes of its deleted flights are still being removed. Rather than sleeping
+ * for a fixed time, such a step is polled: it is sent again with exponential backoff while it fails with one of the
+ * codes it retries on, until it succeeds or maxWait has passed. A delete failing with NOT_FOUND counts as done, and a
+ * step whose dependency failed is skipped.
+ *
+ * Deletes can be future stub calls, or blocking stub calls, which are run on threads of the teardown's own.
+ */
+public final class Teardown {
+    private static final Logger logger = Logger.getLogger(Teardown.class.getName());
+
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long maxWaitMillis;
+    private final List<Step> steps = new ArrayList<>();
+    private ListeningExecutorService blocking;
+
+    // Polls from 100ms, backing off to 2s, for at most a minute
+    public Teardown() {
+        this(100, 2_000, 60_000);
+    }
+
+    public Teardown(long initialBackoffMillis, long maxBackoffMillis, long maxWaitMillis) {
+        if (initialBackoffMillis < 1 || maxBackoffMillis < initialBackoffMillis || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("backoff must be at least 1ms, up to maxBackoffMillis");
+        }
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    // Adds a delete sent once the steps in after have completed. The call is made each time the step is sent.
+    public Step delete(String name, Supplier<? extends ListenableFuture<?>> call, Step... after) {
+        for (Step step : after) {
+            if (!steps.contains(step)) {
+                throw new IllegalArgumentException(step.name + " isn't a step of this teardown");
+            }
+        }
+        Step step = new Step(name, call, after);
+        steps.add(step);
+        return step;
+    }
+
+    // Adds a delete made with a blocking stub
+    public Step deleteBlocking(String name, Callable<?> call, Step... after) {
+        return delete(name, () -> blocking.submit(call), after);
+    }
+
+    // Runs every step and waits for them all. Throws an IllegalStateException naming the steps that failed once the
+    // others have completed.
+    public void run() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "teardown");
+            thread.setDaemon(true);
+            return thread;
+        });
+        blocking = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "teardown-blocking");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        long startNanos = System.nanoTime();
+        try {
+            // steps can only name steps added before them, so dependencies are started first
+            for (Step step : steps) {
+                step.start(scheduler);
+            }
+            List<String> failures = new ArrayList<>();
+            Throwable firstFailure = null;
+            for (Step step : steps) {
+                try {
+                    step.done.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted during teardown", e);
+                } catch (ExecutionException e) {
+                    failures.add(step.name + ": " + e.getCause().getMessage());
+                    if (firstFailure == null) {
+                        firstFailure = e.getCause();
+                    }
+                }
+            }
+            if (!failures.isEmpty()) {
+                throw new IllegalStateException("teardown failed: " + String.join("; ", failures), firstFailure);
+            }
+            logger.fine(steps.size() + " deletes in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+                    + "ms");
+        } finally {
+            scheduler.shutdownNow();
+            blocking.shutdownNow();
+        }
+    }
+
+    public final class Step {
+        private final String name;
+        private final Supplier<? extends ListenableFuture<?>> call;
+        private final List<Step> after;
+        private final Set<Status.Code> retryOn = EnumSet.of(Status.Code.UNAVAILABLE, Status.Code.DEADLINE_EXCEEDED,
+                Status.Code.RESOURCE_EXHAUSTED, Status.Code.ABORTED);
+        private final SettableFuture<Void> done = SettableFuture.create();
+        private int attempts;
+
+        private Step(String name, Supplier<? extends ListenableFuture<?>> call, Step[] after) {
+            this.name = name;
+            this.call = call;
+            this.after = Arrays.asList(after);
+        }
+
+        // Polls the delete while it fails with these codes as well as the transient ones, for a delete that waits on
+        // work PassKit does after an earlier delete
+        public Step retryingOn(Status.Code... codes) {
+            retryOn.addAll(Arrays.asList(codes));
+            return this;
+        }
+
+        private void start(ScheduledExecutorService scheduler) {
+            List<ListenableFuture<Void>> dependencies = new ArrayList<>();
+            for (Step step : after) {
+                dependencies.add(step.done);
+            }
+            Futures.whenAllComplete(dependencies).run(() -> {
+                for (Step step : after) {
+                    try {
+                        Futures.getDone(step.done);
+                    } catch (ExecutionException e) {
+                        done.setException(new IllegalStateException("skipped as " + step.name + " failed"));
+                        return;
+                    }
+                }
+                send(scheduler, System.nanoTime());
+            }, MoreExecutors.directExecutor());
+        }
+
+        private void send(ScheduledExecutorService scheduler, long startNanos) {
+            attempts++;
+            ListenableFuture<?> delete;
+            try {
+                delete = call.get();
+            } catch (RuntimeException e) {
+                delete = Futures.immediateFailedFuture(e);
+            }
+            Futures.addCallback(delete, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    done.set(null);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    Status status = Status.fromThrowable(t);
+                    if (status.getCode() == Status.Code.NOT_FOUND) {
+                        done.set(null);
+                        return;
+                    }
+                    long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempts - 1, 20));
+                    long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                    if (retryOn.contains(status.getCode()) && waited + backoff <= maxWaitMillis) {
+                        logger.fine(name + " failed with " + status.getCode() + ", trying again in " + backoff
+                                + "ms");
+                        scheduler.schedule(() -> send(scheduler, startNanos),
+                                backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1),
+                                TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    done.setException(t);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import io.grpc.Status;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Issues the tickets on a seating manifest for one event. The ticket type, production, venue and dates are set up
+ * once, as in QuickstartEventTickets, and given as a template IssueTicketRequest whose fields fill in each seat's
+ * request where it doesn't give its own. Seats are streamed from the manifest with at most maxInFlight issueTicket
+ * calls outstanding, each on a channel picked by the connection pool. Calls failing with a retryable status are
+ * retried with exponential backoff, except for DEADLINE_EXCEEDED: a call that ran out of time may still have issued
+ * the ticket, and there is no call to look a ticket up by its number and find its id.
+ *
+ * Every seat needs a ticket number, and a ticket number is only issued once: repeats within the manifest are reported
+ * as DUPLICATE, and running again with the same output skips the ticket numbers it already issued and appends to it,
+ * so a run that stopped part way can be finished. The server rejecting a ticket number with ALREADY_EXISTS is reported
+ * as such and counted with the duplicates, unless it rejects a retry: an earlier attempt whose response was lost may
+ * have issued the ticket, so the seat is counted as failed.
+ *
+ * CSV manifests need a header row. The columns ticketNumber, ticketTypeId, orderNumber, gate, section, row, seat,
+ * faceValue, currency, forename, surname, displayName, emailAddress and mobileNumber are mapped to the request, any
+ * other column is ignored. JSONL manifests hold one IssueTicketRequest per line in the protobuf JSON format, for
+ * example {"ticketNumber": "4929910033527", "seatInfo": {"section": "SC", "row": "F", "seat": "22"}}. Files ending in
+ * .csv are read as CSV, anything else as JSONL.
+ *
+ * Results are written as each call completes, one line per seat: ticketNumber,ticketId,url,status where status is OK,
+ * DUPLICATE or the gRPC status code of the last attempt.
+ */
+public final class TicketIssuer {
+    private static final Logger logger = Logger.getLogger(TicketIssuer.class.getName());
+
+    private static final long CALL_TIMEOUT_MILLIS = 30_000;
+    private static final String HEADER = "ticketNumber,ticketId,url,status";
+    private static final String DUPLICATE = "DUPLICATE";
+
+    private final GrpcConnectionPool pool;
+    private final TicketOuterClass.IssueTicketRequest template;
+    private final String passUrlPrefix;
+    private final int maxInFlight;
+    private final RetryPolicy retryPolicy;
+
+    // Reads the window, retry and pass url settings from passkit.properties
+    public TicketIssuer(GrpcConnectionPool pool, TicketOuterClass.IssueTicketRequest template) throws IOException {
+        this(pool, template, PassKitProperties.load());
+    }
+
+    private TicketIssuer(GrpcConnectionPool pool, TicketOuterClass.IssueTicketRequest template,
+            Properties properties) {
+        this(pool, template, properties.getProperty("tickets.issue.passUrlPrefix", "https://pub1.pskt.io/"),
+                Integer.parseInt(properties.getProperty("tickets.issue.maxInFlight", "64")),
+                Integer.parseInt(properties.getProperty("tickets.issue.maxAttempts", "5")),
+                Long.parseLong(properties.getProperty("tickets.issue.initialBackoffMillis", "200")));
+    }
+
+    // template holds the fields shared by every ticket, at least the ticket type and the event. passUrlPrefix is
+    // followed by the ticket id in the pass url.
+    public TicketIssuer(GrpcConnectionPool pool, TicketOuterClass.IssueTicketRequest template, String passUrlPrefix,
+            int maxInFlight, int maxAttempts, long initialBackoffMillis) {
+        if (maxInFlight < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("maxInFlight and maxAttempts must be at least 1");
+        }
+        this.pool = pool;
+        this.template = template;
+        this.passUrlPrefix = passUrlPrefix;
+        this.maxInFlight = maxInFlight;
+        this.retryPolicy = new RetryPolicy(maxAttempts, initialBackoffMillis);
+    }
+
+    public Summary issue(Path manifest, Path output) throws IOException, InterruptedException {
+        Set<String> issuedBefore = issuedBefore(output);
+        Set<String> seen = new HashSet<>();
+        Progress progress = new Progress();
+        // each line is flushed as it is written, so the output has every issued ticket if the run is stopped, for the
+        // next run to skip
+        try (CallWindow window = new CallWindow("ticket-issuer", maxInFlight, retryPolicy);
+             ManifestReader reader = new ManifestReader(manifest, template);
+             ResultWriter results = new ResultWriter(output, HEADER, true, true)) {
+            while (true) {
+                TicketOuterClass.IssueTicketRequest request;
+                try {
+                    request = reader.next();
+                } catch (IllegalArgumentException e) {
+                    logger.warning("skipping invalid seat: " + e.getMessage());
+                    progress.read.incrementAndGet();
+                    progress.failed.incrementAndGet();
+                    results.write("line " + reader.lineNumber(), "", "", Status.Code.INVALID_ARGUMENT.name());
+                    continue;
+                }
+                if (request == null) {
+                    break;
+                }
+                progress.read.incrementAndGet();
+                if (!seen.add(request.getTicketNumber())) {
+                    progress.duplicates.incrementAndGet();
+                    results.write(request.getTicketNumber(), "", "", DUPLICATE);
+                    continue;
+                }
+                if (issuedBefore.contains(request.getTicketNumber())) {
+                    // already has its line in the output
+                    progress.skipped.incrementAndGet();
+                    continue;
+                }
+                window.acquire();
+                send(request, 1, window, results, progress);
+            }
+            window.awaitIdle();
+            results.checkError();
+        }
+        Summary summary = progress.summary();
+        logger.info(summary.toString());
+        return summary;
+    }
+
+    // Returns the ticket numbers an earlier run issued to output
+    private static Set<String> issuedBefore(Path output) throws IOException {
+        Set<String> ticketNumbers = new HashSet<>();
+        if (!Files.exists(output)) {
+            return ticketNumbers;
+        }
+        try (RecordReader reader = new RecordReader(output)) {
+            List<String> values = reader.readCsvRecord();
+            if (values == null || !String.join(",", values).equals(HEADER)) {
+                throw new IOException(output + " isn't the output of an earlier run");
+            }
+            while ((values = reader.readCsvRecord()) != null) {
+                if (values.size() == 4 && values.get(3).equals("OK")) {
+                    ticketNumbers.add(values.get(0));
+                }
+            }
+        }
+        return ticketNumbers;
+    }
+
+    private void send(TicketOuterClass.IssueTicketRequest request, int attempt, CallWindow window,
+            ResultWriter results, Progress progress) {
+        ListenableFuture<CommonObjects.Id> call;
+        try {
+            call = EventTicketsGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .issueTicket(request);
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<CommonObjects.Id>() {
+            @Override
+            public void onSuccess(CommonObjects.Id id) {
+                progress.issued.incrementAndGet();
+                results.write(request.getTicketNumber(), id.getId(), passUrlPrefix + id.getId(), "OK");
+                window.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status status = Status.fromThrowable(t);
+                Status.Code code = status.getCode();
+                if (code != Status.Code.DEADLINE_EXCEEDED
+                        && window.retry(attempt, code, () -> send(request, attempt + 1, window, results, progress))) {
+                    progress.retries.incrementAndGet();
+                    return;
+                }
+                logger.log(Level.FINE, "couldn't issue ticket " + request.getTicketNumber() + ": " + status);
+                if (code == Status.Code.ALREADY_EXISTS && attempt == 1) {
+                    progress.duplicates.incrementAndGet();
+                } else {
+                    if (code == Status.Code.ALREADY_EXISTS || code == Status.Code.DEADLINE_EXCEEDED) {
+                        logger.warning("ticket " + request.getTicketNumber()
+                                + " may have been issued by an attempt whose response was lost");
+                    }
+                    progress.failed.incrementAndGet();
+                }
+                results.write(request.getTicketNumber(), "", "", code.name());
+                window.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static final class Progress {
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong issued = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong duplicates = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+
+        private Summary summary() {
+            return new Summary(read.get(), issued.get(), skipped.get(), duplicates.get(), failed.get(),
+                    retries.get(), System.nanoTime() - startNanos);
+        }
+    }
+
+    public static final class Summary {
+        private final long seats;
+        private final long issued;
+        private final long skipped;
+        private final long duplicates;
+        private final long failed;
+        private final long retries;
+        private final long elapsedNanos;
+
+        private Summary(long seats, long issued, long skipped, long duplicates, long failed, long retries,
+                long elapsedNanos) {
+            this.seats = seats;
+            this.issued = issued;
+            this.skipped = skipped;
+            this.duplicates = duplicates;
+            this.failed = failed;
+            this.retries = retries;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getSeats() {
+            return seats;
+        }
+
+        public long getIssued() {
+            return issued;
+        }
+
+        // Seats an earlier run issued
+        public long getSkipped() {
+            return skipped;
+        }
+
+        // Seats repeating a ticket number of the manifest, or whose ticket number the server already had
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public double getTicketsPerSecond() {
+            return elapsedNanos == 0 ? 0 : issued * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d seats, %d tickets issued, %d issued before, %d duplicates, %d failed, "
+                            + "%d retries in %dms (%.1f tickets/s)",
+                    seats, issued, skipped, duplicates, failed, retries, getElapsedMillis(), getTicketsPerSecond());
+        }
+    }
+
+    private static final class ManifestReader implements Closeable {
+        private final RecordReader reader;
+        private final JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+        private final TicketOuterClass.IssueTicketRequest template;
+        private List<String> header;
+
+        private ManifestReader(Path manifest, TicketOuterClass.IssueTicketRequest template) throws IOException {
+            this.reader = new RecordReader(manifest);
+            this.template = template;
+        }
+
+        private long lineNumber() {
+            return reader.lineNumber();
+        }
+
+        // Returns the next seat's request, or null at the end of the manifest
+        private TicketOuterClass.IssueTicketRequest next() throws IOException {
+            TicketOuterClass.IssueTicketRequest.Builder request = TicketOuterClass.IssueTicketRequest.newBuilder();
+            if (reader.isCsv()) {
+                if (header == null) {
+                    header = reader.readCsvRecord();
+                    if (header == null) {
+                        return null;
+                    }
+                }
+                List<String> values = reader.readCsvRecord();
+                if (values == null) {
+                    return null;
+                }
+                if (values.size() != header.size()) {
+                    throw new IllegalArgumentException("line " + lineNumber() + ": expected " + header.size()
+                            + " columns, found " + values.size());
+                }
+                for (int i = 0; i < header.size(); i++) {
+                    setField(request, header.get(i), values.get(i));
+                }
+            } else {
+                String line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                try {
+                    parser.merge(line, request);
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IllegalArgumentException("line " + lineNumber() + ": " + e.getMessage(), e);
+                }
+            }
+            if (request.getTicketNumber().isEmpty()) {
+                throw new IllegalArgumentException("line " + lineNumber() + ": seat has no ticket number");
+            }
+            // the template fills in what the seat doesn't give
+            if (request.getTicketTypeId().isEmpty()) {
+                request.setTicketTypeId(template.getTicketTypeId());
+            }
+            if (!request.hasEvent()) {
+                request.setEvent(template.getEvent());
+            }
+            if (!request.hasExpiryDate() && template.hasExpiryDate()) {
+                request.setExpiryDate(template.getExpiryDate());
+            }
+            if (request.getOrderNumber().isEmpty()) {
+                request.setOrderNumber(template.getOrderNumber());
+            }
+            if (!request.hasFaceValue() && template.hasFaceValue()) {
+                request.setFaceValue(template.getFaceValue());
+            }
+            if (!request.hasPerson() && template.hasPerson()) {
+                request.setPerson(template.getPerson());
+            }
+            if (!request.hasSeatInfo() && template.hasSeatInfo()) {
+                request.setSeatInfo(template.getSeatInfo());
+            }
+            return request.build();
+        }
+
+        private static void setField(TicketOuterClass.IssueTicketRequest.Builder request, String column,
+                String value) {
+            if (value.isEmpty()) {
+                return;
+            }
+            switch (column) {
+                case "ticketNumber":
+                    request.setTicketNumber(value);
+                    break;
+                case "ticketTypeId":
+                    request.setTicketTypeId(value);
+                    break;
+                case "orderNumber":
+                    request.setOrderNumber(value);
+                    break;
+                case "gate":
+                    request.getSeatInfoBuilder().setGate(value);
+                    break;
+                case "section":
+                    request.getSeatInfoBuilder().setSection(value);
+                    break;
+                case "row":
+                    request.getSeatInfoBuilder().setRow(value);
+                    break;
+                case "seat":
+                    request.getSeatInfoBuilder().setSeat(value);
+                    break;
+                case "faceValue":
+                    try {
+                        request.getFaceValueBuilder().setAmount(Double.parseDouble(value));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("faceValue is not a number: " + value, e);
+                    }
+                    break;
+                case "currency":
+                    request.getFaceValueBuilder().setCurrency(value);
+                    break;
+                case "forename":
+                    request.getPersonBuilder().setForename(value);
+                    break;
+                case "surname":
+                    request.getPersonBuilder().setSurname(value);
+                    break;
+                case "displayName":
+                    request.getPersonBuilder().setDisplayName(value);
+                    break;
+                case "emailAddress":
+                    request.getPersonBuilder().setEmailAddress(value);
+                    break;
+                case "mobileNumber":
+                    request.getPersonBuilder().setMobileNumber(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
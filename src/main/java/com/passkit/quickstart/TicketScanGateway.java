@@ -0,0 +1,365 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Accepts ticket scans from many gate readers and sends them as validateTicket and redeemTicket calls over the
+ * connection pool. Scans never block the reader:
+ *
+ * - at most maxInFlight calls are outstanding, further scans wait in a queue of at most maxQueued and are rejected
+ *   with RESOURCE_EXHAUSTED when it is full, so a slow backend shows up as fast rejections instead of growing latency
+ * - every scan has a deadline counted from when it was submitted, scans that expire in the queue fail with
+ *   DEADLINE_EXCEEDED without being sent and calls are sent with the time remaining
+ * - a scan of a ticket that already has the same scan in progress, such as a reader scanning the same code twice,
+ *   waits for that call instead of sending another. A validation is answered with its result. A redemption is only
+ *   told the ticket was redeemed by the first scan: the others fail with FAILED_PRECONDITION when it succeeds, as
+ *   they would have from the server, and with its status when it fails
+ * - with a RedemptionCache, a scan the recent results already decide is answered without a call: redeeming a ticket
+ *   that was redeemed fails with FAILED_PRECONDITION, and validating a ticket that failed validation, or that was
+ *   validated and may only be validated once, returns validated false
+ *
+ * Results are passed to the scan's callback on the callback executor.
+ */
+public final class TicketScanGateway {
+    private static final Logger logger = Logger.getLogger(TicketScanGateway.class.getName());
+
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(Status status);
+    }
+
+    private enum Kind {
+        VALIDATE, REDEEM
+    }
+
+    private final GrpcConnectionPool pool;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long deadlineNanos;
+    private final Executor callbackExecutor;
+    private final RedemptionCache cache;
+
+    private final ConcurrentHashMap<ScanKey, Scan<?>> inProgress = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Scan<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong answeredLocally = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Callbacks run on the thread that completed the call, so they must not block
+    public TicketScanGateway(GrpcConnectionPool pool, int maxInFlight, int maxQueued, long deadlineMillis) {
+        this(pool, maxInFlight, maxQueued, deadlineMillis, MoreExecutors.directExecutor());
+    }
+
+    public TicketScanGateway(GrpcConnectionPool pool, int maxInFlight, int maxQueued, long deadlineMillis,
+            Executor callbackExecutor) {
+        this(pool, maxInFlight, maxQueued, deadlineMillis, callbackExecutor, null);
+    }
+
+    // cache may be null to send every scan
+    public TicketScanGateway(GrpcConnectionPool pool, int maxInFlight, int maxQueued, long deadlineMillis,
+            Executor callbackExecutor, RedemptionCache cache) {
+        if (maxInFlight < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1 and maxQueued not negative");
+        }
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.callbackExecutor = callbackExecutor;
+        this.cache = cache;
+    }
+
+    public void validate(TicketOuterClass.ValidateTicketRequest request,
+            Callback<TicketOuterClass.ValidateTicketResponse> callback) {
+        if (cache != null) {
+            long start = System.nanoTime();
+            RedemptionCache.State state = cache.get(request.getTicket());
+            if (state == RedemptionCache.State.NOT_VALIDATED
+                    || state == RedemptionCache.State.VALIDATED && request.getMaxNumberOfValidations() == 1) {
+                answerLocally(callback, TicketOuterClass.ValidateTicketResponse.newBuilder()
+                        .setTicketId(request.getTicket().getTicketId())
+                        .setValidated(false)
+                        .build(), null, start);
+                return;
+            }
+        }
+        submit(new Scan<>(Kind.VALIDATE, request.getTicket(), request), callback);
+    }
+
+    public void redeem(TicketOuterClass.RedeemTicketRequest request, Callback<CommonObjects.Id> callback) {
+        if (cache != null) {
+            long start = System.nanoTime();
+            if (cache.get(request.getTicket()) == RedemptionCache.State.REDEEMED) {
+                answerLocally(callback, null, Status.FAILED_PRECONDITION.withDescription("ticket already redeemed"),
+                        start);
+                return;
+            }
+        }
+        submit(new Scan<>(Kind.REDEEM, request.getTicket(), request), callback);
+    }
+
+    private <T> void answerLocally(Callback<T> callback, T result, Status status, long startNanos) {
+        answeredLocally.incrementAndGet();
+        latency.record(System.nanoTime() - startNanos);
+        callbackExecutor.execute(() -> {
+            if (status == null) {
+                callback.onResult(result);
+            } else {
+                callback.onError(status);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void submit(Scan<T> scan, Callback<T> callback) {
+        long now = System.nanoTime();
+        Waiter<T> waiter = new Waiter<>(callback, now);
+        scan.deadline = now + deadlineNanos;
+        scan.waiters.add(waiter);
+        while (true) {
+            Scan<T> existing = (Scan<T>) inProgress.putIfAbsent(scan.key, scan);
+            if (existing == null) {
+                break;
+            }
+            if (existing.join(waiter)) {
+                coalesced.incrementAndGet();
+                return;
+            }
+            // the scan in progress is completing, take its place
+            inProgress.remove(scan.key, existing);
+        }
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            complete(scan, null, Status.RESOURCE_EXHAUSTED.withDescription("too many ticket scans waiting"));
+            return;
+        }
+        queue.add(scan);
+        dispatch();
+    }
+
+    // Starts queued scans while there is room in the window. Any thread adding to the queue or finishing a call runs
+    // this, so a scan is never left queued with a free slot.
+    private void dispatch() {
+        while (true) {
+            int running = inFlight.get();
+            if (running >= maxInFlight) {
+                return;
+            }
+            if (!inFlight.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            Scan<?> scan = queue.poll();
+            if (scan == null) {
+                inFlight.decrementAndGet();
+                if (queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            queued.decrementAndGet();
+            long remaining = scan.deadline - System.nanoTime();
+            if (remaining <= 0) {
+                inFlight.decrementAndGet();
+                expired.incrementAndGet();
+                complete(scan, null, Status.DEADLINE_EXCEEDED.withDescription("ticket scan expired in queue"));
+                continue;
+            }
+            send(scan, remaining);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void send(Scan<T> scan, long remainingNanos) {
+        sent.incrementAndGet();
+        ListenableFuture<T> call;
+        try {
+            EventTicketsGrpc.EventTicketsFutureStub stub = EventTicketsGrpc.newFutureStub(pool.getChannel())
+                    .withDeadlineAfter(remainingNanos, TimeUnit.NANOSECONDS);
+            if (scan.kind == Kind.VALIDATE) {
+                call = (ListenableFuture<T>) stub.validateTicket((TicketOuterClass.ValidateTicketRequest) scan.request);
+            } else {
+                call = (ListenableFuture<T>) stub.redeemTicket((TicketOuterClass.RedeemTicketRequest) scan.request);
+            }
+        } catch (RuntimeException e) {
+            call = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(call, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                inFlight.decrementAndGet();
+                if (cache != null) {
+                    if (scan.kind == Kind.VALIDATE) {
+                        cache.recordValidation(scan.ticket, (TicketOuterClass.ValidateTicketResponse) result);
+                    } else {
+                        cache.recordRedemption(scan.ticket, ((CommonObjects.Id) result).getId());
+                    }
+                }
+                complete(scan, result, null);
+                dispatch();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                inFlight.decrementAndGet();
+                failed.incrementAndGet();
+                complete(scan, null, Status.fromThrowable(t));
+                dispatch();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private <T> void complete(Scan<T> scan, T result, Status status) {
+        List<Waiter<T>> waiters;
+        synchronized (scan) {
+            scan.completed = true;
+            waiters = scan.waiters;
+        }
+        inProgress.remove(scan.key, scan);
+        long now = System.nanoTime();
+        for (int i = 0; i < waiters.size(); i++) {
+            Waiter<T> waiter = waiters.get(i);
+            // only the first scan redeems the ticket, the scans that joined it find it already redeemed
+            Status waiterStatus = status == null && scan.kind == Kind.REDEEM && i > 0
+                    ? Status.FAILED_PRECONDITION.withDescription("ticket already redeemed") : status;
+            latency.record(now - waiter.startNanos);
+            try {
+                callbackExecutor.execute(() -> {
+                    if (waiterStatus == null) {
+                        waiter.callback.onResult(result);
+                    } else {
+                        waiter.callback.onError(waiterStatus);
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "ticket scan callback failed", e);
+            }
+        }
+    }
+
+    // Latency from submitting a scan to its result being handed to the callback executor
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    // Scans answered from the redemption cache without a call
+    public long getAnsweredLocally() {
+        return answeredLocally.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    private static final class ScanKey {
+        private final Kind kind;
+        private final ByteString ticket;
+
+        private ScanKey(Kind kind, ByteString ticket) {
+            this.kind = kind;
+            this.ticket = ticket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ScanKey)) {
+                return false;
+            }
+            ScanKey other = (ScanKey) o;
+            return kind == other.kind && ticket.equals(other.ticket);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + ticket.hashCode();
+        }
+    }
+
+    private static final class Waiter<T> {
+        private final Callback<T> callback;
+        private final long startNanos;
+
+        private Waiter(Callback<T> callback, long startNanos) {
+            this.callback = callback;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private static final class Scan<T> {
+        private final Kind kind;
+        private final TicketOuterClass.TicketId ticket;
+        private final ScanKey key;
+        private final Object request;
+        private final List<Waiter<T>> waiters = new ArrayList<>(1);
+        private long deadline;
+        private boolean completed;
+
+        private Scan(Kind kind, TicketOuterClass.TicketId ticket, Object request) {
+            this.kind = kind;
+            this.ticket = ticket;
+            this.key = new ScanKey(kind, ticket.toByteString());
+            this.request = request;
+        }
+
+        private synchronized boolean join(Waiter<T> waiter) {
+            if (completed) {
+                return false;
+            }
+            waiters.add(waiter);
+            return true;
+        }
+    }
+}
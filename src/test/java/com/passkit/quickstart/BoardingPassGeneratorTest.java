@@ -0,0 +1,177 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Flights.BoardingPass;
+import com.passkit.grpc.Flights.FlightOuterClass;
+import com.passkit.grpc.Flights.FlightsGrpc;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BoardingPassGeneratorTest {
+
+    private static final FlightOuterClass.Flight FLIGHT = FlightOuterClass.Flight.newBuilder()
+            .setCarrierCode("YY")
+            .setFlightNumber("123")
+            .setBoardingPoint("YY4")
+            .setDeplaningPoint("ADP")
+            .setDepartureDate(CommonObjects.Date.newBuilder().setDay(25).setMonth(4).setYear(2026).build())
+            .build();
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Issues a pass per record after latencyMillis, keeping the records by sequence number. The first attempt for
+    // sequence numbers in unavailableOnce fails with UNAVAILABLE, and for those in lostOnce creates the pass but
+    // fails with DEADLINE_EXCEEDED.
+    private final ScheduledExecutorService scheduler = passKit.scheduler();
+    private final Map<Integer, BoardingPass.BoardingPassRecord> records = new ConcurrentHashMap<>();
+    private final Set<Integer> unavailableOnce = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> lostOnce = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long latencyMillis = 1;
+
+    private GrpcConnectionPool startPool() throws Exception {
+        return passKit.start(2, new FlightsGrpc.FlightsImplBase() {
+            @Override
+            public void createBoardingPass(BoardingPass.BoardingPassRecord request,
+                    StreamObserver<BoardingPass.BoardingPassesResponse> responseObserver) {
+                calls.incrementAndGet();
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                scheduler.schedule(() -> {
+                    inFlight.decrementAndGet();
+                    if (unavailableOnce.remove(request.getSequenceNumber())) {
+                        responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                        return;
+                    }
+                    records.put(request.getSequenceNumber(), request);
+                    if (lostOnce.remove(request.getSequenceNumber())) {
+                        responseObserver.onError(Status.DEADLINE_EXCEEDED.asRuntimeException());
+                        return;
+                    }
+                    String id = "pass-" + request.getSequenceNumber();
+                    responseObserver.onNext(BoardingPass.BoardingPassesResponse.newBuilder()
+                            .addBoardingPasses(BoardingPass.BoardingPassResponse.newBuilder()
+                                    .setId(id)
+                                    .setUrl("https://pub1.pskt.io/" + id))
+                            .build());
+                    responseObserver.onCompleted();
+                }, latencyMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private Path writeManifest(int passengers) throws Exception {
+        Path manifest = folder.newFile("manifest-" + passengers + ".csv").toPath();
+        try (BufferedWriter writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            writer.write("sequenceNumber,operatingCarrierPNR,forename,surname,seat\n");
+            for (int i = 1; i <= passengers; i++) {
+                writer.write(i + ",PNR" + i + ",Passenger," + "\"Smith, " + i + "\"," + i + "A\n");
+            }
+        }
+        return manifest;
+    }
+
+    @Test
+    public void generatesWholeFlightFromCsv() throws Exception {
+        unavailableOnce.add(7);
+        Path output = folder.getRoot().toPath().resolve("passes.csv");
+        BoardingPassGenerator.Summary summary = new BoardingPassGenerator(startPool(), FLIGHT, 32, 3, 10)
+                .generate(writeManifest(400), output);
+
+        assertEquals(400, summary.getPassengers());
+        assertEquals(400, summary.getGenerated());
+        assertEquals(0, summary.getFailed());
+        assertEquals(1, summary.getRetries());
+        assertEquals(401, calls.get());
+        assertTrue("expect at most 32 calls at once, was " + maxInFlight.get(), maxInFlight.get() <= 32);
+
+        BoardingPass.BoardingPassRecord record = records.get(7);
+        assertEquals("YY", record.getCarrierCode());
+        assertEquals("123", record.getFlightNumber());
+        assertEquals("YY4", record.getBoardingPoint());
+        assertEquals(2026, record.getDepartureDate().getYear());
+        assertEquals("PNR7", record.getOperatingCarrierPNR());
+        assertEquals("Smith, 7", record.getPassenger().getPassengerDetails().getSurname());
+
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals(401, lines.size());
+        assertEquals("sequenceNumber,operatingCarrierPNR,passId,url,status", lines.get(0));
+        assertTrue(lines.contains("7,PNR7,pass-7,https://pub1.pskt.io/pass-7,OK"));
+    }
+
+    @Test
+    public void generatesFromJsonLinesAndSkipsInvalidPassengers() throws Exception {
+        Path manifest = folder.newFile("manifest.jsonl").toPath();
+        Files.write(manifest, ("{\"operatingCarrierPNR\": \"P8F8R8\", \"sequenceNumber\": 1, \"passenger\": "
+                + "{\"passengerDetails\": {\"forename\": \"John\", \"surname\": \"Smith\"}}}\n"
+                + "{\"sequenceNumber\": 2, \"passenger\": {\"passengerDetails\": {\"forename\": \"Nobody\"}}}\n"
+                + "{\"sequenceNumber\": 3, \"flightNumber\": \"124\", \"passenger\": "
+                + "{\"passengerDetails\": {\"surname\": \"Jones\"}}}\n").getBytes(StandardCharsets.UTF_8));
+        Path output = folder.getRoot().toPath().resolve("passes.csv");
+        BoardingPassGenerator.Summary summary = new BoardingPassGenerator(startPool(), FLIGHT, 4, 3, 10)
+                .generate(manifest, output);
+
+        assertEquals(3, summary.getPassengers());
+        assertEquals(2, summary.getGenerated());
+        assertEquals(1, summary.getFailed());
+        assertEquals("P8F8R8", records.get(1).getOperatingCarrierPNR());
+        assertEquals("expect the manifest to override the flight", "124", records.get(3).getFlightNumber());
+        assertTrue(Files.readAllLines(output, StandardCharsets.UTF_8).contains("line 2,,,,INVALID_ARGUMENT"));
+    }
+
+    @Test
+    public void doesNotRetryCallsThatRanOutOfTime() throws Exception {
+        lostOnce.add(7);
+        Path output = folder.getRoot().toPath().resolve("passes.csv");
+        BoardingPassGenerator.Summary summary = new BoardingPassGenerator(startPool(), FLIGHT, 4, 3, 10)
+                .generate(writeManifest(10), output);
+
+        assertEquals(9, summary.getGenerated());
+        assertEquals(1, summary.getFailed());
+        assertEquals("expect the pass that may have been created not to be created again", 0, summary.getRetries());
+        assertEquals(10, calls.get());
+        assertTrue(Files.readAllLines(output, StandardCharsets.UTF_8).contains("7,PNR7,,,DEADLINE_EXCEEDED"));
+    }
+
+    // Compares one call at a time with the default window for a full flight, with 5ms per call
+    @Test
+    public void benchmarkAgainstSequentialGeneration() throws Exception {
+        latencyMillis = 5;
+        Path manifest = writeManifest(400);
+        GrpcConnectionPool pool = startPool();
+        BoardingPassGenerator.Summary sequential = new BoardingPassGenerator(pool, FLIGHT, 1, 3, 10)
+                .generate(manifest, folder.getRoot().toPath().resolve("sequential.csv"));
+        BoardingPassGenerator.Summary parallel = new BoardingPassGenerator(pool, FLIGHT, 64, 3, 10)
+                .generate(manifest, folder.getRoot().toPath().resolve("parallel.csv"));
+        System.out.println("sequential: " + sequential);
+        System.out.println("parallel:   " + parallel);
+
+        assertEquals(400, sequential.getGenerated());
+        assertEquals(400, parallel.getGenerated());
+        assertTrue("expect a window of 64 to be at least 4x faster, was " + parallel.getPassesPerSecond() + " vs "
+                + sequential.getPassesPerSecond(), parallel.getPassesPerSecond() > 4 * sequential.getPassesPerSecond());
+    }
+}
@@ -0,0 +1,175 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BulkMemberEnrolmentTest {
+
+    private static final int WINDOW = 8;
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Enrols members after a short delay. The first attempt for every tenth member fails with UNAVAILABLE, external
+    // ids starting with "dup" already exist, and the first attempt for external ids starting with "lost" enrols the
+    // member but answers DEADLINE_EXCEEDED. A member that is enrolled already can't be enrolled again.
+    private final Map<String, MemberOuterClass.Member> enrolled = new ConcurrentHashMap<>();
+    private final Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private GrpcConnectionPool startPool() throws Exception {
+        ScheduledExecutorService scheduler = passKit.scheduler();
+        return passKit.start(2, new MembersGrpc.MembersImplBase() {
+            @Override
+            public void enrolMember(MemberOuterClass.Member request,
+                    StreamObserver<CommonObjects.Id> responseObserver) {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                scheduler.schedule(() -> {
+                    inFlight.decrementAndGet();
+                    String externalId = request.getExternalId();
+                    if (externalId.startsWith("dup") || enrolled.containsKey(externalId)) {
+                        responseObserver.onError(Status.ALREADY_EXISTS.asRuntimeException());
+                    } else if (externalId.startsWith("lost")) {
+                        enrolled.put(externalId, request);
+                        responseObserver.onError(Status.DEADLINE_EXCEEDED.asRuntimeException());
+                    } else if (externalId.endsWith("0") && failedOnce.add(externalId)) {
+                        responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                    } else {
+                        enrolled.put(externalId, request);
+                        responseObserver.onNext(CommonObjects.Id.newBuilder()
+                                .setId("m-" + externalId)
+                                .build());
+                        responseObserver.onCompleted();
+                    }
+                }, 2, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void getMemberRecordByExternalId(MemberOuterClass.MemberRecordByExternalIdRequest request,
+                    StreamObserver<MemberOuterClass.Member> responseObserver) {
+                MemberOuterClass.Member member = enrolled.get(request.getExternalId());
+                if (member == null) {
+                    responseObserver.onError(Status.NOT_FOUND.asRuntimeException());
+                    return;
+                }
+                responseObserver.onNext(member.toBuilder().setId("m-" + member.getExternalId()).build());
+                responseObserver.onCompleted();
+            }
+        });
+    }
+
+    @Test
+    public void enrolsCsvWithBoundedConcurrencyAndRetries() throws Exception {
+        Path input = folder.newFile("members.csv").toPath();
+        List<String> lines = new ArrayList<>();
+        lines.add("externalId,forename,surname,emailAddress,points,favouriteStore");
+        for (int i = 0; i < 200; i++) {
+            lines.add(i + ",Loyal,\"Larry, " + i + "\",larry" + i + "@example.com,10,\"the \"\"big\"\" one\"");
+        }
+        lines.add("dup-1,Duplicate,Member,,,");
+        lines.add("bad,Not,A,Number,ten,");
+        Files.write(input, lines, StandardCharsets.UTF_8);
+        Path output = folder.getRoot().toPath().resolve("results.csv");
+
+        GrpcConnectionPool pool = startPool();
+        BulkMemberEnrolment.Summary summary = new BulkMemberEnrolment(pool, "program", "base", WINDOW, 3, 1)
+                .enrol(input, output);
+        System.out.println(summary);
+
+        assertEquals("expect every record to be counted", 202, summary.getRecords());
+        assertEquals("expect all valid members to be enrolled", 200, summary.getEnrolled());
+        assertEquals("expect the duplicate and the invalid record to fail", 2, summary.getFailed());
+        assertEquals("expect every tenth member to be retried once", 20, summary.getRetries());
+        assertTrue("expect calls to overlap", maxInFlight.get() > 1);
+        assertTrue("expect at most " + WINDOW + " calls in flight, saw " + maxInFlight.get(),
+                maxInFlight.get() <= WINDOW);
+        assertEquals("expect no calls left in flight", 0, pool.inFlightCalls());
+
+        MemberOuterClass.Member member = enrolled.get("7");
+        assertEquals("expect default program id", "program", member.getProgramId());
+        assertEquals("expect default tier id", "base", member.getTierId());
+        assertEquals("expect quoted value with comma", "Larry, 7", member.getPerson().getSurname());
+        assertEquals("expect points column to be parsed", 10f, member.getPoints(), 0f);
+        assertEquals("expect unknown column in meta data", "the \"big\" one",
+                member.getMetaDataOrThrow("favouriteStore"));
+
+        List<String> results = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals("externalId,memberId,status", results.get(0));
+        assertEquals("expect a result line for every record", 203, results.size());
+        assertTrue(results.contains("7,m-7,OK"));
+        assertTrue(results.contains("10,m-10,OK"));
+        assertTrue(results.contains("dup-1,,ALREADY_EXISTS"));
+        assertTrue(results.contains("line 203,,INVALID_ARGUMENT"));
+    }
+
+    @Test
+    public void resolvesMembersEnrolledByAnAttemptWhoseAnswerWasLost() throws Exception {
+        Path input = folder.newFile("members.csv").toPath();
+        Files.write(input, List.of("externalId,points", "lost-1,5", "dup-1,5"), StandardCharsets.UTF_8);
+        Path output = folder.getRoot().toPath().resolve("results.csv");
+
+        GrpcConnectionPool pool = startPool();
+        BulkMemberEnrolment.Summary summary = new BulkMemberEnrolment(pool, "program", "base", WINDOW, 3, 1)
+                .enrol(input, output);
+        assertEquals(1, summary.getEnrolled());
+        assertEquals("expect a duplicate that wasn't retried to still fail", 1, summary.getFailed());
+
+        List<String> results = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertTrue(results.contains("lost-1,m-lost-1,OK"));
+        assertTrue(results.contains("dup-1,,ALREADY_EXISTS"));
+        assertFalse("expect no person without person columns", enrolled.get("lost-1").hasPerson());
+    }
+
+    @Test
+    public void enrolsJsonLines() throws Exception {
+        Path input = folder.newFile("members.jsonl").toPath();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            lines.add("{\"externalId\": \"" + i + "\", \"tierId\": \"vip\", \"person\": {\"forename\": \"Vip\"},"
+                    + " \"unknownField\": true}");
+        }
+        lines.add("");
+        lines.add("{not json");
+        Files.write(input, lines, StandardCharsets.UTF_8);
+        Path output = folder.getRoot().toPath().resolve("results.csv");
+
+        GrpcConnectionPool pool = startPool();
+        BulkMemberEnrolment.Summary summary = new BulkMemberEnrolment(pool, "program", "base", WINDOW, 3, 1)
+                .enrol(input, output);
+        assertEquals(50, summary.getEnrolled());
+        assertEquals(1, summary.getFailed());
+        assertEquals("expect tier id from the record", "vip", enrolled.get("3").getTierId());
+        assertEquals("Vip", enrolled.get("3").getPerson().getForename());
+
+        List<String> results = new ArrayList<>(Files.readAllLines(output, StandardCharsets.UTF_8));
+        Collections.sort(results);
+        assertTrue(results.contains("0,m-0,OK"));
+        assertTrue(results.contains("line 52,,INVALID_ARGUMENT"));
+    }
+}
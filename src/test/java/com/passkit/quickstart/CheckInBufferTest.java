@@ -0,0 +1,261 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Members.MemberEventsOuterClass;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CheckInBufferTest {
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Records the events each member receives as "in-N" or "out-N" from the externalEventId, answering after up to
+    // 2 milliseconds or once release is counted down. The first attempt for ids in unavailableOnce fails with
+    // UNAVAILABLE, and for ids in lostOnce records the event but fails with DEADLINE_EXCEEDED.
+    private final ScheduledExecutorService scheduler = passKit.scheduler();
+    private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlightByMember = new ConcurrentHashMap<>();
+    private final Set<String> unavailableOnce = ConcurrentHashMap.newKeySet();
+    private final Set<String> lostOnce = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlightPerMember = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private final List<CheckInBuffer> buffers = new ArrayList<>();
+    private GrpcConnectionPool pool;
+
+    @After
+    public void stop() throws Exception {
+        release.countDown();
+        for (CheckInBuffer buffer : buffers) {
+            buffer.close();
+        }
+    }
+
+    private GrpcConnectionPool startPool() throws Exception {
+        pool = passKit.start(2, new MembersGrpc.MembersImplBase() {
+            @Override
+            public void checkInMember(MemberOuterClass.MemberCheckInOutRequest request,
+                    StreamObserver<MemberEventsOuterClass.MemberEvent> responseObserver) {
+                record("in", request, responseObserver);
+            }
+
+            @Override
+            public void checkOutMember(MemberOuterClass.MemberCheckInOutRequest request,
+                    StreamObserver<MemberEventsOuterClass.MemberEvent> responseObserver) {
+                record("out", request, responseObserver);
+            }
+        });
+        return pool;
+    }
+
+    private void record(String kind, MemberOuterClass.MemberCheckInOutRequest request,
+            StreamObserver<MemberEventsOuterClass.MemberEvent> responseObserver) {
+        calls.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        AtomicInteger member = inFlightByMember.computeIfAbsent(request.getMemberId(), m -> new AtomicInteger());
+        maxInFlightPerMember.accumulateAndGet(member.incrementAndGet(), Math::max);
+        Runnable respond = () -> {
+            member.decrementAndGet();
+            inFlight.decrementAndGet();
+            if (unavailableOnce.remove(request.getExternalEventId())) {
+                responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                return;
+            }
+            received.computeIfAbsent(request.getMemberId(), m -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(kind + "-" + request.getExternalEventId());
+            if (lostOnce.remove(request.getExternalEventId())) {
+                responseObserver.onError(Status.DEADLINE_EXCEEDED.asRuntimeException());
+                return;
+            }
+            responseObserver.onNext(MemberEventsOuterClass.MemberEvent.newBuilder()
+                    .setExternalId(request.getExternalEventId())
+                    .build());
+            responseObserver.onCompleted();
+        };
+        if (release.getCount() > 0) {
+            scheduler.execute(() -> {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond.run();
+            });
+        } else {
+            scheduler.schedule(respond, ThreadLocalRandom.current().nextInt(3), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private CheckInBuffer buffer(Path directory, int maxInFlight, int memoryCapacity) throws Exception {
+        CheckInBuffer buffer = new CheckInBuffer(pool == null ? startPool() : pool, directory, maxInFlight,
+                memoryCapacity, 4096);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    private static MemberOuterClass.MemberCheckInOutRequest event(String memberId, int n) {
+        return MemberOuterClass.MemberCheckInOutRequest.newBuilder()
+                .setMemberId(memberId)
+                .setExternalEventId(String.valueOf(n))
+                .setAddress("Gate " + n % 4)
+                .build();
+    }
+
+    // Submits visits check-ins and check-outs for each member, numbering a member's events from 0
+    private static void visit(CheckInBuffer buffer, int members, int visits) throws Exception {
+        for (int n = 0; n < visits * 2; n++) {
+            for (int m = 0; m < members; m++) {
+                if (n % 2 == 0) {
+                    buffer.checkIn(event("member-" + m, n));
+                } else {
+                    buffer.checkOut(event("member-" + m, n));
+                }
+            }
+        }
+    }
+
+    private void assertVisitedInOrder(int members, int visits) {
+        for (int m = 0; m < members; m++) {
+            List<String> events = received.get("member-" + m);
+            assertNotNull(events);
+            assertEquals(visits * 2, events.size());
+            for (int n = 0; n < visits * 2; n++) {
+                assertEquals((n % 2 == 0 ? "in-" : "out-") + n, events.get(n));
+            }
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static long spillFiles(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".spill")).count();
+        }
+    }
+
+    @Test
+    public void sendsEachMembersEventsInOrder() throws Exception {
+        CheckInBuffer buffer = buffer(folder.getRoot().toPath(), 8, 10_000);
+        visit(buffer, 40, 5);
+        waitFor(() -> calls.get() == 400 && buffer.getBuffered() == 0);
+
+        assertVisitedInOrder(40, 5);
+        assertEquals(400, buffer.getSent());
+        assertEquals(0, buffer.getSpilled());
+        assertTrue("expect at most 8 calls at once, was " + maxInFlight.get(), maxInFlight.get() <= 8);
+        assertEquals("expect one call per member at once", 1, maxInFlightPerMember.get());
+    }
+
+    @Test
+    public void spillsWhileTheBackendIsSlow() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        release = new CountDownLatch(1);
+        CheckInBuffer buffer = buffer(directory, 4, 10);
+        // returns at once, though nothing is answered yet
+        visit(buffer, 10, 10);
+        assertEquals(200, buffer.getSubmitted());
+        assertEquals(10, buffer.getBuffered());
+        assertEquals(190, buffer.getSpilled());
+        assertEquals(190, buffer.getSpillBacklog());
+        assertTrue("expect the spill to span segments", spillFiles(directory) > 1);
+
+        release.countDown();
+        waitFor(() -> calls.get() == 200 && buffer.getBuffered() == 0);
+        assertVisitedInOrder(10, 10);
+        assertEquals(0, buffer.getSpillBacklog());
+        buffer.close();
+        assertEquals(0, spillFiles(directory));
+    }
+
+    @Test
+    public void sendsWhatAnEarlierRunSpilled() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        release = new CountDownLatch(1);
+        CheckInBuffer stopped = buffer(directory, 2, 4);
+        visit(stopped, 2, 5);
+        assertEquals(16, stopped.getSpilled());
+
+        // close while the backend holds the calls in flight, so nothing more is read from the spill
+        Thread closer = new Thread(() -> {
+            try {
+                stopped.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        closer.start();
+        waitFor(() -> closer.getState() == Thread.State.WAITING);
+        release.countDown();
+        closer.join();
+        assertEquals(4, calls.get());
+        assertTrue(spillFiles(directory) > 0);
+
+        // the restarted buffer reads what fits in memory from the spill at once, so hold the backend to count them
+        release = new CountDownLatch(1);
+        CheckInBuffer restarted = buffer(directory, 2, 4);
+        waitFor(() -> restarted.getBuffered() == 4 && restarted.getSpillBacklog() == 12);
+        release.countDown();
+        waitFor(() -> calls.get() == 20 && restarted.getBuffered() == 0);
+        assertVisitedInOrder(2, 5);
+    }
+
+    @Test
+    public void retriesBeforeTheMembersNextEvent() throws Exception {
+        unavailableOnce.add("0");
+        CheckInBuffer buffer = buffer(folder.getRoot().toPath(), 4, 100);
+        visit(buffer, 1, 2);
+        waitFor(() -> calls.get() == 5 && buffer.getBuffered() == 0);
+
+        assertVisitedInOrder(1, 2);
+        assertEquals(1, buffer.getRetried());
+        assertEquals(0, buffer.getFailed());
+    }
+
+    @Test
+    public void doesNotResendEventsWhoseCallRanOutOfTime() throws Exception {
+        lostOnce.add("0");
+        CheckInBuffer buffer = buffer(folder.getRoot().toPath(), 4, 100);
+        visit(buffer, 1, 2);
+        waitFor(() -> calls.get() == 4 && buffer.getBuffered() == 0);
+
+        assertVisitedInOrder(1, 2);
+        assertEquals("expect the check-in to be recorded once", 0, buffer.getRetried());
+        assertEquals(1, buffer.getFailed());
+    }
+}
@@ -0,0 +1,148 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Personal;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import com.google.protobuf.util.JsonFormat;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class CouponExporterTest {
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Lists coupons c0 to c<campaignSize - 1> by offset and limit after a short delay. The first request for each
+    // offset in failOnce fails with UNAVAILABLE, and any request for an offset in failAlways fails with INTERNAL.
+    private final ScheduledExecutorService scheduler = passKit.scheduler();
+    private final Set<Integer> failOnce = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> failAlways = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile int campaignSize;
+
+    private GrpcConnectionPool startPool() throws Exception {
+        return passKit.start(2, new SingleUseCouponsGrpc.SingleUseCouponsImplBase() {
+            @Override
+            public void listCouponsByCouponCampaign(CouponOuterClass.ListRequest request,
+                    StreamObserver<CouponOuterClass.Coupon> responseObserver) {
+                int offset = request.getFilters().getOffset();
+                int end = Math.min(campaignSize, offset + request.getFilters().getLimit());
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                scheduler.schedule(() -> {
+                    inFlight.decrementAndGet();
+                    if (failAlways.contains(offset)) {
+                        responseObserver.onError(Status.INTERNAL.asRuntimeException());
+                        return;
+                    }
+                    if (failOnce.remove(offset)) {
+                        responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                        return;
+                    }
+                    for (int i = offset; i < end; i++) {
+                        responseObserver.onNext(CouponOuterClass.Coupon.newBuilder()
+                                .setId("c" + i)
+                                .setCampaignId(request.getCouponCampaignId())
+                                .setStatus(CouponOuterClass.CouponStatus.UNREDEEMED)
+                                .setPerson(Personal.Person.newBuilder().setDisplayName("Holder, " + i))
+                                .build());
+                    }
+                    responseObserver.onCompleted();
+                }, 5, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private static List<String> readGzipLines(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void exportsEveryCouponInOrderAsGzipJsonl() throws Exception {
+        campaignSize = 10_050;
+        failOnce.add(3000);
+        GrpcConnectionPool pool = startPool();
+        Path output = folder.getRoot().toPath().resolve("coupons.jsonl.gz");
+        CouponExporter.Summary summary = new CouponExporter(pool, 500, 4).export("campaign", output);
+
+        assertEquals(10_050, summary.getCoupons());
+        assertEquals(21, summary.getPages());
+        assertEquals(1, summary.getRetries());
+        assertEquals(Files.size(output), summary.getBytes());
+        assertTrue("expect at most 4 pages at once", maxInFlight.get() <= 4);
+        assertTrue("expect pages to be fetched in parallel", maxInFlight.get() > 1);
+
+        List<String> lines = readGzipLines(output);
+        assertEquals(10_050, lines.size());
+        for (int i = 0; i < lines.size(); i += 997) {
+            CouponOuterClass.Coupon.Builder coupon = CouponOuterClass.Coupon.newBuilder();
+            JsonFormat.parser().merge(lines.get(i), coupon);
+            assertEquals("expect coupons in listing order", "c" + i, coupon.getId());
+        }
+        assertFalse(Files.exists(output.resolveSibling("coupons.jsonl.gz.part")));
+    }
+
+    @Test
+    public void exportsCsv() throws Exception {
+        campaignSize = 1000;
+        GrpcConnectionPool pool = startPool();
+        Path output = folder.getRoot().toPath().resolve("coupons.csv");
+        CouponExporter.Summary summary = new CouponExporter(pool, 250, 2).export("campaign", output);
+
+        assertEquals(1000, summary.getCoupons());
+        // the listing ends at the first short page, here an empty one
+        assertEquals(5, summary.getPages());
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals(1001, lines.size());
+        assertTrue(lines.get(0).startsWith("id,externalId,campaignId"));
+        assertEquals("c7,,campaign,,,UNREDEEMED,\"Holder, 7\",,,,", lines.get(8));
+    }
+
+    @Test
+    public void failedExportLeavesNoFile() throws Exception {
+        campaignSize = 5000;
+        failAlways.add(2000);
+        GrpcConnectionPool pool = startPool();
+        Path output = folder.getRoot().toPath().resolve("coupons.jsonl");
+        try {
+            new CouponExporter(pool, 500, 4).export("campaign", output);
+            fail("expect the export to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("offset 2000"));
+        }
+        assertFalse(Files.exists(output));
+        assertFalse(Files.exists(output.resolveSibling("coupons.jsonl.part")));
+    }
+}
@@ -0,0 +1,235 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CouponIssuanceTest {
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Issues a coupon per external id after delayMillis, rejecting repeated external ids with ALREADY_EXISTS. The
+    // first attempt for external ids ending in 7 fails with UNAVAILABLE, and calls over overloadAbove in flight fail
+    // with RESOURCE_EXHAUSTED. The answer for r0 waits for holdFirst.
+    private final ScheduledExecutorService scheduler = passKit.scheduler();
+    private final Map<String, CouponOuterClass.Coupon> issued = new ConcurrentHashMap<>();
+    private final Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger creates = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile int overloadAbove = Integer.MAX_VALUE;
+    private volatile long delayMillis = 1;
+    private volatile CountDownLatch holdFirst = new CountDownLatch(0);
+
+    private GrpcConnectionPool startPool() throws Exception {
+        return passKit.start(2, new SingleUseCouponsGrpc.SingleUseCouponsImplBase() {
+            @Override
+            public void createCoupon(CouponOuterClass.Coupon request,
+                    StreamObserver<CommonObjects.Id> responseObserver) {
+                creates.incrementAndGet();
+                int running = inFlight.incrementAndGet();
+                maxInFlight.accumulateAndGet(running, Math::max);
+                if (running > overloadAbove) {
+                    inFlight.decrementAndGet();
+                    responseObserver.onError(Status.RESOURCE_EXHAUSTED.asRuntimeException());
+                    return;
+                }
+                scheduler.schedule(() -> {
+                    String externalId = request.getExternalId();
+                    if (externalId.equals("r0")) {
+                        try {
+                            holdFirst.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    inFlight.decrementAndGet();
+                    if (externalId.endsWith("7") && failedOnce.add(externalId)) {
+                        responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                    } else if (issued.putIfAbsent(externalId, request) != null) {
+                        responseObserver.onError(Status.ALREADY_EXISTS.asRuntimeException());
+                    } else {
+                        responseObserver.onNext(CommonObjects.Id.newBuilder()
+                                .setId("c-" + externalId)
+                                .build());
+                        responseObserver.onCompleted();
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private Path writeRecipients(int count) throws Exception {
+        List<String> lines = new ArrayList<>();
+        lines.add("externalId,displayName,emailAddress,segment");
+        for (int i = 0; i < count; i++) {
+            lines.add("r" + i + ",\"Recipient, " + i + "\",r" + i + "@example.com,gold");
+        }
+        Path input = folder.getRoot().toPath().resolve("recipients.csv");
+        Files.write(input, lines, StandardCharsets.UTF_8);
+        return input;
+    }
+
+    @Test
+    public void issuesEveryRecordAndRetriesTransientErrors() throws Exception {
+        GrpcConnectionPool pool = startPool();
+        Path input = writeRecipients(500);
+        Path output = folder.getRoot().toPath().resolve("results.csv");
+        CouponIssuance.Summary summary = new CouponIssuance(pool, "campaign", "offer", 4, 32, 3, 10)
+                .issue(input, output);
+
+        assertEquals(500, summary.getRecords());
+        assertEquals(500, summary.getIssued());
+        assertEquals(0, summary.getFailed());
+        assertEquals(50, summary.getRetries());
+        assertEquals(Long.valueOf(50), summary.getErrors().get(Status.Code.UNAVAILABLE));
+        assertEquals(500, issued.size());
+        assertTrue("expect the window to stay within its maximum", maxInFlight.get() <= 32);
+
+        CouponOuterClass.Coupon coupon = issued.get("r12");
+        assertEquals("campaign", coupon.getCampaignId());
+        assertEquals("offer", coupon.getOfferId());
+        assertEquals(CouponOuterClass.CouponStatus.UNREDEEMED, coupon.getStatus());
+        assertEquals("Recipient, 12", coupon.getPerson().getDisplayName());
+        assertEquals("gold", coupon.getMetaDataMap().get("segment"));
+
+        List<String> results = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals("externalId,couponId,status", results.get(0));
+        assertEquals(501, results.size());
+        assertTrue(results.contains("r12,c-r12,OK"));
+        Path checkpoint = output.resolveSibling("results.csv.checkpoint");
+        assertEquals("500 " + Files.size(output),
+                new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void windowShrinksWhenBackendIsOverloaded() throws Exception {
+        overloadAbove = 6;
+        // long enough for the first window to be in flight together
+        delayMillis = 20;
+        GrpcConnectionPool pool = startPool();
+        Path input = writeRecipients(300);
+        Path output = folder.getRoot().toPath().resolve("results.csv");
+        CouponIssuance.Summary summary = new CouponIssuance(pool, "campaign", "offer", 32, 64, 20, 5)
+                .issue(input, output);
+
+        assertEquals(300, summary.getIssued());
+        assertTrue("expect overload to be reported", summary.getErrors().containsKey(Status.Code.RESOURCE_EXHAUSTED));
+        assertTrue("expect the window to have shrunk from 32, was " + summary.getWindow(),
+                summary.getWindow() < 32);
+    }
+
+    @Test
+    public void resumesAfterCheckpointWithoutIssuingTwice() throws Exception {
+        GrpcConnectionPool pool = startPool();
+        Path input = writeRecipients(400);
+        Path output = folder.getRoot().toPath().resolve("results.csv");
+        // a run that stopped after issuing 250 coupons, having checkpointed only the first 200 and written the
+        // results of 20 more
+        StringBuilder written = new StringBuilder("externalId,couponId,status\n");
+        for (int i = 0; i < 250; i++) {
+            issued.put("r" + i, CouponOuterClass.Coupon.getDefaultInstance());
+            failedOnce.add("r" + i);
+            if (i == 200) {
+                Files.write(output.resolveSibling("results.csv.checkpoint"),
+                        ("200 " + written.length()).getBytes(StandardCharsets.UTF_8));
+            }
+            if (i < 220) {
+                written.append("r").append(i).append(",c-r").append(i).append(",OK\n");
+            }
+        }
+        Files.write(output, written.toString().getBytes(StandardCharsets.UTF_8));
+
+        CouponIssuance issuance = new CouponIssuance(pool, "campaign", "offer", 4, 32, 3, 10);
+        CouponIssuance.Summary summary = issuance.issue(input, output);
+
+        assertEquals(200, summary.getSkipped());
+        assertEquals(200, summary.getRecords());
+        assertEquals(50, summary.getExisting());
+        assertEquals(150, summary.getIssued());
+        assertEquals(400, issued.size());
+        List<String> results = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals(401, results.size());
+        assertEquals("r199,c-r199,OK", results.get(200));
+        assertEquals("r200,,ALREADY_EXISTS", results.get(201));
+        assertEquals("r399,c-r399,OK", results.get(400));
+
+        // a completed run is not sent again
+        int calls = creates.get();
+        summary = issuance.issue(input, output);
+        assertEquals(400, summary.getSkipped());
+        assertEquals(0, summary.getRecords());
+        assertEquals(calls, creates.get());
+    }
+
+    @Test
+    public void resumesPastInvalidRecord() throws Exception {
+        GrpcConnectionPool pool = startPool();
+        Path input = folder.getRoot().toPath().resolve("recipients.csv");
+        Files.write(input, "externalId,segment\nr0,gold\nr1,\"silver\n".getBytes(StandardCharsets.UTF_8));
+        Path output = folder.getRoot().toPath().resolve("results.csv");
+        CouponIssuance issuance = new CouponIssuance(pool, "campaign", "offer", 4, 32, 3, 10);
+        CouponIssuance.Summary summary = issuance.issue(input, output);
+        assertEquals(1, summary.getIssued());
+        assertEquals(1, summary.getFailed());
+        assertFalse("expect no person without person columns", issued.get("r0").hasPerson());
+
+        // the unterminated quote of the second record is skipped rather than read again
+        summary = issuance.issue(input, output);
+        assertEquals(2, summary.getSkipped());
+        assertEquals(0, summary.getRecords());
+        List<String> results = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals(3, results.size());
+        assertEquals("line 3,,INVALID_ARGUMENT", results.get(2));
+    }
+
+    @Test
+    public void boundsResultsHeldBehindAnEarlierRecord() throws Exception {
+        holdFirst = new CountDownLatch(1);
+        Path input = writeRecipients(50);
+        Path output = folder.getRoot().toPath().resolve("issued.csv");
+        CouponIssuance issuance = new CouponIssuance(startPool(), "campaign", "offer", 2, 2, 3, 10);
+        ExecutorService runner = Executors.newSingleThreadExecutor();
+        try {
+            Future<CouponIssuance.Summary> run = runner.submit(() -> issuance.issue(input, output));
+            Thread.sleep(300);
+            // r1 to r7 are issued, then reading pauses 4 * maxInFlight records after r0
+            assertEquals("expect reading to pause while r0 is held", 7, issued.size());
+
+            holdFirst.countDown();
+            CouponIssuance.Summary summary = run.get(10, TimeUnit.SECONDS);
+            assertEquals(50, summary.getIssued());
+            assertEquals(51, Files.readAllLines(output, StandardCharsets.UTF_8).size());
+        } finally {
+            runner.shutdownNow();
+        }
+    }
+}
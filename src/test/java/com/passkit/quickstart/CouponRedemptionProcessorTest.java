@@ -0,0 +1,196 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CouponRedemptionProcessorTest {
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    // Redeems each coupon once after a millisecond, or once release is counted down, and rejects a second redemption
+    // with FAILED_PRECONDITION. The first attempt for coupon ids in unavailableOnce fails with UNAVAILABLE.
+    private final ScheduledExecutorService scheduler = passKit.scheduler();
+    private final Map<String, AtomicInteger> redemptions = new ConcurrentHashMap<>();
+    private final Set<String> unavailableOnce = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private CouponRedemptionProcessor processor;
+
+    @After
+    public void stop() throws Exception {
+        if (processor != null) {
+            processor.shutdown();
+            processor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private GrpcConnectionPool startPool() throws Exception {
+        return passKit.start(2, new SingleUseCouponsGrpc.SingleUseCouponsImplBase() {
+            @Override
+            public void redeemCoupon(CouponOuterClass.Coupon request,
+                    StreamObserver<CommonObjects.Id> responseObserver) {
+                calls.incrementAndGet();
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                Runnable respond = () -> {
+                    inFlight.decrementAndGet();
+                    String id = request.getId();
+                    if (unavailableOnce.remove(id)) {
+                        responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                    } else if (redemptions.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet() > 1) {
+                        responseObserver.onError(Status.FAILED_PRECONDITION
+                                .withDescription("coupon already redeemed").asRuntimeException());
+                    } else {
+                        responseObserver.onNext(CommonObjects.Id.newBuilder().setId(id).build());
+                        responseObserver.onCompleted();
+                    }
+                };
+                if (release.getCount() > 0) {
+                    scheduler.execute(() -> {
+                        try {
+                            release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        respond.run();
+                    });
+                } else {
+                    scheduler.schedule(respond, 1, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    private static CouponOuterClass.Coupon coupon(String id) {
+        return CouponOuterClass.Coupon.newBuilder().setId(id).setCampaignId("campaign").build();
+    }
+
+    @Test
+    public void redeemsFromManyTerminalsWithinWindow() throws Exception {
+        processor = new CouponRedemptionProcessor(startPool(), 4, 8, 1000, 5000);
+        ExecutorService terminals = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<ListenableFuture<CommonObjects.Id>>>> runs = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int terminal = t;
+                runs.add(terminals.submit(() -> {
+                    List<ListenableFuture<CommonObjects.Id>> results = new ArrayList<>();
+                    for (int i = 0; i < 500; i++) {
+                        results.add(processor.redeem("store-" + terminal % 4, coupon("t" + terminal + "-" + i)));
+                    }
+                    return results;
+                }));
+            }
+            for (Future<List<ListenableFuture<CommonObjects.Id>>> run : runs) {
+                for (ListenableFuture<CommonObjects.Id> result : run.get()) {
+                    assertFalse(result.get(10, TimeUnit.SECONDS).getId().isEmpty());
+                }
+            }
+        } finally {
+            terminals.shutdownNow();
+        }
+
+        assertEquals(4000, calls.get());
+        assertTrue("expect at most 4 workers x 8 calls at once, was " + maxInFlight.get(), maxInFlight.get() <= 32);
+        Map<String, LatencyHistogram> latency = processor.getStoreLatency();
+        assertEquals(4, latency.size());
+        long recorded = 0;
+        for (LatencyHistogram histogram : latency.values()) {
+            assertEquals(1000, histogram.getCount());
+            recorded += histogram.getCount();
+        }
+        assertEquals(4000, recorded);
+    }
+
+    @Test
+    public void repeatedRedemptionsNeverRedeemTwice() throws Exception {
+        release = new CountDownLatch(1);
+        processor = new CouponRedemptionProcessor(startPool(), 2, 8, 1000, 5000);
+        List<ListenableFuture<CommonObjects.Id>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(processor.redeem("store-" + i % 3, coupon("coupon-1")));
+        }
+        release.countDown();
+        for (ListenableFuture<CommonObjects.Id> result : results) {
+            assertEquals("coupon-1", result.get(10, TimeUnit.SECONDS).getId());
+        }
+        assertEquals(9, processor.getJoined());
+
+        // a terminal retrying after its redemption completed gets the same answer without a call
+        assertEquals("coupon-1", processor.redeem("store-0", coupon("coupon-1")).get(10, TimeUnit.SECONDS).getId());
+        assertEquals(1, processor.getRepeated());
+        assertEquals(1, calls.get());
+        assertEquals(1, redemptions.get("coupon-1").get());
+    }
+
+    @Test
+    public void retriesOnlyUnavailable() throws Exception {
+        unavailableOnce.add("coupon-1");
+        processor = new CouponRedemptionProcessor(startPool(), 1, 8, 1000, 5000);
+        assertEquals("coupon-1", processor.redeem("store", coupon("coupon-1")).get(10, TimeUnit.SECONDS).getId());
+        assertEquals(1, processor.getRetried());
+        assertEquals(2, calls.get());
+
+        // redeemed elsewhere, so not one of this processor's recent coupons
+        redemptions.put("coupon-2", new AtomicInteger(1));
+        try {
+            processor.redeem("store", coupon("coupon-2")).get(10, TimeUnit.SECONDS);
+            fail("expect the redemption to fail");
+        } catch (ExecutionException e) {
+            assertEquals(Status.Code.FAILED_PRECONDITION, ((StatusRuntimeException) e.getCause()).getStatus().getCode());
+        }
+        assertEquals(3, calls.get());
+        assertEquals(1, processor.getFailed());
+    }
+
+    @Test
+    public void completesTakenRedemptionsOnShutdown() throws Exception {
+        release = new CountDownLatch(1);
+        processor = new CouponRedemptionProcessor(startPool(), 2, 2, 1000, 5000);
+        List<ListenableFuture<CommonObjects.Id>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(processor.redeem("store", coupon("coupon-" + i)));
+        }
+        processor.shutdown();
+        try {
+            processor.redeem("store", coupon("coupon-late")).get();
+            fail("expect redemptions after shutdown to be refused");
+        } catch (ExecutionException e) {
+            assertEquals(Status.Code.UNAVAILABLE, ((StatusRuntimeException) e.getCause()).getStatus().getCode());
+        }
+        release.countDown();
+        assertTrue(processor.awaitTermination(10, TimeUnit.SECONDS));
+        for (ListenableFuture<CommonObjects.Id> result : results) {
+            assertTrue(result.isDone());
+            assertFalse(result.get().getId().isEmpty());
+        }
+        assertEquals(20, calls.get());
+    }
+}
@@ -0,0 +1,184 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Protocols;
+import com.passkit.grpc.Template;
+import com.passkit.grpc.TemplatesGrpc;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DefaultTemplateCacheTest {
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicBoolean failNextCall = new AtomicBoolean();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private ManagedChannel channel;
+
+    // Answers with a template named after the protocol, revision and call number
+    @Before
+    public void startServer() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(serverName)
+                .addService(new TemplatesGrpc.TemplatesImplBase() {
+                    @Override
+                    public void getDefaultTemplate(Template.DefaultTemplateRequest request,
+                            StreamObserver<Template.PassTemplate> responseObserver) {
+                        int call = calls.incrementAndGet();
+                        try {
+                            release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if (failNextCall.getAndSet(false)) {
+                            responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                            return;
+                        }
+                        responseObserver.onNext(Template.PassTemplate.newBuilder()
+                                .setName(request.getProtocol() + " " + request.getRevision() + " #" + call)
+                                .build());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start());
+        channel = grpcCleanup.register(InProcessChannelBuilder.forName(serverName).build());
+    }
+
+    @Test
+    public void cachesByProtocolAndRevision() {
+        DefaultTemplateCache cache = new DefaultTemplateCache(channel, 60_000, 10, null);
+
+        Template.PassTemplate membership = cache.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1);
+        assertSame(membership, cache.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1));
+        assertEquals("MEMBERSHIP 1 #1", membership.getName());
+        assertEquals("EVENT_TICKETING 1 #2",
+                cache.getDefaultTemplate(Protocols.PassProtocol.EVENT_TICKETING, 1).getName());
+        assertEquals("MEMBERSHIP 2 #3", cache.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 2).getName());
+
+        assertEquals(3, calls.get());
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void expiresAfterTtl() throws Exception {
+        DefaultTemplateCache cache = new DefaultTemplateCache(channel, 100, 10, null);
+        cache.getDefaultTemplate(Protocols.PassProtocol.FLIGHT_PROTOCOL, 1);
+        cache.getDefaultTemplate(Protocols.PassProtocol.FLIGHT_PROTOCOL, 1);
+        assertEquals(1, calls.get());
+
+        Thread.sleep(150);
+        assertEquals("expect an expired template to be fetched again", "FLIGHT_PROTOCOL 1 #2",
+                cache.getDefaultTemplate(Protocols.PassProtocol.FLIGHT_PROTOCOL, 1).getName());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        DefaultTemplateCache cache = new DefaultTemplateCache(channel, 60_000, 2, null);
+        cache.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1);
+        cache.getDefaultTemplate(Protocols.PassProtocol.SINGLE_USE_COUPON, 1);
+        cache.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1);
+        cache.getDefaultTemplate(Protocols.PassProtocol.EVENT_TICKETING, 1);
+        assertEquals(2, cache.size());
+        assertEquals(3, calls.get());
+
+        cache.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1);
+        assertEquals("expect the recently used template to be kept", 3, calls.get());
+        cache.getDefaultTemplate(Protocols.PassProtocol.SINGLE_USE_COUPON, 1);
+        assertEquals("expect the least recently used template to be evicted", 4, calls.get());
+    }
+
+    @Test
+    public void coldStartReadsFromDisk() {
+        Path directory = folder.getRoot().toPath().resolve("templates");
+        Template.PassTemplate fetched = new DefaultTemplateCache(channel, 60_000, 10, directory)
+                .getDefaultTemplate(Protocols.PassProtocol.SINGLE_USE_COUPON, 1);
+
+        DefaultTemplateCache restarted = new DefaultTemplateCache(channel, 60_000, 10, directory);
+        assertEquals(fetched, restarted.getDefaultTemplate(Protocols.PassProtocol.SINGLE_USE_COUPON, 1));
+        assertEquals("expect no call after restart", 1, calls.get());
+        assertEquals(1, restarted.getDiskHits());
+        assertEquals(0, restarted.getMisses());
+
+        DefaultTemplateCache expired = new DefaultTemplateCache(channel, 0, 10, directory);
+        expired.getDefaultTemplate(Protocols.PassProtocol.SINGLE_USE_COUPON, 1);
+        assertEquals("expect an expired file to be ignored", 2, calls.get());
+    }
+
+    @Test
+    public void diskHitsExpireWithTheFile() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("templates");
+        new DefaultTemplateCache(channel, 60_000, 10, directory)
+                .getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1);
+        // written long enough ago that only 200ms of its ttl remain
+        Path file = directory.resolve("MEMBERSHIP-1.pb");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 800));
+
+        DefaultTemplateCache restarted = new DefaultTemplateCache(channel, 1000, 10, directory);
+        restarted.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1);
+        assertEquals(1, restarted.getDiskHits());
+
+        Thread.sleep(300);
+        restarted.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1);
+        assertEquals("expect the template to expire when the file does, not a ttl after it was read",
+                1, restarted.getMisses());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void concurrentMissesShareOneCall() throws Exception {
+        release = new CountDownLatch(1);
+        DefaultTemplateCache cache = new DefaultTemplateCache(channel, 60_000, 10, null);
+        List<ListenableFuture<Template.PassTemplate>> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(cache.getDefaultTemplateAsync(Protocols.PassProtocol.MEMBERSHIP, 1));
+        }
+        release.countDown();
+        for (ListenableFuture<Template.PassTemplate> request : requests) {
+            assertEquals("MEMBERSHIP 1 #1", request.get(5, TimeUnit.SECONDS).getName());
+        }
+        assertEquals(1, calls.get());
+        assertEquals(9, cache.getHits());
+    }
+
+    @Test
+    public void failuresAreNotCached() {
+        failNextCall.set(true);
+        DefaultTemplateCache cache = new DefaultTemplateCache(channel, 60_000, 10, null);
+        try {
+            cache.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1);
+            fail("expect the failed call to be reported");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+        assertEquals("MEMBERSHIP 1 #2", cache.getDefaultTemplate(Protocols.PassProtocol.MEMBERSHIP, 1).getName());
+    }
+}
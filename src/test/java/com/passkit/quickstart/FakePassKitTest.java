@@ -0,0 +1,246 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventOuterClass;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.ProductionOuterClass;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+import com.passkit.grpc.EventTickets.TicketTypeOuterClass;
+import com.passkit.grpc.EventTickets.VenueOuterClass;
+import com.passkit.grpc.Filter;
+import com.passkit.grpc.Flights.CarrierOuterClass;
+import com.passkit.grpc.Flights.FlightOuterClass;
+import com.passkit.grpc.Flights.FlightsGrpc;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+import com.passkit.grpc.Members.ProgramOuterClass;
+import com.passkit.grpc.Members.TierOuterClass;
+import com.passkit.grpc.SingleUseCoupons.Campaign;
+import com.passkit.grpc.SingleUseCoupons.CouponOuterClass;
+import com.passkit.grpc.SingleUseCoupons.Offer;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FakePassKitTest {
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private FakePassKit fake;
+    private ManagedChannel channel;
+
+    @Before
+    public void start() throws Exception {
+        fake = new FakePassKit();
+        channel = grpcCleanup.register(fake.channelBuilder().build());
+    }
+
+    @After
+    public void stop() {
+        fake.close();
+    }
+
+    private static Status.Code codeOf(Runnable call) {
+        try {
+            call.run();
+        } catch (StatusRuntimeException e) {
+            return e.getStatus().getCode();
+        }
+        return Status.Code.OK;
+    }
+
+    @Test
+    public void enrolsMembersOncePerExternalId() {
+        MembersGrpc.MembersBlockingStub members = MembersGrpc.newBlockingStub(channel);
+        String programId = members.createProgram(ProgramOuterClass.Program.newBuilder().setName("program").build())
+                .getId();
+        members.createTier(TierOuterClass.Tier.newBuilder().setId("base").setProgramId(programId).build());
+        MemberOuterClass.Member member = MemberOuterClass.Member.newBuilder()
+                .setProgramId(programId)
+                .setTierId("base")
+                .setExternalId("m-1")
+                .build();
+
+        String memberId = members.enrolMember(member).getId();
+        members.earnPoints(MemberOuterClass.EarnBurnPointsRequest.newBuilder().setId(memberId).setPoints(10).build());
+
+        assertEquals(memberId, members.getMemberRecordByExternalId(MemberOuterClass.MemberRecordByExternalIdRequest
+                .newBuilder().setProgramId(programId).setExternalId("m-1").build()).getId());
+        assertEquals(10f, fake.getMembers().getMember(memberId).getPoints(), 0f);
+        assertEquals(Status.Code.ALREADY_EXISTS, codeOf(() -> members.enrolMember(member)));
+        assertEquals(Status.Code.FAILED_PRECONDITION, codeOf(() -> members.burnPoints(
+                MemberOuterClass.EarnBurnPointsRequest.newBuilder().setId(memberId).setPoints(11).build())));
+        assertEquals(Status.Code.NOT_FOUND, codeOf(() -> members.getMemberRecordById(
+                CommonObjects.Id.newBuilder().setId("missing").build())));
+    }
+
+    @Test
+    public void redeemsCouponsOnceAndListsThemInPages() {
+        SingleUseCouponsGrpc.SingleUseCouponsBlockingStub coupons = SingleUseCouponsGrpc.newBlockingStub(channel);
+        String campaignId = coupons.createCouponCampaign(Campaign.CouponCampaign.getDefaultInstance()).getId();
+        String offerId = coupons.createCouponOffer(Offer.CouponOffer.newBuilder()
+                .setId("base")
+                .setCampaignId(campaignId)
+                .build()).getId();
+        List<String> couponIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            couponIds.add(coupons.createCoupon(CouponOuterClass.Coupon.newBuilder()
+                    .setCampaignId(campaignId)
+                    .setOfferId(offerId)
+                    .build()).getId());
+        }
+        CouponOuterClass.Coupon first = CouponOuterClass.Coupon.newBuilder()
+                .setCampaignId(campaignId)
+                .setId(couponIds.get(0))
+                .build();
+
+        coupons.redeemCoupon(first);
+
+        assertEquals(Status.Code.FAILED_PRECONDITION, codeOf(() -> coupons.redeemCoupon(first)));
+        List<String> page = new ArrayList<>();
+        coupons.listCouponsByCouponCampaign(CouponOuterClass.ListRequest.newBuilder()
+                .setCouponCampaignId(campaignId)
+                .setFilters(Filter.Filters.newBuilder().setOffset(1).setLimit(3))
+                .build()).forEachRemaining(coupon -> page.add(coupon.getId()));
+        assertEquals(couponIds.subList(1, 4), page);
+    }
+
+    @Test
+    public void validatesAndRedeemsTickets() {
+        EventTicketsGrpc.EventTicketsBlockingStub tickets = EventTicketsGrpc.newBlockingStub(channel);
+        String venueId = tickets.createVenue(VenueOuterClass.Venue.newBuilder().setName("venue").build()).getId();
+        String productionId = tickets.createProduction(ProductionOuterClass.Production.newBuilder()
+                .setName("production")
+                .build()).getId();
+        String ticketTypeId = tickets.createTicketType(TicketTypeOuterClass.TicketType.newBuilder()
+                .setProductionId(productionId)
+                .setUid("general")
+                .build()).getId();
+        TicketOuterClass.IssueTicketRequest issue = TicketOuterClass.IssueTicketRequest.newBuilder()
+                .setTicketTypeId(ticketTypeId)
+                .setTicketNumber("A-1")
+                .setEvent(EventOuterClass.EventLimitedFieldsRequest.newBuilder()
+                        .setProductionId(productionId)
+                        .setVenueId(venueId))
+                .build();
+        String ticketId = tickets.issueTicket(issue).getId();
+        TicketOuterClass.TicketId byNumber = TicketOuterClass.TicketId.newBuilder()
+                .setTicketNumber(TicketOuterClass.TicketNumber.newBuilder()
+                        .setProductionId(productionId)
+                        .setTicketNumber("A-1"))
+                .build();
+        TicketOuterClass.ValidateTicketRequest validate = TicketOuterClass.ValidateTicketRequest.newBuilder()
+                .setTicket(byNumber)
+                .setMaxNumberOfValidations(1)
+                .build();
+
+        assertEquals(Status.Code.ALREADY_EXISTS, codeOf(() -> tickets.issueTicket(issue)));
+        assertTrue(tickets.validateTicket(validate).getValidated());
+        assertFalse(tickets.validateTicket(validate).getValidated());
+        assertEquals(ticketId, tickets.redeemTicket(TicketOuterClass.RedeemTicketRequest.newBuilder()
+                .setTicket(byNumber)
+                .build()).getId());
+        assertEquals(Status.Code.FAILED_PRECONDITION, codeOf(() -> tickets.redeemTicket(
+                TicketOuterClass.RedeemTicketRequest.newBuilder().setTicket(byNumber).build())));
+        assertEquals(Status.Code.FAILED_PRECONDITION, codeOf(() -> tickets.deleteVenue(
+                VenueOuterClass.Venue.newBuilder().setId(venueId).build())));
+    }
+
+    @Test
+    public void keepsCarriersWhileFlightsUseThem() {
+        FlightsGrpc.FlightsBlockingStub flights = FlightsGrpc.newBlockingStub(channel);
+        CarrierOuterClass.CarrierCode carrierCode = CarrierOuterClass.CarrierCode.newBuilder()
+                .setCarrierCode("YY")
+                .build();
+        flights.createCarrier(CarrierOuterClass.Carrier.newBuilder().setIataCarrierCode("YY").build());
+        FlightOuterClass.Flight flight = FlightOuterClass.Flight.newBuilder()
+                .setCarrierCode("YY")
+                .setFlightNumber("123")
+                .setBoardingPoint("YY4")
+                .setDeplaningPoint("ADP")
+                .setDepartureDate(CommonObjects.Date.newBuilder().setYear(2026).setMonth(10).setDay(18))
+                .build();
+        flights.createFlight(flight);
+
+        assertEquals(Status.Code.ALREADY_EXISTS, codeOf(() -> flights.createFlight(flight)));
+        assertEquals(Status.Code.FAILED_PRECONDITION, codeOf(() -> flights.deleteCarrier(carrierCode)));
+        flights.deleteFlight(FlightOuterClass.FlightRequest.newBuilder()
+                .setCarrierCode("YY")
+                .setFlightNumber("123")
+                .setBoardingPoint("YY4")
+                .setDeplaningPoint("ADP")
+                .setDepartureDate(flight.getDepartureDate())
+                .build());
+        flights.deleteCarrier(carrierCode);
+        assertEquals(Status.Code.NOT_FOUND, codeOf(() -> flights.getCarrier(carrierCode)));
+    }
+
+    @Test
+    public void failsTheNextCallsToAMethod() {
+        MembersGrpc.MembersBlockingStub members = MembersGrpc.newBlockingStub(channel);
+        fake.failNext(MembersGrpc.getCreateProgramMethod(), 2, Status.Code.RESOURCE_EXHAUSTED);
+
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED,
+                codeOf(() -> members.createProgram(ProgramOuterClass.Program.getDefaultInstance())));
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED,
+                codeOf(() -> members.createProgram(ProgramOuterClass.Program.getDefaultInstance())));
+        assertEquals(Status.Code.OK,
+                codeOf(() -> members.createProgram(ProgramOuterClass.Program.getDefaultInstance())));
+        assertEquals(2, fake.getInjectedErrors());
+        assertEquals(3, fake.getCalls());
+    }
+
+    @Test
+    public void failsCallsAtTheErrorRate() {
+        MembersGrpc.MembersBlockingStub members = MembersGrpc.newBlockingStub(channel);
+        fake.setErrorRate(1, Status.Code.UNAVAILABLE);
+        assertEquals(Status.Code.UNAVAILABLE,
+                codeOf(() -> members.createProgram(ProgramOuterClass.Program.getDefaultInstance())));
+
+        fake.setErrorRate(0, Status.Code.UNAVAILABLE);
+        assertEquals(Status.Code.OK,
+                codeOf(() -> members.createProgram(ProgramOuterClass.Program.getDefaultInstance())));
+        assertThrows(IllegalArgumentException.class, () -> fake.setErrorRate(1.5, Status.Code.UNAVAILABLE));
+    }
+
+    @Test
+    public void delaysCallsByTheirMethodsLatency() {
+        MembersGrpc.MembersBlockingStub members = MembersGrpc.newBlockingStub(channel);
+        fake.setLatency(MembersGrpc.getCreateProgramMethod(), FakePassKit.Latency.fixed(200));
+
+        long started = System.nanoTime();
+        members.createProgram(ProgramOuterClass.Program.getDefaultInstance());
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(200));
+
+        // other methods keep the fake's latency, which is none here
+        started = System.nanoTime();
+        assertEquals(Status.Code.NOT_FOUND, codeOf(() -> members.getMemberRecordById(
+                CommonObjects.Id.newBuilder().setId("missing").build())));
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void parsesLatencies() {
+        assertEquals(0, FakePassKit.Latency.parse("none").nextNanos());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(25), FakePassKit.Latency.parse("fixed:25").nextNanos());
+        long uniform = FakePassKit.Latency.parse("uniform:10, 20").nextNanos();
+        assertTrue(uniform >= TimeUnit.MILLISECONDS.toNanos(10) && uniform <= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(FakePassKit.Latency.parse("lognormal:40,0.5").nextNanos() > 0);
+        assertThrows(IllegalArgumentException.class, () -> FakePassKit.Latency.parse("fixed"));
+        assertThrows(IllegalArgumentException.class, () -> FakePassKit.Latency.parse("gaussian:1,2"));
+    }
+}
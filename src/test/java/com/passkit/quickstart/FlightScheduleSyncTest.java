@@ -0,0 +1,264 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Flights.Airport;
+import com.passkit.grpc.Flights.CarrierOuterClass;
+import com.passkit.grpc.Flights.FlightDesignatorOuterClass;
+import com.passkit.grpc.Flights.FlightOuterClass;
+import com.passkit.grpc.Flights.FlightsGrpc;
+
+import com.google.protobuf.Empty;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FlightScheduleSyncTest {
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Keeps carriers and ports by code and flights by carrier, number and destination. Flights can't be created before their
+    // carrier and ports, and ports and carriers can't be deleted while a flight uses them. Creating flights numbered
+    // in rejected fails with INVALID_ARGUMENT. After a flight is deleted, the next passRemovals carrier or port deletes
+    // fail with FAILED_PRECONDITION, as PassKit does while it removes the flight's boarding passes.
+    private final Map<String, CarrierOuterClass.Carrier> carriers = new ConcurrentHashMap<>();
+    private final Map<String, Airport.Port> ports = new ConcurrentHashMap<>();
+    private final Map<String, FlightOuterClass.Flight> flights = new ConcurrentHashMap<>();
+    private final Set<String> rejected = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger removingPasses = new AtomicInteger();
+    private volatile int passRemovals;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private static String flightKey(String carrierCode, String flightNumber, String deplaningPoint) {
+        return carrierCode + flightNumber + "/" + deplaningPoint;
+    }
+
+    private GrpcConnectionPool startPool() throws Exception {
+        return passKit.start(1, new FlightsGrpc.FlightsImplBase() {
+            @Override
+            public void createCarrier(CarrierOuterClass.Carrier request, StreamObserver<Empty> response) {
+                calls.incrementAndGet();
+                if (carriers.putIfAbsent(request.getIataCarrierCode(), request) != null) {
+                    response.onError(Status.ALREADY_EXISTS.asRuntimeException());
+                    return;
+                }
+                done(response, Empty.getDefaultInstance());
+            }
+
+            @Override
+            public void updateCarrier(CarrierOuterClass.Carrier request,
+                    StreamObserver<CarrierOuterClass.Carrier> response) {
+                calls.incrementAndGet();
+                if (carriers.replace(request.getIataCarrierCode(), request) == null) {
+                    response.onError(Status.NOT_FOUND.asRuntimeException());
+                    return;
+                }
+                done(response, request);
+            }
+
+            @Override
+            public void deleteCarrier(CarrierOuterClass.CarrierCode request, StreamObserver<Empty> response) {
+                calls.incrementAndGet();
+                if (removingPasses.getAndDecrement() > 0 || flights.values().stream()
+                        .anyMatch(f -> f.getCarrierCode().equals(request.getCarrierCode()))) {
+                    response.onError(Status.FAILED_PRECONDITION.asRuntimeException());
+                    return;
+                }
+                carriers.remove(request.getCarrierCode());
+                done(response, Empty.getDefaultInstance());
+            }
+
+            @Override
+            public void createPort(Airport.Port request, StreamObserver<Empty> response) {
+                calls.incrementAndGet();
+                if (ports.putIfAbsent(request.getIataAirportCode(), request) != null) {
+                    response.onError(Status.ALREADY_EXISTS.asRuntimeException());
+                    return;
+                }
+                done(response, Empty.getDefaultInstance());
+            }
+
+            @Override
+            public void deletePort(Airport.AirportCode request, StreamObserver<Empty> response) {
+                calls.incrementAndGet();
+                String code = request.getAirportCode();
+                if (removingPasses.getAndDecrement() > 0 || flights.values().stream()
+                        .anyMatch(f -> f.getBoardingPoint().equals(code)
+                                || f.getDeplaningPoint().equals(code))) {
+                    response.onError(Status.FAILED_PRECONDITION.asRuntimeException());
+                    return;
+                }
+                if (ports.remove(request.getAirportCode()) == null) {
+                    response.onError(Status.NOT_FOUND.asRuntimeException());
+                    return;
+                }
+                done(response, Empty.getDefaultInstance());
+            }
+
+            @Override
+            public void createFlight(FlightOuterClass.Flight request,
+                    StreamObserver<CommonObjects.Id> response) {
+                calls.incrementAndGet();
+                if (rejected.contains(request.getFlightNumber())) {
+                    response.onError(Status.INVALID_ARGUMENT.asRuntimeException());
+                    return;
+                }
+                if (!carriers.containsKey(request.getCarrierCode())
+                        || !ports.containsKey(request.getBoardingPoint())
+                        || !ports.containsKey(request.getDeplaningPoint())) {
+                    response.onError(Status.FAILED_PRECONDITION.asRuntimeException());
+                    return;
+                }
+                flights.put(flightKey(request.getCarrierCode(), request.getFlightNumber(),
+                        request.getDeplaningPoint()), request);
+                done(response, CommonObjects.Id.getDefaultInstance());
+            }
+
+            @Override
+            public void updateFlight(FlightOuterClass.Flight request,
+                    StreamObserver<FlightOuterClass.Flight> response) {
+                calls.incrementAndGet();
+                if (flights.replace(flightKey(request.getCarrierCode(), request.getFlightNumber(),
+                        request.getDeplaningPoint()), request) == null) {
+                    response.onError(Status.NOT_FOUND.asRuntimeException());
+                    return;
+                }
+                done(response, request);
+            }
+
+            @Override
+            public void deleteFlight(FlightOuterClass.FlightRequest request, StreamObserver<Empty> response) {
+                calls.incrementAndGet();
+                flights.remove(flightKey(request.getCarrierCode(), request.getFlightNumber(),
+                        request.getDeplaningPoint()));
+                removingPasses.set(passRemovals);
+                done(response, Empty.getDefaultInstance());
+            }
+
+            @Override
+            public void createFlightDesignator(FlightDesignatorOuterClass.FlightDesignator request,
+                    StreamObserver<Empty> response) {
+                calls.incrementAndGet();
+                done(response, Empty.getDefaultInstance());
+            }
+        });
+    }
+
+    private static <T> void done(StreamObserver<T> response, T value) {
+        response.onNext(value);
+        response.onCompleted();
+    }
+
+    // Writes a schedule of carrier YY flying from YY4 to each of the given destinations, with a flight per
+    // destination numbered from 100
+    private Path schedule(String name, String templateId, String... destinations) throws Exception {
+        StringBuilder lines = new StringBuilder();
+        lines.append("{\"carrier\": {\"iataCarrierCode\": \"YY\", \"airlineName\": \"ABC Airline\"}}\n");
+        lines.append("{\"port\": {\"iataAirportCode\": \"YY4\", \"airportName\": \"ABC Airport\"}}\n");
+        for (int i = 0; i < destinations.length; i++) {
+            lines.append("{\"port\": {\"iataAirportCode\": \"").append(destinations[i]).append("\"}}\n");
+            lines.append("{\"flight\": {\"carrierCode\": \"YY\", \"flightNumber\": \"").append(100 + i)
+                    .append("\", \"boardingPoint\": \"YY4\", \"deplaningPoint\": \"").append(destinations[i])
+                    .append("\", \"departureDate\": {\"year\": 2026, \"month\": 4, \"day\": 25}, ")
+                    .append("\"passTemplateId\": \"").append(templateId).append("\"}}\n");
+        }
+        lines.append("{\"flightDesignator\": {\"carrierCode\": \"YY\", \"flightNumber\": \"100\", \"revision\": 2}}\n");
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void secondRunOfTheSameScheduleSendsNothing() throws Exception {
+        Path index = folder.getRoot().toPath().resolve("flights.index");
+        Path schedule = schedule("schedule.jsonl", "template-1", "ADP", "LHR", "JFK", "SIN", "SYD");
+        FlightScheduleSync sync = new FlightScheduleSync(startPool(), 8, 3, 10);
+
+        FlightScheduleSync.Summary first = sync.sync(schedule, index);
+        assertEquals(13, first.getRecords());
+        assertEquals(13, first.getCreated());
+        assertEquals(0, first.getFailed());
+        assertEquals(13, calls.get());
+        assertEquals(5, flights.size());
+        assertEquals(6, ports.size());
+
+        FlightScheduleSync.Summary second = sync.sync(schedule, index);
+        assertEquals(13, second.getUnchanged());
+        assertEquals(0, second.getCalls());
+        assertEquals(13, calls.get());
+    }
+
+    @Test
+    public void sendsOnlyTheChanges() throws Exception {
+        Path index = folder.getRoot().toPath().resolve("flights.index");
+        FlightScheduleSync sync = new FlightScheduleSync(startPool(), 8, 3, 10);
+        sync.sync(schedule("monday.jsonl", "template-1", "ADP", "LHR", "JFK"), index);
+        calls.set(0);
+
+        // flight 101 goes to SIN instead of LHR, which PassKit keeps as another flight, and JFK is dropped with
+        // flight 102
+        FlightScheduleSync.Summary summary = sync.sync(schedule("tuesday.jsonl", "template-1", "ADP", "SIN"), index);
+        assertEquals(5, summary.getUnchanged());
+        assertEquals(2, summary.getCreated());
+        assertEquals(0, summary.getUpdated());
+        assertEquals(4, summary.getDeleted());
+        assertEquals(0, summary.getFailed());
+        assertEquals(6, calls.get());
+        assertNotNull(flights.get("YY101/SIN"));
+        assertNull("expect the flight to LHR to be deleted", flights.get("YY101/LHR"));
+        assertNull("expect the port to go after its flight", ports.get("LHR"));
+        assertNull(ports.get("JFK"));
+        assertEquals(2, flights.size());
+    }
+
+    @Test
+    public void keepsFailedRecordsOutOfTheIndex() throws Exception {
+        Path index = folder.getRoot().toPath().resolve("flights.index");
+        // provisioned by an earlier run whose index was lost
+        carriers.put("YY", CarrierOuterClass.Carrier.newBuilder().setIataCarrierCode("YY").build());
+        rejected.add("101");
+        FlightScheduleSync sync = new FlightScheduleSync(startPool(), 8, 3, 10);
+        Path schedule = schedule("schedule.jsonl", "template-1", "ADP", "LHR");
+
+        FlightScheduleSync.Summary first = sync.sync(schedule, index);
+        assertEquals(5, first.getCreated());
+        assertEquals("expect the existing carrier to be updated", 1, first.getUpdated());
+        assertEquals(1, first.getFailed());
+        assertEquals("ABC Airline", carriers.get("YY").getAirlineName());
+
+        rejected.clear();
+        calls.set(0);
+        FlightScheduleSync.Summary second = sync.sync(schedule, index);
+        assertEquals(1, second.getCreated());
+        assertEquals(1, calls.get());
+        assertEquals(2, flights.size());
+    }
+
+    @Test
+    public void waitsForBoardingPassesBeforeDeletingPorts() throws Exception {
+        Path index = folder.getRoot().toPath().resolve("flights.index");
+        FlightScheduleSync sync = new FlightScheduleSync(startPool(), 8, 3, 10);
+        sync.sync(schedule("monday.jsonl", "template-1", "ADP", "LHR"), index);
+        passRemovals = 4;
+
+        FlightScheduleSync.Summary summary = sync.sync(schedule("tuesday.jsonl", "template-1", "ADP"), index);
+        assertEquals(2, summary.getDeleted());
+        assertEquals(0, summary.getFailed());
+        assertNull(ports.get("LHR"));
+    }
+}
@@ -0,0 +1,222 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GrpcConnectionPoolTest {
+
+    private static final long SLOW_MILLIS = 200;
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    private static MembersGrpc.MembersImplBase membersService(long delayMillis) {
+        return new MembersGrpc.MembersImplBase() {
+            @Override
+            public void enrolMember(MemberOuterClass.Member request,
+                    StreamObserver<CommonObjects.Id> responseObserver) {
+                if (delayMillis > 0) {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                responseObserver.onNext(CommonObjects.Id.newBuilder().setId(request.getExternalId()).build());
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    @Test
+    public void skipsFailedAndOverloadedChannels() throws Exception {
+        String fastServer = passKit.startDirectServer(membersService(0));
+        String slowServer = passKit.startServer(membersService(SLOW_MILLIS));
+
+        // channel 0 targets a server that does not exist and fails, channel 1 is stalled, the rest are healthy
+        List<ManagedChannelBuilder<?>> builders = new ArrayList<>();
+        builders.add(InProcessChannelBuilder.forName(InProcessServerBuilder.generateName()));
+        builders.add(InProcessChannelBuilder.forName(slowServer));
+        builders.add(InProcessChannelBuilder.forName(fastServer));
+        builders.add(InProcessChannelBuilder.forName(fastServer));
+        GrpcConnectionPool pool = passKit.pool(builders);
+
+        // let the failing channel settle into TRANSIENT_FAILURE
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (runLoad(pool, 4, 50).failures > 0) {
+            assertTrue("failing channel should be taken out of rotation", System.nanoTime() < deadline);
+        }
+
+        LoadResult result = runLoad(pool, 8, 500);
+        assertEquals("expect no failed calls once the bad channel is skipped", 0, result.failures);
+        long p99 = result.percentile(0.99);
+        System.out.println("p99 latency with one failed and one stalled channel: "
+                + TimeUnit.NANOSECONDS.toMicros(p99) + "us");
+        assertTrue("expect p99 latency to stay below the stalled channel latency",
+                p99 < TimeUnit.MILLISECONDS.toNanos(SLOW_MILLIS));
+        assertEquals("expect no calls left in flight", 0, pool.inFlightCalls());
+    }
+
+    @Test
+    public void avoidsChannelsWhoseCallsNeverComplete() throws Exception {
+        List<StreamObserver<CommonObjects.Id>> hung = new CopyOnWriteArrayList<>();
+        String fastServer = passKit.startDirectServer(membersService(0));
+        String hungServer = passKit.startDirectServer(new MembersGrpc.MembersImplBase() {
+            @Override
+            public void enrolMember(MemberOuterClass.Member request,
+                    StreamObserver<CommonObjects.Id> responseObserver) {
+                hung.add(responseObserver);
+            }
+        });
+
+        // no call on the hung channel ever completes, so it never has a latency to be scored by
+        GrpcConnectionPool pool = passKit.pool(Arrays.asList(
+                InProcessChannelBuilder.forName(hungServer), InProcessChannelBuilder.forName(fastServer)));
+        try {
+            int completed = 0;
+            for (int i = 0; i < 50; i++) {
+                ListenableFuture<CommonObjects.Id> call = MembersGrpc.newFutureStub(pool.getChannel())
+                        .enrolMember(MemberOuterClass.Member.newBuilder().setExternalId(Integer.toString(i)).build());
+                try {
+                    call.get(100, TimeUnit.MILLISECONDS);
+                    completed++;
+                } catch (TimeoutException e) {
+                    // went to the hung channel
+                }
+            }
+            assertEquals("expect the hung channel to get a call only while it has none in flight", 49, completed);
+            assertEquals(1, hung.size());
+        } finally {
+            for (StreamObserver<CommonObjects.Id> observer : hung) {
+                observer.onCompleted();
+            }
+        }
+    }
+
+    @Test
+    public void growsUnderLoadAndShrinksWhenIdle() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        String serverName = passKit.startServer(new MembersGrpc.MembersImplBase() {
+            @Override
+            public void enrolMember(MemberOuterClass.Member request,
+                    StreamObserver<CommonObjects.Id> responseObserver) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                responseObserver.onNext(CommonObjects.Id.newBuilder().setId(request.getExternalId()).build());
+                responseObserver.onCompleted();
+            }
+        });
+
+        // scale up above 2 calls per channel, scale down after 200ms of low load
+        GrpcConnectionPool pool = new GrpcConnectionPool(1, 4, 2, 200, 20,
+                () -> InProcessChannelBuilder.forName(serverName));
+        try {
+            assertEquals("expect pool to start at its minimum size", 1, pool.size());
+            List<ListenableFuture<CommonObjects.Id>> calls = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                calls.add(MembersGrpc.newFutureStub(pool.getChannel()).enrolMember(MemberOuterClass.Member.newBuilder()
+                        .setExternalId(Integer.toString(i))
+                        .build()));
+            }
+            awaitSize(pool, 4);
+
+            release.countDown();
+            for (int i = 0; i < calls.size(); i++) {
+                assertEquals("expect calls started before scaling to complete", Integer.toString(i),
+                        calls.get(i).get(5, TimeUnit.SECONDS).getId());
+            }
+            awaitSize(pool, 1);
+
+            assertEquals("expect the remaining channel to keep serving calls", "after",
+                    MembersGrpc.newBlockingStub(pool.getChannel()).enrolMember(MemberOuterClass.Member.newBuilder()
+                            .setExternalId("after")
+                            .build()).getId());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void awaitSize(GrpcConnectionPool pool, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.size() != size) {
+            assertTrue("expect pool to reach " + size + " channels, has " + pool.size(),
+                    System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static LoadResult runLoad(GrpcConnectionPool pool, int threads, int callsPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger failures = new AtomicInteger();
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    long[] latencies = new long[callsPerThread];
+                    for (int i = 0; i < callsPerThread; i++) {
+                        MemberOuterClass.Member member = MemberOuterClass.Member.newBuilder()
+                                .setExternalId(Integer.toString(i))
+                                .build();
+                        long start = System.nanoTime();
+                        try {
+                            MembersGrpc.newBlockingStub(pool.getChannel()).enrolMember(member);
+                        } catch (StatusRuntimeException e) {
+                            failures.incrementAndGet();
+                        }
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                    return latencies;
+                }));
+            }
+            long[] all = new long[threads * callsPerThread];
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(futures.get(t).get(), 0, all, t * callsPerThread, callsPerThread);
+            }
+            return new LoadResult(all, failures.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class LoadResult {
+        private final long[] latencies;
+        private final int failures;
+
+        private LoadResult(long[] latencies, int failures) {
+            this.latencies = latencies;
+            this.failures = failures;
+            Arrays.sort(this.latencies);
+        }
+
+        private long percentile(double percentile) {
+            return latencies[(int) Math.ceil(percentile * latencies.length) - 1];
+        }
+    }
+}
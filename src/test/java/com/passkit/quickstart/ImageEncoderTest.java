@@ -0,0 +1,147 @@
+package com.passkit.quickstart;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Base64;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ImageEncoderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String name, byte[] content) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, content);
+        return file;
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void matchesBase64OfFileContents() throws Exception {
+        ImageEncoder encoder = new ImageEncoder(1 << 20);
+        // larger than the read buffer and not a multiple of 3
+        for (int size : new int[]{0, 1, 2, 3, 64 * 1024, 200_001}) {
+            byte[] content = randomBytes(size, size);
+            Path file = write("image-" + size + ".png", content);
+            assertEquals("expect Base64 of " + size + " bytes", Base64.getEncoder().encodeToString(content),
+                    encoder.encodeToBase64(file.toString()));
+        }
+        String icon = "src/main/resources/images/shared/icon.png";
+        assertEquals(Base64.getEncoder().encodeToString(Files.readAllBytes(Paths.get(icon))),
+                Helpers.encodeFileToBase64(icon));
+    }
+
+    @Test
+    public void servesUnchangedFilesFromCache() throws Exception {
+        ImageEncoder encoder = new ImageEncoder(1 << 20);
+        Path file = write("logo.png", randomBytes(10_000, 1));
+
+        ImageEncoder.EncodedImage first = encoder.encode(file.toString());
+        ImageEncoder.EncodedImage second = encoder.encode(file.toString());
+        assertSame("expect the cached result for an unchanged file", first, second);
+        assertEquals(1, encoder.getMisses());
+        assertEquals(1, encoder.getHits());
+
+        // same size, new content and modification time
+        byte[] changed = randomBytes(10_000, 2);
+        Files.write(file, changed);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5000));
+        ImageEncoder.EncodedImage third = encoder.encode(file.toString());
+        assertEquals("expect a changed file to be encoded again", Base64.getEncoder().encodeToString(changed),
+                third.getBase64());
+        assertNotEquals(first.getSha256(), third.getSha256());
+        assertEquals(2, encoder.getMisses());
+    }
+
+    @Test
+    public void sharesEncodingOfIdenticalFiles() throws Exception {
+        ImageEncoder encoder = new ImageEncoder(1 << 20);
+        byte[] content = randomBytes(5_000, 3);
+        Path first = write("program-a-icon.png", content);
+        Path second = write("program-b-icon.png", content);
+
+        assertSame("expect identical content at another path to share the encoding",
+                encoder.encode(first.toString()), encoder.encode(second.toString()));
+        assertEquals(1, encoder.getMisses());
+        assertEquals(1, encoder.getContentHits());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedImages() throws Exception {
+        // room for two 3000 byte images, which encode to 4000 characters each
+        ImageEncoder encoder = new ImageEncoder(9000);
+        Path a = write("a.png", randomBytes(3000, 4));
+        Path b = write("b.png", randomBytes(3000, 5));
+        Path c = write("c.png", randomBytes(3000, 6));
+
+        encoder.encode(a.toString());
+        encoder.encode(b.toString());
+        encoder.encode(a.toString());
+        encoder.encode(c.toString());
+        assertEquals("expect the cache to stay within its bound", 8000, encoder.getCachedBytes());
+
+        long misses = encoder.getMisses();
+        encoder.encode(a.toString());
+        assertEquals("expect the recently used image to be kept", misses, encoder.getMisses());
+        encoder.encode(b.toString());
+        assertEquals("expect the least recently used image to be evicted", misses + 1, encoder.getMisses());
+    }
+
+    @Test
+    public void encodesFromManyThreads() throws Exception {
+        ImageEncoder encoder = new ImageEncoder(1 << 20);
+        List<Path> files = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            byte[] content = randomBytes(70_000 + i, 10 + i);
+            files.add(write("image-" + i + ".png", content));
+            expected.add(Base64.getEncoder().encodeToString(content));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int round = 0; round < 4; round++) {
+                for (Path file : files) {
+                    results.add(executor.submit(() -> encoder.encodeToBase64(file.toString())));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("expect each thread to encode its own file", expected.get(i % files.size()),
+                        results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("expect every image to be cached once", files.size(), encoder.getMisses());
+    }
+
+    @Test
+    public void reportsMissingFile() {
+        try {
+            new ImageEncoder(1 << 20).encode(folder.getRoot().toPath().resolve("missing.png").toString());
+            fail("expect missing file to throw");
+        } catch (java.io.IOException e) {
+            assertTrue(e.getMessage().startsWith("could not read file: "));
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Image;
+import com.passkit.grpc.ImagesGrpc;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Empty;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ImageRegistryTest {
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Counts calls and uploaded images, and answers each image with a new id
+    private final AtomicInteger createCalls = new AtomicInteger();
+    private final AtomicInteger uploadedImages = new AtomicInteger();
+    private final AtomicInteger deleteCalls = new AtomicInteger();
+    private final AtomicBoolean failNextCall = new AtomicBoolean();
+    private final AtomicBoolean addThumbnail = new AtomicBoolean();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private ManagedChannel channel;
+    private Path store;
+
+    @Before
+    public void startServer() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(serverName)
+                .addService(new ImagesGrpc.ImagesImplBase() {
+                    @Override
+                    public void createImages(Image.CreateImageInput request,
+                            StreamObserver<Image.ImageIds> responseObserver) {
+                        createCalls.incrementAndGet();
+                        try {
+                            release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if (failNextCall.getAndSet(false)) {
+                            responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                            return;
+                        }
+                        Image.ImageIds.Builder ids = Image.ImageIds.newBuilder();
+                        for (Map.Entry<Descriptors.FieldDescriptor, Object> field
+                                : request.getImageData().getAllFields().entrySet()) {
+                            ids.setField(Image.ImageIds.getDescriptor().findFieldByName(field.getKey().getName()),
+                                    "img-" + uploadedImages.incrementAndGet());
+                        }
+                        // like PassKit, make an Apple logo for a logo sent without one
+                        if (request.getImageData().getAppleLogo().isEmpty() && !ids.getLogo().isEmpty()) {
+                            ids.setAppleLogo("img-" + uploadedImages.incrementAndGet());
+                        }
+                        if (addThumbnail.get() && ids.getThumbnail().isEmpty()) {
+                            ids.setThumbnail("img-" + uploadedImages.incrementAndGet());
+                        }
+                        responseObserver.onNext(ids.build());
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void deleteImage(CommonObjects.Id request, StreamObserver<Empty> responseObserver) {
+                        deleteCalls.incrementAndGet();
+                        responseObserver.onNext(Empty.getDefaultInstance());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start());
+        channel = grpcCleanup.register(InProcessChannelBuilder.forName(serverName).build());
+        store = folder.getRoot().toPath().resolve("images.registry");
+    }
+
+    private static String image(String content) {
+        return Base64.getEncoder().encodeToString(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Image.CreateImageInput input(String icon, String logo) {
+        Image.ImageData.Builder data = Image.ImageData.newBuilder().setIcon(image(icon));
+        if (logo != null) {
+            data.setLogo(image(logo));
+        }
+        return Image.CreateImageInput.newBuilder().setImageData(data).build();
+    }
+
+    @Test
+    public void uploadsEachImageOnce() throws Exception {
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            Image.ImageIds first = registry.createImagesBlocking(input("icon", "logo"));
+            Image.ImageIds second = registry.createImagesBlocking(input("icon", "logo"));
+
+            assertEquals("expect one call for the first request only", 1, createCalls.get());
+            assertEquals(first, second);
+            assertNotEquals(first.getIcon(), first.getLogo());
+            assertFalse("expect the logo's Apple logo to be returned", first.getAppleLogo().isEmpty());
+
+            // only the new image is uploaded
+            Image.ImageIds changed = registry.createImagesBlocking(input("icon", "new logo"));
+            assertEquals(2, createCalls.get());
+            assertEquals(5, uploadedImages.get());
+            assertEquals(first.getIcon(), changed.getIcon());
+            assertEquals(5, registry.getUploaded());
+            assertEquals(4, registry.getReused());
+        }
+    }
+
+    @Test
+    public void sameImageInAnotherSlotIsUploadedAgain() throws Exception {
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            Image.ImageIds first = registry.createImagesBlocking(input("icon", null));
+            Image.ImageIds hero = registry.createImagesBlocking(Image.CreateImageInput.newBuilder()
+                    .setImageData(Image.ImageData.newBuilder().setHero(image("icon")))
+                    .build());
+
+            assertEquals("expect the hero to be processed for its own slot", 2, createCalls.get());
+            assertNotEquals(first.getIcon(), hero.getHero());
+        }
+    }
+
+    @Test
+    public void keepsAppleLogoMadeFromLogo() throws Exception {
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            Image.ImageIds first = registry.createImagesBlocking(input("icon", "logo"));
+            registry.forget(first.getAppleLogo());
+
+            // the logo is known, so only the Apple logo is uploaded again
+            Image.ImageIds second = registry.createImagesBlocking(input("icon", "logo"));
+            assertEquals(2, createCalls.get());
+            assertEquals(first.getLogo(), second.getLogo());
+            assertNotEquals(first.getAppleLogo(), second.getAppleLogo());
+
+            // an Apple logo PassKit makes from a new logo is carried over
+            registry.forget(second.getLogo());
+            Image.ImageIds third = registry.createImagesBlocking(input("icon", "logo"));
+            assertNotEquals(second.getLogo(), third.getLogo());
+            assertEquals("expect the known Apple logo to be kept", second.getAppleLogo(), third.getAppleLogo());
+        }
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            assertEquals(3, registry.size());
+        }
+    }
+
+    @Test
+    public void carriesOverIdsForSlotsNotSent() throws Exception {
+        addThumbnail.set(true);
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            Image.ImageIds ids = registry.createImagesBlocking(Image.CreateImageInput.newBuilder()
+                    .setImageData(Image.ImageData.newBuilder().setHero(image("hero")))
+                    .build());
+            assertFalse(ids.getHero().isEmpty());
+            assertFalse("expect the thumbnail made from the hero to be returned", ids.getThumbnail().isEmpty());
+        }
+    }
+
+    @Test
+    public void persistsAcrossRestarts() throws Exception {
+        Image.ImageIds ids;
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            ids = registry.createImagesBlocking(input("icon", "logo"));
+        }
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            assertEquals(3, registry.size());
+            assertEquals(ids, registry.createImagesBlocking(input("icon", "logo")));
+            assertEquals("expect no upload after restart", 1, createCalls.get());
+        }
+    }
+
+    @Test
+    public void deletedImagesAreUploadedAgain() throws Exception {
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            Image.ImageIds ids = registry.createImagesBlocking(input("icon", "logo"));
+            Helpers.await(registry.deleteImage(ids.getIcon()));
+            assertEquals(1, deleteCalls.get());
+
+            Image.ImageIds again = registry.createImagesBlocking(input("icon", "logo"));
+            assertNotEquals("expect the deleted icon to be uploaded again", ids.getIcon(), again.getIcon());
+            assertEquals(ids.getLogo(), again.getLogo());
+        }
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            assertEquals("expect the deletion to be persisted", 3, registry.size());
+        }
+    }
+
+    @Test
+    public void compactsRegistryFile() throws Exception {
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            for (int i = 0; i < 20; i++) {
+                registry.forget(registry.createImagesBlocking(input("icon " + i, null)).getIcon());
+            }
+            registry.createImagesBlocking(input("kept", null));
+        }
+        assertEquals(41, Files.readAllLines(store).size());
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            assertEquals(1, registry.size());
+        }
+        assertEquals("expect deleted entries to be dropped", 1, Files.readAllLines(store).size());
+    }
+
+    @Test
+    public void concurrentRequestsShareUpload() throws Exception {
+        release = new CountDownLatch(1);
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            List<ListenableFuture<Image.ImageIds>> calls = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                calls.add(registry.createImages(input("icon", "logo")));
+            }
+            release.countDown();
+            for (ListenableFuture<Image.ImageIds> call : calls) {
+                assertEquals(calls.get(0).get(5, TimeUnit.SECONDS), call.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals("expect concurrent requests to share one upload", 1, createCalls.get());
+        }
+    }
+
+    @Test
+    public void failedUploadIsRetried() throws Exception {
+        failNextCall.set(true);
+        try (ImageRegistry registry = new ImageRegistry(channel, store)) {
+            try {
+                registry.createImagesBlocking(input("icon", "logo"));
+                fail("expect the failed upload to be reported");
+            } catch (StatusRuntimeException e) {
+                assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+            }
+            assertEquals(0, registry.size());
+            registry.createImagesBlocking(input("icon", "logo"));
+            assertEquals(2, createCalls.get());
+            assertEquals(3, registry.size());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.passkit.quickstart;
+
+import io.grpc.BindableService;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.rules.ExternalResource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Rule for tests of the classes that call PassKit over a GrpcConnectionPool. It starts the test's services on
+ * in-process servers and opens pools of channels to them, and after the test shuts down the pools, the servers and
+ * the scheduler the services answer on.
+ */
+final class InProcessPool extends ExternalResource {
+    private final ScheduledExecutorService scheduler;
+    private final List<Server> servers = new CopyOnWriteArrayList<>();
+    private final List<GrpcConnectionPool> pools = new CopyOnWriteArrayList<>();
+
+    InProcessPool() {
+        this(2);
+    }
+
+    InProcessPool(int schedulerThreads) {
+        this.scheduler = Executors.newScheduledThreadPool(schedulerThreads);
+    }
+
+    // For services that answer after a delay
+    ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    // Starts the services on a new server and returns a pool of channels to it
+    GrpcConnectionPool start(int channels, BindableService... services) throws IOException {
+        String serverName = startServer(services);
+        List<ManagedChannelBuilder<?>> builders = new ArrayList<>();
+        for (int i = 0; i < channels; i++) {
+            builders.add(InProcessChannelBuilder.forName(serverName));
+        }
+        return pool(builders);
+    }
+
+    // Returns the name of the new server
+    String startServer(BindableService... services) throws IOException {
+        return startServer(false, services);
+    }
+
+    // Runs the services on the calling thread, for servers whose latency is measured
+    String startDirectServer(BindableService... services) throws IOException {
+        return startServer(true, services);
+    }
+
+    private String startServer(boolean direct, BindableService... services) throws IOException {
+        String serverName = InProcessServerBuilder.generateName();
+        InProcessServerBuilder builder = InProcessServerBuilder.forName(serverName);
+        if (direct) {
+            builder.directExecutor();
+        }
+        for (BindableService service : services) {
+            builder.addService(service);
+        }
+        servers.add(builder.build().start());
+        return serverName;
+    }
+
+    GrpcConnectionPool pool(List<? extends ManagedChannelBuilder<?>> builders) {
+        GrpcConnectionPool pool = new GrpcConnectionPool(builders);
+        pools.add(pool);
+        return pool;
+    }
+
+    @Override
+    protected void after() {
+        scheduler.shutdownNow();
+        for (GrpcConnectionPool pool : pools) {
+            pool.shutdown();
+        }
+        for (Server server : servers) {
+            server.shutdownNow();
+        }
+        try {
+            for (Server server : servers) {
+                server.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.passkit.quickstart;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue("expect " + value + " to be in its bucket", LatencyHistogram.lowerBound(bucket) <= value
+                    && value <= LatencyHistogram.upperBound(bucket));
+        }
+        for (int bucket = 1; LatencyHistogram.upperBound(bucket - 1) < Long.MAX_VALUE; bucket++) {
+            assertEquals("expect buckets to be contiguous", LatencyHistogram.upperBound(bucket - 1) + 1,
+                    LatencyHistogram.lowerBound(bucket));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.getCount());
+        assertEquals(100_000_000, snapshot.getMaxNanos());
+        assertWithin(50_000_000, snapshot.percentile(0.5));
+        assertWithin(99_000_000, snapshot.percentile(0.99));
+        assertWithin(99_900_000, snapshot.percentile(0.999));
+        assertEquals(100_000_000, snapshot.percentile(1.0));
+        assertEquals(50_000_500, snapshot.getMeanNanos(), 1);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expect " + actual + " to be within 7% of " + expected,
+                Math.abs(actual - expected) <= expected * 0.07);
+    }
+
+    @Test
+    public void concurrentRecordsAreCounted() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                runs.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 100_000; i++) {
+                        histogram.record(random.nextInt(1_000_000));
+                    }
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(400_000, snapshot.getCount());
+        assertEquals(400_000, snapshot.countAtOrBelow(Long.MAX_VALUE));
+    }
+}
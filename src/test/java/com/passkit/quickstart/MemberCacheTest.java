@@ -0,0 +1,221 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MemberCacheTest {
+
+    private static final long NEVER = 3_600_000;
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool(1);
+
+    // Members by external id. Lookups are answered at once, or once release is counted down.
+    private final ScheduledExecutorService scheduler = passKit.scheduler();
+    private final Map<String, MemberOuterClass.Member> members = new ConcurrentHashMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private GrpcConnectionPool pool;
+
+    @After
+    public void stop() throws Exception {
+        release.countDown();
+    }
+
+    private GrpcConnectionPool startPool() throws Exception {
+        pool = passKit.start(1, new MembersGrpc.MembersImplBase() {
+            @Override
+            public void getMemberRecordByExternalId(MemberOuterClass.MemberRecordByExternalIdRequest request,
+                    StreamObserver<MemberOuterClass.Member> responseObserver) {
+                lookups.incrementAndGet();
+                scheduler.execute(() -> {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    MemberOuterClass.Member member = members.get(request.getExternalId());
+                    if (member == null) {
+                        responseObserver.onError(Status.NOT_FOUND.asRuntimeException());
+                        return;
+                    }
+                    responseObserver.onNext(member);
+                    responseObserver.onCompleted();
+                });
+            }
+
+            @Override
+            public void earnPoints(MemberOuterClass.EarnBurnPointsRequest request,
+                    StreamObserver<MemberOuterClass.MemberPoints> responseObserver) {
+                members.replaceAll((externalId, member) -> member.getId().equals(request.getId())
+                        ? member.toBuilder().setPoints(member.getPoints() + request.getPoints()).build()
+                        : member);
+                responseObserver.onNext(MemberOuterClass.MemberPoints.newBuilder()
+                        .setId(request.getId())
+                        .build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void updateMember(MemberOuterClass.Member request,
+                    StreamObserver<CommonObjects.Id> responseObserver) {
+                members.values().removeIf(member -> member.getId().equals(request.getId()));
+                members.put(request.getExternalId(), request);
+                responseObserver.onNext(CommonObjects.Id.newBuilder().setId(request.getId()).build());
+                responseObserver.onCompleted();
+            }
+        });
+        return pool;
+    }
+
+    private void addMember(String id, String externalId) {
+        members.put(externalId, MemberOuterClass.Member.newBuilder()
+                .setId(id)
+                .setExternalId(externalId)
+                .setProgramId("program")
+                .build());
+    }
+
+    @Test
+    public void concurrentLookupsShareOneCall() throws Exception {
+        addMember("member-1", "pos-1");
+        release = new CountDownLatch(1);
+        MemberCache cache = new MemberCache(startPool(), NEVER, NEVER, 100);
+        List<ListenableFuture<MemberOuterClass.Member>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(cache.getMemberByExternalIdAsync("program", "pos-1"));
+        }
+        release.countDown();
+        for (ListenableFuture<MemberOuterClass.Member> result : results) {
+            assertEquals("member-1", result.get(5, TimeUnit.SECONDS).getId());
+        }
+        assertEquals("member-1", cache.getMemberByExternalId("program", "pos-1").getId());
+
+        assertEquals(1, lookups.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(10, cache.getHits());
+    }
+
+    @Test
+    public void remembersUnknownExternalIdsForNegativeTtl() throws Exception {
+        MemberCache cache = new MemberCache(startPool(), NEVER, 100, 100);
+        for (int i = 0; i < 3; i++) {
+            try {
+                cache.getMemberByExternalIdAsync("program", "stranger").get(5, TimeUnit.SECONDS);
+                fail("expect NOT_FOUND");
+            } catch (ExecutionException e) {
+                assertEquals(Status.Code.NOT_FOUND, ((StatusRuntimeException) e.getCause()).getStatus().getCode());
+            }
+        }
+        assertEquals(1, lookups.get());
+        assertEquals(2, cache.getNegativeHits());
+
+        // the customer enrols, and is found once the negative entry expires
+        addMember("member-2", "stranger");
+        Thread.sleep(150);
+        assertEquals("member-2", cache.getMemberByExternalId("program", "stranger").getId());
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void expiresAfterTtlAndEvictsLeastRecentlyUsed() throws Exception {
+        addMember("member-a", "a");
+        addMember("member-b", "b");
+        addMember("member-c", "c");
+        MemberCache cache = new MemberCache(startPool(), 200, NEVER, 2);
+        cache.getMemberByExternalId("program", "a");
+        cache.getMemberByExternalId("program", "b");
+        cache.getMemberByExternalId("program", "a");
+        cache.getMemberByExternalId("program", "c");
+        assertEquals(2, cache.size());
+        assertEquals(3, lookups.get());
+
+        cache.getMemberByExternalId("program", "a");
+        assertEquals("expect a to be kept as recently used", 3, lookups.get());
+        cache.getMemberByExternalId("program", "b");
+        assertEquals("expect b to have been evicted", 4, lookups.get());
+
+        Thread.sleep(300);
+        cache.getMemberByExternalId("program", "b");
+        assertEquals("expect b to have expired", 5, lookups.get());
+    }
+
+    @Test
+    public void dropsMembersChangedThroughTheCache() throws Exception {
+        addMember("member-1", "pos-1");
+        MemberCache cache = new MemberCache(startPool(), NEVER, NEVER, 100);
+        assertEquals(0f, cache.getMemberByExternalId("program", "pos-1").getPoints(), 0);
+
+        cache.earnPoints(MemberOuterClass.EarnBurnPointsRequest.newBuilder()
+                .setId("member-1")
+                .setPoints(25)
+                .build()).get(5, TimeUnit.SECONDS);
+        assertEquals(25f, cache.getMemberByExternalId("program", "pos-1").getPoints(), 0);
+        assertEquals(2, lookups.get());
+
+        // moving the member to a new external id drops the old one too
+        cache.updateMember(members.get("pos-1").toBuilder().setExternalId("pos-2").build()).get(5, TimeUnit.SECONDS);
+        assertEquals(0, cache.size());
+        assertEquals("member-1", cache.getMemberByExternalId("program", "pos-2").getId());
+        try {
+            cache.getMemberByExternalId("program", "pos-1");
+            fail("expect NOT_FOUND");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.NOT_FOUND, e.getStatus().getCode());
+        }
+        assertEquals(2, cache.getInvalidations());
+    }
+
+    @Test
+    public void doesNotCacheMembersInvalidatedWhileLoading() throws Exception {
+        addMember("member-1", "pos-1");
+        release = new CountDownLatch(1);
+        MemberCache cache = new MemberCache(startPool(), NEVER, NEVER, 100);
+        ListenableFuture<MemberOuterClass.Member> loading = cache.getMemberByExternalIdAsync("program", "pos-1");
+        cache.invalidateMember("member-1");
+        release.countDown();
+        assertEquals("expect the lookup to still get the member", "member-1",
+                loading.get(5, TimeUnit.SECONDS).getId());
+
+        assertEquals(0, cache.size());
+        cache.getMemberByExternalId("program", "pos-1");
+        assertEquals("expect the invalidated member to be looked up again", 2, lookups.get());
+        cache.getMemberByExternalId("program", "pos-1");
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void failsChangesThatCannotBeSent() throws Exception {
+        MemberCache cache = new MemberCache(startPool(), NEVER, NEVER, 100);
+        pool.shutdown();
+        ListenableFuture<MemberOuterClass.MemberPoints> earned = cache.earnPoints(
+                MemberOuterClass.EarnBurnPointsRequest.newBuilder().setId("member-1").setPoints(5).build());
+        try {
+            earned.get(5, TimeUnit.SECONDS);
+            fail("expect the call to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Members.MemberEventsOuterClass;
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class MemberEventStreamTest {
+
+    private static final int EVENTS = 200_000;
+    private static final int BUFFER_SIZE = 64;
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final ExecutorService sinkExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final CountDownLatch serverDone = new CountDownLatch(1);
+
+    @After
+    public void stopSink() {
+        sinkExecutor.shutdownNow();
+    }
+
+    // Streams the requested number of check-in and check-out events, sending only while the client has asked for
+    // more
+    private ManagedChannel startServer() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(serverName)
+                .addService(new MembersGrpc.MembersImplBase() {
+                    @Override
+                    public void listMemberEvents(MemberOuterClass.ListRequest request,
+                            StreamObserver<MemberEventsOuterClass.MemberEvent> responseObserver) {
+                        ServerCallStreamObserver<MemberEventsOuterClass.MemberEvent> events =
+                                (ServerCallStreamObserver<MemberEventsOuterClass.MemberEvent>) responseObserver;
+                        int total = request.getFilters().getLimit();
+                        events.setOnCancelHandler(() -> {
+                            cancelled.set(true);
+                            serverDone.countDown();
+                        });
+                        events.setOnReadyHandler(() -> {
+                            while (events.isReady() && sent.get() < total) {
+                                long i = sent.getAndIncrement();
+                                events.onNext(MemberEventsOuterClass.MemberEvent.newBuilder()
+                                        .setId(Long.toString(i))
+                                        .setEventType(i % 2 == 0
+                                                ? MemberEventsOuterClass.MemberEvents.EVENT_MEMBER_CHECK_IN
+                                                : MemberEventsOuterClass.MemberEvents.EVENT_MEMBER_CHECK_OUT)
+                                        .build());
+                            }
+                            if (sent.get() == total && !cancelled.get()) {
+                                sent.incrementAndGet();
+                                events.onCompleted();
+                                serverDone.countDown();
+                            }
+                        });
+                    }
+                })
+                .build()
+                .start());
+        return grpcCleanup.register(InProcessChannelBuilder.forName(serverName).build());
+    }
+
+    private static MemberOuterClass.ListRequest request(int events) {
+        return MemberOuterClass.ListRequest.newBuilder()
+                .setProgramId("program")
+                .setFilters(com.passkit.grpc.Filter.Filters.newBuilder().setLimit(events))
+                .build();
+    }
+
+    @Test
+    public void deliversAllEventsInOrderWithBoundedBuffer() throws Exception {
+        AtomicLong next = new AtomicLong();
+        AtomicLong maxAhead = new AtomicLong();
+        MemberEventStream.Subscription subscription = new MemberEventStream(startServer(), BUFFER_SIZE, sinkExecutor)
+                .consume(request(EVENTS), event -> {
+                    long i = next.getAndIncrement();
+                    assertEquals("expect events in order", Long.toString(i), event.getId());
+                    maxAhead.accumulateAndGet(sent.get() - i, Math::max);
+                    // a slow sink
+                    if (i % 10_000 == 0) {
+                        Thread.sleep(20);
+                    }
+                });
+
+        subscription.completion().get(60, TimeUnit.SECONDS);
+        System.out.println(subscription);
+
+        assertEquals("expect every event to be delivered", EVENTS, subscription.getDelivered());
+        assertEquals(EVENTS, subscription.getReceived());
+        assertEquals("expect buffer to be empty", 0, subscription.getBuffered());
+        assertTrue("expect at most " + BUFFER_SIZE + " buffered events, saw " + subscription.getMaxBuffered(),
+                subscription.getMaxBuffered() <= BUFFER_SIZE);
+        assertTrue("expect the server to stay at most " + BUFFER_SIZE + " events ahead of the sink, was "
+                + maxAhead.get(), maxAhead.get() <= BUFFER_SIZE + 1);
+        assertTrue(subscription.getEventsPerSecond() > 0);
+    }
+
+    @Test
+    public void sinkFailureCancelsStream() throws Exception {
+        IllegalStateException failure = new IllegalStateException("analytics sink is down");
+        MemberEventStream.Subscription subscription = new MemberEventStream(startServer(), BUFFER_SIZE, sinkExecutor)
+                .consume(request(EVENTS), event -> {
+                    if (event.getId().equals("1000")) {
+                        throw failure;
+                    }
+                });
+
+        try {
+            subscription.completion().get(10, TimeUnit.SECONDS);
+            fail("expect completion to fail with the sink error");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertTrue("expect the server to see the cancellation", serverDone.await(5, TimeUnit.SECONDS));
+        assertTrue("expect the stream to be cancelled", cancelled.get());
+        assertEquals(1000, subscription.getDelivered());
+        assertTrue("expect the server to stop sending", sent.get() < EVENTS);
+    }
+
+    @Test
+    public void streamErrorFailsCompletion() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(serverName)
+                .addService(new MembersGrpc.MembersImplBase() {
+                    @Override
+                    public void listMemberEvents(MemberOuterClass.ListRequest request,
+                            StreamObserver<MemberEventsOuterClass.MemberEvent> responseObserver) {
+                        responseObserver.onNext(MemberEventsOuterClass.MemberEvent.newBuilder().setId("0").build());
+                        responseObserver.onError(Status.PERMISSION_DENIED.asRuntimeException());
+                    }
+                })
+                .build()
+                .start());
+        MemberEventStream.Subscription subscription = new MemberEventStream(
+                grpcCleanup.register(InProcessChannelBuilder.forName(serverName).build()), BUFFER_SIZE, sinkExecutor)
+                .consume(request(1), event -> {
+                });
+
+        try {
+            subscription.completion().get(10, TimeUnit.SECONDS);
+            fail("expect completion to fail with the stream error");
+        } catch (ExecutionException e) {
+            assertEquals(Status.Code.PERMISSION_DENIED, Status.fromThrowable(e.getCause()).getCode());
+        }
+        assertEquals("expect events before the error to be delivered", 1, subscription.getDelivered());
+    }
+}
@@ -0,0 +1,198 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PassBundleCacheTest {
+
+    private static final CommonObjects.PassBundleFormat[] FORMATS = {
+            CommonObjects.PassBundleFormat.PASS_URL, CommonObjects.PassBundleFormat.PKPASS_FILE
+    };
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Issues tickets numbered from 1 and answers getEventTicketPass with a bundle carrying a 1KB pkpass after
+    // latencyMillis
+    private final ScheduledExecutorService scheduler = passKit.scheduler();
+    private final AtomicInteger issued = new AtomicInteger();
+    private final AtomicInteger passCalls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long latencyMillis = 1;
+
+    private static CommonObjects.PassBundle bundle(String ticketId) {
+        return CommonObjects.PassBundle.newBuilder()
+                .setId(ticketId)
+                .setUrl("https://pub1.pskt.io/" + ticketId)
+                .setPkpass(ByteString.copyFrom(new byte[1000]))
+                .build();
+    }
+
+    private GrpcConnectionPool startPool() throws Exception {
+        return passKit.start(1, new EventTicketsGrpc.EventTicketsImplBase() {
+            @Override
+            public void issueTicket(TicketOuterClass.IssueTicketRequest request,
+                    StreamObserver<CommonObjects.Id> response) {
+                response.onNext(CommonObjects.Id.newBuilder()
+                        .setId("ticket-" + issued.incrementAndGet())
+                        .build());
+                response.onCompleted();
+            }
+
+            @Override
+            public void getEventTicketPass(TicketOuterClass.EventTicketPassRequest request,
+                    StreamObserver<CommonObjects.PassBundles> response) {
+                passCalls.incrementAndGet();
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                scheduler.schedule(() -> {
+                    inFlight.decrementAndGet();
+                    response.onNext(CommonObjects.PassBundles.newBuilder()
+                            .addPasses(bundle(request.getTicketId().getId()))
+                            .build());
+                    response.onCompleted();
+                }, latencyMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    @Test
+    public void servesFromMemoryThenDisk() throws Exception {
+        try (PassBundleCache cache = new PassBundleCache(startPool(), folder.getRoot().toPath(), 2, 1 << 20, 4, 4,
+                FORMATS)) {
+            for (int i = 1; i <= 3; i++) {
+                assertEquals("ticket-" + i, cache.getPass("ticket-" + i).getId());
+            }
+            assertEquals(3, passCalls.get());
+            assertEquals(2, cache.getMemoryEntries());
+            assertEquals(3, cache.getDiskEntries());
+
+            assertEquals("ticket-3", cache.getPass("ticket-3").getId());
+            assertEquals(1, cache.getMemoryHits());
+            assertEquals("expect the evicted bundle from disk", bundle("ticket-1"), cache.getPass("ticket-1"));
+            assertEquals(1, cache.getDiskHits());
+
+            assertEquals(3, passCalls.get());
+            assertEquals(3, cache.getMisses());
+            assertEquals(0.4, cache.getHitRatio(), 0.001);
+            assertEquals(2L * bundle("ticket-1").getSerializedSize(), cache.getBytesServed());
+        }
+    }
+
+    @Test
+    public void keepsTheDiskTierAcrossRestarts() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        GrpcConnectionPool pool = startPool();
+        try (PassBundleCache cache = new PassBundleCache(pool, directory, 10, 1 << 20, 4, 4, FORMATS)) {
+            for (int i = 1; i <= 5; i++) {
+                cache.getPass("ticket-" + i);
+            }
+            cache.invalidate("ticket-2");
+        }
+
+        passCalls.set(0);
+        try (PassBundleCache cache = new PassBundleCache(pool, directory, 10, 1 << 20, 4, 4, FORMATS)) {
+            assertEquals(4, cache.getDiskEntries());
+            for (int i = 1; i <= 5; i++) {
+                assertEquals(bundle("ticket-" + i), cache.getPass("ticket-" + i));
+            }
+            assertEquals(4, cache.getDiskHits());
+            assertEquals("expect the invalidated bundle to be fetched again", 1, passCalls.get());
+        }
+    }
+
+    @Test
+    public void dropsTheOldestSegmentWhenTheDiskTierIsFull() throws Exception {
+        // each segment holds three bundles, and two segments are kept
+        try (PassBundleCache cache = new PassBundleCache(startPool(), folder.getRoot().toPath(), 1, 4096, 2, 4,
+                FORMATS)) {
+            for (int i = 1; i <= 10; i++) {
+                cache.getPass("ticket-" + i);
+            }
+            assertEquals(4, cache.getDiskEntries());
+            passCalls.set(0);
+            cache.getPass("ticket-9");
+            cache.getPass("ticket-1");
+            assertEquals(1, cache.getDiskHits());
+            assertEquals(1, passCalls.get());
+        }
+    }
+
+    @Test
+    public void prefetchesIssuedTicketsInTheBackground() throws Exception {
+        latencyMillis = 10;
+        try (PassBundleCache cache = new PassBundleCache(startPool(), folder.getRoot().toPath(), 100, 1 << 20, 4, 4,
+                FORMATS)) {
+            List<String> ticketIds = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                ticketIds.add(cache.issueTicket(TicketOuterClass.IssueTicketRequest.getDefaultInstance()).get()
+                        .getId());
+            }
+            // joins the prefetches issueTicket queued, or finds the bundles already cached
+            ListenableFuture<Integer> warmed = cache.prefetch(ticketIds);
+            warmed.get(10, TimeUnit.SECONDS);
+
+            assertEquals(40, cache.getPrefetched());
+            assertEquals(0, cache.getPrefetchFailures());
+            assertEquals("expect one call per ticket", 40, passCalls.get());
+            assertTrue("expect at most 4 prefetches at once, was " + maxInFlight.get(), maxInFlight.get() <= 4);
+
+            for (String ticketId : ticketIds) {
+                assertEquals(ticketId, cache.getPass(ticketId).getId());
+            }
+            assertEquals(40, cache.getMemoryHits());
+            assertEquals(0, cache.getMisses());
+            assertEquals(1.0, cache.getHitRatio(), 0.001);
+        }
+    }
+
+    @Test
+    public void failsCallsAfterShutdownAndClose() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        GrpcConnectionPool pool = startPool();
+        PassBundleCache cache = new PassBundleCache(pool, directory, 10, 4096, 2, 4, FORMATS);
+        pool.shutdown();
+        ListenableFuture<CommonObjects.Id> issued =
+                cache.issueTicket(TicketOuterClass.IssueTicketRequest.getDefaultInstance());
+        try {
+            issued.get(10, TimeUnit.SECONDS);
+            fail("expect the shut down pool to fail the call");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        cache.close();
+        try {
+            cache.prefetch(List.of("ticket-1")).get(10, TimeUnit.SECONDS);
+            fail("expect prefetch to fail once the cache is closed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals("expect the spare segment to be deleted", 0, files.count());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.Members.MemberOuterClass;
+import com.passkit.grpc.Members.MembersGrpc;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PointsBatcherTest {
+
+    private static final long NEVER = 3_600_000;
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Keeps each member's balance. Members in throttled fail with RESOURCE_EXHAUSTED and members in missing with
+    // NOT_FOUND. Members in timedOut have their points applied but the call fails with DEADLINE_EXCEEDED.
+    private final Map<String, Float> balances = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> callsByMember = new ConcurrentHashMap<>();
+    private final Set<String> throttled = ConcurrentHashMap.newKeySet();
+    private final Set<String> timedOut = ConcurrentHashMap.newKeySet();
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final List<PointsBatcher> batchers = new ArrayList<>();
+    private GrpcConnectionPool pool;
+
+    @After
+    public void stop() throws Exception {
+        for (PointsBatcher batcher : batchers) {
+            batcher.close();
+        }
+    }
+
+    private GrpcConnectionPool startPool() throws Exception {
+        pool = passKit.start(1, new MembersGrpc.MembersImplBase() {
+            @Override
+            public void earnPoints(MemberOuterClass.EarnBurnPointsRequest request,
+                    StreamObserver<MemberOuterClass.MemberPoints> responseObserver) {
+                apply(request, 1, responseObserver);
+            }
+
+            @Override
+            public void burnPoints(MemberOuterClass.EarnBurnPointsRequest request,
+                    StreamObserver<MemberOuterClass.MemberPoints> responseObserver) {
+                apply(request, -1, responseObserver);
+            }
+        });
+        return pool;
+    }
+
+    private void apply(MemberOuterClass.EarnBurnPointsRequest request, int sign,
+            StreamObserver<MemberOuterClass.MemberPoints> responseObserver) {
+        calls.incrementAndGet();
+        callsByMember.computeIfAbsent(request.getId(), id -> new AtomicInteger()).incrementAndGet();
+        if (throttled.contains(request.getId())) {
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.asRuntimeException());
+            return;
+        }
+        if (missing.contains(request.getId())) {
+            responseObserver.onError(Status.NOT_FOUND.asRuntimeException());
+            return;
+        }
+        float balance = balances.merge(request.getId(), sign * request.getPoints(), Float::sum);
+        if (timedOut.contains(request.getId())) {
+            responseObserver.onError(Status.DEADLINE_EXCEEDED.asRuntimeException());
+            return;
+        }
+        responseObserver.onNext(MemberOuterClass.MemberPoints.newBuilder()
+                .setId(request.getId())
+                .setPoints(balance)
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    private PointsBatcher batcher(Path directory) throws Exception {
+        PointsBatcher batcher = new PointsBatcher(pool == null ? startPool() : pool, directory, NEVER, 8, false);
+        batchers.add(batcher);
+        return batcher;
+    }
+
+    private static long journalFiles(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".journal")).count();
+        }
+    }
+
+    @Test
+    public void sendsOneCallPerMemberPerWindow() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        PointsBatcher batcher = batcher(directory);
+        ExecutorService feeds = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                runs.add(feeds.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        batcher.earn("member-" + i % 20, 1, 0, 0);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            feeds.shutdownNow();
+        }
+        batcher.flush();
+
+        assertEquals(4000, batcher.getTransactions());
+        assertEquals("expect one call per member", 20, calls.get());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(200f, balances.get("member-" + i), 0);
+        }
+        assertEquals("expect the journal to be deleted once sent", 1, journalFiles(directory));
+    }
+
+    @Test
+    public void netsEarnsAndBurns() throws Exception {
+        PointsBatcher batcher = batcher(folder.getRoot().toPath());
+        balances.put("saver", 0f);
+        balances.put("spender", 100f);
+        batcher.earn("saver", 10, 0, 0);
+        batcher.burn("saver", 3, 0, 0);
+        batcher.earn("spender", 3, 0, 0);
+        batcher.burn("spender", 10, 0, 0);
+        batcher.flush();
+
+        assertEquals(7f, balances.get("saver"), 0);
+        assertEquals(93f, balances.get("spender"), 0);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void resendsWhatWasNotSentAfterCrash() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        throttled.add("member-2");
+        PointsBatcher crashed = batcher(directory);
+        crashed.earn("member-1", 5, 0, 0);
+        crashed.earn("member-2", 7, 0, 0);
+        crashed.flush();
+        assertEquals(1, crashed.getRetries());
+        // transactions after the last window, never sent
+        crashed.earn("member-1", 1, 0, 0);
+        crashed.earn("member-3", 2, 0, 0);
+
+        // a new batcher on the same journal, as after a restart
+        throttled.clear();
+        PointsBatcher restarted = batcher(directory);
+        restarted.flush();
+
+        assertEquals(6f, balances.get("member-1"), 0);
+        assertEquals(7f, balances.get("member-2"), 0);
+        assertEquals(2f, balances.get("member-3"), 0);
+        assertEquals("expect member-1's sent total not to be sent again", 2, callsByMember.get("member-1").get());
+        assertEquals("expect only the restarted batcher's current journal to be left", 1, journalFiles(directory));
+    }
+
+    @Test
+    public void recoversTwiceAfterTornWrite() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        PointsBatcher crashed = batcher(directory);
+        crashed.earn("member-1", 5, 0, 0);
+        crashed.earn("member-2", 7, 0, 0);
+        Path journal;
+        try (Stream<Path> files = Files.list(directory)) {
+            journal = files.filter(f -> f.getFileName().toString().endsWith(".journal")).findFirst().get();
+        }
+        // a DELTA record for a ten byte member id, cut off by the crash
+        Files.write(journal, new byte[]{1, 0, 10, 'm', 'e', 'm', 'b', 'e', 'r'}, StandardOpenOption.APPEND);
+
+        // the first restart sends member-1 and records that in the recovered journal
+        throttled.add("member-2");
+        batcher(directory).flush();
+        assertEquals(5f, balances.get("member-1"), 0);
+
+        throttled.clear();
+        batcher(directory).flush();
+        assertEquals(7f, balances.get("member-2"), 0);
+        assertEquals("expect the record written after the torn one to be read back", 1,
+                callsByMember.get("member-1").get());
+        assertEquals(5f, balances.get("member-1"), 0);
+    }
+
+    @Test
+    public void recordsRejectedTotals() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        missing.add("gone");
+        PointsBatcher batcher = batcher(directory);
+        batcher.earn("gone", 4, 0, 0);
+        batcher.earn("member", 1, 0, 0);
+        batcher.flush();
+
+        assertEquals(1, batcher.getRejected());
+        List<String> rejected = Files.readAllLines(directory.resolve("rejected.csv"), StandardCharsets.UTF_8);
+        assertEquals(1, rejected.size());
+        assertTrue(rejected.get(0).startsWith("gone,earn,4.0,"));
+        assertEquals(1, journalFiles(directory));
+
+        batcher.flush();
+        assertEquals("expect rejected totals not to be sent again", 2, calls.get());
+    }
+
+    @Test
+    public void doesNotResendTotalsThatMayHaveBeenApplied() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        timedOut.add("member");
+        PointsBatcher batcher = batcher(directory);
+        batcher.earn("member", 4, 0, 0);
+        batcher.flush();
+        batcher.flush();
+
+        assertEquals(4f, balances.get("member"), 0);
+        assertEquals("expect the timed out total not to be sent again", 1, calls.get());
+        assertEquals(1, batcher.getUnconfirmed());
+        assertEquals(0, batcher.getRejected());
+        List<String> rejected = Files.readAllLines(directory.resolve("rejected.csv"), StandardCharsets.UTF_8);
+        assertEquals(1, rejected.size());
+        assertTrue(rejected.get(0), rejected.get(0).startsWith("member,earn,4.0,"));
+        assertTrue(rejected.get(0), rejected.get(0).endsWith(",DEADLINE_EXCEEDED"));
+    }
+}
@@ -0,0 +1,163 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.ImagesGrpc;
+import com.passkit.grpc.TemplatesGrpc;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.Flights.FlightsGrpc;
+import com.passkit.grpc.Members.MembersGrpc;
+import com.passkit.grpc.SingleUseCoupons.SingleUseCouponsGrpc;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/*
+ * Runs the async quickstarts against in-process services that answer every call after a fixed delay, and checks
+ * that independent calls overlap: the wall time should follow the longest chain of dependent calls rather than the
+ * total number of calls.
+ */
+public class QuickstartAsyncTest {
+
+    private static final long LATENCY_MILLIS = 150;
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @After
+    public void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void loyaltyCallsOverlap() throws Exception {
+        QuickstartLoyaltyAsync qs = new QuickstartLoyaltyAsync(connect(
+                ImagesGrpc.getServiceDescriptor(),
+                TemplatesGrpc.getServiceDescriptor(),
+                MembersGrpc.getServiceDescriptor()));
+        assertOverlaps("loyalty", qs::quickStart, 7);
+        QuickstartLoyaltyAsync.cleanup();
+    }
+
+    @Test
+    public void couponCallsOverlap() throws Exception {
+        QuickstartCouponsAsync qs = new QuickstartCouponsAsync(connect(
+                ImagesGrpc.getServiceDescriptor(),
+                TemplatesGrpc.getServiceDescriptor(),
+                SingleUseCouponsGrpc.getServiceDescriptor()));
+        assertOverlaps("coupons", qs::quickStart, 5);
+        QuickstartCouponsAsync.cleanup();
+    }
+
+    @Test
+    public void eventTicketCallsOverlap() throws Exception {
+        QuickstartEventTicketsAsync qs = new QuickstartEventTicketsAsync(connect(
+                ImagesGrpc.getServiceDescriptor(),
+                TemplatesGrpc.getServiceDescriptor(),
+                EventTicketsGrpc.getServiceDescriptor()));
+        assertOverlaps("event tickets", qs::quickStart, 7);
+        QuickstartEventTicketsAsync.cleanup();
+    }
+
+    @Test
+    public void flightTicketCallsOverlap() throws Exception {
+        QuickstartFlightTicketsAsync qs = new QuickstartFlightTicketsAsync(connect(
+                ImagesGrpc.getServiceDescriptor(),
+                TemplatesGrpc.getServiceDescriptor(),
+                FlightsGrpc.getServiceDescriptor()));
+        assertOverlaps("flight tickets", qs::quickStart, 4);
+        assertNotNull("expect boarding pass to be set", QuickstartFlightTicketsAsync.pass);
+        QuickstartFlightTicketsAsync.cleanup();
+    }
+
+    private void assertOverlaps(String name, Runnable quickStart, int criticalPathCalls) {
+        long start = System.nanoTime();
+        quickStart.run();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(name + ": " + calls.get() + " calls in " + elapsedMillis + "ms, at most "
+                + maxInFlight.get() + " in flight");
+
+        assertTrue("expect independent calls to run concurrently", maxInFlight.get() > 1);
+        assertTrue("expect wall time to follow the " + criticalPathCalls + " dependent calls, took "
+                        + elapsedMillis + "ms",
+                elapsedMillis < (criticalPathCalls + 3) * LATENCY_MILLIS);
+        assertTrue("expect wall time well below " + calls.get() + " sequential calls, took " + elapsedMillis + "ms",
+                elapsedMillis < calls.get() * LATENCY_MILLIS * 3 / 4);
+    }
+
+    private GrpcConnection connect(ServiceDescriptor... services) throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        InProcessServerBuilder server = InProcessServerBuilder.forName(serverName).directExecutor();
+        for (ServiceDescriptor service : services) {
+            server.addService(delayedService(service));
+        }
+        grpcCleanup.register(server.build().start());
+        return new GrpcConnection(grpcCleanup.register(InProcessChannelBuilder.forName(serverName)
+                .directExecutor()
+                .build()));
+    }
+
+    private ServerServiceDefinition delayedService(ServiceDescriptor service) {
+        ServerServiceDefinition.Builder definition = ServerServiceDefinition.builder(service);
+        for (MethodDescriptor<?, ?> method : service.getMethods()) {
+            addDelayedMethod(definition, method);
+        }
+        return definition.build();
+    }
+
+    // Unary calls answer with an empty response after LATENCY_MILLIS, streaming calls complete without messages
+    @SuppressWarnings("unchecked")
+    private <ReqT, RespT> void addDelayedMethod(ServerServiceDefinition.Builder definition,
+            MethodDescriptor<ReqT, RespT> method) {
+        if (method.getType() != MethodDescriptor.MethodType.UNARY) {
+            definition.addMethod(method, ServerCalls.asyncServerStreamingCall(
+                    (request, responseObserver) -> responseObserver.onCompleted()));
+            return;
+        }
+        RespT response = (RespT) response(
+                ((MethodDescriptor.PrototypeMarshaller<RespT>) method.getResponseMarshaller()).getMessagePrototype());
+        definition.addMethod(method, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+            calls.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            scheduler.schedule(() -> {
+                inFlight.decrementAndGet();
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+            }, LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        }));
+    }
+
+    private static Object response(Object prototype) {
+        if (prototype instanceof CommonObjects.Id) {
+            return CommonObjects.Id.newBuilder()
+                    .setId(UUID.randomUUID().toString().replace("-", "").substring(0, 22))
+                    .build();
+        }
+        if (prototype instanceof CommonObjects.PassBundles) {
+            return CommonObjects.PassBundles.newBuilder()
+                    .addPasses(CommonObjects.PassBundle.getDefaultInstance())
+                    .build();
+        }
+        return prototype;
+    }
+}
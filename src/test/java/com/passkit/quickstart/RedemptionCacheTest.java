@@ -0,0 +1,110 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class RedemptionCacheTest {
+
+    private static TicketOuterClass.TicketId byId(String ticketId) {
+        return TicketOuterClass.TicketId.newBuilder().setTicketId(ticketId).build();
+    }
+
+    private static TicketOuterClass.TicketId byNumber(String productionId, String ticketNumber) {
+        return TicketOuterClass.TicketId.newBuilder()
+                .setTicketNumber(TicketOuterClass.TicketNumber.newBuilder()
+                        .setProductionId(productionId)
+                        .setTicketNumber(ticketNumber))
+                .build();
+    }
+
+    @Test
+    public void findsTicketsByIdAndByNumber() {
+        RedemptionCache cache = new RedemptionCache(1000, 60_000);
+        cache.recordRedemption(byNumber("production-1", "A-1"), "ticket-1");
+        cache.recordValidation(byId("ticket-2"), TicketOuterClass.ValidateTicketResponse.newBuilder()
+                .setTicketId("ticket-2")
+                .setValidated(true)
+                .build());
+
+        assertEquals(RedemptionCache.State.REDEEMED, cache.get(byNumber("production-1", "A-1")));
+        assertEquals("expect the returned ticket id to be recorded too",
+                RedemptionCache.State.REDEEMED, cache.get(byId("ticket-1")));
+        assertEquals(RedemptionCache.State.VALIDATED, cache.get(byId("ticket-2")));
+        assertNull(cache.get(byNumber("production-2", "A-1")));
+        assertNull(cache.get(byNumber("production-1A", "-1")));
+        assertNull(cache.get(byId("ticket-3")));
+        assertEquals(3, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void validationDoesNotReplaceRedemption() {
+        RedemptionCache cache = new RedemptionCache(1000, 60_000);
+        cache.recordRedemption(byId("ticket-1"), "ticket-1");
+        cache.recordValidation(byId("ticket-1"), TicketOuterClass.ValidateTicketResponse.newBuilder()
+                .setTicketId("ticket-1")
+                .setValidated(true)
+                .build());
+        assertEquals(RedemptionCache.State.REDEEMED, cache.get(byId("ticket-1")));
+    }
+
+    @Test
+    public void entriesExpireAfterTtl() throws Exception {
+        RedemptionCache cache = new RedemptionCache(1000, 50);
+        cache.recordRedemption(byId("ticket-1"), "ticket-1");
+        assertEquals(RedemptionCache.State.REDEEMED, cache.get(byId("ticket-1")));
+        Thread.sleep(100);
+        assertNull(cache.get(byId("ticket-1")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void staysWithinCapacityAndKeepsRecentEntries() {
+        RedemptionCache cache = new RedemptionCache(1600, 60_000);
+        for (int i = 0; i < 100_000; i++) {
+            cache.recordRedemption(byId("ticket-" + i), "");
+            assertTrue("expect at most 1600 entries", cache.size() <= 1600);
+        }
+        for (int i = 99_900; i < 100_000; i++) {
+            assertEquals(RedemptionCache.State.REDEEMED, cache.get(byId("ticket-" + i)));
+        }
+        assertNull("expect the oldest entries to be evicted", cache.get(byId("ticket-0")));
+    }
+
+    @Test
+    public void concurrentRecordsAreFound() throws Exception {
+        RedemptionCache cache = new RedemptionCache(400_000, 60_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                runs.add(executor.submit(() -> {
+                    for (int i = 0; i < 50_000; i++) {
+                        cache.recordRedemption(byNumber("production-" + thread, Integer.toString(i)), "");
+                    }
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(200_000, cache.size());
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 50_000; i++) {
+                assertEquals(RedemptionCache.State.REDEEMED, cache.get(byNumber("production-" + t, Integer.toString(i))));
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RpcMetricsTest {
+
+    private static final String ISSUE_TICKET = EventTicketsGrpc.getIssueTicketMethod().getFullMethodName();
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    // Issues a ticket per request once release is counted down. Ticket numbers starting with "x" fail with
+    // INVALID_ARGUMENT.
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final RpcMetrics metrics = new RpcMetrics();
+    private EventTicketsGrpc.EventTicketsFutureStub stub;
+
+    @Before
+    public void start() throws Exception {
+        String serverName = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(serverName)
+                .addService(new EventTicketsGrpc.EventTicketsImplBase() {
+                    @Override
+                    public void issueTicket(TicketOuterClass.IssueTicketRequest request,
+                            StreamObserver<CommonObjects.Id> response) {
+                        new Thread(() -> {
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            if (request.getTicketNumber().startsWith("x")) {
+                                response.onError(Status.INVALID_ARGUMENT.asRuntimeException());
+                                return;
+                            }
+                            response.onNext(CommonObjects.Id.newBuilder()
+                                    .setId("t-" + request.getTicketNumber())
+                                    .build());
+                            response.onCompleted();
+                        }).start();
+                    }
+                })
+                .build()
+                .start());
+        ManagedChannel channel = grpcCleanup.register(InProcessChannelBuilder.forName(serverName)
+                .intercept(metrics)
+                .build());
+        stub = EventTicketsGrpc.newFutureStub(channel);
+    }
+
+    private static TicketOuterClass.IssueTicketRequest ticket(String ticketNumber) {
+        return TicketOuterClass.IssueTicketRequest.newBuilder().setTicketNumber(ticketNumber).build();
+    }
+
+    // Issues three tickets and fails one, returning once all have closed
+    private void issueTickets() throws Exception {
+        List<ListenableFuture<CommonObjects.Id>> calls = new ArrayList<>();
+        for (String ticketNumber : new String[] {"1", "2", "3", "x4"}) {
+            calls.add(stub.issueTicket(ticket(ticketNumber)));
+        }
+        assertEquals(4, metrics.getMethod(ISSUE_TICKET).getInFlight());
+        release.countDown();
+        for (ListenableFuture<CommonObjects.Id> call : calls) {
+            try {
+                call.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertEquals(Status.Code.INVALID_ARGUMENT,
+                        ((StatusRuntimeException) e.getCause()).getStatus().getCode());
+            }
+        }
+    }
+
+    @Test
+    public void countsCallsByMethodAndStatus() throws Exception {
+        issueTickets();
+
+        RpcMetrics.MethodStats stats = metrics.getMethod(ISSUE_TICKET);
+        assertEquals(4, stats.getStarted());
+        assertEquals(4, stats.getCompleted());
+        assertEquals(0, stats.getInFlight());
+        assertEquals(3, stats.getStatusCount(Status.Code.OK));
+        assertEquals(1, stats.getStatusCount(Status.Code.INVALID_ARGUMENT));
+        assertEquals(1, stats.getErrors());
+        assertEquals(ticket("1").getSerializedSize() * 3L + ticket("x4").getSerializedSize(), stats.getBytesSent());
+        assertEquals(CommonObjects.Id.newBuilder().setId("t-1").build().getSerializedSize() * 3L,
+                stats.getBytesReceived());
+        assertTrue(stats.getLatency().getMaxNanos() > 0);
+    }
+
+    @Test
+    public void servesPrometheusText() throws Exception {
+        issueTickets();
+
+        try (PrometheusExporter exporter = new PrometheusExporter(metrics, 0)) {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + exporter.getPort()
+                    + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                in.transferTo(body);
+            }
+            String text = body.toString(StandardCharsets.UTF_8.name());
+            assertTrue(text, text.contains("grpc_client_completed_total{method=\"" + ISSUE_TICKET
+                    + "\",code=\"OK\"} 3\n"));
+            assertTrue(text, text.contains("grpc_client_completed_total{method=\"" + ISSUE_TICKET
+                    + "\",code=\"INVALID_ARGUMENT\"} 1\n"));
+            assertTrue(text, text.contains("grpc_client_latency_seconds_bucket{method=\"" + ISSUE_TICKET
+                    + "\",le=\"10.0\"} 4\n"));
+            assertTrue(text, text.contains("grpc_client_latency_seconds_count{method=\"" + ISSUE_TICKET + "\"} 4\n"));
+            assertTrue(text, text.contains("grpc_client_in_flight{method=\"" + ISSUE_TICKET + "\"} 0\n"));
+        }
+    }
+
+    @Test
+    public void registersAnMXBeanPerMethod() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        RpcMetricsJmx jmx = new RpcMetricsJmx(metrics, server);
+        try {
+            issueTickets();
+
+            assertEquals(4L, server.getAttribute(RpcMetricsJmx.objectName(ISSUE_TICKET), "Completed"));
+            assertEquals(1L, server.getAttribute(RpcMetricsJmx.objectName(ISSUE_TICKET), "Errors"));
+            assertTrue((Double) server.getAttribute(RpcMetricsJmx.objectName(ISSUE_TICKET), "MaxMillis") > 0);
+        } finally {
+            jmx.close();
+        }
+        assertFalse(server.isRegistered(RpcMetricsJmx.objectName(ISSUE_TICKET)));
+    }
+
+    @Test
+    public void callsThatFailToStartAreNotLeftInFlight() {
+        Channel broken = new Channel() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method,
+                    CallOptions callOptions) {
+                return new ClientCall<ReqT, RespT>() {
+                    @Override
+                    public void start(Listener<RespT> responseListener, Metadata headers) {
+                        throw new IllegalStateException("broken");
+                    }
+
+                    @Override
+                    public void request(int numMessages) {
+                    }
+
+                    @Override
+                    public void cancel(String message, Throwable cause) {
+                    }
+
+                    @Override
+                    public void halfClose() {
+                    }
+
+                    @Override
+                    public void sendMessage(ReqT message) {
+                    }
+                };
+            }
+
+            @Override
+            public String authority() {
+                return "broken";
+            }
+        };
+        ClientCall<TicketOuterClass.IssueTicketRequest, CommonObjects.Id> call =
+                metrics.interceptCall(EventTicketsGrpc.getIssueTicketMethod(), CallOptions.DEFAULT, broken);
+        try {
+            call.start(new ClientCall.Listener<CommonObjects.Id>() {
+            }, new Metadata());
+            fail("expect start to throw");
+        } catch (IllegalStateException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        assertEquals(0, metrics.getMethod(ISSUE_TICKET).getInFlight());
+    }
+}
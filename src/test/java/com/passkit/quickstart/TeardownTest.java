@@ -0,0 +1,129 @@
+package com.passkit.quickstart;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class TeardownTest {
+
+    private static final long LATENCY_MILLIS = 50;
+
+    // Deletes complete after LATENCY_MILLIS, recording the order they completed in and how many ran at once
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    private final List<String> deleted = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @After
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private Supplier<ListenableFuture<?>> delete(String name) {
+        return delete(name, Status.OK);
+    }
+
+    private Supplier<ListenableFuture<?>> delete(String name, Status status) {
+        return () -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            SettableFuture<Void> result = SettableFuture.create();
+            scheduler.schedule(() -> {
+                inFlight.decrementAndGet();
+                if (status.isOk()) {
+                    deleted.add(name);
+                    result.set(null);
+                } else {
+                    result.setException(status.asRuntimeException());
+                }
+            }, LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+            return result;
+        };
+    }
+
+    @Test
+    public void runsIndependentDeletesTogetherAfterTheirDependencies() {
+        Teardown teardown = new Teardown();
+        Teardown.Step flight = teardown.delete("flight", delete("flight"));
+        Teardown.Step designator = teardown.delete("designator", delete("designator"));
+        teardown.delete("port", delete("port"), flight, designator);
+        Teardown.Step template = teardown.delete("template", delete("template"), flight, designator);
+        for (int i = 0; i < 5; i++) {
+            teardown.delete("image " + i, delete("image " + i), template);
+        }
+
+        long start = System.nanoTime();
+        teardown.run();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(9, deleted.size());
+        assertTrue(deleted.indexOf("template") > deleted.indexOf("flight"));
+        assertTrue(deleted.indexOf("port") > deleted.indexOf("designator"));
+        assertTrue(deleted.indexOf("image 3") > deleted.indexOf("template"));
+        assertEquals("expect the five images at once", 5, maxInFlight.get());
+        assertTrue("expect three levels of deletes rather than nine, took " + elapsedMillis + "ms",
+                elapsedMillis < 6 * LATENCY_MILLIS);
+    }
+
+    @Test
+    public void pollsUntilTheDependentConditionHolds() {
+        // the carrier can only be deleted once its boarding passes have gone, three attempts after the flight
+        AtomicInteger attempts = new AtomicInteger();
+        Teardown teardown = new Teardown(10, 40, 5_000);
+        Teardown.Step flight = teardown.delete("flight", delete("flight"));
+        teardown.delete("carrier", () -> attempts.incrementAndGet() < 3
+                ? delete("carrier", Status.FAILED_PRECONDITION).get()
+                : delete("carrier").get(), flight)
+                .retryingOn(Status.Code.FAILED_PRECONDITION);
+
+        teardown.run();
+        assertEquals(3, attempts.get());
+        assertEquals("carrier", deleted.get(1));
+    }
+
+    @Test
+    public void countsNotFoundAsDeleted() {
+        Teardown teardown = new Teardown();
+        Teardown.Step program = teardown.delete("program", delete("program", Status.NOT_FOUND));
+        teardown.delete("template", delete("template"), program);
+
+        teardown.run();
+        assertEquals("template", deleted.get(0));
+    }
+
+    @Test
+    public void skipsDeletesAfterAFailureAndGivesUpPolling() {
+        AtomicInteger attempts = new AtomicInteger();
+        Teardown teardown = new Teardown(10, 20, 200);
+        Teardown.Step program = teardown.delete("program", delete("program", Status.PERMISSION_DENIED));
+        teardown.delete("template", delete("template"), program);
+        teardown.delete("carrier", () -> {
+            attempts.incrementAndGet();
+            return Futures.immediateFailedFuture(Status.FAILED_PRECONDITION.asRuntimeException());
+        }).retryingOn(Status.Code.FAILED_PRECONDITION);
+        teardown.delete("image", delete("image"));
+
+        try {
+            teardown.run();
+            fail("expect the teardown to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("program: PERMISSION_DENIED"));
+            assertTrue(e.getMessage(), e.getMessage().contains("template: skipped as program failed"));
+            assertTrue(e.getMessage(), e.getMessage().contains("carrier: FAILED_PRECONDITION"));
+        }
+        assertTrue("expect the carrier to be polled, was sent " + attempts.get() + " times", attempts.get() > 3);
+        assertEquals("expect the independent delete to go ahead", List.of("image"), deleted);
+    }
+}
@@ -0,0 +1,213 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventOuterClass;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TicketIssuerTest {
+
+    private static final TicketOuterClass.IssueTicketRequest TEMPLATE = TicketOuterClass.IssueTicketRequest.newBuilder()
+            .setTicketTypeId("ticket-type-1")
+            .setEvent(EventOuterClass.EventLimitedFieldsRequest.newBuilder()
+                    .setProductionId("production-1")
+                    .setVenueId("venue-1"))
+            .setFaceValue(TicketOuterClass.FaceValue.newBuilder().setAmount(3000).setCurrency("THB"))
+            .build();
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Issues a ticket per request after latencyMillis, keeping the requests by ticket number. A ticket number that was
+    // issued before fails with ALREADY_EXISTS, and the first attempt for ticket numbers in unavailableOnce fails with
+    // UNAVAILABLE. Ticket numbers in lostResponses are issued but their call fails with the status given.
+    private final ScheduledExecutorService scheduler = passKit.scheduler();
+    private final Map<String, TicketOuterClass.IssueTicketRequest> tickets = new ConcurrentHashMap<>();
+    private final Set<String> unavailableOnce = ConcurrentHashMap.newKeySet();
+    private final Map<String, Status> lostResponses = new ConcurrentHashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long latencyMillis = 1;
+    private GrpcConnectionPool pool;
+
+    private GrpcConnectionPool startPool() throws Exception {
+        pool = passKit.start(2, new EventTicketsGrpc.EventTicketsImplBase() {
+            @Override
+            public void issueTicket(TicketOuterClass.IssueTicketRequest request,
+                    StreamObserver<CommonObjects.Id> responseObserver) {
+                calls.incrementAndGet();
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                scheduler.schedule(() -> {
+                    inFlight.decrementAndGet();
+                    if (unavailableOnce.remove(request.getTicketNumber())) {
+                        responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                        return;
+                    }
+                    if (tickets.putIfAbsent(request.getTicketNumber(), request) != null) {
+                        responseObserver.onError(Status.ALREADY_EXISTS.asRuntimeException());
+                        return;
+                    }
+                    Status lost = lostResponses.remove(request.getTicketNumber());
+                    if (lost != null) {
+                        responseObserver.onError(lost.asRuntimeException());
+                        return;
+                    }
+                    responseObserver.onNext(CommonObjects.Id.newBuilder()
+                            .setId("t-" + request.getTicketNumber())
+                            .build());
+                    responseObserver.onCompleted();
+                }, latencyMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+        return pool;
+    }
+
+    // Writes seats numbered from first to last, with the seat after every hundredth repeated
+    private Path writeManifest(String name, int first, int last) throws Exception {
+        Path manifest = folder.getRoot().toPath().resolve(name);
+        try (BufferedWriter writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            writer.write("ticketNumber,section,row,seat,displayName\n");
+            for (int i = first; i <= last; i++) {
+                writer.write("T" + i + ",SC," + (char) ('A' + i % 26) + "," + i + ",\"Guest, " + i + "\"\n");
+                if (i % 100 == 1) {
+                    writer.write("T" + i + ",SC,A,0,Again\n");
+                }
+            }
+        }
+        return manifest;
+    }
+
+    private TicketIssuer issuer(int maxInFlight) {
+        return new TicketIssuer(pool, TEMPLATE, "https://pub1.pskt.io/", maxInFlight, 3, 10);
+    }
+
+    @Test
+    public void issuesAWholeManifestOnce() throws Exception {
+        startPool();
+        unavailableOnce.add("T7");
+        Path output = folder.getRoot().toPath().resolve("tickets.csv");
+        TicketIssuer.Summary summary = issuer(32).issue(writeManifest("seats.csv", 1, 1000), output);
+
+        assertEquals(1010, summary.getSeats());
+        assertEquals(1000, summary.getIssued());
+        assertEquals(10, summary.getDuplicates());
+        assertEquals(0, summary.getFailed());
+        assertEquals(1, summary.getRetries());
+        assertEquals("expect repeated seats not to be sent", 1001, calls.get());
+        assertTrue("expect at most 32 calls at once, was " + maxInFlight.get(), maxInFlight.get() <= 32);
+
+        TicketOuterClass.IssueTicketRequest ticket = tickets.get("T7");
+        assertEquals("ticket-type-1", ticket.getTicketTypeId());
+        assertEquals("production-1", ticket.getEvent().getProductionId());
+        assertEquals("THB", ticket.getFaceValue().getCurrency());
+        assertEquals("7", ticket.getSeatInfo().getSeat());
+        assertEquals("Guest, 7", ticket.getPerson().getDisplayName());
+
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals(1011, lines.size());
+        assertEquals("ticketNumber,ticketId,url,status", lines.get(0));
+        assertTrue(lines.contains("T7,t-T7,https://pub1.pskt.io/t-T7,OK"));
+        assertTrue(lines.contains("T101,,,DUPLICATE"));
+    }
+
+    @Test
+    public void finishesARunThatStoppedPartWay() throws Exception {
+        startPool();
+        Path output = folder.getRoot().toPath().resolve("tickets.csv");
+        issuer(8).issue(writeManifest("first-half.csv", 1, 50), output);
+        calls.set(0);
+
+        TicketIssuer.Summary summary = issuer(8).issue(writeManifest("seats.csv", 1, 100), output);
+        assertEquals(50, summary.getSkipped());
+        assertEquals(50, summary.getIssued());
+        assertEquals(0, summary.getFailed());
+        assertEquals(50, calls.get());
+
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals("ticketNumber,ticketId,url,status", lines.get(0));
+        assertEquals(1, lines.stream().filter(line -> line.startsWith("ticketNumber,")).count());
+        assertEquals(100, lines.stream().filter(line -> line.endsWith(",OK")).count());
+    }
+
+    @Test
+    public void issuesFromJsonLinesAndReportsRejectedSeats() throws Exception {
+        startPool();
+        tickets.put("T2", TicketOuterClass.IssueTicketRequest.getDefaultInstance());
+        Path manifest = folder.getRoot().toPath().resolve("seats.jsonl");
+        Files.write(manifest, ("{\"ticketNumber\": \"T1\", \"ticketTypeId\": \"vip\", "
+                + "\"seatInfo\": {\"seat\": \"1\"}}\n"
+                + "{\"ticketNumber\": \"T2\"}\n"
+                + "{\"seatInfo\": {\"seat\": \"3\"}}\n").getBytes(StandardCharsets.UTF_8));
+        Path output = folder.getRoot().toPath().resolve("tickets.csv");
+        TicketIssuer.Summary summary = issuer(4).issue(manifest, output);
+
+        assertEquals(3, summary.getSeats());
+        assertEquals(1, summary.getIssued());
+        assertEquals("expect the server's ALREADY_EXISTS to count as a duplicate", 1, summary.getDuplicates());
+        assertEquals(1, summary.getFailed());
+        assertEquals("expect the seat to override the template", "vip", tickets.get("T1").getTicketTypeId());
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertTrue(lines.contains("T2,,,ALREADY_EXISTS"));
+        assertTrue(lines.contains("line 3,,,INVALID_ARGUMENT"));
+    }
+
+    @Test
+    public void doesNotCountTicketsIssuedByALostAttemptAsDuplicates() throws Exception {
+        startPool();
+        lostResponses.put("T2", Status.DEADLINE_EXCEEDED);
+        lostResponses.put("T3", Status.UNAVAILABLE);
+        Path output = folder.getRoot().toPath().resolve("tickets.csv");
+        TicketIssuer.Summary summary = issuer(4).issue(writeManifest("seats.csv", 2, 4), output);
+
+        assertEquals(1, summary.getIssued());
+        assertEquals(0, summary.getDuplicates());
+        assertEquals(2, summary.getFailed());
+        assertEquals(1, summary.getRetries());
+        assertEquals("expect the call that timed out not to be sent again", 4, calls.get());
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertTrue(lines.contains("T2,,,DEADLINE_EXCEEDED"));
+        assertTrue(lines.contains("T3,,,ALREADY_EXISTS"));
+    }
+
+    // Compares one call at a time with the default window, with 5ms per call
+    @Test
+    public void benchmarkAgainstSerialIssuance() throws Exception {
+        latencyMillis = 5;
+        startPool();
+        TicketIssuer.Summary serial = issuer(1).issue(writeManifest("serial.csv", 1, 400),
+                folder.getRoot().toPath().resolve("serial-tickets.csv"));
+        TicketIssuer.Summary parallel = issuer(64).issue(writeManifest("parallel.csv", 1001, 1400),
+                folder.getRoot().toPath().resolve("parallel-tickets.csv"));
+        System.out.println("serial:   " + serial);
+        System.out.println("parallel: " + parallel);
+
+        assertEquals(400, serial.getIssued());
+        assertEquals(400, parallel.getIssued());
+        assertTrue("expect a window of 64 to be at least 4x faster, was " + parallel.getTicketsPerSecond() + " vs "
+                + serial.getTicketsPerSecond(), parallel.getTicketsPerSecond() > 4 * serial.getTicketsPerSecond());
+    }
+}
@@ -0,0 +1,339 @@
+package com.passkit.quickstart;
+
+import com.passkit.grpc.CommonObjects;
+import com.passkit.grpc.EventTickets.EventTicketsGrpc;
+import com.passkit.grpc.EventTickets.TicketOuterClass;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TicketScanGatewayTest {
+
+    @Rule
+    public final InProcessPool passKit = new InProcessPool();
+
+    private final ScheduledExecutorService scheduler = passKit.scheduler();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private volatile long latencyMicros = 0;
+    private volatile Status redeemStatus;
+
+    // Validates and redeems every ticket after latencyMicros, or once release is counted down. Redemptions fail with
+    // redeemStatus when it is set.
+    private GrpcConnectionPool startPool() throws Exception {
+        return passKit.start(4, new EventTicketsGrpc.EventTicketsImplBase() {
+            @Override
+            public void validateTicket(TicketOuterClass.ValidateTicketRequest request,
+                    StreamObserver<TicketOuterClass.ValidateTicketResponse> responseObserver) {
+                answer(responseObserver, TicketOuterClass.ValidateTicketResponse.newBuilder()
+                        .setTicketId(request.getTicket().getTicketId())
+                        .setValidated(true)
+                        .build());
+            }
+
+            @Override
+            public void redeemTicket(TicketOuterClass.RedeemTicketRequest request,
+                    StreamObserver<CommonObjects.Id> responseObserver) {
+                answer(responseObserver, CommonObjects.Id.newBuilder()
+                        .setId(request.getTicket().getTicketId())
+                        .build(), redeemStatus);
+            }
+        });
+    }
+
+    private <T> void answer(StreamObserver<T> responseObserver, T response) {
+        answer(responseObserver, response, null);
+    }
+
+    private <T> void answer(StreamObserver<T> responseObserver, T response, Status error) {
+        calls.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        Runnable respond = () -> {
+            inFlight.decrementAndGet();
+            if (error != null) {
+                responseObserver.onError(error.asRuntimeException());
+                return;
+            }
+            responseObserver.onNext(response);
+            responseObserver.onCompleted();
+        };
+        if (release.getCount() > 0) {
+            scheduler.execute(() -> {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond.run();
+            });
+        } else if (latencyMicros > 0) {
+            scheduler.schedule(respond, latencyMicros, TimeUnit.MICROSECONDS);
+        } else {
+            respond.run();
+        }
+    }
+
+    private static TicketOuterClass.ValidateTicketRequest validate(String ticketId) {
+        return TicketOuterClass.ValidateTicketRequest.newBuilder()
+                .setTicket(TicketOuterClass.TicketId.newBuilder().setTicketId(ticketId))
+                .setMaxNumberOfValidations(1)
+                .build();
+    }
+
+    private static TicketOuterClass.RedeemTicketRequest redeem(String ticketId) {
+        return TicketOuterClass.RedeemTicketRequest.newBuilder()
+                .setTicket(TicketOuterClass.TicketId.newBuilder().setTicketId(ticketId))
+                .build();
+    }
+
+    // Collects one result or error per scan
+    private static final class Results<T> implements TicketScanGateway.Callback<T> {
+        private final List<T> results = new ArrayList<>();
+        private final List<Status> errors = new ArrayList<>();
+        private final CountDownLatch done;
+
+        private Results(int scans) {
+            done = new CountDownLatch(scans);
+        }
+
+        @Override
+        public synchronized void onResult(T result) {
+            results.add(result);
+            done.countDown();
+        }
+
+        @Override
+        public synchronized void onError(Status status) {
+            errors.add(status);
+            done.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertTrue("expect every scan to be answered", done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void repeatedScansShareOneCall() throws Exception {
+        release = new CountDownLatch(1);
+        TicketScanGateway gateway = new TicketScanGateway(startPool(), 10, 100, 5000);
+        Results<TicketOuterClass.ValidateTicketResponse> results = new Results<>(6);
+        for (int i = 0; i < 5; i++) {
+            gateway.validate(validate("ticket-1"), results);
+        }
+        gateway.validate(validate("ticket-2"), results);
+        release.countDown();
+        results.await();
+
+        assertEquals(6, results.results.size());
+        assertEquals("expect one call per ticket", 2, calls.get());
+        assertEquals(2, gateway.getSent());
+        assertEquals(4, gateway.getCoalesced());
+
+        // a scan after the call completed goes to the server again
+        Results<TicketOuterClass.ValidateTicketResponse> later = new Results<>(1);
+        gateway.validate(validate("ticket-1"), later);
+        later.await();
+        assertTrue(later.results.get(0).getValidated());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void repeatedRedemptionsJoinTheOneInProgress() throws Exception {
+        release = new CountDownLatch(1);
+        TicketScanGateway gateway = new TicketScanGateway(startPool(), 10, 100, 5000);
+        Results<CommonObjects.Id> results = new Results<>(5);
+        for (int i = 0; i < 5; i++) {
+            gateway.redeem(redeem("ticket-1"), results);
+        }
+        release.countDown();
+        results.await();
+
+        assertEquals("expect only the first redemption to succeed", 1, results.results.size());
+        for (Status status : results.errors) {
+            assertEquals(Status.Code.FAILED_PRECONDITION, status.getCode());
+        }
+        assertEquals(1, calls.get());
+        assertEquals(4, gateway.getCoalesced());
+        assertEquals(0, gateway.getAnsweredLocally());
+    }
+
+    @Test
+    public void repeatedRedemptionsShareTheFailureOfTheOneInProgress() throws Exception {
+        release = new CountDownLatch(1);
+        redeemStatus = Status.UNAVAILABLE;
+        TicketScanGateway gateway = new TicketScanGateway(startPool(), 10, 100, 5000);
+        Results<CommonObjects.Id> results = new Results<>(3);
+        for (int i = 0; i < 3; i++) {
+            gateway.redeem(redeem("ticket-1"), results);
+        }
+        release.countDown();
+        results.await();
+
+        assertEquals(3, results.errors.size());
+        for (Status status : results.errors) {
+            assertEquals("expect every scan to be told it may try again", Status.Code.UNAVAILABLE, status.getCode());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void repeatedScansAreAnsweredFromCache() throws Exception {
+        RedemptionCache cache = new RedemptionCache(1000, 60_000);
+        TicketScanGateway gateway = new TicketScanGateway(startPool(), 10, 100, 5000,
+                MoreExecutors.directExecutor(), cache);
+        Results<CommonObjects.Id> first = new Results<>(1);
+        gateway.redeem(redeem("ticket-1"), first);
+        first.await();
+        assertEquals(1, first.results.size());
+
+        Results<CommonObjects.Id> again = new Results<>(1);
+        gateway.redeem(redeem("ticket-1"), again);
+        again.await();
+        assertEquals(Status.Code.FAILED_PRECONDITION, again.errors.get(0).getCode());
+
+        Results<TicketOuterClass.ValidateTicketResponse> validation = new Results<>(1);
+        gateway.validate(validate("ticket-2"), validation);
+        validation.await();
+        assertTrue(validation.results.get(0).getValidated());
+
+        Results<TicketOuterClass.ValidateTicketResponse> revalidation = new Results<>(1);
+        gateway.validate(validate("ticket-2"), revalidation);
+        revalidation.await();
+        assertFalse("expect a second single use validation to fail", revalidation.results.get(0).getValidated());
+
+        assertEquals("expect only the first scan of each ticket to be sent", 2, calls.get());
+        assertEquals(2, gateway.getAnsweredLocally());
+    }
+
+    @Test
+    public void boundsCallsAndRejectsWhenQueueIsFull() throws Exception {
+        release = new CountDownLatch(1);
+        TicketScanGateway gateway = new TicketScanGateway(startPool(), 2, 3, 5000);
+        Results<TicketOuterClass.ValidateTicketResponse> results = new Results<>(10);
+        for (int i = 0; i < 10; i++) {
+            gateway.validate(validate("ticket-" + i), results);
+        }
+        assertEquals(2, gateway.getInFlight());
+        assertEquals(3, gateway.getQueued());
+        // let both calls reach the server before answering either
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (inFlight.get() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        results.await();
+
+        assertEquals(5, results.results.size());
+        assertEquals(5, results.errors.size());
+        for (Status status : results.errors) {
+            assertEquals(Status.Code.RESOURCE_EXHAUSTED, status.getCode());
+        }
+        assertEquals(5, gateway.getRejected());
+        assertEquals("expect at most 2 calls at the server", 2, maxInFlight.get());
+    }
+
+    @Test
+    public void scansFailAfterDeadline() throws Exception {
+        latencyMicros = 300_000;
+        TicketScanGateway gateway = new TicketScanGateway(startPool(), 1, 10, 100);
+        Results<CommonObjects.Id> results = new Results<>(3);
+        for (int i = 0; i < 3; i++) {
+            gateway.redeem(redeem("ticket-" + i), results);
+        }
+        results.await();
+
+        assertEquals(3, results.errors.size());
+        for (Status status : results.errors) {
+            assertEquals(Status.Code.DEADLINE_EXCEEDED, status.getCode());
+        }
+        assertEquals("expect only the first scan to be sent", 1, gateway.getSent());
+        assertEquals("expect the queued scans to expire without being sent", 2, gateway.getExpired());
+        assertTrue("expect the deadline to be close to 100ms",
+                gateway.getLatency().snapshot().getMaxNanos() < TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    // Load generator: gate readers submitting scans as fast as the gateway answers them, each reader keeping a few
+    // scans outstanding
+    @Test
+    public void reportsLatencyUnderLoad() throws Exception {
+        latencyMicros = 500;
+        int readers = 16;
+        int scansPerReader = 2_000;
+        int outstandingPerReader = 4;
+        TicketScanGateway gateway = new TicketScanGateway(startPool(), 64, 10_000, 5000);
+        AtomicInteger errors = new AtomicInteger();
+        AtomicReference<Status> lastError = new AtomicReference<>();
+
+        ExecutorService gates = Executors.newFixedThreadPool(readers);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                int reader = r;
+                runs.add(gates.submit(() -> {
+                    Semaphore outstanding = new Semaphore(outstandingPerReader);
+                    TicketScanGateway.Callback<CommonObjects.Id> callback =
+                            new TicketScanGateway.Callback<CommonObjects.Id>() {
+                                @Override
+                                public void onResult(CommonObjects.Id result) {
+                                    outstanding.release();
+                                }
+
+                                @Override
+                                public void onError(Status status) {
+                                    errors.incrementAndGet();
+                                    lastError.set(status);
+                                    outstanding.release();
+                                }
+                            };
+                    for (int i = 0; i < scansPerReader; i++) {
+                        outstanding.acquireUninterruptibly();
+                        gateway.redeem(redeem("gate-" + reader + "-ticket-" + i), callback);
+                    }
+                    outstanding.acquireUninterruptibly(outstandingPerReader);
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            gates.shutdownNow();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        LatencyHistogram.Snapshot latency = gateway.getLatency().snapshot();
+        long scans = (long) readers * scansPerReader;
+        System.out.println(String.format("%d scans in %dms (%.0f scans/s), p50=%dus p99=%dus p999=%dus max=%dus",
+                scans, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), scans * 1e9 / elapsedNanos,
+                TimeUnit.NANOSECONDS.toMicros(latency.percentile(0.5)),
+                TimeUnit.NANOSECONDS.toMicros(latency.percentile(0.99)),
+                TimeUnit.NANOSECONDS.toMicros(latency.percentile(0.999)),
+                TimeUnit.NANOSECONDS.toMicros(latency.getMaxNanos())));
+
+        assertEquals("expect no failed scans, last error " + lastError.get(), 0, errors.get());
+        assertEquals(scans, latency.getCount());
+        assertEquals(scans, gateway.getSent());
+        assertEquals(0, gateway.getInFlight());
+    }
+}